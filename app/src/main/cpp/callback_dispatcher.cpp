@@ -0,0 +1,217 @@
+#include "callback_dispatcher.hpp"
+#include "lock_free_queue.hpp"
+
+#include <android/log.h>
+
+#include <atomic>
+#include <condition_variable>
+#include <deque>
+#include <mutex>
+#include <utility>
+
+namespace
+{
+    void print_message(const char* message)
+    {
+        __android_log_print(ANDROID_LOG_ERROR, "OEP_ERROR ", "%s\n", message);
+    }
+
+    /* number of empty polls before the thread goes to sleep */
+    constexpr int spin_count = 64;
+} /* namespace */
+
+namespace bnb::oep
+{
+
+    struct callback_dispatcher::state
+    {
+        state(task_t frame_dropped_task, size_t capacity)
+            : frame_dropped_task(std::move(frame_dropped_task))
+            , queue(capacity)
+        {
+        }
+
+        JavaVM* jvm{nullptr};
+        jobject player{nullptr};
+
+        const task_t frame_dropped_task;
+        lock_free_queue<task_t> queue;
+        /* tasks of post_unbounded() which did not fit the queue, counted in pending too */
+        std::mutex overflow_mutex;
+        std::deque<task_t> overflow;
+        /* post_frame_dropped() calls not reported yet */
+        std::atomic<std::ptrdiff_t> dropped_frames{0};
+        /* post() fails once it is set */
+        std::atomic<bool> stop{false};
+        /* post() calls between the check of stop and the push, the destructor waits for them */
+        std::atomic<int> posting{0};
+        /* set when no task can be pushed anymore, the thread drains the queue and exits */
+        std::atomic<bool> exit{false};
+        std::atomic<bool> sleeping{false};
+        std::atomic<std::ptrdiff_t> pending{0};
+        std::mutex mutex;
+        std::condition_variable cv;
+    }; /* struct callback_dispatcher::state */
+
+    /* callback_dispatcher::callback_dispatcher CONSTRUCTOR */
+    callback_dispatcher::callback_dispatcher(JNIEnv* env, jobject player, task_t frame_dropped_task, size_t capacity)
+        : m_state(std::make_shared<state>(std::move(frame_dropped_task), capacity))
+    {
+        env->GetJavaVM(&m_state->jvm);
+        m_state->player = env->NewGlobalRef(player);
+        m_thread = std::thread(&callback_dispatcher::run, m_state);
+    }
+
+    /* callback_dispatcher::~callback_dispatcher */
+    callback_dispatcher::~callback_dispatcher()
+    {
+        auto& s = *m_state;
+        /* Sequentially consistent with posting in post(): either the post sees stop and fails,
+         * or it is counted here and its task is in the queue before the thread drains it for the last time */
+        s.stop = true;
+        while (s.posting.load() > 0) {
+            std::this_thread::yield();
+        }
+        {
+            std::lock_guard<std::mutex> lock(s.mutex);
+            s.exit = true;
+        }
+        s.cv.notify_one();
+        if (m_thread.get_id() == std::this_thread::get_id()) {
+            /* called from a task, the thread owns the state and exits when the task returns */
+            m_thread.detach();
+        } else if (m_thread.joinable()) {
+            m_thread.join();
+        }
+    }
+
+    /* callback_dispatcher::post */
+    bool callback_dispatcher::post(task_t task)
+    {
+        auto& s = *m_state;
+        s.posting.fetch_add(1);
+        if (s.stop || !s.queue.try_push(std::move(task))) {
+            s.posting.fetch_sub(1);
+            return false;
+        }
+        s.pending.fetch_add(1);
+        s.posting.fetch_sub(1);
+        wake();
+        return true;
+    }
+
+    /* callback_dispatcher::post_unbounded */
+    bool callback_dispatcher::post_unbounded(task_t task)
+    {
+        auto& s = *m_state;
+        s.posting.fetch_add(1);
+        if (s.stop) {
+            s.posting.fetch_sub(1);
+            return false;
+        }
+        /* try_push() consumes its argument also when it fails, the queue gets a copy */
+        if (!s.queue.try_push(task)) {
+            std::lock_guard<std::mutex> lock(s.overflow_mutex);
+            s.overflow.push_back(std::move(task));
+        }
+        s.pending.fetch_add(1);
+        s.posting.fetch_sub(1);
+        wake();
+        return true;
+    }
+
+    /* callback_dispatcher::post_frame_dropped */
+    bool callback_dispatcher::post_frame_dropped()
+    {
+        auto& s = *m_state;
+        s.posting.fetch_add(1);
+        if (s.stop) {
+            s.posting.fetch_sub(1);
+            return false;
+        }
+        s.dropped_frames.fetch_add(1);
+        s.posting.fetch_sub(1);
+        wake();
+        return true;
+    }
+
+    /* callback_dispatcher::wake */
+    void callback_dispatcher::wake()
+    {
+        auto& s = *m_state;
+        if (s.sleeping.load()) {
+            std::lock_guard<std::mutex> lock(s.mutex);
+            s.cv.notify_one();
+        }
+    }
+
+    /* callback_dispatcher::run */
+    void callback_dispatcher::run(std::shared_ptr<state> s)
+    {
+        JNIEnv* env = nullptr;
+        JavaVMAttachArgs args{JNI_VERSION_1_6, const_cast<char*>("OEP callbacks"), nullptr};
+        if (s->jvm->AttachCurrentThread(&env, &args) != JNI_OK) {
+            print_message("callback_dispatcher: Failed to attach");
+            return;
+        }
+
+        int empty_polls = 0;
+        while (!s->exit) {
+            if (s->pending.load() > 0 || s->dropped_frames.load() > 0) {
+                run_pending(*s, env);
+                empty_polls = 0;
+                continue;
+            }
+            if (++empty_polls < spin_count) {
+                std::this_thread::yield();
+                continue;
+            }
+            std::unique_lock<std::mutex> lock(s->mutex);
+            s->sleeping = true;
+            s->cv.wait(lock, [&s] { return s->pending.load() > 0 || s->dropped_frames.load() > 0 || s->exit; });
+            s->sleeping = false;
+            empty_polls = 0;
+        }
+        /* deliver what is left, e.g. input release callbacks posted while the OEP was being destroyed,
+         * nothing is pushed after exit */
+        run_pending(*s, env);
+
+        env->DeleteGlobalRef(s->player);
+        s->player = nullptr;
+        s->jvm->DetachCurrentThread();
+    }
+
+    /* callback_dispatcher::run_pending */
+    void callback_dispatcher::run_pending(state& s, JNIEnv* env)
+    {
+        task_t task;
+        while (s.queue.try_pop(task)) {
+            s.pending.fetch_sub(1);
+            run_task(s, env, task);
+            task = nullptr;
+        }
+        std::deque<task_t> overflow;
+        {
+            std::lock_guard<std::mutex> lock(s.overflow_mutex);
+            overflow.swap(s.overflow);
+        }
+        for (auto& overflow_task : overflow) {
+            s.pending.fetch_sub(1);
+            run_task(s, env, overflow_task);
+        }
+        for (auto dropped = s.dropped_frames.exchange(0); dropped > 0; --dropped) {
+            run_task(s, env, s.frame_dropped_task);
+        }
+    }
+
+    /* callback_dispatcher::run_task */
+    void callback_dispatcher::run_task(state& s, JNIEnv* env, const task_t& task)
+    {
+        task(env, s.player);
+        if (env->ExceptionCheck()) {
+            env->ExceptionDescribe();
+            env->ExceptionClear();
+        }
+    }
+
+} /* namespace bnb::oep */
@@ -0,0 +1,63 @@
+#pragma once
+
+#include <jni.h>
+
+#include <functional>
+#include <memory>
+#include <thread>
+
+namespace bnb::oep
+{
+
+    /* Delivers results of one OffscreenEffectPlayer to java on a single long-lived thread.
+     * The thread is attached to the JVM once and the dispatcher holds one global reference to the java player
+     * for its whole lifetime, so the OEP threads never attach/detach or create references per frame. */
+    class callback_dispatcher
+    {
+    public:
+        using task_t = std::function<void(JNIEnv* env, jobject player)>;
+
+        static constexpr size_t default_capacity = 64;
+
+        /* frame_dropped_task is run by post_frame_dropped() */
+        callback_dispatcher(JNIEnv* env, jobject player, task_t frame_dropped_task, size_t capacity = default_capacity);
+
+        /* Stops accepting tasks, waits for the post() calls in progress, runs every task which is in the queue,
+         * then stops the thread and releases the player reference. When it is called from a task
+         * (e.g. the player is destroyed in one of its callbacks) the thread can not join itself, it is detached
+         * instead: it returns from the task, runs the rest of the queue and exits on its own. */
+        ~callback_dispatcher();
+
+        callback_dispatcher(const callback_dispatcher&) = delete;
+        callback_dispatcher& operator=(const callback_dispatcher&) = delete;
+
+        /* Can be called from any thread. Returns false when the queue is full or the dispatcher is stopping,
+         * the task is not run in this case. */
+        bool post(task_t task);
+
+        /* Can be called from any thread. Like post(), but when the queue is full the task waits in an overflow list
+         * taken under a lock instead of being dropped. For rare tasks which must not be lost, e.g. script results.
+         * Returns false only when the dispatcher is stopping. */
+        bool post_unbounded(task_t task);
+
+        /* Can be called from any thread. Runs frame_dropped_task once per call, like post() but without a place
+         * in the queue: the calls are counted and the task runs after the queued ones, so the notice of a dropped
+         * frame is not lost when the queue is full. Returns false only when the dispatcher is stopping. */
+        bool post_frame_dropped();
+
+    private:
+        /* everything the thread uses, owned by the thread too, so a detached thread outlives the dispatcher */
+        struct state;
+
+        static void run(std::shared_ptr<state> s);
+        static void run_pending(state& s, JNIEnv* env);
+        static void run_task(state& s, JNIEnv* env, const task_t& task);
+
+        void wake();
+
+    private:
+        std::shared_ptr<state> m_state;
+        std::thread m_thread;
+    }; /* class callback_dispatcher */
+
+} /* namespace bnb::oep */
@@ -1,7 +1,10 @@
 #include "effect_player.hpp"
+#include "frame_trace.hpp"
+#include "slab_pool.hpp"
 
 #include <android/log.h>
 
+#include <memory>
 #include <thread>
 #include <optional>
 #include <iostream>
@@ -26,15 +29,16 @@ namespace
 
     using planes_holder_t = std::array<bnb::oep::interfaces::pixel_buffer::plane_sptr, 3>;
 
+    /* the holders are taken from the pool, one per frame */
     auto planes_holder(pixel_buffer_sptr image) {
-        auto holder = new planes_holder_t;
+        auto holder = bnb::oep::slab_pool::instance().create<planes_holder_t>();
         for (int i = 0; i < image->get_plane_count(); ++i) {
             holder->at(i) = image->get_base_sptr_of_plane(i);
         }
         return holder;
     }
     void planes_holder_release(void* holder) {
-        delete reinterpret_cast<planes_holder_t*>(holder);
+        bnb::oep::slab_pool::instance().destroy(reinterpret_cast<planes_holder_t*>(holder));
     }
 }
 
@@ -111,12 +115,23 @@ namespace bnb::oep
     /* effect_player::load_effect */
     bool effect_player::load_effect(const std::string& effect)
     {
+        bool loaded = false;
         if (auto e_manager = bnb_effect_player_get_effect_manager(m_ep, nullptr)) {
-            bnb_effect_manager_load_effect(e_manager, effect.c_str(), nullptr);
-            return true;
+            bnb_error* error{nullptr};
+            bnb_effect_manager_load_effect(e_manager, effect.c_str(), &error);
+            if (error) {
+                print_message(bnb_error_get_message(error));
+                bnb_error_destroy(error);
+            } else {
+                loaded = true;
+            }
+        } else {
+            print_message("effect manager not initialized");
+        }
+        if (m_effect_loaded) {
+            m_effect_loaded(effect, loaded);
         }
-        print_message("effect manager not initialized");
-        return false;
+        return loaded;
     }
 
     /* effect_player::call_js_method */
@@ -139,7 +154,33 @@ namespace bnb::oep
     /* effect_player::eval_js */
     void effect_player::eval_js(const std::string& script, oep_eval_js_result_cb result_callback)
     {
-        // Not implemented
+        /* the result callback is always called once, with an empty result when the script could not run */
+        auto effect = [this]() -> effect_holder_t* {
+            auto e_manager = bnb_effect_player_get_effect_manager(m_ep, nullptr);
+            return e_manager != nullptr ? bnb_effect_manager_get_current_effect(e_manager, nullptr) : nullptr;
+        }();
+        if (effect == nullptr) {
+            print_message("eval_js: effect not loaded");
+            if (result_callback) {
+                result_callback("");
+            }
+            return;
+        }
+        auto callback = result_callback ? new oep_eval_js_result_cb(std::move(result_callback)) : nullptr;
+        auto on_result = [](const char* result, void* user_data) {
+            std::unique_ptr<oep_eval_js_result_cb> callback(static_cast<oep_eval_js_result_cb*>(user_data));
+            if (callback) {
+                (*callback)(result != nullptr ? result : "");
+            }
+        };
+        bnb_error* error{nullptr};
+        bnb_effect_eval_js(effect, script.c_str(), on_result, callback, &error);
+        if (error) {
+            print_message(bnb_error_get_message(error));
+            bnb_error_destroy(error);
+            /* the SDK does not call back after an error */
+            on_result(nullptr, callback);
+        }
     }
 
     /* effect_player::pause */
@@ -157,6 +198,10 @@ namespace bnb::oep
     /* effect_player::push_frame */
     void effect_player::push_frame(pixel_buffer_sptr image, bnb::oep::interfaces::rotation image_orientation, bool require_mirroring)
     {
+        frame_trace::scoped_section trace_section("OEP effect_player::push_frame");
+        if (m_metrics) {
+            m_metrics->mark_push();
+        }
         full_image_holder_t* bnb_image{nullptr};
         bnb_error* error{nullptr};
         bnb_yuv_color_range_t range;
@@ -264,6 +309,15 @@ namespace bnb::oep
     /* effect_player::draw */
     int64_t effect_player::draw()
     {
+        frame_trace::scoped_section trace_section("OEP effect_player::draw");
+        if (m_js_commands && !m_js_commands->empty()) {
+            frame_trace::scoped_section js_section("OEP js commands");
+            m_js_commands->apply(
+                [this](const std::string& method, const std::string& param) { call_js_method(method, param); },
+                [this](const std::string& script, js_command_queue::eval_result_cb result_callback) {
+                    eval_js(script, std::move(result_callback));
+                });
+        }
         bnb_error* error{nullptr};
         int64_t ret = -1;
 
@@ -280,6 +334,10 @@ namespace bnb::oep
 
         check_error(error);
 
+        if (m_metrics && ret >= 0) {
+            m_metrics->mark_draw();
+        }
+
         return ret;
     }
 
@@ -334,4 +392,22 @@ namespace bnb::oep
         bnb_effect_player_playback_stop(m_ep, nullptr);
     }
 
+    /* effect_player::set_metrics */
+    void effect_player::set_metrics(std::shared_ptr<frame_metrics> metrics)
+    {
+        m_metrics = std::move(metrics);
+    }
+
+    /* effect_player::set_js_commands */
+    void effect_player::set_js_commands(std::shared_ptr<js_command_queue> commands)
+    {
+        m_js_commands = std::move(commands);
+    }
+
+    /* effect_player::set_effect_loaded_callback */
+    void effect_player::set_effect_loaded_callback(effect_loaded_cb callback)
+    {
+        m_effect_loaded = std::move(callback);
+    }
+
 } /* namespace bnb::oep */
@@ -1,10 +1,16 @@
 #pragma once
 
+#include "frame_metrics.hpp"
+#include "js_command_queue.hpp"
+
 #include <interfaces/effect_player.hpp>
 #include <bnb/common_types.h>
 #include <bnb/effect_player.h>
 #include <bnb/utility_manager.h>
 
+#include <functional>
+#include <string>
+
 namespace bnb::oep
 {
 
@@ -37,6 +43,16 @@ namespace bnb::oep
 
         void stop() override;
 
+        /* push_frame and draw are marked in the metrics, must be set before the frames are pushed */
+        void set_metrics(std::shared_ptr<frame_metrics> metrics);
+
+        /* the queued JS commands are applied at the beginning of every draw, must be set before the frames are pushed */
+        void set_js_commands(std::shared_ptr<js_command_queue> commands);
+
+        /* called on the thread of load_effect when the effect is loaded, or failed to load */
+        using effect_loaded_cb = std::function<void(const std::string& effect, bool loaded)>;
+        void set_effect_loaded_callback(effect_loaded_cb callback);
+
     private:
         bnb_image_format_t make_bnb_image_format(pixel_buffer_sptr image, interfaces::rotation orientation, bool require_mirroring);
         bnb_pixel_format_t make_bnb_pixel_format(pixel_buffer_sptr image);
@@ -44,6 +60,9 @@ namespace bnb::oep
     private:
         effect_player_holder_t* m_ep {nullptr};
         frame_processor_t* m_fp {nullptr};
+        std::shared_ptr<frame_metrics> m_metrics {nullptr};
+        std::shared_ptr<js_command_queue> m_js_commands {nullptr};
+        effect_loaded_cb m_effect_loaded {nullptr};
     }; /* class effect_player */
 
 } /* namespace bnb::oep */
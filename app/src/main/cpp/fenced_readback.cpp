@@ -0,0 +1,319 @@
+#include "fenced_readback.hpp"
+#include "frame_converter.hpp"
+#include "frame_trace.hpp"
+#include "slab_pool.hpp"
+
+#include <android/log.h>
+
+#include <algorithm>
+#include <cstring>
+
+namespace
+{
+    void print_message(const char* message)
+    {
+        __android_log_print(ANDROID_LOG_ERROR, "OEP_ERROR ", "%s\n", message);
+    }
+
+    using bnb::oep::frame_format;
+    using bnb::oep::frame_view;
+    using bnb::oep::interfaces::image_format;
+
+    /* a frame whose fence is not signaled in this time is dropped, the GPU is considered lost */
+    constexpr GLuint64 fence_timeout_ns = 1'000'000'000;
+
+    frame_format to_frame_format(image_format format)
+    {
+        switch (format) {
+            case image_format::nv12_bt601_full:
+                return frame_format::nv12;
+            case image_format::i420_bt601_full:
+                return frame_format::i420;
+            default:
+                return frame_format::rgba;
+        }
+    }
+
+    /* tightly packed planes of the format, view points to them */
+    pixel_buffer_sptr allocate_image(image_format format, int32_t width, int32_t height, frame_view& view)
+    {
+        using ns_pb = bnb::oep::interfaces::pixel_buffer;
+        namespace converter = bnb::oep::frame_converter;
+        view = frame_view{to_frame_format(format), width, height, {}};
+        std::vector<ns_pb::plane_data> planes;
+        for (int32_t i = 0; i < converter::plane_count(view.format); ++i) {
+            auto size = converter::plane_size(view.format, width, height, i);
+            auto stride = converter::plane_row_size(view.format, width, i);
+            ns_pb::plane_sptr data = bnb::oep::slab_pool::instance().make_buffer(size);
+            view.planes[i] = {data.get(), stride};
+            planes.push_back(ns_pb::plane_data{std::move(data), size, stride});
+        }
+        return ns_pb::create(planes, format, width, height, [](auto* pb) { delete pb; });
+    }
+} /* namespace */
+
+namespace bnb::oep
+{
+
+    /* deferred_framebuffers::add */
+    void deferred_framebuffers::add(GLuint framebuffer)
+    {
+        std::lock_guard<std::mutex> lock(m_mutex);
+        m_framebuffers.push_back(framebuffer);
+        m_empty.store(false, std::memory_order_release);
+    }
+
+    /* deferred_framebuffers::delete_all */
+    void deferred_framebuffers::delete_all()
+    {
+        if (m_empty.load(std::memory_order_acquire)) {
+            return;
+        }
+        std::lock_guard<std::mutex> lock(m_mutex);
+        glDeleteFramebuffers(static_cast<GLsizei>(m_framebuffers.size()), m_framebuffers.data());
+        m_framebuffers.clear();
+        m_empty.store(true, std::memory_order_release);
+    }
+
+    /* fenced_readback::fenced_readback CONSTRUCTOR */
+    fenced_readback::fenced_readback(size_t max_in_flight, std::shared_ptr<deferred_framebuffers> deferred)
+        : m_deferred(std::move(deferred))
+        , m_buffers(std::max<size_t>(max_in_flight, 1))
+    {
+    }
+
+    /* fenced_readback::~fenced_readback */
+    fenced_readback::~fenced_readback()
+    {
+        {
+            std::lock_guard<std::mutex> lock(m_mutex);
+            m_stop = true;
+        }
+        m_frame_pending.notify_all();
+        m_buffer_freed.notify_all();
+        if (m_worker.joinable()) {
+            m_worker.join();
+        }
+        if (m_framebuffer != 0) {
+            if (eglGetCurrentContext() == m_render_context) {
+                glDeleteFramebuffers(1, &m_framebuffer);
+            } else if (m_deferred != nullptr) {
+                m_deferred->add(m_framebuffer);
+            }
+        }
+    }
+
+    /* fenced_readback::read */
+    bool fenced_readback::read(GLuint texture, int32_t width, int32_t height, image_format format, image_callback callback)
+    {
+        if (!m_started && !start()) {
+            return false;
+        }
+        if (m_failed || texture == 0 || width <= 0 || height <= 0) {
+            return false;
+        }
+
+        size_t index = 0;
+        {
+            std::unique_lock<std::mutex> lock(m_mutex);
+            /* the worker frees the buffers in the order of the ring */
+            auto& next = m_buffers[m_next_buffer];
+            m_buffer_freed.wait(lock, [this, &next] { return m_stop || !next.busy; });
+            if (m_stop) {
+                return false;
+            }
+            next.busy = true;
+            index = m_next_buffer;
+            m_next_buffer = (m_next_buffer + 1) % m_buffers.size();
+        }
+
+        /* the state of the effect player is restored after the read */
+        GLint previous_framebuffer = 0;
+        GLint previous_pack_buffer = 0;
+        glGetIntegerv(GL_READ_FRAMEBUFFER_BINDING, &previous_framebuffer);
+        glGetIntegerv(GL_PIXEL_PACK_BUFFER_BINDING, &previous_pack_buffer);
+
+        glBindFramebuffer(GL_READ_FRAMEBUFFER, m_framebuffer);
+        glFramebufferTexture2D(GL_READ_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, texture, 0);
+        bool complete = glCheckFramebufferStatus(GL_READ_FRAMEBUFFER) == GL_FRAMEBUFFER_COMPLETE;
+        if (complete) {
+            auto& buffer = m_buffers[index];
+            auto size = static_cast<GLsizeiptr>(width) * height * 4;
+            glBindBuffer(GL_PIXEL_PACK_BUFFER, buffer.name);
+            if (buffer.size != size) {
+                glBufferData(GL_PIXEL_PACK_BUFFER, size, nullptr, GL_STREAM_READ);
+                buffer.size = size;
+            }
+            /* with a pack buffer bound the call only queues the copy, the last argument is an offset in the buffer */
+            glReadPixels(0, 0, width, height, GL_RGBA, GL_UNSIGNED_BYTE, nullptr);
+            glBindBuffer(GL_PIXEL_PACK_BUFFER, static_cast<GLuint>(previous_pack_buffer));
+        }
+        /* the texture is not kept alive by the attachment */
+        glFramebufferTexture2D(GL_READ_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, 0, 0);
+        glBindFramebuffer(GL_READ_FRAMEBUFFER, static_cast<GLuint>(previous_framebuffer));
+
+        if (!complete) {
+            print_message("fenced_readback: the texture can not be read");
+            {
+                std::lock_guard<std::mutex> lock(m_mutex);
+                m_buffers[index].busy = false;
+                m_next_buffer = index;
+            }
+            return false;
+        }
+
+        auto fence = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        /* the worker waits without GL_SYNC_FLUSH_COMMANDS_BIT, it would flush the worker context only */
+        glFlush();
+        {
+            std::lock_guard<std::mutex> lock(m_mutex);
+            m_pending.push_back(pending_frame{index, fence, width, height, format, std::move(callback)});
+        }
+        m_frame_pending.notify_one();
+        return true;
+    }
+
+    /* fenced_readback::start */
+    bool fenced_readback::start()
+    {
+        m_started = true;
+        m_failed = true;
+        m_display = eglGetCurrentDisplay();
+        m_render_context = eglGetCurrentContext();
+        if (m_display == EGL_NO_DISPLAY || m_render_context == EGL_NO_CONTEXT) {
+            print_message("fenced_readback: no current context");
+            return false;
+        }
+
+        /* the worker context shares the objects of the render context: the pack buffers and the fences */
+        EGLint config_id = 0;
+        eglQueryContext(m_display, m_render_context, EGL_CONFIG_ID, &config_id);
+        const EGLint config_attribs[] = {EGL_CONFIG_ID, config_id, EGL_NONE};
+        EGLConfig config{};
+        EGLint config_count = 0;
+        if (eglChooseConfig(m_display, config_attribs, &config, 1, &config_count) != EGL_TRUE || config_count == 0) {
+            print_message("fenced_readback: no config of the render context");
+            return false;
+        }
+        const EGLint context_attribs[] = {EGL_CONTEXT_CLIENT_VERSION, 3, EGL_NONE};
+        m_worker_context = eglCreateContext(m_display, config, m_render_context, context_attribs);
+        if (m_worker_context == EGL_NO_CONTEXT) {
+            print_message("fenced_readback: failed to create the worker context");
+            return false;
+        }
+        /* EGL_NO_SURFACE is used when the config has no pbuffers, it needs EGL_KHR_surfaceless_context */
+        const EGLint surface_attribs[] = {EGL_WIDTH, 1, EGL_HEIGHT, 1, EGL_NONE};
+        m_worker_surface = eglCreatePbufferSurface(m_display, config, surface_attribs);
+
+        glGenFramebuffers(1, &m_framebuffer);
+        for (auto& buffer : m_buffers) {
+            glGenBuffers(1, &buffer.name);
+        }
+        m_failed = false;
+        m_worker = std::thread(&fenced_readback::run, this);
+        return true;
+    }
+
+    /* fenced_readback::run */
+    void fenced_readback::run()
+    {
+        bool current = eglMakeCurrent(m_display, m_worker_surface, m_worker_surface, m_worker_context) == EGL_TRUE;
+        if (!current) {
+            print_message("fenced_readback: failed to activate the worker context, the frames are dropped");
+        }
+
+        for (;;) {
+            pending_frame frame;
+            {
+                std::unique_lock<std::mutex> lock(m_mutex);
+                m_frame_pending.wait(lock, [this] { return m_stop || !m_pending.empty(); });
+                /* the frames in flight are completed before the worker stops */
+                if (m_pending.empty()) {
+                    break;
+                }
+                frame = std::move(m_pending.front());
+                m_pending.pop_front();
+            }
+
+            pixel_buffer_sptr image{nullptr};
+            if (current) {
+                bnb::oep::frame_trace::scoped_section trace_section("OEP readback wait and map");
+                auto status = glClientWaitSync(frame.fence, 0, fence_timeout_ns);
+                if (status == GL_ALREADY_SIGNALED || status == GL_CONDITION_SATISFIED) {
+                    image = map_image(frame);
+                }
+                glDeleteSync(frame.fence);
+                /* the unmap is complete before the render thread reads into the buffer again */
+                glFinish();
+            }
+            {
+                std::lock_guard<std::mutex> lock(m_mutex);
+                m_buffers[frame.buffer].busy = false;
+            }
+            m_buffer_freed.notify_one();
+            frame.callback(image);
+        }
+
+        if (current) {
+            release_worker_objects();
+        }
+    }
+
+    /* fenced_readback::map_image */
+    pixel_buffer_sptr fenced_readback::map_image(const pending_frame& frame)
+    {
+        auto row_size = static_cast<size_t>(frame.width) * 4;
+        auto size = row_size * frame.height;
+        glBindBuffer(GL_PIXEL_PACK_BUFFER, m_buffers[frame.buffer].name);
+        auto mapped = static_cast<const uint8_t*>(glMapBufferRange(GL_PIXEL_PACK_BUFFER, 0, static_cast<GLsizeiptr>(size), GL_MAP_READ_BIT));
+        if (mapped == nullptr) {
+            glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+            print_message("fenced_readback: failed to map the pack buffer");
+            return nullptr;
+        }
+
+        /* RGBA goes straight into the image, the other formats are converted from the upright copy */
+        frame_view upright;
+        pixel_buffer_sptr image{nullptr};
+        if (frame.format == image_format::bpc8_rgba) {
+            image = allocate_image(frame.format, frame.width, frame.height, upright);
+        } else {
+            if (m_scratch.size() < size) {
+                m_scratch.resize(size);
+            }
+            upright = frame_converter::packed_view(frame_format::rgba, frame.width, frame.height, m_scratch.data());
+        }
+        /* GL rows go bottom up */
+        for (int32_t row = 0; row < frame.height; ++row) {
+            std::memcpy(upright.planes[0].data + static_cast<size_t>(row) * upright.planes[0].stride,
+                        mapped + static_cast<size_t>(frame.height - 1 - row) * row_size, row_size);
+        }
+        glUnmapBuffer(GL_PIXEL_PACK_BUFFER);
+        glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+
+        if (frame.format != image_format::bpc8_rgba) {
+            frame_view converted;
+            image = allocate_image(frame.format, frame.width, frame.height, converted);
+            if (!frame_converter::convert(upright, converted)) {
+                return nullptr;
+            }
+        }
+        return image;
+    }
+
+    /* fenced_readback::release_worker_objects */
+    void fenced_readback::release_worker_objects()
+    {
+        /* buffers are shared, they can be deleted in the worker context */
+        for (auto& buffer : m_buffers) {
+            glDeleteBuffers(1, &buffer.name);
+            buffer.name = 0;
+        }
+        eglMakeCurrent(m_display, EGL_NO_SURFACE, EGL_NO_SURFACE, EGL_NO_CONTEXT);
+        if (m_worker_surface != EGL_NO_SURFACE) {
+            eglDestroySurface(m_display, m_worker_surface);
+        }
+        eglDestroyContext(m_display, m_worker_context);
+    }
+
+} /* namespace bnb::oep */
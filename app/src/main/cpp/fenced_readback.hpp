@@ -0,0 +1,117 @@
+#pragma once
+
+#include <interfaces/image_format.hpp>
+#include <interfaces/pixel_buffer.hpp>
+
+#include <EGL/egl.h>
+#include <GLES3/gl3.h>
+
+#include <atomic>
+#include <condition_variable>
+#include <deque>
+#include <functional>
+#include <memory>
+#include <mutex>
+#include <thread>
+#include <vector>
+
+namespace bnb::oep
+{
+
+    /* Framebuffers of a render context released on other threads. A fenced_readback replaced from java is destroyed
+     * where its last reference goes, the render thread deletes its framebuffer with delete_all() later. */
+    class deferred_framebuffers
+    {
+    public:
+        /* can be called from any thread */
+        void add(GLuint framebuffer);
+
+        /* Called on the render thread with the render context current, does not lock when there is nothing to delete */
+        void delete_all();
+
+    private:
+        std::mutex m_mutex;
+        std::vector<GLuint> m_framebuffers;
+        std::atomic<bool> m_empty{true};
+    }; /* class deferred_framebuffers */
+
+    /* Asynchronous read back of rendered textures, replaces the synchronous image_processing_result::get_image.
+     * read() is called on the render thread right after the frame is drawn: it starts glReadPixels of the texture
+     * into the next pixel pack buffer of a ring, puts a fence after it and returns, so the copy of frame N runs on
+     * the GPU while frame N+1 is rendered. A worker thread with its own context, shared with the render context,
+     * waits for the fences in submission order, maps the buffer, converts the image to the requested format
+     * (upright, the texture is stored bottom-up) and calls the callback of the frame.
+     * At most max_in_flight frames are read back at once, read() waits for a free buffer beyond that. */
+    class fenced_readback
+    {
+    public:
+        using image_callback = std::function<void(pixel_buffer_sptr image)>;
+
+        /* deferred receives the framebuffer when the instance is destroyed on another thread than the render one */
+        fenced_readback(size_t max_in_flight, std::shared_ptr<deferred_framebuffers> deferred = nullptr);
+
+        /* Stops the worker once the frames in flight are delivered, so every read() gets its callback.
+         * The framebuffer belongs to the render context, it is deleted here when that context is current,
+         * otherwise it is handed to deferred. */
+        ~fenced_readback();
+
+        fenced_readback(const fenced_readback&) = delete;
+        fenced_readback& operator=(const fenced_readback&) = delete;
+
+        /* Called on the render thread with the render context current. Returns false when the read back
+         * can not be started (the caller falls back to get_image), the callback is not called then.
+         * The callback is called on the worker thread, with nullptr when the image could not be read. */
+        bool read(GLuint texture, int32_t width, int32_t height, bnb::oep::interfaces::image_format format, image_callback callback);
+
+        size_t max_in_flight() const
+        {
+            return m_buffers.size();
+        }
+
+    private:
+        struct pending_frame
+        {
+            size_t buffer{0};
+            GLsync fence{nullptr};
+            int32_t width{0};
+            int32_t height{0};
+            bnb::oep::interfaces::image_format format{bnb::oep::interfaces::image_format::bpc8_rgba};
+            image_callback callback;
+        }; /* struct pending_frame */
+
+        struct pack_buffer
+        {
+            GLuint name{0};
+            GLsizeiptr size{0};
+            bool busy{false};
+        }; /* struct pack_buffer */
+
+        bool start();
+        void run();
+        pixel_buffer_sptr map_image(const pending_frame& frame);
+        void release_worker_objects();
+
+    private:
+        EGLDisplay m_display{EGL_NO_DISPLAY};
+        EGLContext m_render_context{EGL_NO_CONTEXT};
+        EGLContext m_worker_context{EGL_NO_CONTEXT};
+        EGLSurface m_worker_surface{EGL_NO_SURFACE};
+        /* render context only */
+        GLuint m_framebuffer{0};
+        std::shared_ptr<deferred_framebuffers> m_deferred;
+        bool m_started{false};
+        bool m_failed{false};
+        size_t m_next_buffer{0};
+
+        std::mutex m_mutex;
+        std::condition_variable m_buffer_freed;
+        std::condition_variable m_frame_pending;
+        std::vector<pack_buffer> m_buffers;
+        std::deque<pending_frame> m_pending;
+        bool m_stop{false};
+        std::thread m_worker;
+        /* worker only */
+        std::vector<uint8_t> m_scratch;
+    }; /* class fenced_readback */
+
+} /* namespace bnb::oep */
@@ -0,0 +1,327 @@
+#include "frame_converter.hpp"
+
+#include <libyuv.h>
+
+#include <utility>
+#include <vector>
+
+namespace
+{
+    using bnb::oep::frame_format;
+    using bnb::oep::frame_view;
+
+    int32_t half(int32_t value)
+    {
+        return (value + 1) / 2;
+    }
+
+    bool is_valid(const frame_view& view)
+    {
+        if (view.width <= 0 || view.height <= 0) {
+            return false;
+        }
+        for (int32_t i = 0; i < bnb::oep::frame_converter::plane_count(view.format); ++i) {
+            if (view.planes[i].data == nullptr || view.planes[i].stride < bnb::oep::frame_converter::plane_row_size(view.format, view.width, i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    libyuv::RotationMode rotation_mode(int32_t rotation)
+    {
+        switch (rotation) {
+            case 90:
+                return libyuv::kRotate90;
+            case 180:
+                return libyuv::kRotate180;
+            case 270:
+                return libyuv::kRotate270;
+            default:
+                return libyuv::kRotate0;
+        }
+    }
+
+    /* intermediate image, the memory is kept by the thread between the calls */
+    class scratch_frame
+    {
+    public:
+        frame_view view(frame_format format, int32_t width, int32_t height)
+        {
+            size_t size = 0;
+            for (int32_t i = 0; i < bnb::oep::frame_converter::plane_count(format); ++i) {
+                size += bnb::oep::frame_converter::plane_size(format, width, height, i);
+            }
+            if (m_data.size() < size) {
+                m_data.resize(size);
+            }
+            return bnb::oep::frame_converter::packed_view(format, width, height, m_data.data());
+        }
+
+    private:
+        std::vector<uint8_t> m_data;
+    }; /* class scratch_frame */
+
+    thread_local scratch_frame scratch_first;
+    thread_local scratch_frame scratch_second;
+
+    /* conversion without rotation, src and dst have the same size */
+    bool convert_plain(const frame_view& src, const frame_view& dst)
+    {
+        auto& s = src.planes;
+        auto& d = dst.planes;
+        auto w = src.width;
+        auto h = src.height;
+
+        if (src.format == dst.format) {
+            for (int32_t i = 0; i < bnb::oep::frame_converter::plane_count(src.format); ++i) {
+                libyuv::CopyPlane(s[i].data, s[i].stride, d[i].data, d[i].stride,
+                                  bnb::oep::frame_converter::plane_row_size(src.format, w, i),
+                                  bnb::oep::frame_converter::plane_rows(src.format, h, i));
+            }
+            return true;
+        }
+
+        switch (src.format) {
+            case frame_format::i420:
+                switch (dst.format) {
+                    case frame_format::nv12:
+                        return libyuv::I420ToNV12(s[0].data, s[0].stride, s[1].data, s[1].stride, s[2].data, s[2].stride,
+                                                  d[0].data, d[0].stride, d[1].data, d[1].stride, w, h) == 0;
+                    case frame_format::nv21:
+                        return libyuv::I420ToNV21(s[0].data, s[0].stride, s[1].data, s[1].stride, s[2].data, s[2].stride,
+                                                  d[0].data, d[0].stride, d[1].data, d[1].stride, w, h) == 0;
+                    case frame_format::rgba:
+                        /* libyuv names formats by the order in a little endian word, its ABGR is RGBA in memory */
+                        return libyuv::I420ToABGR(s[0].data, s[0].stride, s[1].data, s[1].stride, s[2].data, s[2].stride,
+                                                  d[0].data, d[0].stride, w, h) == 0;
+                    default:
+                        return false;
+                }
+            case frame_format::nv12:
+                switch (dst.format) {
+                    case frame_format::i420:
+                        return libyuv::NV12ToI420(s[0].data, s[0].stride, s[1].data, s[1].stride,
+                                                  d[0].data, d[0].stride, d[1].data, d[1].stride, d[2].data, d[2].stride, w, h) == 0;
+                    case frame_format::rgba:
+                        return libyuv::NV12ToABGR(s[0].data, s[0].stride, s[1].data, s[1].stride, d[0].data, d[0].stride, w, h) == 0;
+                    default:
+                        break;
+                }
+                break;
+            case frame_format::nv21:
+                switch (dst.format) {
+                    case frame_format::i420:
+                        return libyuv::NV21ToI420(s[0].data, s[0].stride, s[1].data, s[1].stride,
+                                                  d[0].data, d[0].stride, d[1].data, d[1].stride, d[2].data, d[2].stride, w, h) == 0;
+                    case frame_format::rgba:
+                        return libyuv::NV21ToABGR(s[0].data, s[0].stride, s[1].data, s[1].stride, d[0].data, d[0].stride, w, h) == 0;
+                    default:
+                        break;
+                }
+                break;
+            case frame_format::rgba:
+                switch (dst.format) {
+                    case frame_format::i420:
+                        return libyuv::ABGRToI420(s[0].data, s[0].stride, d[0].data, d[0].stride,
+                                                  d[1].data, d[1].stride, d[2].data, d[2].stride, w, h) == 0;
+                    case frame_format::nv12:
+                        return libyuv::ABGRToNV12(s[0].data, s[0].stride, d[0].data, d[0].stride, d[1].data, d[1].stride, w, h) == 0;
+                    default:
+                        break;
+                }
+                break;
+        }
+
+        /* no direct function (NV12 <-> NV21, RGBA -> NV21), go through I420 */
+        auto tmp = scratch_first.view(frame_format::i420, w, h);
+        return convert_plain(src, tmp) && convert_plain(tmp, dst);
+    }
+
+    /* rotation of src into the I420 image dst */
+    bool rotate_to_i420(const frame_view& src, const frame_view& dst, libyuv::RotationMode mode)
+    {
+        auto& s = src.planes;
+        auto& d = dst.planes;
+        switch (src.format) {
+            case frame_format::i420:
+                return libyuv::I420Rotate(s[0].data, s[0].stride, s[1].data, s[1].stride, s[2].data, s[2].stride,
+                                          d[0].data, d[0].stride, d[1].data, d[1].stride, d[2].data, d[2].stride,
+                                          src.width, src.height, mode) == 0;
+            case frame_format::nv12:
+            case frame_format::nv21: {
+                /* NV21 is NV12 with swapped chroma, so the U and V destinations are swapped */
+                auto u = d[1];
+                auto v = d[2];
+                if (src.format == frame_format::nv21) {
+                    std::swap(u, v);
+                }
+                return libyuv::NV12ToI420Rotate(s[0].data, s[0].stride, s[1].data, s[1].stride,
+                                                d[0].data, d[0].stride, u.data, u.stride, v.data, v.stride,
+                                                src.width, src.height, mode) == 0;
+            }
+            case frame_format::rgba: {
+                auto tmp = scratch_second.view(frame_format::i420, src.width, src.height);
+                return convert_plain(src, tmp) && rotate_to_i420(tmp, dst, mode);
+            }
+        }
+        return false;
+    }
+} /* namespace */
+
+namespace bnb::oep::frame_converter
+{
+
+    /* frame_converter::plane_count */
+    int32_t plane_count(frame_format format)
+    {
+        switch (format) {
+            case frame_format::rgba:
+                return 1;
+            case frame_format::nv12:
+            case frame_format::nv21:
+                return 2;
+            case frame_format::i420:
+                return 3;
+        }
+        return 0;
+    }
+
+    /* frame_converter::plane_row_size */
+    int32_t plane_row_size(frame_format format, int32_t width, int32_t plane)
+    {
+        if (plane >= plane_count(format)) {
+            return 0;
+        }
+        switch (format) {
+            case frame_format::rgba:
+                return width * 4;
+            case frame_format::nv12:
+            case frame_format::nv21:
+                return plane == 0 ? width : half(width) * 2;
+            case frame_format::i420:
+                return plane == 0 ? width : half(width);
+        }
+        return 0;
+    }
+
+    /* frame_converter::plane_rows */
+    int32_t plane_rows(frame_format format, int32_t height, int32_t plane)
+    {
+        if (plane >= plane_count(format)) {
+            return 0;
+        }
+        return plane == 0 ? height : half(height);
+    }
+
+    /* frame_converter::plane_size */
+    size_t plane_size(frame_format format, int32_t width, int32_t height, int32_t plane)
+    {
+        return static_cast<size_t>(plane_row_size(format, width, plane)) * plane_rows(format, height, plane);
+    }
+
+    /* frame_converter::packed_view */
+    frame_view packed_view(frame_format format, int32_t width, int32_t height, uint8_t* data)
+    {
+        frame_view view{format, width, height, {}};
+        for (int32_t i = 0; i < plane_count(format); ++i) {
+            view.planes[i] = {data, plane_row_size(format, width, i)};
+            data += plane_size(format, width, height, i);
+        }
+        return view;
+    }
+
+    /* frame_converter::convert */
+    bool convert(const frame_view& src, const frame_view& dst, int32_t rotation, bool mirror)
+    {
+        if (rotation != 0 && rotation != 90 && rotation != 180 && rotation != 270) {
+            return false;
+        }
+        bool swap_sides = rotation == 90 || rotation == 270;
+        auto width = swap_sides ? src.height : src.width;
+        auto height = swap_sides ? src.width : src.height;
+        if (!is_valid(src) || !is_valid(dst) || dst.width != width || dst.height != height) {
+            return false;
+        }
+
+        if (rotation == 0 && !mirror) {
+            return convert_plain(src, dst);
+        }
+
+        auto& d = dst.planes;
+        if (src.format == frame_format::rgba && dst.format == frame_format::rgba) {
+            if (rotation == 0) {
+                return libyuv::ARGBMirror(src.planes[0].data, src.planes[0].stride, d[0].data, d[0].stride, width, height) == 0;
+            }
+            auto rotated = mirror ? scratch_first.view(frame_format::rgba, width, height) : dst;
+            if (libyuv::ARGBRotate(src.planes[0].data, src.planes[0].stride, rotated.planes[0].data, rotated.planes[0].stride,
+                                   src.width, src.height, rotation_mode(rotation)) != 0) {
+                return false;
+            }
+            return !mirror || libyuv::ARGBMirror(rotated.planes[0].data, rotated.planes[0].stride, d[0].data, d[0].stride, width, height) == 0;
+        }
+
+        /* the other combinations are transformed as I420 */
+        auto rotated = scratch_first.view(frame_format::i420, width, height);
+        if (!rotate_to_i420(src, rotated, rotation_mode(rotation))) {
+            return false;
+        }
+        if (mirror) {
+            auto mirrored = dst.format == frame_format::i420 ? dst : scratch_second.view(frame_format::i420, width, height);
+            auto& r = rotated.planes;
+            auto& m = mirrored.planes;
+            if (libyuv::I420Mirror(r[0].data, r[0].stride, r[1].data, r[1].stride, r[2].data, r[2].stride,
+                                   m[0].data, m[0].stride, m[1].data, m[1].stride, m[2].data, m[2].stride, width, height) != 0) {
+                return false;
+            }
+            return dst.format == frame_format::i420 || convert_plain(mirrored, dst);
+        }
+        return convert_plain(rotated, dst);
+    }
+
+    /* frame_converter::scale */
+    bool scale(const frame_view& src, const frame_view& dst)
+    {
+        if (src.format != dst.format || !is_valid(src) || !is_valid(dst)) {
+            return false;
+        }
+        auto& s = src.planes;
+        auto& d = dst.planes;
+        switch (src.format) {
+            case frame_format::rgba:
+                return libyuv::ARGBScale(s[0].data, s[0].stride, src.width, src.height,
+                                         d[0].data, d[0].stride, dst.width, dst.height, libyuv::kFilterBilinear) == 0;
+            case frame_format::nv12:
+            case frame_format::nv21:
+                /* the order of the chroma samples does not matter for scaling */
+                return libyuv::NV12Scale(s[0].data, s[0].stride, s[1].data, s[1].stride, src.width, src.height,
+                                         d[0].data, d[0].stride, d[1].data, d[1].stride, dst.width, dst.height, libyuv::kFilterBilinear) == 0;
+            case frame_format::i420:
+                return libyuv::I420Scale(s[0].data, s[0].stride, s[1].data, s[1].stride, s[2].data, s[2].stride, src.width, src.height,
+                                         d[0].data, d[0].stride, d[1].data, d[1].stride, d[2].data, d[2].stride, dst.width, dst.height,
+                                         libyuv::kFilterBilinear) == 0;
+        }
+        return false;
+    }
+
+    /* frame_converter::copy_plane */
+    void copy_plane(const uint8_t* src, int32_t src_stride, uint8_t* dst, int32_t dst_stride, int32_t row_size, int32_t rows)
+    {
+        libyuv::CopyPlane(src, src_stride, dst, dst_stride, row_size, rows);
+    }
+
+    /* frame_converter::split_uv */
+    void split_uv(const uint8_t* src_uv, int32_t src_stride, uint8_t* dst_u, int32_t dst_u_stride,
+                  uint8_t* dst_v, int32_t dst_v_stride, int32_t width, int32_t height)
+    {
+        libyuv::SplitUVPlane(src_uv, src_stride, dst_u, dst_u_stride, dst_v, dst_v_stride, width, height);
+    }
+
+    /* frame_converter::merge_uv */
+    void merge_uv(const uint8_t* src_u, int32_t src_u_stride, const uint8_t* src_v, int32_t src_v_stride,
+                  uint8_t* dst_uv, int32_t dst_stride, int32_t width, int32_t height)
+    {
+        libyuv::MergeUVPlane(src_u, src_u_stride, src_v, src_v_stride, dst_uv, dst_stride, width, height);
+    }
+
+} /* namespace bnb::oep::frame_converter */
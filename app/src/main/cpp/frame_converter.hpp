@@ -0,0 +1,67 @@
+#pragma once
+
+#include <array>
+#include <cstddef>
+#include <cstdint>
+
+namespace bnb::oep
+{
+
+    enum class frame_format : int32_t
+    {
+        rgba = 0,
+        nv12 = 1,
+        i420 = 2,
+        nv21 = 3
+    }; /* enum class frame_format */
+
+    struct frame_plane
+    {
+        uint8_t* data{nullptr};
+        int32_t stride{0};
+    }; /* struct frame_plane */
+
+    /* Image in memory which is not owned by the view. RGBA has one plane, NV12/NV21 have Y and interleaved
+     * UV (VU) planes, I420 has Y, U and V planes. Chroma planes have half width and height, rounded up. */
+    struct frame_view
+    {
+        frame_format format{frame_format::rgba};
+        int32_t width{0};
+        int32_t height{0};
+        std::array<frame_plane, 3> planes{};
+    }; /* struct frame_view */
+
+    /* Color conversion, deinterleaving, rotation, mirroring and scaling of frames.
+     * Every function runs on libyuv, which picks its NEON (or SSE/AVX on x86) row functions at runtime. */
+    namespace frame_converter
+    {
+        int32_t plane_count(frame_format format);
+
+        /* bytes of one row and number of rows of the tightly packed plane */
+        int32_t plane_row_size(frame_format format, int32_t width, int32_t plane);
+        int32_t plane_rows(frame_format format, int32_t height, int32_t plane);
+        size_t plane_size(frame_format format, int32_t width, int32_t height, int32_t plane);
+
+        /* tightly packed view of the planes stored one after another in data */
+        frame_view packed_view(frame_format format, int32_t width, int32_t height, uint8_t* data);
+
+        /* Converts src into dst, which can have another format. The size of dst must be the size of src,
+         * rotated by rotation (0, 90, 180 or 270 degrees clockwise). The image is mirrored horizontally
+         * after the rotation when mirror is set. Returns false when the arguments are not valid. */
+        bool convert(const frame_view& src, const frame_view& dst, int32_t rotation = 0, bool mirror = false);
+
+        /* Resizes src into dst of the same format with bilinear filtering, the sizes may differ in any direction.
+         * Returns false when the formats differ or the views are not valid. */
+        bool scale(const frame_view& src, const frame_view& dst);
+
+        void copy_plane(const uint8_t* src, int32_t src_stride, uint8_t* dst, int32_t dst_stride, int32_t row_size, int32_t rows);
+
+        /* splits the interleaved UV plane, width is the number of UV pairs in a row */
+        void split_uv(const uint8_t* src_uv, int32_t src_stride, uint8_t* dst_u, int32_t dst_u_stride,
+                      uint8_t* dst_v, int32_t dst_v_stride, int32_t width, int32_t height);
+
+        void merge_uv(const uint8_t* src_u, int32_t src_u_stride, const uint8_t* src_v, int32_t src_v_stride,
+                      uint8_t* dst_uv, int32_t dst_stride, int32_t width, int32_t height);
+    } /* namespace frame_converter */
+
+} /* namespace bnb::oep */
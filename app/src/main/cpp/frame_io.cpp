@@ -0,0 +1,240 @@
+#include "frame_io.hpp"
+
+#include <cstdio>
+#include <cstdlib>
+#include <cstring>
+#include <string>
+
+#include <sys/mman.h>
+#include <sys/stat.h>
+#include <unistd.h>
+
+namespace
+{
+    using bnb::oep::frame_format;
+
+    constexpr char y4m_signature[] = "YUV4MPEG2";
+    constexpr char y4m_frame_header[] = "FRAME\n";
+    constexpr size_t y4m_frame_header_size = sizeof(y4m_frame_header) - 1;
+
+    size_t frame_size(frame_format format, int32_t width, int32_t height)
+    {
+        size_t size = 0;
+        for (int32_t i = 0; i < bnb::oep::frame_converter::plane_count(format); ++i) {
+            size += bnb::oep::frame_converter::plane_size(format, width, height, i);
+        }
+        return size;
+    }
+
+    /* position of the next '\n' at or after pos, or end */
+    size_t find_line_end(const uint8_t* data, size_t pos, size_t end)
+    {
+        auto found = static_cast<const uint8_t*>(std::memchr(data + pos, '\n', end - pos));
+        return found != nullptr ? static_cast<size_t>(found - data) : end;
+    }
+} /* namespace */
+
+namespace bnb::oep
+{
+
+    /* mapped_file::~mapped_file */
+    mapped_file::~mapped_file()
+    {
+        unmap();
+    }
+
+    /* mapped_file::map_read */
+    bool mapped_file::map_read(int fd)
+    {
+        unmap();
+        struct stat st{};
+        if (fstat(fd, &st) != 0 || st.st_size <= 0) {
+            return false;
+        }
+        void* data = mmap(nullptr, static_cast<size_t>(st.st_size), PROT_READ, MAP_SHARED, fd, 0);
+        if (data == MAP_FAILED) {
+            return false;
+        }
+        /* the frames are read once from the start to the end */
+        madvise(data, static_cast<size_t>(st.st_size), MADV_SEQUENTIAL);
+        m_data = static_cast<uint8_t*>(data);
+        m_size = static_cast<size_t>(st.st_size);
+        m_writable = false;
+        return true;
+    }
+
+    /* mapped_file::map_write */
+    bool mapped_file::map_write(int fd, size_t size)
+    {
+        unmap();
+        if (size == 0 || ftruncate(fd, static_cast<off_t>(size)) != 0) {
+            return false;
+        }
+        void* data = mmap(nullptr, size, PROT_READ | PROT_WRITE, MAP_SHARED, fd, 0);
+        if (data == MAP_FAILED) {
+            return false;
+        }
+        m_data = static_cast<uint8_t*>(data);
+        m_size = size;
+        m_writable = true;
+        return true;
+    }
+
+    /* mapped_file::unmap */
+    bool mapped_file::unmap()
+    {
+        if (m_data == nullptr) {
+            return true;
+        }
+        bool ok = !m_writable || msync(m_data, m_size, MS_SYNC) == 0;
+        munmap(m_data, m_size);
+        m_data = nullptr;
+        m_size = 0;
+        return ok;
+    }
+
+    /* frame_file_reader::open */
+    bool frame_file_reader::open(int fd, frame_container container, frame_format raw_format, int32_t raw_width, int32_t raw_height)
+    {
+        m_offsets.clear();
+        m_info = frame_sequence_info{};
+        m_info.container = container;
+        if (!m_file.map_read(fd)) {
+            return false;
+        }
+        if (container == frame_container::y4m) {
+            return parse_y4m();
+        }
+
+        m_info.format = raw_format;
+        m_info.width = raw_width;
+        m_info.height = raw_height;
+        if (raw_width <= 0 || raw_height <= 0) {
+            return false;
+        }
+        auto size = frame_size(raw_format, raw_width, raw_height);
+        m_info.frame_count = m_file.size() / size;
+        m_offsets.reserve(m_info.frame_count);
+        for (size_t i = 0; i < m_info.frame_count; ++i) {
+            m_offsets.push_back(i * size);
+        }
+        return m_info.frame_count > 0;
+    }
+
+    /* frame_file_reader::frame */
+    frame_view frame_file_reader::frame(size_t index) const
+    {
+        if (index >= m_offsets.size()) {
+            return {};
+        }
+        return frame_converter::packed_view(m_info.format, m_info.width, m_info.height, m_file.data() + m_offsets[index]);
+    }
+
+    /* frame_file_reader::parse_y4m */
+    bool frame_file_reader::parse_y4m()
+    {
+        const uint8_t* data = m_file.data();
+        size_t end = m_file.size();
+        size_t header_end = find_line_end(data, 0, end);
+        std::string header(reinterpret_cast<const char*>(data), header_end);
+        if (header_end == end || header.compare(0, sizeof(y4m_signature) - 1, y4m_signature) != 0) {
+            return false;
+        }
+
+        /* YUV4MPEG2 W<width> H<height> [F<num>:<den>] [I<interlacing>] [A<aspect>] [C<colorspace>] [X<comment>] */
+        m_info.format = frame_format::i420;
+        size_t pos = sizeof(y4m_signature) - 1;
+        while (pos < header.size()) {
+            size_t next = header.find(' ', pos + 1);
+            std::string token = header.substr(pos + 1, next == std::string::npos ? std::string::npos : next - pos - 1);
+            pos = next == std::string::npos ? header.size() : next;
+            if (token.empty()) {
+                continue;
+            }
+            switch (token[0]) {
+                case 'W':
+                    m_info.width = std::atoi(token.c_str() + 1);
+                    break;
+                case 'H':
+                    m_info.height = std::atoi(token.c_str() + 1);
+                    break;
+                case 'F':
+                    std::sscanf(token.c_str() + 1, "%d:%d", &m_info.fps_numerator, &m_info.fps_denominator);
+                    break;
+                case 'C':
+                    /* 420, 420jpeg, 420paldv and 420mpeg2 differ in the chroma siting only */
+                    if (token.compare(1, 3, "420") != 0) {
+                        return false;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (m_info.width <= 0 || m_info.height <= 0) {
+            return false;
+        }
+
+        /* every frame is FRAME[ <parameters>]\n followed by the planes */
+        auto size = frame_size(m_info.format, m_info.width, m_info.height);
+        pos = header_end + 1;
+        while (pos + y4m_frame_header_size - 1 < end && std::memcmp(data + pos, y4m_frame_header, y4m_frame_header_size - 1) == 0) {
+            size_t frame_begin = find_line_end(data, pos, end) + 1;
+            if (frame_begin + size > end) {
+                break;
+            }
+            m_offsets.push_back(frame_begin);
+            pos = frame_begin + size;
+        }
+        m_info.frame_count = m_offsets.size();
+        return m_info.frame_count > 0;
+    }
+
+    /* frame_file_writer::open */
+    bool frame_file_writer::open(int fd, const frame_sequence_info& info)
+    {
+        m_info = info;
+        if (m_info.container == frame_container::y4m) {
+            m_info.format = frame_format::i420;
+        }
+        if (m_info.width <= 0 || m_info.height <= 0 || m_info.frame_count == 0) {
+            return false;
+        }
+
+        std::string header;
+        if (m_info.container == frame_container::y4m) {
+            char buffer[128];
+            std::snprintf(buffer, sizeof(buffer), "%s W%d H%d F%d:%d Ip A1:1 C420jpeg\n", y4m_signature,
+                          m_info.width, m_info.height, m_info.fps_numerator, m_info.fps_denominator);
+            header = buffer;
+        }
+        size_t frame_header = m_info.container == frame_container::y4m ? y4m_frame_header_size : 0;
+        m_first_frame = header.size() + frame_header;
+        m_frame_stride = frame_header + frame_size(m_info.format, m_info.width, m_info.height);
+        if (!m_file.map_write(fd, header.size() + m_frame_stride * m_info.frame_count)) {
+            return false;
+        }
+
+        std::memcpy(m_file.data(), header.data(), header.size());
+        for (size_t i = 0; frame_header > 0 && i < m_info.frame_count; ++i) {
+            std::memcpy(m_file.data() + header.size() + i * m_frame_stride, y4m_frame_header, frame_header);
+        }
+        return true;
+    }
+
+    /* frame_file_writer::frame */
+    frame_view frame_file_writer::frame(size_t index) const
+    {
+        if (index >= m_info.frame_count || m_file.data() == nullptr) {
+            return {};
+        }
+        return frame_converter::packed_view(m_info.format, m_info.width, m_info.height, m_file.data() + m_first_frame + index * m_frame_stride);
+    }
+
+    /* frame_file_writer::close */
+    bool frame_file_writer::close()
+    {
+        return m_file.unmap();
+    }
+
+} /* namespace bnb::oep */
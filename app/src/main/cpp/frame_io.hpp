@@ -0,0 +1,112 @@
+#pragma once
+
+#include "frame_converter.hpp"
+
+#include <cstddef>
+#include <cstdint>
+#include <vector>
+
+namespace bnb::oep
+{
+
+    /* How the frames are stored in a file: back to back without headers, or YUV4MPEG2 (4:2:0 only) */
+    enum class frame_container : int32_t
+    {
+        raw = 0,
+        y4m = 1
+    }; /* enum class frame_container */
+
+    struct frame_sequence_info
+    {
+        frame_container container{frame_container::raw};
+        frame_format format{frame_format::i420};
+        int32_t width{0};
+        int32_t height{0};
+        size_t frame_count{0};
+        int32_t fps_numerator{30};
+        int32_t fps_denominator{1};
+    }; /* struct frame_sequence_info */
+
+    /* Memory mapping of a whole file. The file descriptor is not owned and may be closed after mapping. */
+    class mapped_file
+    {
+    public:
+        mapped_file() = default;
+        ~mapped_file();
+
+        mapped_file(const mapped_file&) = delete;
+        mapped_file& operator=(const mapped_file&) = delete;
+
+        bool map_read(int fd);
+
+        /* resizes the file to size bytes and maps it for writing */
+        bool map_write(int fd, size_t size);
+
+        /* flushes the written pages to the file when it was mapped for writing */
+        bool unmap();
+
+        uint8_t* data() const
+        {
+            return m_data;
+        }
+
+        size_t size() const
+        {
+            return m_size;
+        }
+
+    private:
+        uint8_t* m_data{nullptr};
+        size_t m_size{0};
+        bool m_writable{false};
+    }; /* class mapped_file */
+
+    /* Frames of a memory-mapped Y4M or raw file, the views point into the mapping (no copy) */
+    class frame_file_reader
+    {
+    public:
+        /* format, width and height are taken from the header of a Y4M file and must be given for a raw one */
+        bool open(int fd, frame_container container, frame_format raw_format = frame_format::i420, int32_t raw_width = 0, int32_t raw_height = 0);
+
+        const frame_sequence_info& info() const
+        {
+            return m_info;
+        }
+
+        /* valid while the reader is open */
+        frame_view frame(size_t index) const;
+
+    private:
+        bool parse_y4m();
+
+    private:
+        mapped_file m_file;
+        frame_sequence_info m_info;
+        std::vector<size_t> m_offsets;
+    }; /* class frame_file_reader */
+
+    /* Frames of a memory-mapped output file, the file is sized for all frames at once */
+    class frame_file_writer
+    {
+    public:
+        /* Y4M output is always I420 */
+        bool open(int fd, const frame_sequence_info& info);
+
+        const frame_sequence_info& info() const
+        {
+            return m_info;
+        }
+
+        /* the frames can be written in any order and from any thread */
+        frame_view frame(size_t index) const;
+
+        bool close();
+
+    private:
+        mapped_file m_file;
+        frame_sequence_info m_info;
+        size_t m_first_frame{0};
+        size_t m_frame_stride{0};
+    }; /* class frame_file_writer */
+
+} /* namespace bnb::oep */
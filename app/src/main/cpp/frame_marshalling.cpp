@@ -0,0 +1,199 @@
+#include "frame_marshalling.hpp"
+#include "frame_converter.hpp"
+#include "slab_pool.hpp"
+
+#include <algorithm>
+#include <cassert>
+#include <cstring>
+
+namespace bnb::oep
+{
+
+    /* read_image_info */
+    image_info read_image_info(const void* descriptor)
+    {
+        image_info info{};
+        std::memcpy(&info, descriptor, sizeof(image_info));
+        return info;
+    }
+
+    /* get_image_format */
+    bnb::oep::interfaces::image_format get_image_format(int java_image_format)
+    {
+        switch (java_image_format) {
+            case 1:
+                return bnb::oep::interfaces::image_format::nv12_bt601_full;
+            case 2:
+                return bnb::oep::interfaces::image_format::i420_bt601_full;
+            default:
+                return bnb::oep::interfaces::image_format::bpc8_rgba;
+        }
+    }
+
+    /* get_java_image_format */
+    int get_java_image_format(bnb::oep::interfaces::image_format image_format)
+    {
+        switch (image_format) {
+            case bnb::oep::interfaces::image_format::nv12_bt601_full:
+                return 1;
+            case bnb::oep::interfaces::image_format::i420_bt601_full:
+                return 2;
+            default:
+                return 0;
+        }
+    }
+
+    /* get_native_format_pairs */
+    const std::vector<format_pair>& get_native_format_pairs()
+    {
+        using ns = bnb::oep::interfaces::image_format;
+        static const std::vector<format_pair> pairs{
+            {ns::nv12_bt601_full, ns::bpc8_rgba},
+            {ns::i420_bt601_full, ns::bpc8_rgba},
+        };
+        return pairs;
+    }
+
+    /* create_planes_from_format */
+    std::vector<bnb::oep::interfaces::pixel_buffer::plane_data> create_planes_from_format(
+            uint8_t* input_image_data0,
+            uint8_t* input_image_data1,
+            uint8_t* input_image_data2,
+            bnb::oep::interfaces::image_format format,
+            const image_info& image_info)
+    {
+        // only nv12_bt601_full and i420_bt601_full are supported
+        assert(format == bnb::oep::interfaces::image_format::nv12_bt601_full
+             ||format == bnb::oep::interfaces::image_format::i420_bt601_full);
+
+        using ns_pb = bnb::oep::interfaces::pixel_buffer;
+        /* the planes go back to the pool when the effect player releases the pixel buffer */
+        auto& pool = slab_pool::instance();
+        if(format == bnb::oep::interfaces::image_format::nv12_bt601_full) {
+            int y_size = image_info.row_stride0  * image_info.height;
+            int uv_size = image_info.row_stride1 * image_info.height / 2;
+
+            ns_pb::plane_sptr y_plane_data = pool.make_buffer(y_size);
+            std::memcpy(y_plane_data.get(), input_image_data0, y_size);
+
+            ns_pb::plane_sptr uv_plane_data = pool.make_buffer(uv_size);
+            std::memcpy(uv_plane_data.get(), input_image_data1, uv_size);
+
+            ns_pb::plane_data y_plane{std::move(y_plane_data), static_cast<size_t>(y_size), image_info.row_stride0};
+            ns_pb::plane_data uv_plane{std::move(uv_plane_data), static_cast<size_t>(uv_size), image_info.row_stride1};
+            std::vector<ns_pb::plane_data> planes{std::move(y_plane), std::move(uv_plane)};
+            return planes;
+        }
+
+        if(format == bnb::oep::interfaces::image_format::i420_bt601_full) {
+            int y_size = image_info.row_stride0  * image_info.height;
+            /* the camera chroma is interleaved (pixel stride 2), it is split into tightly packed U and V planes */
+            int uv_width = (image_info.width + 1) / 2;
+            int uv_height = (image_info.height + 1) / 2;
+            int u_size = uv_width * uv_height;
+            int v_size = uv_width * uv_height;
+
+            ns_pb::plane_sptr y_plane_data = pool.make_buffer(y_size);
+            std::memcpy(y_plane_data.get(), input_image_data0, y_size);
+
+            ns_pb::plane_sptr u_plane_data = pool.make_buffer(u_size);
+            ns_pb::plane_sptr v_plane_data = pool.make_buffer(v_size);
+            bnb::oep::frame_converter::split_uv(input_image_data1, image_info.row_stride1,
+                                                u_plane_data.get(), uv_width, v_plane_data.get(), uv_width, uv_width, uv_height);
+
+            ns_pb::plane_data y_plane{std::move(y_plane_data), static_cast<size_t>(y_size), image_info.row_stride0};
+            ns_pb::plane_data u_plane{std::move(u_plane_data), static_cast<size_t>(u_size), uv_width};
+            ns_pb::plane_data v_plane{std::move(v_plane_data), static_cast<size_t>(v_size), uv_width};
+            std::vector<ns_pb::plane_data> planes{std::move(y_plane), std::move(u_plane), std::move(v_plane)};
+            return planes;
+        }
+
+        return {};
+    }
+
+    /* create_pixel_buffer */
+    pixel_buffer_sptr create_pixel_buffer(uint8_t* input_image_data0, uint8_t* input_image_data1, uint8_t* input_image_data2,
+                                          const image_info& image_info, bnb::oep::interfaces::image_format image_format)
+    {
+        auto width = static_cast<int32_t>(image_info.width);
+        auto height = static_cast<int32_t>(image_info.height);
+        auto planes = create_planes_from_format(input_image_data0, input_image_data1, input_image_data2, image_format, image_info);
+        return bnb::oep::interfaces::pixel_buffer::create(planes, image_format, width, height, [](auto* pb) { delete pb; });
+    }
+
+    /* create_scaled_pixel_buffer */
+    pixel_buffer_sptr create_scaled_pixel_buffer(uint8_t* input_image_data0, uint8_t* input_image_data1,
+                                                 const image_info& image_info, bnb::oep::interfaces::image_format image_format,
+                                                 int32_t width, int32_t height)
+    {
+        /* the scaled image is copied by create_pixel_buffer(), so one buffer per thread is enough */
+        thread_local std::vector<uint8_t> scaled_data;
+
+        frame_view src{frame_format::nv12, image_info.width, image_info.height, {}};
+        src.planes[0] = {input_image_data0, image_info.row_stride0};
+        src.planes[1] = {input_image_data1, image_info.row_stride1};
+        auto size = frame_converter::plane_size(frame_format::nv12, width, height, 0)
+                  + frame_converter::plane_size(frame_format::nv12, width, height, 1);
+        if (scaled_data.size() < size) {
+            scaled_data.resize(size);
+        }
+        auto dst = frame_converter::packed_view(frame_format::nv12, width, height, scaled_data.data());
+        if (!frame_converter::scale(src, dst)) {
+            return nullptr;
+        }
+
+        auto scaled_info = image_info;
+        scaled_info.width = width;
+        scaled_info.height = height;
+        scaled_info.row_stride0 = dst.planes[0].stride;
+        scaled_info.row_stride1 = dst.planes[1].stride;
+        return create_pixel_buffer(dst.planes[0].data, dst.planes[1].data, nullptr, scaled_info, image_format);
+    }
+
+    /* get_output_planes */
+    std::array<output_plane, 3> get_output_planes(const pixel_buffer_sptr& image)
+    {
+        std::array<output_plane, 3> planes{};
+        auto count = std::min<int32_t>(image->get_plane_count(), static_cast<int32_t>(planes.size()));
+        for (int32_t i = 0; i < count; ++i) {
+            planes[i].data = image->get_base_sptr_of_plane(i).get();
+            planes[i].row_size = image->get_width_of_plane(i) * image->get_bytes_per_pixel_of_plane(i);
+            planes[i].stride = image->get_bytes_per_row_of_plane(i);
+            planes[i].rows = image->get_height_of_plane(i);
+            planes[i].pixel_stride = std::max<int32_t>(image->get_bytes_per_pixel_of_plane(i), 1);
+        }
+        return planes;
+    }
+
+    /* copy_output_plane */
+    void copy_output_plane(uint8_t* dst, const output_plane& plane)
+    {
+        bnb::oep::frame_converter::copy_plane(plane.data, plane.stride, dst, plane.row_size, plane.row_size, plane.rows);
+    }
+
+    /* delivered_stride */
+    int32_t delivered_stride(const output_plane& plane)
+    {
+        return plane.stride >= plane.row_size && plane.stride % plane.pixel_stride == 0 ? plane.stride : plane.row_size;
+    }
+
+    /* delivered_size */
+    int32_t delivered_size(const output_plane& plane)
+    {
+        return delivered_stride(plane) == plane.stride ? plane.span() : plane.size();
+    }
+
+    /* copy_delivered_plane */
+    void copy_delivered_plane(uint8_t* dst, const output_plane& plane)
+    {
+        if (plane.data == nullptr) {
+            return;
+        }
+        if (delivered_stride(plane) == plane.stride) {
+            std::memcpy(dst, plane.data, plane.span());
+        } else {
+            copy_output_plane(dst, plane);
+        }
+    }
+
+} /* namespace bnb::oep */
@@ -0,0 +1,108 @@
+#pragma once
+
+#include <interfaces/pixel_buffer.hpp>
+#include <interfaces/image_format.hpp>
+
+#include <array>
+#include <cstdint>
+#include <vector>
+
+namespace bnb::oep
+{
+
+    /* Layout of ImageInfo.mDescriptor direct buffer, must match the field indices in OffscreenEffectPlayerImage.java */
+    struct image_info {
+        int32_t width;
+        int32_t height;
+        int32_t row_stride0;
+        int32_t row_stride1;
+        int32_t row_stride2;
+        int32_t pixel_stride0;
+        int32_t pixel_stride1;
+        int32_t pixel_stride2;
+        int32_t input_orientation;
+        int32_t output_orientation;
+        int32_t pixel_format;
+        /* format of the pixel buffer passed to the effect player */
+        int32_t input_image_format;
+        int32_t require_mirroring;
+        /* format of the image read back from the effect player */
+        int32_t output_image_format;
+    };
+    static_assert(sizeof(image_info) == 14 * sizeof(int32_t), "image_info must be packed");
+
+    /* Input pixel buffer format and output image format processed together */
+    struct format_pair
+    {
+        bnb::oep::interfaces::image_format input;
+        bnb::oep::interfaces::image_format output;
+    };
+
+    /* One plane of an output image, the rows are row_size bytes long and stride bytes apart */
+    struct output_plane
+    {
+        const uint8_t* data{nullptr};
+        int32_t row_size{0};
+        int32_t stride{0};
+        int32_t rows{0};
+        int32_t pixel_stride{1};
+
+        /* size of the tightly packed plane */
+        int32_t size() const
+        {
+            return row_size * rows;
+        }
+
+        /* bytes from the first pixel to the last one, the last row is not padded */
+        int32_t span() const
+        {
+            return rows > 0 ? stride * (rows - 1) + row_size : 0;
+        }
+    };
+
+    /* The conversions between the frames of java and the pixel buffers of the offscreen effect player.
+     * There is no JNI and no SDK call here, so the code is also built and benchmarked on the host (see host/). */
+
+    /* image_info from the packed descriptor */
+    image_info read_image_info(const void* descriptor);
+
+    /* MainActivity.ImageFormat ordinal to the format of the effect player and back */
+    bnb::oep::interfaces::image_format get_image_format(int java_image_format);
+    int get_java_image_format(bnb::oep::interfaces::image_format image_format);
+
+    /* The pairs of formats which the effect player processes without an extra conversion pass, the cheapest first.
+     * The effect player renders into an RGBA texture, so the RGBA output is read back as is while the YUV outputs
+     * need a conversion pass on the GPU (or on the CPU with the fenced read back). NV12 input is the camera layout
+     * and is passed without copying, I420 input needs the chroma to be split. */
+    const std::vector<format_pair>& get_native_format_pairs();
+
+    /* copies of the camera planes in the layout of the format, only nv12_bt601_full and i420_bt601_full are supported */
+    std::vector<bnb::oep::interfaces::pixel_buffer::plane_data> create_planes_from_format(
+            uint8_t* input_image_data0,
+            uint8_t* input_image_data1,
+            uint8_t* input_image_data2,
+            bnb::oep::interfaces::image_format format,
+            const image_info& image_info);
+
+    pixel_buffer_sptr create_pixel_buffer(uint8_t* input_image_data0, uint8_t* input_image_data1, uint8_t* input_image_data2,
+                                          const image_info& image_info, bnb::oep::interfaces::image_format image_format);
+
+    /* The camera image (Y and interleaved chroma planes) resized to width x height, then laid out as
+     * create_pixel_buffer() does. Returns nullptr when the image can not be scaled. */
+    pixel_buffer_sptr create_scaled_pixel_buffer(uint8_t* input_image_data0, uint8_t* input_image_data1,
+                                                 const image_info& image_info, bnb::oep::interfaces::image_format image_format,
+                                                 int32_t width, int32_t height);
+
+    std::array<output_plane, 3> get_output_planes(const pixel_buffer_sptr& image);
+
+    /* copy rows of the plane into the tightly packed destination */
+    void copy_output_plane(uint8_t* dst, const output_plane& plane);
+
+    /* The layout of a plane handed to java: the rows keep the stride of the image, so the plane is copied at once
+     * and the renderers upload the padded rows with GL_UNPACK_ROW_LENGTH. A stride which is not a whole number
+     * of pixels can not be uploaded that way, such a plane is packed. */
+    int32_t delivered_stride(const output_plane& plane);
+    int32_t delivered_size(const output_plane& plane);
+    void copy_delivered_plane(uint8_t* dst, const output_plane& plane);
+
+} /* namespace bnb::oep */
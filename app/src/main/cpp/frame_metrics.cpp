@@ -0,0 +1,225 @@
+#include "frame_metrics.hpp"
+#include "frame_trace.hpp"
+
+#include <algorithm>
+#include <time.h>
+
+namespace
+{
+    constexpr int64_t ns_per_us = 1000;
+
+    int32_t highest_bit(uint64_t value)
+    {
+        return 63 - __builtin_clzll(value);
+    }
+
+    /* relaxed atomic maximum */
+    void update_max(std::atomic<int64_t>& max, int64_t value)
+    {
+        int64_t current = max.load(std::memory_order_relaxed);
+        while (value > current && !max.compare_exchange_weak(current, value, std::memory_order_relaxed)) {
+        }
+    }
+} /* namespace */
+
+namespace bnb::oep
+{
+
+    /* latency_histogram::record */
+    void latency_histogram::record(int64_t latency_ns)
+    {
+        latency_ns = std::max<int64_t>(latency_ns, 0);
+        m_buckets[bucket_of(latency_ns / ns_per_us)].fetch_add(1, std::memory_order_relaxed);
+        m_count.fetch_add(1, std::memory_order_relaxed);
+        m_sum_ns.fetch_add(latency_ns, std::memory_order_relaxed);
+        update_max(m_max_ns, latency_ns);
+    }
+
+    /* latency_histogram::reset */
+    void latency_histogram::reset()
+    {
+        for (auto& bucket : m_buckets) {
+            bucket.store(0, std::memory_order_relaxed);
+        }
+        m_count.store(0, std::memory_order_relaxed);
+        m_sum_ns.store(0, std::memory_order_relaxed);
+        m_max_ns.store(0, std::memory_order_relaxed);
+    }
+
+    /* latency_histogram::count */
+    int64_t latency_histogram::count() const
+    {
+        return m_count.load(std::memory_order_relaxed);
+    }
+
+    /* latency_histogram::snapshot */
+    void latency_histogram::snapshot(int64_t* out) const
+    {
+        std::array<uint64_t, bucket_count> buckets;
+        uint64_t count = 0;
+        for (size_t i = 0; i < bucket_count; ++i) {
+            buckets[i] = m_buckets[i].load(std::memory_order_relaxed);
+            count += buckets[i];
+        }
+        int64_t max_ns = m_max_ns.load(std::memory_order_relaxed);
+        out[0] = static_cast<int64_t>(count);
+        out[1] = count > 0 ? m_sum_ns.load(std::memory_order_relaxed) / static_cast<int64_t>(count) : 0;
+        out[5] = max_ns;
+
+        /* the percentile is reported as the upper bound of its bucket, but never above the recorded maximum */
+        constexpr double percentiles[] = {0.50, 0.95, 0.99};
+        for (size_t p = 0; p < 3; ++p) {
+            auto rank = static_cast<uint64_t>(percentiles[p] * static_cast<double>(count) + 0.5);
+            rank = std::max<uint64_t>(rank, 1);
+            int64_t value = 0;
+            uint64_t seen = 0;
+            for (size_t i = 0; count > 0 && i < bucket_count; ++i) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    value = std::min(bucket_upper_bound_us(i) * ns_per_us, max_ns);
+                    break;
+                }
+            }
+            out[2 + p] = value;
+        }
+    }
+
+    /* latency_histogram::bucket_of */
+    size_t latency_histogram::bucket_of(int64_t latency_us)
+    {
+        /* the bucket index is the exponent followed by the sub_bucket_bits bits after the highest one */
+        auto value = static_cast<uint64_t>(latency_us) + 1;
+        int32_t exponent = highest_bit(value);
+        if (exponent >= max_exponent) {
+            return bucket_count - 1;
+        }
+        uint64_t sub_bucket = exponent >= sub_bucket_bits
+            ? value >> (exponent - sub_bucket_bits)
+            : value << (sub_bucket_bits - exponent);
+        sub_bucket &= (1u << sub_bucket_bits) - 1;
+        return (static_cast<size_t>(exponent) << sub_bucket_bits) | sub_bucket;
+    }
+
+    /* latency_histogram::bucket_upper_bound_us */
+    int64_t latency_histogram::bucket_upper_bound_us(size_t bucket)
+    {
+        auto exponent = static_cast<int32_t>(bucket >> sub_bucket_bits);
+        auto sub_bucket = static_cast<int64_t>(bucket & ((1u << sub_bucket_bits) - 1));
+        int64_t end = ((int64_t(1) << sub_bucket_bits) + sub_bucket + 1) << exponent;
+        return (end >> sub_bucket_bits) - 1;
+    }
+
+    /* frame_metrics::frame_metrics CONSTRUCTOR */
+    frame_metrics::frame_metrics()
+        : m_start_ns(now_ns())
+    {
+    }
+
+    /* frame_metrics::now_ns */
+    int64_t frame_metrics::now_ns()
+    {
+        timespec ts{};
+        clock_gettime(CLOCK_MONOTONIC, &ts);
+        return static_cast<int64_t>(ts.tv_sec) * 1000000000 + ts.tv_nsec;
+    }
+
+    /* frame_metrics::mark_push */
+    void frame_metrics::mark_push()
+    {
+        m_last_push_ns.store(now_ns(), std::memory_order_relaxed);
+    }
+
+    /* frame_metrics::mark_draw */
+    void frame_metrics::mark_draw()
+    {
+        m_last_draw_ns.store(now_ns(), std::memory_order_relaxed);
+    }
+
+    /* frame_metrics::complete_render */
+    void frame_metrics::complete_render(frame_timeline& timeline) const
+    {
+        int64_t push_ns = m_last_push_ns.load(std::memory_order_relaxed);
+        int64_t draw_ns = m_last_draw_ns.load(std::memory_order_relaxed);
+        if (push_ns >= timeline.enqueue_ns && draw_ns >= push_ns) {
+            timeline.push_ns = push_ns;
+            timeline.draw_ns = draw_ns;
+        }
+    }
+
+    /* frame_metrics::on_submitted */
+    void frame_metrics::on_submitted()
+    {
+        m_submitted.fetch_add(1, std::memory_order_relaxed);
+        trace_counters();
+    }
+
+    /* frame_metrics::on_dropped */
+    void frame_metrics::on_dropped()
+    {
+        m_dropped.fetch_add(1, std::memory_order_relaxed);
+        trace_counters();
+    }
+
+    /* frame_metrics::on_delivered */
+    void frame_metrics::on_delivered(const frame_timeline& timeline)
+    {
+        m_delivered.fetch_add(1, std::memory_order_relaxed);
+        trace_counters();
+        record(frame_stage::submit, timeline.submit_ns, timeline.enqueue_ns);
+        record(frame_stage::queue, timeline.enqueue_ns, timeline.push_ns);
+        record(frame_stage::render, timeline.push_ns, timeline.draw_ns);
+        record(frame_stage::readback, timeline.draw_ns, timeline.readback_ns);
+        record(frame_stage::delivery, timeline.readback_ns, timeline.callback_ns);
+        record(frame_stage::total, timeline.submit_ns, timeline.callback_ns);
+    }
+
+    /* frame_metrics::reset */
+    void frame_metrics::reset()
+    {
+        for (auto& stage : m_stages) {
+            stage.reset();
+        }
+        m_submitted.store(0, std::memory_order_relaxed);
+        m_delivered.store(0, std::memory_order_relaxed);
+        m_dropped.store(0, std::memory_order_relaxed);
+        m_start_ns.store(now_ns(), std::memory_order_relaxed);
+    }
+
+    /* frame_metrics::snapshot */
+    void frame_metrics::snapshot(int64_t* out) const
+    {
+        for (size_t i = 0; i < stage_count; ++i) {
+            m_stages[i].snapshot(out + i * latency_histogram::snapshot_size);
+        }
+        int64_t* counters = out + stage_count * latency_histogram::snapshot_size;
+        counters[0] = m_submitted.load(std::memory_order_relaxed);
+        counters[1] = m_delivered.load(std::memory_order_relaxed);
+        counters[2] = m_dropped.load(std::memory_order_relaxed);
+        counters[3] = now_ns() - m_start_ns.load(std::memory_order_relaxed);
+    }
+
+    /* frame_metrics::trace_counters */
+    void frame_metrics::trace_counters() const
+    {
+        if (!frame_trace::enabled()) {
+            return;
+        }
+        int64_t submitted = m_submitted.load(std::memory_order_relaxed);
+        int64_t delivered = m_delivered.load(std::memory_order_relaxed);
+        int64_t dropped = m_dropped.load(std::memory_order_relaxed);
+        /* the counters are read one by one, the depth can be off by a frame for a moment */
+        frame_trace::set_counter("OEP frames in flight", std::max<int64_t>(submitted - delivered - dropped, 0));
+        frame_trace::set_counter("OEP frames dropped", dropped);
+    }
+
+    /* frame_metrics::record */
+    void frame_metrics::record(frame_stage stage, int64_t begin_ns, int64_t end_ns)
+    {
+        /* a stage is skipped when one of its ends was not reached, e.g. the render marks of a frame were lost */
+        if (begin_ns == 0 || end_ns == 0) {
+            return;
+        }
+        m_stages[static_cast<size_t>(stage)].record(end_ns - begin_ns);
+    }
+
+} /* namespace bnb::oep */
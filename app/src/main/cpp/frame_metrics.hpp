@@ -0,0 +1,112 @@
+#pragma once
+
+#include <array>
+#include <atomic>
+#include <cstddef>
+#include <cstdint>
+
+namespace bnb::oep
+{
+
+    /* Stages of a frame between OffscreenEffectPlayer.processImageAsync and the java output callback,
+     * the order must match FrameMetrics.Stage */
+    enum class frame_stage : int32_t
+    {
+        submit = 0, /* java submit -> process_image_async enqueue */
+        queue,      /* enqueue -> effect_player::push_frame */
+        render,     /* push_frame -> end of effect_player::draw */
+        readback,   /* end of draw -> get_image result (or texture export) */
+        delivery,   /* get_image result -> java callback */
+        total,      /* java submit -> java callback */
+        count
+    };
+
+    /* Monotonic timestamps of one frame, in nanoseconds of the clock used by System.nanoTime(). 0 - not reached. */
+    struct frame_timeline
+    {
+        int64_t submit_ns{0};
+        int64_t enqueue_ns{0};
+        int64_t push_ns{0};
+        int64_t draw_ns{0};
+        int64_t readback_ns{0};
+        int64_t callback_ns{0};
+    }; /* struct frame_timeline */
+
+    /* Latency histogram with logarithmic buckets, four buckets per power of two of microseconds
+     * (the error of a percentile is below 25%). Recording is a few relaxed atomic increments, it does not allocate
+     * and can be done from any thread. */
+    class latency_histogram
+    {
+    public:
+        static constexpr int32_t sub_bucket_bits = 2;
+        static constexpr int32_t max_exponent = 32;
+        static constexpr size_t bucket_count = max_exponent << sub_bucket_bits;
+
+        void record(int64_t latency_ns);
+
+        void reset();
+
+        int64_t count() const;
+
+        /* values written to out: count, mean, p50, p95, p99, max (nanoseconds) */
+        static constexpr size_t snapshot_size = 6;
+        void snapshot(int64_t* out) const;
+
+    private:
+        static size_t bucket_of(int64_t latency_us);
+        static int64_t bucket_upper_bound_us(size_t bucket);
+
+    private:
+        std::array<std::atomic<uint64_t>, bucket_count> m_buckets{};
+        std::atomic<int64_t> m_count{0};
+        std::atomic<int64_t> m_sum_ns{0};
+        std::atomic<int64_t> m_max_ns{0};
+    }; /* class latency_histogram */
+
+    /* Per-stage latencies and throughput counters of one OffscreenEffectPlayer.
+     * The render thread marks push_frame/draw, the frames are processed one by one there,
+     * so the result callback of a frame reads the marks of this very frame. */
+    class frame_metrics
+    {
+    public:
+        frame_metrics();
+
+        /* the clock of System.nanoTime() */
+        static int64_t now_ns();
+
+        /* called by the effect player on the render thread */
+        void mark_push();
+        void mark_draw();
+
+        /* copies the render thread marks into the timeline, the marks older than the enqueue are ignored */
+        void complete_render(frame_timeline& timeline) const;
+
+        void on_submitted();
+        void on_dropped();
+        /* the frame reached the java callback, timeline.callback_ns must be set */
+        void on_delivered(const frame_timeline& timeline);
+
+        void reset();
+
+        /* layout: stage_count * latency_histogram::snapshot_size stage values,
+         * then frames submitted, delivered, dropped and the nanoseconds since the creation or the last reset */
+        static constexpr size_t stage_count = static_cast<size_t>(frame_stage::count);
+        static constexpr size_t snapshot_size = stage_count * latency_histogram::snapshot_size + 4;
+        void snapshot(int64_t* out) const;
+
+    private:
+        void record(frame_stage stage, int64_t begin_ns, int64_t end_ns);
+        /* the queue depth and the drops as trace counters, when the trace is on */
+        void trace_counters() const;
+
+    private:
+        std::array<latency_histogram, stage_count> m_stages;
+        std::atomic<int64_t> m_last_push_ns{0};
+        std::atomic<int64_t> m_last_draw_ns{0};
+        std::atomic<int64_t> m_submitted{0};
+        std::atomic<int64_t> m_delivered{0};
+        std::atomic<int64_t> m_dropped{0};
+        std::atomic<int64_t> m_start_ns{0};
+    }; /* class frame_metrics */
+
+} /* namespace bnb::oep */
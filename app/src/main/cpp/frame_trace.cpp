@@ -0,0 +1,247 @@
+#include "frame_trace.hpp"
+
+#if defined(__ANDROID__)
+#include <dlfcn.h>
+#else
+#include <chrono>
+#include <cstdio>
+#include <mutex>
+
+#include <sys/syscall.h>
+#include <unistd.h>
+#endif
+
+namespace
+{
+#if defined(__ANDROID__)
+    /* The functions of libandroid are resolved at runtime: the async sections and the counters appeared in API 29,
+     * the sections are in every supported version */
+    struct atrace_functions
+    {
+        void (*begin_section)(const char*){nullptr};
+        void (*end_section)(){nullptr};
+        void (*begin_async)(const char*, int32_t){nullptr};
+        void (*end_async)(const char*, int32_t){nullptr};
+        void (*set_counter)(const char*, int64_t){nullptr};
+
+        atrace_functions()
+        {
+            void* library = dlopen("libandroid.so", RTLD_NOW | RTLD_LOCAL);
+            if (library == nullptr) {
+                return;
+            }
+            begin_section = reinterpret_cast<decltype(begin_section)>(dlsym(library, "ATrace_beginSection"));
+            end_section = reinterpret_cast<decltype(end_section)>(dlsym(library, "ATrace_endSection"));
+            begin_async = reinterpret_cast<decltype(begin_async)>(dlsym(library, "ATrace_beginAsyncSection"));
+            end_async = reinterpret_cast<decltype(end_async)>(dlsym(library, "ATrace_endAsyncSection"));
+            set_counter = reinterpret_cast<decltype(set_counter)>(dlsym(library, "ATrace_setCounter"));
+        }
+    }; /* struct atrace_functions */
+
+    const atrace_functions& atrace()
+    {
+        static const atrace_functions functions;
+        return functions;
+    }
+#else
+    /* Chrome trace JSON (the array format), one event per line */
+    class json_writer
+    {
+    public:
+        bool open(const std::string& path)
+        {
+            std::lock_guard<std::mutex> lock(m_mutex);
+            close_locked();
+            m_file = std::fopen(path.c_str(), "w");
+            if (m_file == nullptr) {
+                return false;
+            }
+            std::fputs("[\n", m_file);
+            m_first = true;
+            return true;
+        }
+
+        void close()
+        {
+            std::lock_guard<std::mutex> lock(m_mutex);
+            close_locked();
+        }
+
+        /* ph is the event type, id and value are written when not null */
+        void write(const char* name, char ph, const int32_t* id, const int64_t* value)
+        {
+            auto ts_us = std::chrono::duration<double, std::micro>(std::chrono::steady_clock::now().time_since_epoch()).count();
+            auto tid = static_cast<long>(syscall(SYS_gettid));
+            std::lock_guard<std::mutex> lock(m_mutex);
+            if (m_file == nullptr) {
+                return;
+            }
+            std::fputs(m_first ? "" : ",\n", m_file);
+            m_first = false;
+            std::fputs("{\"name\":\"", m_file);
+            write_escaped(name != nullptr ? name : "");
+            std::fprintf(m_file, "\",\"cat\":\"oep\",\"ph\":\"%c\",\"ts\":%.3f,\"pid\":%ld,\"tid\":%ld",
+                         ph, ts_us, static_cast<long>(getpid()), tid);
+            if (id != nullptr) {
+                std::fprintf(m_file, ",\"id\":%d", *id);
+            }
+            if (value != nullptr) {
+                std::fprintf(m_file, ",\"args\":{\"value\":%lld}", static_cast<long long>(*value));
+            }
+            std::fputs("}", m_file);
+        }
+
+    private:
+        void close_locked()
+        {
+            if (m_file != nullptr) {
+                std::fputs("\n]\n", m_file);
+                std::fclose(m_file);
+                m_file = nullptr;
+            }
+        }
+
+        void write_escaped(const char* text)
+        {
+            for (; *text != '\0'; ++text) {
+                if (*text == '"' || *text == '\\') {
+                    std::fputc('\\', m_file);
+                }
+                if (static_cast<unsigned char>(*text) >= 0x20) {
+                    std::fputc(*text, m_file);
+                }
+            }
+        }
+
+    private:
+        std::mutex m_mutex;
+        std::FILE* m_file{nullptr};
+        bool m_first{true};
+    }; /* class json_writer */
+
+    json_writer& json()
+    {
+        /* never destroyed, the threads of the players can trace during the exit */
+        static auto writer = new json_writer();
+        return *writer;
+    }
+#endif
+} /* namespace */
+
+namespace bnb::oep::frame_trace
+{
+
+    namespace detail
+    {
+        std::atomic<bool> g_enabled{false};
+
+#if defined(__ANDROID__)
+        /* detail::begin_section */
+        void begin_section(const char* name)
+        {
+            if (atrace().begin_section != nullptr) {
+                atrace().begin_section(name);
+            }
+        }
+
+        /* detail::end_section */
+        void end_section()
+        {
+            if (atrace().end_section != nullptr) {
+                atrace().end_section();
+            }
+        }
+
+        /* detail::begin_async */
+        void begin_async(const char* name, int32_t cookie)
+        {
+            if (atrace().begin_async != nullptr) {
+                atrace().begin_async(name, cookie);
+            }
+        }
+
+        /* detail::end_async */
+        void end_async(const char* name, int32_t cookie)
+        {
+            if (atrace().end_async != nullptr) {
+                atrace().end_async(name, cookie);
+            }
+        }
+
+        /* detail::set_counter */
+        void set_counter(const char* name, int64_t value)
+        {
+            if (atrace().set_counter != nullptr) {
+                atrace().set_counter(name, value);
+            }
+        }
+#else
+        /* detail::begin_section */
+        void begin_section(const char* name)
+        {
+            json().write(name, 'B', nullptr, nullptr);
+        }
+
+        /* detail::end_section */
+        void end_section()
+        {
+            json().write(nullptr, 'E', nullptr, nullptr);
+        }
+
+        /* detail::begin_async */
+        void begin_async(const char* name, int32_t cookie)
+        {
+            json().write(name, 'b', &cookie, nullptr);
+        }
+
+        /* detail::end_async */
+        void end_async(const char* name, int32_t cookie)
+        {
+            json().write(name, 'e', &cookie, nullptr);
+        }
+
+        /* detail::set_counter */
+        void set_counter(const char* name, int64_t value)
+        {
+            json().write(name, 'C', nullptr, &value);
+        }
+#endif
+    } /* namespace detail */
+
+    /* set_enabled */
+    void set_enabled(bool enabled)
+    {
+#if defined(__ANDROID__)
+        /* resolved before the first frame, not in the middle of it */
+        if (enabled) {
+            atrace();
+        }
+#endif
+        detail::g_enabled.store(enabled, std::memory_order_relaxed);
+    }
+
+    /* open_json */
+    bool open_json(const std::string& path)
+    {
+#if defined(__ANDROID__)
+        (void) path;
+        return false;
+#else
+        if (!json().open(path)) {
+            return false;
+        }
+        set_enabled(true);
+        return true;
+#endif
+    }
+
+    /* close_json */
+    void close_json()
+    {
+#if !defined(__ANDROID__)
+        set_enabled(false);
+        json().close();
+#endif
+    }
+
+} /* namespace bnb::oep::frame_trace */
@@ -0,0 +1,105 @@
+#pragma once
+
+#include <atomic>
+#include <cstdint>
+#include <string>
+
+namespace bnb::oep::frame_trace
+{
+
+    /* Trace sections and counters of the frame stages, switched on and off at runtime (FrameTrace.setEnabled()).
+     * On Android they go to the system trace (ATrace), so they show up in Perfetto and systrace next to the
+     * sections of java. On Linux they are written as Chrome trace JSON into the file given to open_json(),
+     * to be opened in Perfetto UI or chrome://tracing.
+     * A frame is followed across threads with an async section named "OEP frame" whose cookie is the frame id.
+     * When the trace is off every call costs one relaxed atomic load. */
+
+    namespace detail
+    {
+        extern std::atomic<bool> g_enabled;
+
+        void begin_section(const char* name);
+        void end_section();
+        void begin_async(const char* name, int32_t cookie);
+        void end_async(const char* name, int32_t cookie);
+        void set_counter(const char* name, int64_t value);
+    } /* namespace detail */
+
+    /* the async section of a frame, from java processImageAsync to the output callback */
+    constexpr const char* frame_section = "OEP frame";
+
+    void set_enabled(bool enabled);
+
+    inline bool enabled()
+    {
+        return detail::g_enabled.load(std::memory_order_relaxed);
+    }
+
+    /* the name must be a literal or outlive the trace, the sections of a thread must nest */
+    inline void begin_section(const char* name)
+    {
+        if (enabled()) {
+            detail::begin_section(name);
+        }
+    }
+
+    inline void end_section()
+    {
+        if (enabled()) {
+            detail::end_section();
+        }
+    }
+
+    /* async sections can begin and end on different threads, cookie 0 means the frame is not traced */
+    inline void begin_async(const char* name, int32_t cookie)
+    {
+        if (cookie != 0 && enabled()) {
+            detail::begin_async(name, cookie);
+        }
+    }
+
+    inline void end_async(const char* name, int32_t cookie)
+    {
+        if (cookie != 0 && enabled()) {
+            detail::end_async(name, cookie);
+        }
+    }
+
+    inline void set_counter(const char* name, int64_t value)
+    {
+        if (enabled()) {
+            detail::set_counter(name, value);
+        }
+    }
+
+    /* Linux only: the events go to the file until close_json(), returns false on Android */
+    bool open_json(const std::string& path);
+    void close_json();
+
+    /* the section of a scope, not ended when the trace was off at its beginning */
+    class scoped_section
+    {
+    public:
+        explicit scoped_section(const char* name)
+            : m_active(enabled())
+        {
+            if (m_active) {
+                detail::begin_section(name);
+            }
+        }
+
+        ~scoped_section()
+        {
+            if (m_active) {
+                detail::end_section();
+            }
+        }
+
+        scoped_section(const scoped_section&) = delete;
+        scoped_section& operator=(const scoped_section&) = delete;
+
+    private:
+        const bool m_active;
+    }; /* class scoped_section */
+
+} /* namespace bnb::oep::frame_trace */
@@ -0,0 +1,146 @@
+#include "frame_marshalling.hpp"
+
+#include <benchmark/benchmark.h>
+
+#include <cstdint>
+#include <vector>
+
+namespace
+{
+    using bnb::oep::interfaces::image_format;
+
+    /* camera frame as CameraX gives it: Y plane and interleaved chroma plane (pixel stride 2) */
+    struct camera_frame
+    {
+        std::vector<uint8_t> y;
+        std::vector<uint8_t> uv;
+        bnb::oep::image_info info{};
+
+        camera_frame(int32_t width, int32_t height, int32_t row_padding)
+        {
+            int32_t stride = width + row_padding;
+            y.assign(static_cast<size_t>(stride) * height, 0x80);
+            uv.assign(static_cast<size_t>(stride) * ((height + 1) / 2), 0x40);
+            info.width = width;
+            info.height = height;
+            info.row_stride0 = stride;
+            info.row_stride1 = stride;
+            info.row_stride2 = stride;
+            info.pixel_stride0 = 1;
+            info.pixel_stride1 = 2;
+            info.pixel_stride2 = 2;
+        }
+
+        size_t bytes() const
+        {
+            return y.size() + uv.size();
+        }
+    };
+
+    void resolutions(benchmark::internal::Benchmark* benchmark)
+    {
+        benchmark->Args({640, 480})->Args({1280, 720})->Args({1920, 1080})->Args({3840, 2160});
+    }
+
+    void BM_read_image_info(benchmark::State& state)
+    {
+        camera_frame frame(static_cast<int32_t>(state.range(0)), static_cast<int32_t>(state.range(1)), 0);
+        for (auto _ : state) {
+            benchmark::DoNotOptimize(bnb::oep::read_image_info(&frame.info));
+        }
+    }
+    BENCHMARK(BM_read_image_info)->Args({1280, 720});
+
+    void BM_create_planes_from_format(benchmark::State& state, image_format format, int32_t row_padding)
+    {
+        camera_frame frame(static_cast<int32_t>(state.range(0)), static_cast<int32_t>(state.range(1)), row_padding);
+        for (auto _ : state) {
+            auto planes = bnb::oep::create_planes_from_format(frame.y.data(), frame.uv.data(), frame.uv.data() + 1, format, frame.info);
+            benchmark::DoNotOptimize(planes.data());
+        }
+        state.SetBytesProcessed(static_cast<int64_t>(state.iterations() * frame.bytes()));
+    }
+    BENCHMARK_CAPTURE(BM_create_planes_from_format, nv12, image_format::nv12_bt601_full, 0)->Apply(resolutions);
+    BENCHMARK_CAPTURE(BM_create_planes_from_format, i420, image_format::i420_bt601_full, 0)->Apply(resolutions);
+    BENCHMARK_CAPTURE(BM_create_planes_from_format, i420_padded_rows, image_format::i420_bt601_full, 64)->Apply(resolutions);
+
+    void BM_create_pixel_buffer(benchmark::State& state, image_format format)
+    {
+        camera_frame frame(static_cast<int32_t>(state.range(0)), static_cast<int32_t>(state.range(1)), 0);
+        for (auto _ : state) {
+            auto image = bnb::oep::create_pixel_buffer(frame.y.data(), frame.uv.data(), frame.uv.data() + 1, frame.info, format);
+            benchmark::DoNotOptimize(image.get());
+        }
+        state.SetBytesProcessed(static_cast<int64_t>(state.iterations() * frame.bytes()));
+    }
+    BENCHMARK_CAPTURE(BM_create_pixel_buffer, nv12, image_format::nv12_bt601_full)->Apply(resolutions);
+    BENCHMARK_CAPTURE(BM_create_pixel_buffer, i420, image_format::i420_bt601_full)->Apply(resolutions);
+
+    /* downscaled input of the resolution governor, the argument is the scale in percent */
+    void BM_create_scaled_pixel_buffer(benchmark::State& state, image_format format)
+    {
+        camera_frame frame(static_cast<int32_t>(state.range(0)), static_cast<int32_t>(state.range(1)), 0);
+        auto width = static_cast<int32_t>(frame.info.width * state.range(2) / 100) & ~1;
+        auto height = static_cast<int32_t>(frame.info.height * state.range(2) / 100) & ~1;
+        for (auto _ : state) {
+            auto image = bnb::oep::create_scaled_pixel_buffer(frame.y.data(), frame.uv.data(), frame.info, format, width, height);
+            benchmark::DoNotOptimize(image.get());
+        }
+        state.SetBytesProcessed(static_cast<int64_t>(state.iterations() * frame.bytes()));
+    }
+    BENCHMARK_CAPTURE(BM_create_scaled_pixel_buffer, nv12, image_format::nv12_bt601_full)
+        ->Args({1280, 720, 75})->Args({1280, 720, 50})->Args({1920, 1080, 75})->Args({1920, 1080, 50});
+    BENCHMARK_CAPTURE(BM_create_scaled_pixel_buffer, i420, image_format::i420_bt601_full)
+        ->Args({1280, 720, 75})->Args({1280, 720, 50});
+
+    /* copy of an output image into tightly packed java buffers, as deliver_pooled_frame and deliver_byte_arrays do */
+    void BM_copy_output_planes(benchmark::State& state, image_format format, int32_t row_padding)
+    {
+        camera_frame frame(static_cast<int32_t>(state.range(0)), static_cast<int32_t>(state.range(1)), row_padding);
+        auto image = bnb::oep::create_pixel_buffer(frame.y.data(), frame.uv.data(), frame.uv.data() + 1, frame.info, format);
+        auto planes = bnb::oep::get_output_planes(image);
+        std::vector<std::vector<uint8_t>> dst;
+        int64_t bytes = 0;
+        for (auto& plane : planes) {
+            dst.emplace_back(static_cast<size_t>(plane.size()));
+            bytes += plane.size();
+        }
+        for (auto _ : state) {
+            for (size_t i = 0; i < planes.size(); ++i) {
+                if (planes[i].data != nullptr) {
+                    bnb::oep::copy_output_plane(dst[i].data(), planes[i]);
+                }
+            }
+            benchmark::ClobberMemory();
+        }
+        state.SetBytesProcessed(state.iterations() * bytes);
+    }
+    BENCHMARK_CAPTURE(BM_copy_output_planes, nv12, image_format::nv12_bt601_full, 0)->Apply(resolutions);
+    BENCHMARK_CAPTURE(BM_copy_output_planes, nv12_padded_rows, image_format::nv12_bt601_full, 64)->Apply(resolutions);
+    BENCHMARK_CAPTURE(BM_copy_output_planes, i420, image_format::i420_bt601_full, 0)->Apply(resolutions);
+
+    /* copy of an output image into java buffers which keep the row stride, one memcpy per plane */
+    void BM_copy_delivered_planes(benchmark::State& state, image_format format, int32_t row_padding)
+    {
+        camera_frame frame(static_cast<int32_t>(state.range(0)), static_cast<int32_t>(state.range(1)), row_padding);
+        auto image = bnb::oep::create_pixel_buffer(frame.y.data(), frame.uv.data(), frame.uv.data() + 1, frame.info, format);
+        auto planes = bnb::oep::get_output_planes(image);
+        std::vector<std::vector<uint8_t>> dst;
+        int64_t bytes = 0;
+        for (auto& plane : planes) {
+            dst.emplace_back(static_cast<size_t>(bnb::oep::delivered_size(plane)));
+            bytes += plane.size();
+        }
+        for (auto _ : state) {
+            for (size_t i = 0; i < planes.size(); ++i) {
+                bnb::oep::copy_delivered_plane(dst[i].data(), planes[i]);
+            }
+            benchmark::ClobberMemory();
+        }
+        state.SetBytesProcessed(state.iterations() * bytes);
+    }
+    BENCHMARK_CAPTURE(BM_copy_delivered_planes, nv12_padded_rows, image_format::nv12_bt601_full, 64)->Apply(resolutions);
+    BENCHMARK_CAPTURE(BM_copy_delivered_planes, i420, image_format::i420_bt601_full, 0)->Apply(resolutions);
+} /* namespace */
+
+BENCHMARK_MAIN();
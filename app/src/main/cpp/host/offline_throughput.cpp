@@ -0,0 +1,120 @@
+#include "frame_trace.hpp"
+#include "offline_pipeline.hpp"
+#include "pass_through_effect_player.hpp"
+
+#include <cstdio>
+#include <cstdlib>
+#include <memory>
+#include <string>
+
+#include <fcntl.h>
+#include <unistd.h>
+
+/* Throughput of the offline pipeline with the pass-through effect player.
+ *
+ *   offline_throughput [input.y4m [output.y4m]]
+ *
+ * Without arguments a 1080p Y4M clip of 300 frames is generated in the temporary directory.
+ * Every run is repeated with 1 to 4 frames in flight.
+ * With OEP_TRACE_JSON=<path> the frame stages are written there as Chrome trace JSON (Perfetto UI, chrome://tracing). */
+
+namespace
+{
+    constexpr int32_t default_width = 1920;
+    constexpr int32_t default_height = 1080;
+    constexpr size_t default_frames = 300;
+
+    std::string temp_path(const char* name)
+    {
+        const char* dir = std::getenv("TMPDIR");
+        return std::string(dir != nullptr ? dir : "/tmp") + "/" + name;
+    }
+
+    /* synthetic clip: moving gradients, written through frame_file_writer */
+    bool generate_clip(const std::string& path)
+    {
+        int fd = ::open(path.c_str(), O_RDWR | O_CREAT | O_TRUNC, 0644);
+        if (fd < 0) {
+            return false;
+        }
+        bnb::oep::frame_sequence_info info;
+        info.container = bnb::oep::frame_container::y4m;
+        info.width = default_width;
+        info.height = default_height;
+        info.frame_count = default_frames;
+        bnb::oep::frame_file_writer writer;
+        bool ok = writer.open(fd, info);
+        for (size_t i = 0; ok && i < info.frame_count; ++i) {
+            auto frame = writer.frame(i);
+            for (int32_t plane = 0; plane < 3; ++plane) {
+                auto row_size = bnb::oep::frame_converter::plane_row_size(frame.format, frame.width, plane);
+                auto rows = bnb::oep::frame_converter::plane_rows(frame.format, frame.height, plane);
+                for (int32_t y = 0; y < rows; ++y) {
+                    uint8_t* row = frame.planes[plane].data + static_cast<size_t>(y) * frame.planes[plane].stride;
+                    for (int32_t x = 0; x < row_size; ++x) {
+                        row[x] = static_cast<uint8_t>(x + y + i * (plane + 1));
+                    }
+                }
+            }
+        }
+        ok = writer.close() && ok;
+        ::close(fd);
+        return ok;
+    }
+
+    bool run(const std::string& input, const std::string& output, size_t frames_in_flight)
+    {
+        int in_fd = ::open(input.c_str(), O_RDONLY);
+        int out_fd = ::open(output.c_str(), O_RDWR | O_CREAT | O_TRUNC, 0644);
+        if (in_fd < 0 || out_fd < 0) {
+            std::fprintf(stderr, "can not open %s or %s\n", input.c_str(), output.c_str());
+            return false;
+        }
+
+        bnb::oep::frame_file_reader reader;
+        bnb::oep::frame_file_writer writer;
+        bool ok = reader.open(in_fd, bnb::oep::frame_container::y4m) && writer.open(out_fd, reader.info());
+        ::close(in_fd);
+        ::close(out_fd);
+        if (!ok) {
+            std::fprintf(stderr, "%s is not a 4:2:0 Y4M clip\n", input.c_str());
+            return false;
+        }
+
+        auto player = std::make_shared<bnb::oep::pass_through_effect_player>();
+        bnb::oep::offline_pipeline pipeline(player, [player](const pixel_buffer_sptr&) {
+            return bnb::oep::rendered_frame{player->last_drawn_frame()};
+        });
+        bnb::oep::offline_options options;
+        options.max_frames_in_flight = frames_in_flight;
+        auto stats = pipeline.run(reader, writer, options);
+        ok = writer.close();
+
+        auto& info = reader.info();
+        std::printf("%dx%d, %zu in flight: %zu/%zu frames in %.1f ms, %.1f fps\n",
+                    info.width, info.height, frames_in_flight, stats.frames_written, stats.frames_read,
+                    stats.elapsed_ns / 1e6, stats.fps());
+        return ok;
+    }
+} /* namespace */
+
+int main(int argc, char** argv)
+{
+    std::string input = argc > 1 ? argv[1] : temp_path("offline_throughput_input.y4m");
+    std::string output = argc > 2 ? argv[2] : temp_path("offline_throughput_output.y4m");
+    if (argc <= 1 && !generate_clip(input)) {
+        std::fprintf(stderr, "can not generate %s\n", input.c_str());
+        return EXIT_FAILURE;
+    }
+    const char* trace_path = std::getenv("OEP_TRACE_JSON");
+    if (trace_path != nullptr && !bnb::oep::frame_trace::open_json(trace_path)) {
+        std::fprintf(stderr, "can not open %s\n", trace_path);
+        return EXIT_FAILURE;
+    }
+    bool ok = true;
+    for (size_t frames_in_flight = 1; ok && frames_in_flight <= 4; ++frames_in_flight) {
+        ok = run(input, output, frames_in_flight);
+    }
+    bnb::oep::frame_trace::close_json();
+    return ok ? EXIT_SUCCESS : EXIT_FAILURE;
+}
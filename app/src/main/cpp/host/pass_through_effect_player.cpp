@@ -0,0 +1,23 @@
+#include "pass_through_effect_player.hpp"
+
+namespace bnb::oep
+{
+
+    /* pass_through_effect_player::push_frame */
+    void pass_through_effect_player::push_frame(pixel_buffer_sptr image, bnb::oep::interfaces::rotation image_orientation, bool require_mirroring)
+    {
+        m_pushed = std::move(image);
+    }
+
+    /* pass_through_effect_player::draw */
+    int64_t pass_through_effect_player::draw()
+    {
+        if (m_pushed == nullptr) {
+            return -1;
+        }
+        m_drawn = std::move(m_pushed);
+        m_pushed = nullptr;
+        return m_frame_number++;
+    }
+
+} /* namespace bnb::oep */
@@ -0,0 +1,55 @@
+#pragma once
+
+#include <interfaces/effect_player.hpp>
+
+#include <cstdint>
+
+namespace bnb::oep
+{
+
+    /* Effect player without an effect: draw() outputs the pushed frame as is.
+     * With it the offline pipeline is measured on a desktop host without the SDK and without GL. */
+    class pass_through_effect_player : public bnb::oep::interfaces::effect_player
+    {
+    public:
+        void surface_created(int32_t width, int32_t height) override {}
+
+        void surface_changed(int32_t width, int32_t height) override {}
+
+        void surface_destroyed() override {}
+
+        bool load_effect(const std::string& effect) override
+        {
+            return true;
+        }
+
+        bool call_js_method(const std::string& method, const std::string& param) override
+        {
+            return true;
+        }
+
+        void eval_js(const std::string& script, oep_eval_js_result_cb result_callback) override {}
+
+        void pause() override {}
+
+        void resume() override {}
+
+        void stop() override {}
+
+        void push_frame(pixel_buffer_sptr image, bnb::oep::interfaces::rotation image_orientation, bool require_mirroring) override;
+
+        int64_t draw() override;
+
+        /* the frame of the last draw(), the output of the offline pipeline readback */
+        pixel_buffer_sptr last_drawn_frame() const
+        {
+            return m_drawn;
+        }
+
+    private:
+        pixel_buffer_sptr m_pushed{nullptr};
+        pixel_buffer_sptr m_drawn{nullptr};
+        int64_t m_frame_number{0};
+    }; /* class pass_through_effect_player */
+
+} /* namespace bnb::oep */
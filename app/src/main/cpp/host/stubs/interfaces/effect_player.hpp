@@ -0,0 +1,42 @@
+#pragma once
+
+/* Host stand-in for the header of the OEP module, only what the host build uses */
+
+#include "image_format.hpp"
+#include "pixel_buffer.hpp"
+
+#include <cstdint>
+#include <functional>
+#include <memory>
+#include <string>
+
+namespace bnb::oep::interfaces
+{
+    class effect_player;
+}
+
+using effect_player_sptr = std::shared_ptr<bnb::oep::interfaces::effect_player>;
+using oep_eval_js_result_cb = std::function<void(std::string result)>;
+
+namespace bnb::oep::interfaces
+{
+
+    class effect_player
+    {
+    public:
+        virtual ~effect_player() = default;
+
+        virtual void surface_created(int32_t width, int32_t height) = 0;
+        virtual void surface_changed(int32_t width, int32_t height) = 0;
+        virtual void surface_destroyed() = 0;
+        virtual bool load_effect(const std::string& effect) = 0;
+        virtual bool call_js_method(const std::string& method, const std::string& param) = 0;
+        virtual void eval_js(const std::string& script, oep_eval_js_result_cb result_callback) = 0;
+        virtual void pause() = 0;
+        virtual void resume() = 0;
+        virtual void stop() = 0;
+        virtual void push_frame(pixel_buffer_sptr image, rotation image_orientation, bool require_mirroring) = 0;
+        virtual int64_t draw() = 0;
+    }; /* class effect_player */
+
+} /* namespace bnb::oep::interfaces */
@@ -0,0 +1,33 @@
+#pragma once
+
+/* Host stand-in for the header of the OEP module, only what the host build uses */
+
+namespace bnb::oep::interfaces
+{
+
+    enum class image_format
+    {
+        bpc8_rgb,
+        bpc8_bgr,
+        bpc8_rgba,
+        bpc8_bgra,
+        bpc8_argb,
+        nv12_bt601_full,
+        nv12_bt601_video,
+        nv12_bt709_full,
+        nv12_bt709_video,
+        i420_bt601_full,
+        i420_bt601_video,
+        i420_bt709_full,
+        i420_bt709_video
+    }; /* enum class image_format */
+
+    enum class rotation
+    {
+        deg0,
+        deg90,
+        deg180,
+        deg270
+    }; /* enum class rotation */
+
+} /* namespace bnb::oep::interfaces */
@@ -0,0 +1,54 @@
+#pragma once
+
+/* Host stand-in for the header of the OEP module, only what the host build uses */
+
+#include "image_format.hpp"
+
+#include <cstddef>
+#include <cstdint>
+#include <functional>
+#include <memory>
+#include <vector>
+
+namespace bnb::oep::interfaces
+{
+    class pixel_buffer;
+}
+
+using pixel_buffer_sptr = std::shared_ptr<bnb::oep::interfaces::pixel_buffer>;
+
+namespace bnb::oep::interfaces
+{
+
+    class pixel_buffer
+    {
+    public:
+        using plane_sptr = std::shared_ptr<uint8_t>;
+        using pixel_buffer_delete_cb = std::function<void(pixel_buffer*)>;
+
+        struct plane_data
+        {
+            plane_sptr data{nullptr};
+            size_t size{0};
+            int32_t bytes_per_row{0};
+        };
+
+        static pixel_buffer_sptr create(const std::vector<plane_data>& planes, image_format fmt, int32_t width, int32_t height, pixel_buffer_delete_cb deleter);
+
+        virtual ~pixel_buffer() = default;
+
+        virtual image_format get_image_format() = 0;
+        virtual int32_t get_plane_count() = 0;
+        virtual plane_sptr get_base_sptr() = 0;
+        virtual plane_sptr get_base_sptr_of_plane(int32_t plane) = 0;
+        virtual int32_t get_bytes_per_pixel() = 0;
+        virtual int32_t get_bytes_per_pixel_of_plane(int32_t plane) = 0;
+        virtual int32_t get_bytes_per_row() = 0;
+        virtual int32_t get_bytes_per_row_of_plane(int32_t plane) = 0;
+        virtual int32_t get_width() = 0;
+        virtual int32_t get_width_of_plane(int32_t plane) = 0;
+        virtual int32_t get_height() = 0;
+        virtual int32_t get_height_of_plane(int32_t plane) = 0;
+    }; /* class pixel_buffer */
+
+} /* namespace bnb::oep::interfaces */
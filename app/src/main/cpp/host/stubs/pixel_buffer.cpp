@@ -0,0 +1,109 @@
+#include <interfaces/pixel_buffer.hpp>
+
+namespace
+{
+    using bnb::oep::interfaces::image_format;
+    using bnb::oep::interfaces::pixel_buffer;
+
+    bool is_nv12(image_format format)
+    {
+        return format >= image_format::nv12_bt601_full && format <= image_format::nv12_bt709_video;
+    }
+
+    bool is_i420(image_format format)
+    {
+        return format >= image_format::i420_bt601_full && format <= image_format::i420_bt709_video;
+    }
+
+    /* Host stand-in for the pixel buffer of the OEP module: keeps the planes and reports their geometry */
+    class host_pixel_buffer : public pixel_buffer
+    {
+    public:
+        host_pixel_buffer(const std::vector<plane_data>& planes, image_format format, int32_t width, int32_t height)
+            : m_planes(planes)
+            , m_format(format)
+            , m_width(width)
+            , m_height(height)
+        {
+        }
+
+        image_format get_image_format() override
+        {
+            return m_format;
+        }
+
+        int32_t get_plane_count() override
+        {
+            return static_cast<int32_t>(m_planes.size());
+        }
+
+        plane_sptr get_base_sptr() override
+        {
+            return get_base_sptr_of_plane(0);
+        }
+
+        plane_sptr get_base_sptr_of_plane(int32_t plane) override
+        {
+            return m_planes.at(plane).data;
+        }
+
+        int32_t get_bytes_per_pixel() override
+        {
+            return get_bytes_per_pixel_of_plane(0);
+        }
+
+        int32_t get_bytes_per_pixel_of_plane(int32_t plane) override
+        {
+            if (is_nv12(m_format)) {
+                return plane == 0 ? 1 : 2;
+            }
+            if (is_i420(m_format)) {
+                return 1;
+            }
+            return m_format == image_format::bpc8_rgb || m_format == image_format::bpc8_bgr ? 3 : 4;
+        }
+
+        int32_t get_bytes_per_row() override
+        {
+            return get_bytes_per_row_of_plane(0);
+        }
+
+        int32_t get_bytes_per_row_of_plane(int32_t plane) override
+        {
+            return m_planes.at(plane).bytes_per_row;
+        }
+
+        int32_t get_width() override
+        {
+            return m_width;
+        }
+
+        int32_t get_width_of_plane(int32_t plane) override
+        {
+            return plane == 0 ? m_width : (m_width + 1) / 2;
+        }
+
+        int32_t get_height() override
+        {
+            return m_height;
+        }
+
+        int32_t get_height_of_plane(int32_t plane) override
+        {
+            return plane == 0 ? m_height : (m_height + 1) / 2;
+        }
+
+    private:
+        std::vector<plane_data> m_planes;
+        image_format m_format;
+        int32_t m_width;
+        int32_t m_height;
+    }; /* class host_pixel_buffer */
+} /* namespace */
+
+/* pixel_buffer::create */
+pixel_buffer_sptr bnb::oep::interfaces::pixel_buffer::create(
+        const std::vector<plane_data>& planes, image_format fmt, int32_t width, int32_t height, pixel_buffer_delete_cb deleter)
+{
+    return pixel_buffer_sptr(new host_pixel_buffer(planes, fmt, width, height), std::move(deleter));
+}
@@ -0,0 +1,269 @@
+#include "texture_exporter.hpp"
+
+#include <cstdint>
+#include <cstdio>
+#include <vector>
+
+/* Test of texture_exporter on a headless EGL display, e.g. Mesa llvmpipe:
+ *
+ *   EGL_PLATFORM=surfaceless LIBGL_ALWAYS_SOFTWARE=1 ./texture_exporter_test
+ *
+ * Two contexts which share nothing stand in for the render context of the effect player and the one of the
+ * application. The "player" clears its render target to a color per frame and exports it, the "application"
+ * imports the frames and reads them back. Returns non-zero when a check fails. */
+
+namespace
+{
+    constexpr int32_t frame_width = 64;
+    constexpr int32_t frame_height = 32;
+
+    int g_failures = 0;
+
+    void check(bool condition, const char* what)
+    {
+        if (!condition) {
+            std::fprintf(stderr, "FAILED: %s\n", what);
+            ++g_failures;
+        }
+    }
+
+    struct rgba
+    {
+        uint8_t r, g, b, a;
+
+        bool operator==(const rgba& other) const
+        {
+            return r == other.r && g == other.g && b == other.b && a == other.a;
+        }
+    }; /* struct rgba */
+
+    rgba frame_color(int frame)
+    {
+        return {static_cast<uint8_t>(frame * 40), static_cast<uint8_t>(255 - frame * 40), static_cast<uint8_t>(frame * 7), 255};
+    }
+
+    /* a display, a config and two contexts without surfaces */
+    class egl_environment
+    {
+    public:
+        bool init()
+        {
+            m_display = eglGetDisplay(EGL_DEFAULT_DISPLAY);
+            if (m_display == EGL_NO_DISPLAY || !eglInitialize(m_display, nullptr, nullptr)) {
+                std::fprintf(stderr, "no EGL display, run with EGL_PLATFORM=surfaceless\n");
+                return false;
+            }
+            eglBindAPI(EGL_OPENGL_ES_API);
+            const EGLint config_attribs[] = {EGL_RENDERABLE_TYPE, EGL_OPENGL_ES3_BIT_KHR, EGL_NONE};
+            EGLConfig config = nullptr;
+            EGLint count = 0;
+            if (!eglChooseConfig(m_display, config_attribs, &config, 1, &count) || count == 0) {
+                std::fprintf(stderr, "no GLES 3 config\n");
+                return false;
+            }
+            const EGLint context_attribs[] = {EGL_CONTEXT_CLIENT_VERSION, 3, EGL_NONE};
+            m_player = eglCreateContext(m_display, config, EGL_NO_CONTEXT, context_attribs);
+            m_application = eglCreateContext(m_display, config, EGL_NO_CONTEXT, context_attribs);
+            return m_player != EGL_NO_CONTEXT && m_application != EGL_NO_CONTEXT;
+        }
+
+        ~egl_environment()
+        {
+            if (m_display != EGL_NO_DISPLAY) {
+                eglMakeCurrent(m_display, EGL_NO_SURFACE, EGL_NO_SURFACE, EGL_NO_CONTEXT);
+                eglDestroyContext(m_display, m_player);
+                eglDestroyContext(m_display, m_application);
+                eglTerminate(m_display);
+            }
+        }
+
+        bool make_player_current()
+        {
+            return eglMakeCurrent(m_display, EGL_NO_SURFACE, EGL_NO_SURFACE, m_player);
+        }
+
+        bool make_application_current()
+        {
+            return eglMakeCurrent(m_display, EGL_NO_SURFACE, EGL_NO_SURFACE, m_application);
+        }
+
+    private:
+        EGLDisplay m_display{EGL_NO_DISPLAY};
+        EGLContext m_player{EGL_NO_CONTEXT};
+        EGLContext m_application{EGL_NO_CONTEXT};
+    }; /* class egl_environment */
+
+    /* the render target of the player, rendered into again for every frame like the one of the OEP */
+    class player_target
+    {
+    public:
+        void init(int32_t width, int32_t height)
+        {
+            m_width = width;
+            m_height = height;
+            glGenTextures(1, &m_texture);
+            glBindTexture(GL_TEXTURE_2D, m_texture);
+            glTexStorage2D(GL_TEXTURE_2D, 1, GL_RGBA8, width, height);
+            glGenFramebuffers(1, &m_framebuffer);
+            glBindFramebuffer(GL_FRAMEBUFFER, m_framebuffer);
+            glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, m_texture, 0);
+        }
+
+        void render(rgba color)
+        {
+            glBindFramebuffer(GL_FRAMEBUFFER, m_framebuffer);
+            glViewport(0, 0, m_width, m_height);
+            glClearColor(color.r / 255.0f, color.g / 255.0f, color.b / 255.0f, color.a / 255.0f);
+            glClear(GL_COLOR_BUFFER_BIT);
+        }
+
+        GLuint texture() const
+        {
+            return m_texture;
+        }
+
+    private:
+        GLuint m_texture{0};
+        GLuint m_framebuffer{0};
+        int32_t m_width{0};
+        int32_t m_height{0};
+    }; /* class player_target */
+
+    /* imports the texture into a new texture of the current context and reads its corners */
+    bool read_imported(bnb::oep::exported_texture& texture, rgba& first, rgba& last)
+    {
+        GLuint target = 0;
+        glGenTextures(1, &target);
+        bool imported = texture.import_to(target);
+        GLuint framebuffer = 0;
+        glGenFramebuffers(1, &framebuffer);
+        glBindFramebuffer(GL_FRAMEBUFFER, framebuffer);
+        glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, target, 0);
+        std::vector<rgba> pixels(static_cast<size_t>(texture.width()) * texture.height());
+        bool complete = glCheckFramebufferStatus(GL_FRAMEBUFFER) == GL_FRAMEBUFFER_COMPLETE;
+        if (imported && complete) {
+            glReadPixels(0, 0, texture.width(), texture.height(), GL_RGBA, GL_UNSIGNED_BYTE, pixels.data());
+            first = pixels.front();
+            last = pixels.back();
+        }
+        texture.finish_sampling();
+        glBindFramebuffer(GL_FRAMEBUFFER, 0);
+        glDeleteFramebuffers(1, &framebuffer);
+        glDeleteTextures(1, &target);
+        return imported && complete && glGetError() == GL_NO_ERROR;
+    }
+
+    bool has_color(egl_environment& egl, bnb::oep::exported_texture& texture, rgba color)
+    {
+        egl.make_application_current();
+        rgba first{};
+        rgba last{};
+        bool read = read_imported(texture, first, last);
+        egl.make_player_current();
+        return read && first == color && last == color;
+    }
+
+    /* The player renders the next frames into the same texture, a frame held by the application keeps its content */
+    void test_held_frame_is_not_overwritten(egl_environment& egl)
+    {
+        bnb::oep::texture_exporter exporter;
+        player_target target;
+        target.init(frame_width, frame_height);
+
+        std::vector<bnb::oep::exported_texture> frames(2);
+        for (int frame = 0; frame < 2; ++frame) {
+            target.render(frame_color(frame));
+            check(exporter.export_texture(target.texture(), frame_width, frame_height, frames[frame]), "export of a frame");
+        }
+        check(has_color(egl, frames[1], frame_color(1)), "the last frame has its color");
+        check(has_color(egl, frames[0], frame_color(0)), "the previous frame is not overwritten by the last one");
+    }
+
+    /* The textures go back to the exporter, a long run needs no more than slot_count of them */
+    void test_returned_textures_are_reused(egl_environment& egl)
+    {
+        bnb::oep::texture_exporter exporter;
+        player_target target;
+        target.init(frame_width, frame_height);
+
+        for (int frame = 0; frame < 20; ++frame) {
+            target.render(frame_color(frame % 6));
+            bnb::oep::exported_texture texture;
+            bool exported = exporter.export_texture(target.texture(), frame_width, frame_height, texture);
+            check(exported, "export of a frame after the previous one was returned");
+            if (exported) {
+                check(has_color(egl, texture, frame_color(frame % 6)), "a reused texture has the new frame");
+            }
+        }
+    }
+
+    /* The frames are dropped while the application holds every texture, not rendered into the held ones */
+    void test_held_textures_drop_frames(egl_environment& egl)
+    {
+        bnb::oep::texture_exporter exporter;
+        player_target target;
+        target.init(frame_width, frame_height);
+
+        std::vector<bnb::oep::exported_texture> held(bnb::oep::texture_exporter::slot_count);
+        for (size_t i = 0; i < held.size(); ++i) {
+            target.render(frame_color(static_cast<int>(i)));
+            check(exporter.export_texture(target.texture(), frame_width, frame_height, held[i]), "export while textures are free");
+        }
+        bnb::oep::exported_texture dropped;
+        target.render(frame_color(5));
+        check(!exporter.export_texture(target.texture(), frame_width, frame_height, dropped), "no export while every texture is held");
+        for (size_t i = 0; i < held.size(); ++i) {
+            check(has_color(egl, held[i], frame_color(static_cast<int>(i))), "a held frame keeps its color");
+        }
+
+        held[0] = bnb::oep::exported_texture();
+        bnb::oep::exported_texture next;
+        target.render(frame_color(5));
+        check(exporter.export_texture(target.texture(), frame_width, frame_height, next), "export after a texture was returned");
+        check(has_color(egl, next, frame_color(5)), "the returned texture has the new frame");
+    }
+
+    /* A new size recreates the textures, the held ones stay valid, also after the exporter is destroyed */
+    void test_resize_keeps_held_frames(egl_environment& egl)
+    {
+        bnb::oep::exported_texture small;
+        bnb::oep::exported_texture large;
+        {
+            bnb::oep::texture_exporter exporter;
+            player_target small_target;
+            small_target.init(frame_width / 2, frame_height / 2);
+            small_target.render(frame_color(1));
+            check(exporter.export_texture(small_target.texture(), frame_width / 2, frame_height / 2, small), "export before the resize");
+
+            player_target large_target;
+            large_target.init(frame_width, frame_height);
+            large_target.render(frame_color(2));
+            check(exporter.export_texture(large_target.texture(), frame_width, frame_height, large), "export after the resize");
+        }
+        check(small.width() == frame_width / 2 && large.width() == frame_width, "the frames have their sizes");
+        check(has_color(egl, small, frame_color(1)), "the frame of the old size is valid");
+        check(has_color(egl, large, frame_color(2)), "the frame is valid after the exporter is destroyed");
+    }
+} /* namespace */
+
+int main()
+{
+    egl_environment egl;
+    if (!egl.init() || !egl.make_player_current()) {
+        std::fprintf(stderr, "can not create the GLES 3 contexts\n");
+        return 2;
+    }
+    std::printf("GL_RENDERER %s\n", reinterpret_cast<const char*>(glGetString(GL_RENDERER)));
+
+    test_held_frame_is_not_overwritten(egl);
+    test_returned_textures_are_reused(egl);
+    test_held_textures_drop_frames(egl);
+    test_resize_keeps_held_frames(egl);
+
+    if (g_failures > 0) {
+        std::fprintf(stderr, "%d checks failed\n", g_failures);
+        return 1;
+    }
+    std::printf("all checks passed\n");
+    return 0;
+}
@@ -0,0 +1,113 @@
+#include "js_command_queue.hpp"
+
+namespace bnb::oep
+{
+
+    /* js_command_queue::call_js_method */
+    void js_command_queue::call_js_method(const std::string& method, const std::string& param, const std::string& key)
+    {
+        /* the method is a part of the key, the same key of two methods does not merge them */
+        auto full_key = key.empty() ? method : method + '\0' + key;
+        std::lock_guard<std::mutex> lock(m_mutex);
+        ++m_stats.calls_issued;
+        auto found = m_calls.find(full_key);
+        if (found != m_calls.end()) {
+            m_pending.erase(found->second);
+            m_calls.erase(found);
+            ++m_stats.calls_coalesced;
+        }
+        m_pending.push_back({full_key, method, param, false, nullptr});
+        m_calls.emplace(std::move(full_key), std::prev(m_pending.end()));
+        m_empty.store(false, std::memory_order_release);
+    }
+
+    /* js_command_queue::eval_js */
+    void js_command_queue::eval_js(const std::string& script, eval_result_cb result_callback)
+    {
+        std::lock_guard<std::mutex> lock(m_mutex);
+        ++m_stats.evals_issued;
+        m_pending.push_back({{}, script, {}, true, std::move(result_callback)});
+        m_empty.store(false, std::memory_order_release);
+    }
+
+    /* js_command_queue::apply */
+    size_t js_command_queue::apply(const call_fn& call, const eval_fn& eval)
+    {
+        /* a frame without commands does not take the lock */
+        if (m_empty.load(std::memory_order_acquire)) {
+            return 0;
+        }
+        std::list<command> batch;
+        {
+            std::lock_guard<std::mutex> lock(m_mutex);
+            batch.swap(m_pending);
+            m_calls.clear();
+            m_empty.store(true, std::memory_order_release);
+        }
+        if (batch.empty()) {
+            return 0;
+        }
+
+        /* the commands run without the lock, a script result callback can issue new commands */
+        int64_t calls = 0;
+        int64_t evals = 0;
+        for (auto& cmd : batch) {
+            if (cmd.is_eval) {
+                eval(cmd.method, std::move(cmd.result_callback));
+                ++evals;
+            } else {
+                call(cmd.method, cmd.param);
+                ++calls;
+            }
+        }
+
+        std::lock_guard<std::mutex> lock(m_mutex);
+        m_stats.calls_applied += calls;
+        m_stats.evals_applied += evals;
+        ++m_stats.batches;
+        return batch.size();
+    }
+
+    /* js_command_queue::clear */
+    size_t js_command_queue::clear()
+    {
+        std::list<command> dropped;
+        {
+            std::lock_guard<std::mutex> lock(m_mutex);
+            dropped.swap(m_pending);
+            m_calls.clear();
+            m_empty.store(true, std::memory_order_release);
+        }
+        /* the result callbacks are destroyed without the lock, like in apply() */
+        return dropped.size();
+    }
+
+    /* js_command_queue::empty */
+    bool js_command_queue::empty() const
+    {
+        return m_empty.load(std::memory_order_acquire);
+    }
+
+    /* js_command_queue::get_stats */
+    js_command_queue::stats js_command_queue::get_stats() const
+    {
+        std::lock_guard<std::mutex> lock(m_mutex);
+        auto current = m_stats;
+        current.pending = static_cast<int64_t>(m_pending.size());
+        return current;
+    }
+
+    /* js_command_queue::snapshot */
+    void js_command_queue::snapshot(int64_t* values) const
+    {
+        auto current = get_stats();
+        values[0] = current.calls_issued;
+        values[1] = current.calls_applied;
+        values[2] = current.calls_coalesced;
+        values[3] = current.evals_issued;
+        values[4] = current.evals_applied;
+        values[5] = current.batches;
+        values[6] = current.pending;
+    }
+
+} /* namespace bnb::oep */
@@ -0,0 +1,85 @@
+#pragma once
+
+#include <atomic>
+#include <cstddef>
+#include <cstdint>
+#include <functional>
+#include <list>
+#include <mutex>
+#include <string>
+#include <unordered_map>
+
+namespace bnb::oep
+{
+
+    /* JS commands of the effect, collected from any thread and applied on the render thread once per frame,
+     * right before effect_player::draw. A call replaces the pending call with the same key (the method,
+     * or the method and the key given by the caller), e.g. a slider sending hundreds of values per second
+     * reaches the effect with the last value of every frame. The replaced call moves to the end of the batch,
+     * so the calls are applied in the order of their last values. Scripts are never merged, they have side effects
+     * and results. */
+    class js_command_queue
+    {
+    public:
+        using eval_result_cb = std::function<void(const std::string& result)>;
+
+        struct stats
+        {
+            /* call_js_method requests */
+            int64_t calls_issued{0};
+            /* calls passed to the effect */
+            int64_t calls_applied{0};
+            /* calls replaced by a later one with the same key */
+            int64_t calls_coalesced{0};
+            int64_t evals_issued{0};
+            int64_t evals_applied{0};
+            /* non-empty batches applied */
+            int64_t batches{0};
+            /* commands waiting for the next frame */
+            int64_t pending{0};
+        }; /* struct stats */
+
+        /* an empty key coalesces by the method alone */
+        void call_js_method(const std::string& method, const std::string& param, const std::string& key = {});
+
+        /* result_callback can be empty, it is called on the render thread */
+        void eval_js(const std::string& script, eval_result_cb result_callback);
+
+        using call_fn = std::function<void(const std::string& method, const std::string& param)>;
+        using eval_fn = std::function<void(const std::string& script, eval_result_cb result_callback)>;
+
+        /* called on the render thread, runs the pending commands in order. Returns the number of commands. */
+        size_t apply(const call_fn& call, const eval_fn& eval);
+
+        /* drops the pending commands, the result callbacks of the dropped scripts are destroyed without a call.
+         * Returns the number of commands. */
+        size_t clear();
+
+        bool empty() const;
+
+        stats get_stats() const;
+
+        /* layout of snapshot(): the fields of stats in their order */
+        static constexpr size_t snapshot_size = 7;
+        void snapshot(int64_t* values) const;
+
+    private:
+        struct command
+        {
+            std::string key;
+            std::string method;
+            std::string param;
+            bool is_eval{false};
+            eval_result_cb result_callback;
+        }; /* struct command */
+
+    private:
+        mutable std::mutex m_mutex;
+        std::list<command> m_pending;
+        /* the pending call of a key, scripts are not here */
+        std::unordered_map<std::string, std::list<command>::iterator> m_calls;
+        std::atomic<bool> m_empty{true};
+        stats m_stats;
+    }; /* class js_command_queue */
+
+} /* namespace bnb::oep */
@@ -0,0 +1,108 @@
+#pragma once
+
+#include <atomic>
+#include <cstddef>
+#include <memory>
+#include <utility>
+
+namespace bnb::oep
+{
+
+    /* Bounded multi-producer multi-consumer queue without locks (D. Vyukov's algorithm).
+     * Every cell carries a sequence number which tells producers and consumers whether the cell is ready for them.
+     * The capacity is rounded up to a power of two. */
+    template<typename T>
+    class lock_free_queue
+    {
+    public:
+        explicit lock_free_queue(size_t capacity)
+            : m_capacity(round_up_to_power_of_two(capacity))
+            , m_mask(m_capacity - 1)
+            , m_cells(std::make_unique<cell[]>(m_capacity))
+        {
+            for (size_t i = 0; i < m_capacity; ++i) {
+                m_cells[i].sequence.store(i, std::memory_order_relaxed);
+            }
+        }
+
+        lock_free_queue(const lock_free_queue&) = delete;
+        lock_free_queue& operator=(const lock_free_queue&) = delete;
+
+        /* returns false when the queue is full */
+        bool try_push(T value)
+        {
+            size_t pos = m_enqueue_pos.load(std::memory_order_relaxed);
+            cell* c;
+            for (;;) {
+                c = &m_cells[pos & m_mask];
+                size_t seq = c->sequence.load(std::memory_order_acquire);
+                auto diff = static_cast<std::ptrdiff_t>(seq) - static_cast<std::ptrdiff_t>(pos);
+                if (diff == 0) {
+                    if (m_enqueue_pos.compare_exchange_weak(pos, pos + 1, std::memory_order_relaxed)) {
+                        break;
+                    }
+                } else if (diff < 0) {
+                    return false;
+                } else {
+                    pos = m_enqueue_pos.load(std::memory_order_relaxed);
+                }
+            }
+            c->value = std::move(value);
+            c->sequence.store(pos + 1, std::memory_order_release);
+            return true;
+        }
+
+        /* returns false when the queue is empty */
+        bool try_pop(T& value)
+        {
+            size_t pos = m_dequeue_pos.load(std::memory_order_relaxed);
+            cell* c;
+            for (;;) {
+                c = &m_cells[pos & m_mask];
+                size_t seq = c->sequence.load(std::memory_order_acquire);
+                auto diff = static_cast<std::ptrdiff_t>(seq) - static_cast<std::ptrdiff_t>(pos + 1);
+                if (diff == 0) {
+                    if (m_dequeue_pos.compare_exchange_weak(pos, pos + 1, std::memory_order_relaxed)) {
+                        break;
+                    }
+                } else if (diff < 0) {
+                    return false;
+                } else {
+                    pos = m_dequeue_pos.load(std::memory_order_relaxed);
+                }
+            }
+            value = std::move(c->value);
+            c->value = T{};
+            c->sequence.store(pos + m_mask + 1, std::memory_order_release);
+            return true;
+        }
+
+        size_t capacity() const
+        {
+            return m_capacity;
+        }
+
+    private:
+        static size_t round_up_to_power_of_two(size_t value)
+        {
+            size_t result = 2;
+            while (result < value) {
+                result <<= 1;
+            }
+            return result;
+        }
+
+        struct cell
+        {
+            std::atomic<size_t> sequence{0};
+            T value{};
+        };
+
+        const size_t m_capacity;
+        const size_t m_mask;
+        std::unique_ptr<cell[]> m_cells;
+        alignas(64) std::atomic<size_t> m_enqueue_pos{0};
+        alignas(64) std::atomic<size_t> m_dequeue_pos{0};
+    }; /* class lock_free_queue */
+
+} /* namespace bnb::oep */
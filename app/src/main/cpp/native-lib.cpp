@@ -3,8 +3,20 @@
 #include <bnb/error.h>
 #include <bnb/utility_manager.h>
 
+#include "callback_dispatcher.hpp"
 #include "effect_player.hpp"
+#include "fenced_readback.hpp"
+#include "frame_converter.hpp"
+#include "frame_marshalling.hpp"
+#include "frame_metrics.hpp"
+#include "frame_trace.hpp"
+#include "js_command_queue.hpp"
+#include "offline_pipeline.hpp"
+#include "offline_render_target.hpp"
 #include "render_context.hpp"
+#include "resolution_governor.hpp"
+#include "slab_pool.hpp"
+#include "texture_exporter.hpp"
 #include "oep/interfaces/pixel_buffer.hpp"
 #include "oep/interfaces/image_format.hpp"
 #include "oep/interfaces/offscreen_effect_player.hpp"
@@ -13,8 +25,14 @@
 #include <android/log.h>
 #include <jni.h>
 
+#include <algorithm>
+#include <array>
+#include <atomic>
 #include <cassert>
+#include <cstring>
+#include <mutex>
 #include <string>
+#include <type_traits>
 #include <vector>
 
 #include <stdio.h>
@@ -27,120 +45,174 @@ namespace
         __android_log_print(ANDROID_LOG_ERROR, "OEP_ERROR ", "%s\n", message);
     }
 
-    struct image_info {
-        int width;
-        int height;
-        int row_stride0;
-        int row_stride1;
-        int row_stride2;
-        int pixel_stride0;
-        int pixel_stride1;
-        int pixel_stride2;
-        int input_orientation;
-        int output_orientation;
-        int pixel_format;
-        int image_format;
-        bool require_mirroring;
-    };
-
-    int get_int_field(const char* field_name, JNIEnv* env, jobject object, jclass object_class)
-    {
-        jfieldID field_id = env->GetFieldID(object_class, field_name, "I");
-        return env->GetIntField(object, field_id);
-    }
-
-    bool get_bool_field(const char* field_name, JNIEnv* env, jobject object, jclass object_class)
-    {
-        jfieldID field_id = env->GetFieldID(object_class, field_name, "Z");
-        return env->GetBooleanField(object, field_id);
-    }
-
-    image_info get_image_info(JNIEnv* env, jobject image_info)
-    {
-        jclass cls = env->GetObjectClass(image_info);
-        return {
-                get_int_field("width", env, image_info, cls),
-                get_int_field("height", env, image_info, cls),
-                get_int_field("rowStride0", env, image_info, cls),
-                get_int_field("rowStride1", env, image_info, cls),
-                get_int_field("rowStride2", env, image_info, cls),
-                get_int_field("pixelStride0", env, image_info, cls),
-                get_int_field("pixelStride1", env, image_info, cls),
-                get_int_field("pixelStride2", env, image_info, cls),
-                get_int_field("inputOrientation", env, image_info, cls),
-                get_int_field("outputOrientation", env, image_info, cls),
-                get_int_field("pixelFormat", env, image_info, cls),
-                get_int_field("imageFormat", env, image_info, cls),
-                get_bool_field("requireMirroring", env, image_info, cls)
-        };
-    }
-    
-    bnb::oep::interfaces::image_format get_image_format(int output_image_format) {
-        switch (output_image_format) {
-            case 1:
-                return bnb::oep::interfaces::image_format::nv12_bt601_full;
-            case 2:
-                return bnb::oep::interfaces::image_format::i420_bt601_full;
-            default:
-                return bnb::oep::interfaces::image_format::bpc8_rgba;
-        }
-    }
+    using bnb::oep::image_info;
+    using bnb::oep::output_plane;
+    using bnb::oep::get_image_format;
+    using bnb::oep::get_output_planes;
+    using bnb::oep::delivered_stride;
+    using bnb::oep::delivered_size;
+    using bnb::oep::copy_delivered_plane;
+    using bnb::oep::frame_metrics;
+    using bnb::oep::frame_timeline;
+    using bnb::oep::resolution_governor;
+    using bnb::oep::fenced_readback;
+    using bnb::oep::slab_pool;
+    using bnb::oep::js_command_queue;
+    namespace frame_trace = bnb::oep::frame_trace;
 
-    std::vector<bnb::oep::interfaces::pixel_buffer::plane_data> create_planes_from_format(
-            uint8_t* input_image_data0,
-            uint8_t* input_image_data1,
-            uint8_t* input_image_data2,
-            bnb::oep::interfaces::image_format format,
-            const image_info& image_info)
+    /* Class, method and field IDs used on every frame, resolved once in JNI_OnLoad */
+    struct jni_cache
     {
-        // only nv12_bt601_full and i420_bt601_full are supported
-        assert(format == bnb::oep::interfaces::image_format::nv12_bt601_full
-             ||format == bnb::oep::interfaces::image_format::i420_bt601_full);
+        jmethodID player_on_data_ready{nullptr};
+        jmethodID player_acquire_output_frame{nullptr};
+        jmethodID player_on_frame_ready{nullptr};
+        jmethodID player_on_frame_dropped{nullptr};
+        jmethodID player_on_texture_ready{nullptr};
+        jmethodID player_on_effect_loaded{nullptr};
+        jmethodID player_on_eval_js_result{nullptr};
+        jfieldID output_frame_planes{nullptr};
+        jfieldID output_frame_row_strides{nullptr};
+        jfieldID output_frame_pixel_strides{nullptr};
+        jmethodID runnable_run{nullptr};
 
-        using ns_pb = bnb::oep::interfaces::pixel_buffer;
-        if(format == bnb::oep::interfaces::image_format::nv12_bt601_full) {
-            int y_size = image_info.row_stride0  * image_info.height;
-            int uv_size = image_info.row_stride1 * image_info.height / 2;
+        bool init(JNIEnv* env)
+        {
+            jclass player_class = env->FindClass("com/banuba/quickstart_c_api/OffscreenEffectPlayer");
+            jclass frame_class = env->FindClass("com/banuba/quickstart_c_api/OutputFrame");
+            jclass runnable_class = env->FindClass("java/lang/Runnable");
+            if (player_class == nullptr || frame_class == nullptr || runnable_class == nullptr) {
+                return false;
+            }
+            player_on_data_ready = env->GetMethodID(player_class, "onDataReady", "([B[B[BIIIIIIII)V");
+            player_acquire_output_frame = env->GetMethodID(player_class, "acquireOutputFrame", "(III)Lcom/banuba/quickstart_c_api/OutputFrame;");
+            player_on_frame_ready = env->GetMethodID(player_class, "onFrameReady", "(Lcom/banuba/quickstart_c_api/OutputFrame;II)V");
+            player_on_frame_dropped = env->GetMethodID(player_class, "onFrameDropped", "()V");
+            player_on_texture_ready = env->GetMethodID(player_class, "onTextureReady", "(JII)V");
+            player_on_effect_loaded = env->GetMethodID(player_class, "onEffectLoaded", "(Ljava/lang/String;Z)V");
+            player_on_eval_js_result = env->GetMethodID(player_class, "onEvalJsResult", "(ILjava/lang/String;)V");
+            output_frame_planes = env->GetFieldID(frame_class, "mPlanes", "[Ljava/nio/ByteBuffer;");
+            output_frame_row_strides = env->GetFieldID(frame_class, "mRowStrides", "[I");
+            output_frame_pixel_strides = env->GetFieldID(frame_class, "mPixelStrides", "[I");
+            runnable_run = env->GetMethodID(runnable_class, "run", "()V");
+            env->DeleteLocalRef(player_class);
+            env->DeleteLocalRef(frame_class);
+            env->DeleteLocalRef(runnable_class);
+            return player_on_data_ready && player_acquire_output_frame && player_on_frame_ready && player_on_frame_dropped
+                && player_on_texture_ready && player_on_effect_loaded && player_on_eval_js_result
+                && output_frame_planes && output_frame_row_strides && output_frame_pixel_strides && runnable_run;
+        }
+    }; /* struct jni_cache */
 
-            ns_pb::plane_sptr y_plane_data(new ns_pb::plane_sptr::element_type[y_size]);
-            std::memcpy(y_plane_data.get(), input_image_data0, y_size);
+    jni_cache jni;
 
-            ns_pb::plane_sptr uv_plane_data(new ns_pb::plane_sptr::element_type[uv_size]);
-            std::memcpy(uv_plane_data.get(), input_image_data1, uv_size);
+    image_info get_image_info(JNIEnv* env, jobject jimage_info)
+    {
+        image_info info{};
+        auto data = env->GetDirectBufferAddress(jimage_info);
+        if (data == nullptr || env->GetDirectBufferCapacity(jimage_info) < static_cast<jlong>(sizeof(image_info))) {
+            print_message("error: get_image_info(): invalid image info buffer\n");
+            return info;
+        }
+        return bnb::oep::read_image_info(data);
+    }
 
-            ns_pb::plane_data y_plane{std::move(y_plane_data), static_cast<size_t>(y_size), image_info.row_stride0};
-            ns_pb::plane_data uv_plane{std::move(uv_plane_data), static_cast<size_t>(uv_size), image_info.row_stride1};
-            std::vector<ns_pb::plane_data> planes{std::move(y_plane), std::move(uv_plane)};
-            return planes;
+    /* Attaches the current thread to the JVM when it is not attached yet, and detaches it on destruction */
+    class scoped_jni_env
+    {
+    public:
+        explicit scoped_jni_env(JavaVM* jvm)
+            : m_jvm(jvm)
+        {
+            int status = m_jvm->GetEnv(reinterpret_cast<void**>(&m_env), JNI_VERSION_1_6);
+            if (status == JNI_EDETACHED) {
+                if (m_jvm->AttachCurrentThread(&m_env, nullptr) != JNI_OK) {
+                    print_message("scoped_jni_env: Failed to attach");
+                    m_env = nullptr;
+                    return;
+                }
+                m_attached = true;
+            } else if (status == JNI_EVERSION) {
+                print_message("scoped_jni_env: version not supported");
+                m_env = nullptr;
+            }
         }
 
-        if(format == bnb::oep::interfaces::image_format::i420_bt601_full) {
-            int y_size = image_info.row_stride0  * image_info.height;
-            int u_size = image_info.row_stride1 * image_info.height / 4;
-            int v_size = image_info.row_stride2 * image_info.height/ 4;
+        ~scoped_jni_env()
+        {
+            if (m_attached) {
+                m_jvm->DetachCurrentThread();
+            }
+        }
 
-            ns_pb::plane_sptr y_plane_data(new ns_pb::plane_sptr::element_type[y_size]);
-            std::memcpy(y_plane_data.get(), input_image_data0, y_size);
+        JNIEnv* get() const
+        {
+            return m_env;
+        }
 
-            ns_pb::plane_sptr u_plane_data(new ns_pb::plane_sptr::element_type[u_size]);
-            ns_pb::plane_sptr v_plane_data(new ns_pb::plane_sptr::element_type[v_size]);
+    private:
+        JavaVM* m_jvm{nullptr};
+        JNIEnv* m_env{nullptr};
+        bool m_attached{false};
+    }; /* class scoped_jni_env */
 
-            auto ptr_u = u_plane_data.get();
-            auto ptr_v = v_plane_data.get();
+    /* Holds the java release callback of the input image planes which are passed to the effect player without copying.
+     * The callback (Runnable.run) is called on the dispatcher thread when the last plane of the image is released
+     * by the frame processor. */
+    class input_release_hook
+    {
+    public:
+        input_release_hook(JNIEnv* env, jobject jrelease, std::weak_ptr<bnb::oep::callback_dispatcher> dispatcher)
+            : m_dispatcher(std::move(dispatcher))
+        {
+            env->GetJavaVM(&m_jvm);
+            m_release = env->NewGlobalRef(jrelease);
+        }
 
-            for (unsigned row = 0; row < image_info.height * image_info.row_stride1 / 2; row += 2) {
-                *ptr_u++ = input_image_data1[row];
-                *ptr_v++ = input_image_data1[row + 1];
+        ~input_release_hook()
+        {
+            auto release_task = [release = m_release](JNIEnv* env, jobject) {
+                env->CallVoidMethod(release, jni.runnable_run);
+                if (env->ExceptionCheck()) {
+                    env->ExceptionDescribe();
+                    env->ExceptionClear();
+                }
+                env->DeleteGlobalRef(release);
+            };
+            if (auto dispatcher = m_dispatcher.lock()) {
+                if (dispatcher->post(release_task)) {
+                    return;
+                }
+            }
+            /* the dispatcher is gone or its queue is full, the image must be released anyway */
+            scoped_jni_env scoped_env(m_jvm);
+            if (scoped_env.get() != nullptr) {
+                release_task(scoped_env.get(), nullptr);
             }
-
-            ns_pb::plane_data y_plane{std::move(y_plane_data), static_cast<size_t>(y_size), image_info.row_stride0};
-            ns_pb::plane_data u_plane{std::move(u_plane_data), static_cast<size_t>(u_size), image_info.row_stride1 / 2};
-            ns_pb::plane_data v_plane{std::move(v_plane_data), static_cast<size_t>(v_size), image_info.row_stride2 / 2};
-            std::vector<ns_pb::plane_data> planes{std::move(y_plane), std::move(u_plane), std::move(v_plane)};
-            return planes;
         }
 
-        return {};
+    private:
+        JavaVM* m_jvm{nullptr};
+        jobject m_release{nullptr};
+        std::weak_ptr<bnb::oep::callback_dispatcher> m_dispatcher;
+    }; /* class input_release_hook */
+
+    /* Wraps the memory of the direct buffers of the input image into planes, the hook is released with the last plane */
+    std::vector<bnb::oep::interfaces::pixel_buffer::plane_data> wrap_nv12_planes(
+            uint8_t* y_data, jlong y_capacity,
+            uint8_t* uv_data, jlong uv_capacity,
+            const image_info& image_info,
+            const std::shared_ptr<input_release_hook>& hook)
+    {
+        using ns_pb = bnb::oep::interfaces::pixel_buffer;
+        auto y_size = std::min<jlong>(image_info.row_stride0 * image_info.height, y_capacity);
+        auto uv_size = std::min<jlong>(image_info.row_stride1 * image_info.height / 2, uv_capacity);
+
+        ns_pb::plane_sptr y_plane_data(y_data, [hook](uint8_t*) {});
+        ns_pb::plane_sptr uv_plane_data(uv_data, [hook](uint8_t*) {});
+
+        ns_pb::plane_data y_plane{std::move(y_plane_data), static_cast<size_t>(y_size), image_info.row_stride0};
+        ns_pb::plane_data uv_plane{std::move(uv_plane_data), static_cast<size_t>(uv_size), image_info.row_stride1};
+        return {std::move(y_plane), std::move(uv_plane)};
     }
 
     pixel_buffer_sptr create_pixel_buffer(JNIEnv* env, jobject jimageY, jobject jimageU, jobject jimageV,
@@ -149,17 +221,302 @@ namespace
         uint8_t* input_image_data0 = static_cast<uint8_t*>(env->GetDirectBufferAddress(jimageY));
         uint8_t* input_image_data1 = static_cast<uint8_t*>(env->GetDirectBufferAddress(jimageU));
         uint8_t* input_image_data2 = static_cast<uint8_t*>(env->GetDirectBufferAddress(jimageV));
+        return bnb::oep::create_pixel_buffer(input_image_data0, input_image_data1, input_image_data2, image_info, image_format);
+    }
+
+    /* the camera image resized to width x height, nullptr when it can not be scaled */
+    pixel_buffer_sptr create_scaled_pixel_buffer(JNIEnv* env, jobject jimageY, jobject jimageU, const image_info& image_info,
+                                                 bnb::oep::interfaces::image_format image_format, int32_t width, int32_t height)
+    {
+        auto y_data = static_cast<uint8_t*>(env->GetDirectBufferAddress(jimageY));
+        auto uv_data = static_cast<uint8_t*>(env->GetDirectBufferAddress(jimageU));
+        if (y_data == nullptr || uv_data == nullptr) {
+            return nullptr;
+        }
+        return bnb::oep::create_scaled_pixel_buffer(y_data, uv_data, image_info, image_format, width, height);
+    }
+
+    /* Returns nullptr when the image can not be passed without copying,
+     * only the nv12 format is used by the effect player as is */
+    pixel_buffer_sptr wrap_pixel_buffer(JNIEnv* env, jobject jimageY, jobject jimageU, jobject jrelease,
+                                        const image_info& image_info, bnb::oep::interfaces::image_format image_format,
+                                        std::weak_ptr<bnb::oep::callback_dispatcher> dispatcher)
+    {
+        if (image_format != bnb::oep::interfaces::image_format::nv12_bt601_full) {
+            return nullptr;
+        }
+        auto y_data = static_cast<uint8_t*>(env->GetDirectBufferAddress(jimageY));
+        auto uv_data = static_cast<uint8_t*>(env->GetDirectBufferAddress(jimageU));
+        if (y_data == nullptr || uv_data == nullptr) {
+            return nullptr;
+        }
+
+        auto hook = std::make_shared<input_release_hook>(env, jrelease, std::move(dispatcher));
+        auto planes = wrap_nv12_planes(
+                y_data, env->GetDirectBufferCapacity(jimageY),
+                uv_data, env->GetDirectBufferCapacity(jimageU),
+                image_info, hook);
         auto width = static_cast<int32_t>(image_info.width);
         auto height = static_cast<int32_t>(image_info.height);
-        auto planes = create_planes_from_format(input_image_data0, input_image_data1, input_image_data2, image_format, image_info);
         return bnb::oep::interfaces::pixel_buffer::create(planes, image_format, width, height, [](auto* pb) { delete pb; });
     }
 
+    /* new java array with the plane in the delivered layout, one copy whatever the stride is */
+    jbyteArray new_byte_array(JNIEnv* env, const output_plane& plane)
+    {
+        if (plane.data == nullptr) {
+            return nullptr;
+        }
+        auto size = delivered_size(plane);
+        jbyteArray array = env->NewByteArray(size);
+        if (array == nullptr) {
+            return array;
+        }
+        if (delivered_stride(plane) == plane.stride) {
+            env->SetByteArrayRegion(array, 0, size, reinterpret_cast<const jbyte*>(plane.data));
+            return array;
+        }
+        auto dst = static_cast<uint8_t*>(env->GetPrimitiveArrayCritical(array, nullptr));
+        if (dst != nullptr) {
+            copy_delivered_plane(dst, plane);
+            env->ReleasePrimitiveArrayCritical(array, dst, 0);
+        }
+        return array;
+    }
+
+    void notify_frame_dropped(JNIEnv* env, jobject player)
+    {
+        env->CallVoidMethod(player, jni.player_on_frame_dropped);
+        if (env->ExceptionCheck()) {
+            env->ExceptionDescribe();
+            env->ExceptionClear();
+        }
+    }
+
+    /* Copy the output image into the frame of the java OutputFramePool and pass it to OffscreenEffectPlayer.onFrameReady.
+     * The frame is dropped when the pool has no free frames. Returns false when the frame was not delivered. */
+    bool deliver_pooled_frame(JNIEnv* env, jobject player, const pixel_buffer_sptr& image, frame_timeline& timeline)
+    {
+        auto planes = get_output_planes(image);
+        std::array<jint, 3> row_strides{};
+        std::array<jint, 3> pixel_strides{};
+        for (size_t i = 0; i < planes.size(); ++i) {
+            row_strides[i] = planes[i].data != nullptr ? delivered_stride(planes[i]) : 0;
+            pixel_strides[i] = planes[i].pixel_stride;
+        }
+
+        jobject frame = env->CallObjectMethod(player, jni.player_acquire_output_frame,
+                                              delivered_size(planes[0]), delivered_size(planes[1]), delivered_size(planes[2]));
+        if (env->ExceptionCheck()) {
+            env->ExceptionDescribe();
+            notify_frame_dropped(env, player);
+            return false;
+        }
+        if (frame == nullptr) {
+            /* all frames are held by the consumer, drop this output image */
+            notify_frame_dropped(env, player);
+            return false;
+        }
+
+        auto jplanes = static_cast<jobjectArray>(env->GetObjectField(frame, jni.output_frame_planes));
+        for (jsize i = 0; i < static_cast<jsize>(planes.size()); ++i) {
+            if (planes[i].data == nullptr) {
+                continue;
+            }
+            jobject jbuffer = env->GetObjectArrayElement(jplanes, i);
+            auto dst = static_cast<uint8_t*>(env->GetDirectBufferAddress(jbuffer));
+            copy_delivered_plane(dst, planes[i]);
+            env->DeleteLocalRef(jbuffer);
+        }
+        auto jrow_strides = static_cast<jintArray>(env->GetObjectField(frame, jni.output_frame_row_strides));
+        auto jpixel_strides = static_cast<jintArray>(env->GetObjectField(frame, jni.output_frame_pixel_strides));
+        env->SetIntArrayRegion(jrow_strides, 0, static_cast<jsize>(row_strides.size()), row_strides.data());
+        env->SetIntArrayRegion(jpixel_strides, 0, static_cast<jsize>(pixel_strides.size()), pixel_strides.data());
+        env->DeleteLocalRef(jrow_strides);
+        env->DeleteLocalRef(jpixel_strides);
+
+        timeline.callback_ns = frame_metrics::now_ns();
+        env->CallVoidMethod(player, jni.player_on_frame_ready, frame, image->get_width(), image->get_height());
+        if (env->ExceptionCheck()) {
+            env->ExceptionDescribe();
+        }
+        env->DeleteLocalRef(jplanes);
+        env->DeleteLocalRef(frame);
+        return true;
+    }
+
+    /* Copy the output image into new java byte arrays and pass them to OffscreenEffectPlayer.onDataReady
+     * with the row and pixel strides of the planes. Returns false when the frame was not delivered. */
+    bool deliver_byte_arrays(JNIEnv* env, jobject player, const pixel_buffer_sptr& image, frame_timeline& timeline)
+    {
+        auto planes = get_output_planes(image);
+        std::array<jbyteArray, 3> arrays{};
+        for (size_t i = 0; i < planes.size(); ++i) {
+            arrays[i] = new_byte_array(env, planes[i]);
+        }
+
+        if (arrays[0] == nullptr) {
+            print_message("deliver_byte_arrays: unsupported output image format");
+            notify_frame_dropped(env, player);
+            for (auto array : arrays) {
+                env->DeleteLocalRef(array);
+            }
+            return false;
+        }
+
+        // call callback
+        timeline.callback_ns = frame_metrics::now_ns();
+        env->CallVoidMethod(player, jni.player_on_data_ready, arrays[0], arrays[1], arrays[2], image->get_width(), image->get_height(),
+                            delivered_stride(planes[0]), delivered_stride(planes[1]), delivered_stride(planes[2]),
+                            planes[0].pixel_stride, planes[1].pixel_stride, planes[2].pixel_stride);
+        if (env->ExceptionCheck()) {
+            env->ExceptionDescribe();
+        }
+        for (auto array : arrays) {
+            env->DeleteLocalRef(array);
+        }
+        return true;
+    }
+
+    /* the texture handle of image_processing_result is an opaque value holding the GL texture name */
+    template<typename T>
+    GLuint to_texture_name(T texture)
+    {
+        if constexpr (std::is_pointer_v<T>) {
+            return static_cast<GLuint>(reinterpret_cast<uintptr_t>(texture));
+        } else {
+            return static_cast<GLuint>(texture);
+        }
+    }
+
+    /* the texture is handed over to the OutputTexture, which releases it (externalRelease) */
+    void deliver_texture(JNIEnv* env, jobject player, bnb::oep::exported_texture& texture, frame_timeline& timeline)
+    {
+        timeline.callback_ns = frame_metrics::now_ns();
+        auto width = texture.width();
+        auto height = texture.height();
+        auto handle = new bnb::oep::exported_texture(std::move(texture));
+        env->CallVoidMethod(player, jni.player_on_texture_ready,
+                            static_cast<jlong>(reinterpret_cast<uintptr_t>(handle)),
+                            static_cast<jint>(width), static_cast<jint>(height));
+    }
+
+    /* The utility manager of the SDK, shared by all the players of the process.
+     * externalInit/externalDeinit calls are counted and every player holds one more reference, so the SDK is released
+     * when the last init is paired with a deinit and the last player is destroyed, in any order and from any thread. */
+    class sdk_instance
+    {
+    public:
+        /* the resource paths and the token of the first initialization are used until the SDK is released */
+        void init(const std::string& path_to_resources, const std::string& token)
+        {
+            std::lock_guard<std::mutex> lock(m_mutex);
+            if (m_refs++ > 0) {
+                return;
+            }
+            const char* res_paths[] = {path_to_resources.c_str(), nullptr};
+            m_utility = bnb_utility_manager_init(res_paths, token.c_str(), nullptr);
+        }
+
+        /* returns false when the SDK is not initialized */
+        bool retain()
+        {
+            std::lock_guard<std::mutex> lock(m_mutex);
+            if (m_refs == 0) {
+                return false;
+            }
+            ++m_refs;
+            return true;
+        }
+
+        void release()
+        {
+            std::lock_guard<std::mutex> lock(m_mutex);
+            if (m_refs == 0) {
+                print_message("error: sdk_instance::release(): the SDK is not initialized\n");
+                return;
+            }
+            if (--m_refs == 0 && m_utility != nullptr) {
+                bnb_utility_manager_release(m_utility, nullptr);
+                m_utility = nullptr;
+            }
+        }
+
+    private:
+        std::mutex m_mutex;
+        utility_manager_holder_t* m_utility{nullptr};
+        int32_t m_refs{0};
+    }; /* class sdk_instance */
+
+    sdk_instance sdk_utility;
+
+    /* reference to the initialized SDK for the lifetime of the owner */
+    class sdk_reference
+    {
+    public:
+        sdk_reference()
+            : m_valid(sdk_utility.retain())
+        {
+        }
+
+        ~sdk_reference()
+        {
+            if (m_valid) {
+                sdk_utility.release();
+            }
+        }
+
+        sdk_reference(const sdk_reference&) = delete;
+        sdk_reference& operator=(const sdk_reference&) = delete;
+
+        bool valid() const
+        {
+            return m_valid;
+        }
+
+    private:
+        bool m_valid{false};
+    }; /* class sdk_reference */
+
     struct banuba_sdk_manager
     {
+        /* declared first, the SDK is released after everything else of the player */
+        sdk_reference sdk;
+        /* declared before oep, so it outlives the OEP and receives the callbacks issued while the OEP is destroyed */
+        std::shared_ptr<bnb::oep::callback_dispatcher> dispatcher{nullptr};
+        /* outlives the oep as well, the render thread may export a texture while the OEP is destroyed */
+        std::shared_ptr<bnb::oep::texture_exporter> exporter{std::make_shared<bnb::oep::texture_exporter>()};
+        /* Optional asynchronous read back of the output images instead of image_processing_result::get_image,
+         * replaced as a whole from java (std::atomic_load/atomic_store). Declared before oep like the exporter. */
+        std::shared_ptr<fenced_readback> readback{nullptr};
+        /* the framebuffers of the replaced readbacks, deleted by the render thread */
+        std::shared_ptr<bnb::oep::deferred_framebuffers> deferred_framebuffers{std::make_shared<bnb::oep::deferred_framebuffers>()};
+        /* per-stage latencies, shared with the effect player and the frame callbacks */
+        std::shared_ptr<frame_metrics> metrics{std::make_shared<frame_metrics>()};
+        /* JS commands from java, applied by the effect player before every draw */
+        std::shared_ptr<js_command_queue> js_commands{std::make_shared<js_command_queue>()};
         offscreen_effect_player_sptr oep{nullptr};
+        /* deliver output images via OffscreenEffectPlayer.onFrameReady instead of onDataReady */
+        std::atomic<bool> pooled_output{false};
+        /* deliver the rendered texture via OffscreenEffectPlayer.onTextureReady, no read back */
+        std::atomic<bool> texture_output{false};
+        /* size of the rendered texture */
+        std::atomic<int32_t> surface_width{0};
+        std::atomic<int32_t> surface_height{0};
+        /* Optional, replaced as a whole from java (std::atomic_load/atomic_store), every frame keeps the governor
+         * it was submitted with. The surface is the requested size scaled by the tier applied last. */
+        std::shared_ptr<resolution_governor> governor{nullptr};
+        std::mutex surface_mutex;
+        int32_t requested_width{0};
+        int32_t requested_height{0};
+        std::atomic<int32_t> applied_tier{0};
 
-        banuba_sdk_manager(int width, int height)
+        banuba_sdk_manager(JNIEnv* env, jobject player, int width, int height)
+            : dispatcher(std::make_shared<bnb::oep::callback_dispatcher>(env, player, notify_frame_dropped))
+            , surface_width(width)
+            , surface_height(height)
+            , requested_width(width)
+            , requested_height(height)
         {
             /* Create instance of render_context */
             auto rc = bnb::oep::interfaces::render_context::create();
@@ -169,7 +526,20 @@ namespace
             auto ort = bnb::oep::interfaces::offscreen_render_target::create(rc);
 
             /* Create an instance of effect_player implementation with c api */
-            auto ep = bnb::oep::interfaces::effect_player::create(width, height);
+            auto ep = std::make_shared<bnb::oep::effect_player>(width, height);
+            ep->set_metrics(metrics);
+            ep->set_js_commands(js_commands);
+            /* the effect is loaded on the render thread of the OEP, the result goes to java through the dispatcher */
+            std::weak_ptr<bnb::oep::callback_dispatcher> weak_dispatcher = dispatcher;
+            ep->set_effect_loaded_callback([weak_dispatcher](const std::string& effect, bool loaded) {
+                if (auto locked_dispatcher = weak_dispatcher.lock()) {
+                    locked_dispatcher->post([effect, loaded](JNIEnv* env, jobject player) {
+                        jstring jeffect = env->NewStringUTF(effect.c_str());
+                        env->CallVoidMethod(player, jni.player_on_effect_loaded, jeffect, loaded ? JNI_TRUE : JNI_FALSE);
+                        env->DeleteLocalRef(jeffect);
+                    });
+                }
+            });
 
             /* Create instance of offscreen_effect_player, pass effect_player, offscreen_render_target
              * and dimension of processing frame (for best performance it is better to coincide
@@ -178,6 +548,22 @@ namespace
         }
 
         ~banuba_sdk_manager() = default;
+
+        /* Changes the size of the rendered texture to the requested size at the tier of the governor,
+         * called by surfaceChanged and by the submitting thread when the governor switches the tier */
+        void apply_surface(const std::shared_ptr<resolution_governor>& current_governor, int32_t tier)
+        {
+            std::lock_guard<std::mutex> lock(surface_mutex);
+            int32_t width = requested_width;
+            int32_t height = requested_height;
+            if (current_governor != nullptr) {
+                current_governor->scaled_size(tier, requested_width, requested_height, width, height);
+            }
+            applied_tier = tier;
+            surface_width = width;
+            surface_height = height;
+            oep->surface_changed(width, height);
+        }
     }; /* struct banuba_sdk_manager */
 
     std::string jstring_to_string(JNIEnv* env, jstring jstr)
@@ -205,9 +591,24 @@ namespace
         }
     }
 
+    banuba_sdk_manager* get_sdk_manager_from_jlong(jlong jsdk)
+    {
+        auto sdk = reinterpret_cast<banuba_sdk_manager*>(jsdk);
+        if (sdk == nullptr) {
+            print_message("error: get_sdk_manager_from_jlong(): sdk == nullptr\n");
+        }
+        return sdk;
+    }
+
     offscreen_effect_player_sptr get_offscreen_effect_player_from_jlong(jlong jsdk)
     {
-        auto oep = reinterpret_cast<banuba_sdk_manager*>(jsdk)->oep;
+        /* a destroyed player passes 0 */
+        auto sdk = reinterpret_cast<banuba_sdk_manager*>(jsdk);
+        if (sdk == nullptr) {
+            print_message("error: get_offscreen_effect_player_from_jlong(): sdk == nullptr\n");
+            return nullptr;
+        }
+        auto oep = sdk->oep;
         if (oep == nullptr) {
             print_message("error: get_offscreen_effect_player_from_jlong(): oep == nullptr\n");
         }
@@ -217,34 +618,42 @@ namespace
 
 extern "C"
 {
-    static utility_manager_holder_t* utility = nullptr;
+    JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM* vm, void* reserved)
+    {
+        JNIEnv* env = nullptr;
+        if (vm->GetEnv(reinterpret_cast<void**>(&env), JNI_VERSION_1_6) != JNI_OK) {
+            return JNI_ERR;
+        }
+        if (!jni.init(env)) {
+            print_message("error: JNI_OnLoad(): failed to resolve java classes\n");
+            return JNI_ERR;
+        }
+        return JNI_VERSION_1_6;
+    }
 
     /* OffscreenEffectPlayer::externalInit - java interface */
     JNIEXPORT void JNICALL Java_com_banuba_quickstart_1c_1api_OffscreenEffectPlayer_externalInit(JNIEnv* env, jclass clazz, jstring jpath_to_resources, jstring jtoken)
     {
-        assert(utility == nullptr);
-        std::vector<std::string> path{jstring_to_string(env, jpath_to_resources)};
-        auto token = jstring_to_string(env, jtoken);
-        std::unique_ptr<const char*[]> res_paths = std::make_unique<const char*[]>(path.size() + 1);
-        std::transform(path.begin(), path.end(), res_paths.get(), [](const auto& s) { return s.c_str(); });
-        res_paths.get()[path.size()] = nullptr;
-        utility = bnb_utility_manager_init(res_paths.get(), token.c_str(), nullptr);
+        sdk_utility.init(jstring_to_string(env, jpath_to_resources), jstring_to_string(env, jtoken));
     }
 
     /* OffscreenEffectPlayer::externalDeinit - java interface */
     JNIEXPORT void JNICALL Java_com_banuba_quickstart_1c_1api_OffscreenEffectPlayer_externalDeinit(JNIEnv* env, jclass clazz)
     {
-        assert(utility != nullptr);
-        bnb_utility_manager_release(utility, nullptr);
-        utility = nullptr;
+        sdk_utility.release();
     }
 
     /* OffscreenEffectPlayer::externalCreate - java interface */
     JNIEXPORT jlong JNICALL Java_com_banuba_quickstart_1c_1api_OffscreenEffectPlayer_externalCreate(JNIEnv* env, jobject thiz, jint jwidth, jint jheight)
     {
+        sdk_reference sdk;
+        if (!sdk.valid()) {
+            print_message("error: OffscreenEffectPlayer::externalCreate(): the SDK is not initialized\n");
+            return 0;
+        }
         int32_t width = jwidth;
         int32_t height = jheight;
-        auto oep = new banuba_sdk_manager(width, height);
+        auto oep = new banuba_sdk_manager(env, thiz, width, height);
         return reinterpret_cast<jlong>(oep);
     }
 
@@ -259,131 +668,166 @@ extern "C"
         delete sdk;
     }
 
-    /* OffscreenEffectPlayer::externalProcessImageAsync - java interface */
-    JNIEXPORT void JNICALL Java_com_banuba_quickstart_1c_1api_OffscreenEffectPlayer_externalProcessImageAsync(
+    /* OffscreenEffectPlayer::externalProcessImageAsync - java interface
+     * Returns true when the input planes are used without copying, in this case jrelease is called
+     * once the frame processor does not need them anymore. Otherwise the caller may release the image at once.
+     * jtrace_id is the cookie of the "OEP frame" async section begun by java (0 - not traced),
+     * the section ends when the frame is delivered or dropped. */
+    JNIEXPORT jboolean JNICALL Java_com_banuba_quickstart_1c_1api_OffscreenEffectPlayer_externalProcessImageAsync(
             JNIEnv* env, jobject thiz, jlong jsdk,
             jobject jimageY, jobject jimageU, jobject jimageV,
-            jobject jimage_info)
+            jobject jimage_info, jobject jrelease, jlong jsubmit_ns, jint jtrace_id)
     {
+        frame_trace::scoped_section trace_section("OEP externalProcessImageAsync");
+        auto sdk = get_sdk_manager_from_jlong(jsdk);
         auto oep = get_offscreen_effect_player_from_jlong(jsdk);
+        int32_t trace_id = jtrace_id;
         if (oep == nullptr) {
-            return;
+            frame_trace::end_async(frame_trace::frame_section, trace_id);
+            return JNI_FALSE;
         }
 
         auto image_info = get_image_info(env, jimage_info);
-        auto image_format = get_image_format(image_info.image_format);
-        auto pb_image = create_pixel_buffer(env, jimageY, jimageU, jimageV, image_info, image_format);
+        /* the input follows the camera planes and the output follows the renderer of the receiver,
+         * see OffscreenEffectPlayer.negotiateFormats() */
+        auto input_format = get_image_format(image_info.input_image_format);
+        auto output_format = get_image_format(image_info.output_image_format);
 
-        JavaVM* jvm;
-        env->GetJavaVM(&jvm);
-        jobject this_ref = env->NewGlobalRef(thiz);
+        /* the governor lowers the processing resolution when the render time is over the budget,
+         * the input is scaled down here and the output texture follows the tier */
+        auto governor = std::atomic_load(&sdk->governor);
+        int32_t tier = governor != nullptr ? governor->tier() : 0;
+        if (tier != sdk->applied_tier) {
+            sdk->apply_surface(governor, tier);
+        }
 
-        // Callback for received pixel buffer from the offscreen effect player
-        auto get_pixel_buffer_callback = [this_ref, jvm, image_format](image_processing_result_sptr result) {
-            if (result != nullptr) {
-                // Callback for update data in render thread
-                auto get_image_callback = [this_ref, jvm, image_format](pixel_buffer_sptr image) {
-                    JNIEnv* env = nullptr;
-
-                    // double check it's all ok
-                    int getEnvStat = jvm->GetEnv((void**) &env, JNI_VERSION_1_6);
-                    if (getEnvStat == JNI_EDETACHED) {
-                        if (jvm->AttachCurrentThread((JNIEnv**) &env, nullptr) != JNI_OK) {
-                            print_message("GetEnv: Failed to attach");
-                            return;
-                        }
-                    } else if (getEnvStat == JNI_EVERSION) {
-                        print_message("GetEnv: version not supported");
-                        return;
-                    }
+        pixel_buffer_sptr pb_image{nullptr};
+        if (tier > 0) {
+            int32_t scaled_width = 0;
+            int32_t scaled_height = 0;
+            governor->scaled_size(tier, image_info.width, image_info.height, scaled_width, scaled_height);
+            pb_image = create_scaled_pixel_buffer(env, jimageY, jimageU, image_info, input_format, scaled_width, scaled_height);
+        }
+        bool retained = false;
+        if (pb_image == nullptr && jrelease != nullptr) {
+            pb_image = wrap_pixel_buffer(env, jimageY, jimageU, jrelease, image_info, input_format, sdk->dispatcher);
+            retained = pb_image != nullptr;
+        }
+        if (pb_image == nullptr) {
+            pb_image = create_pixel_buffer(env, jimageY, jimageU, jimageV, image_info, input_format);
+        }
 
-                    if (image == nullptr) {
-                        print_message("GetEnv: image is null");
-                        env->DeleteGlobalRef(this_ref);
-                        jvm->DetachCurrentThread();
-                        return;
-                    }
+        std::weak_ptr<bnb::oep::callback_dispatcher> dispatcher = sdk->dispatcher;
+        std::weak_ptr<bnb::oep::texture_exporter> exporter = sdk->exporter;
+        std::shared_ptr<frame_metrics> metrics = sdk->metrics;
+        std::shared_ptr<fenced_readback> readback = std::atomic_load(&sdk->readback);
+        std::shared_ptr<bnb::oep::deferred_framebuffers> deferred_framebuffers = sdk->deferred_framebuffers;
+        bool pooled_output = sdk->pooled_output;
+        bool texture_output = sdk->texture_output;
+        int32_t texture_width = sdk->surface_width;
+        int32_t texture_height = sdk->surface_height;
 
-                    jbyteArray byte_array0 = nullptr;
-                    jbyteArray byte_array1 = nullptr;
-                    jbyteArray byte_array2 = nullptr;
-                    switch(image_format) {
-                        case bnb::oep::interfaces::image_format::bpc8_rgba: {
-                            auto size = image->get_width() * image->get_height() * image->get_bytes_per_pixel();
-                            byte_array0 = env->NewByteArray(size);
-                            env->SetByteArrayRegion(byte_array0, 0, size, reinterpret_cast<const jbyte*>((uint8_t*) image->get_base_sptr().get()));
-                            break;
-                        }
-                        case bnb::oep::interfaces::image_format::nv12_bt601_full: {
-                            auto size0 = image->get_width() * image->get_height() * image->get_bytes_per_pixel();
-                            auto size1 = image->get_width() * image->get_height() * image->get_bytes_per_pixel() / 2;
-                            void* buf0 = reinterpret_cast<void*>((void*) image->get_base_sptr_of_plane(0).get());
-                            void* buf1 = reinterpret_cast<void*>((void*) image->get_base_sptr_of_plane(1).get());
-
-                            byte_array0 = env->NewByteArray(size0);
-                            byte_array1 = env->NewByteArray(size1);
-                            byte_array2 = env->NewByteArray(0);
-                            env->SetByteArrayRegion(byte_array0, 0, size0, reinterpret_cast<const jbyte*>(buf0));
-                            env->SetByteArrayRegion(byte_array1, 0, size1, reinterpret_cast<const jbyte*>(buf1));
-                            break;
-                        }
-                        case bnb::oep::interfaces::image_format::i420_bt601_full: {
-                            auto size0 = image->get_width_of_plane(0) * image->get_height() * image->get_bytes_per_pixel_of_plane(0);
-                            auto size1 = image->get_width_of_plane(1) * image->get_height() * image->get_bytes_per_pixel_of_plane(1);
-                            auto size2 = image->get_width_of_plane(2) * image->get_height() * image->get_bytes_per_pixel_of_plane(2);
-                            void* buf0 = reinterpret_cast<void*>((void*) image->get_base_sptr_of_plane(0).get());
-                            void* buf1 = reinterpret_cast<void*>((void*) image->get_base_sptr_of_plane(1).get());
-                            void* buf2 = reinterpret_cast<void*>((void*) image->get_base_sptr_of_plane(2).get());
-
-                            byte_array0 = env->NewByteArray(size0);
-                            byte_array1 = env->NewByteArray(size1);
-                            byte_array2 = env->NewByteArray(size2);
-                            env->SetByteArrayRegion(byte_array0, 0, size0, reinterpret_cast<const jbyte*>(buf0));
-                            int u_width = image->get_width_of_plane(1);
-                            int u_stride = image->get_bytes_per_row_of_plane(1);
-
-                            for(int i = 0; i < image->get_height_of_plane(1); ++i) {
-                                env->SetByteArrayRegion(byte_array1, u_width * i, u_width, reinterpret_cast<const jbyte*>(buf1) + u_stride * i);
-                            }
-
-                            int v_width = image->get_width_of_plane(2);
-                            int v_stride = image->get_bytes_per_row_of_plane(2);
-
-                            for(int i = 0; i < image->get_height_of_plane(2); ++i) {
-                                env->SetByteArrayRegion(byte_array2, v_width * i, v_width, reinterpret_cast<const jbyte*>(buf2) + v_stride * i);
-                            }
-                            break;
-                        }
-                        default:
-                            break;
-                    }
+        frame_timeline timeline;
+        timeline.submit_ns = jsubmit_ns;
+        timeline.enqueue_ns = frame_metrics::now_ns();
+        metrics->on_submitted();
 
-                    if(byte_array0 == nullptr && byte_array1 == nullptr && byte_array2 == nullptr) {
-                        print_message("GetEnv: unsupported output image format");
-                        env->DeleteGlobalRef(this_ref);
-                        jvm->DetachCurrentThread();
-                        return;
-                    }
+        // Every frame which is not delivered ends here, java gets its completion even when the dispatcher queue is full
+        auto post_frame_dropped = [dispatcher, metrics, trace_id]() {
+            metrics->on_dropped();
+            frame_trace::end_async(frame_trace::frame_section, trace_id);
+            if (auto locked_dispatcher = dispatcher.lock()) {
+                locked_dispatcher->post_frame_dropped();
+            }
+        };
 
-                    jclass jcallback_class = env->GetObjectClass(this_ref);
-                    jmethodID jcallback_method = env->GetMethodID(jcallback_class, "onDataReady", "([B[B[BII)V");
+        // Callback for received pixel buffer from the offscreen effect player
 
-                    // call callback
-                    env->CallVoidMethod(this_ref, jcallback_method, byte_array0, byte_array1, byte_array2, image->get_width(), image->get_height());
-                    if (env->ExceptionCheck()) {
-                        env->ExceptionDescribe();
+        auto get_pixel_buffer_callback = [dispatcher, exporter, metrics, readback, deferred_framebuffers, governor, tier, output_format, pooled_output, texture_output,
+                                          texture_width, texture_height, timeline, trace_id, post_frame_dropped](image_processing_result_sptr result) {
+            if (result == nullptr) {
+                post_frame_dropped();
+                return;
+            }
+            // Called on the render thread right after the frame is drawn
+            deferred_framebuffers->delete_all();
+            frame_timeline rendered = timeline;
+            metrics->complete_render(rendered);
+            if (governor != nullptr && rendered.push_ns != 0) {
+                governor->on_frame_rendered(tier, rendered.draw_ns - rendered.push_ns);
+            }
+            if (texture_output) {
+                // Called on the render thread, the texture stays on the GPU and is shared through an EGL image
+                auto locked_exporter = exporter.lock();
+                auto locked_dispatcher = dispatcher.lock();
+                if (locked_exporter == nullptr || locked_dispatcher == nullptr) {
+                    post_frame_dropped();
+                    return;
+                }
+                /* shared by the copies of the task, the texture goes back to the exporter when it is not delivered */
+                auto texture = std::make_shared<bnb::oep::exported_texture>();
+                if (!locked_exporter->export_texture(to_texture_name(result->get_texture()), texture_width, texture_height, *texture)) {
+                    post_frame_dropped();
+                    return;
+                }
+                rendered.readback_ns = frame_metrics::now_ns();
+                auto deliver_task = [texture, metrics, rendered, trace_id](JNIEnv* env, jobject player) mutable {
+                    frame_trace::scoped_section deliver_section("OEP deliver");
+                    deliver_texture(env, player, *texture, rendered);
+                    metrics->on_delivered(rendered);
+                    frame_trace::end_async(frame_trace::frame_section, trace_id);
+                };
+                if (!locked_dispatcher->post(std::move(deliver_task))) {
+                    print_message("get_pixel_buffer_callback: dispatcher queue is full, texture dropped");
+                    post_frame_dropped();
+                }
+                return;
+            }
+            // Callback for update data in render thread, the copy to java is done on the dispatcher thread
+            auto get_image_callback = [dispatcher, metrics, pooled_output, rendered, trace_id, post_frame_dropped](pixel_buffer_sptr image) {
+                if (image == nullptr) {
+                    print_message("get_image_callback: image is null");
+                    post_frame_dropped();
+                    return;
+                }
+                auto locked_dispatcher = dispatcher.lock();
+                if (locked_dispatcher == nullptr) {
+                    post_frame_dropped();
+                    return;
+                }
+                frame_timeline read = rendered;
+                read.readback_ns = frame_metrics::now_ns();
+                auto deliver_task = [image, metrics, pooled_output, read, trace_id](JNIEnv* env, jobject player) mutable {
+                    frame_trace::scoped_section deliver_section("OEP deliver");
+                    bool delivered = pooled_output
+                        ? deliver_pooled_frame(env, player, image, read)
+                        : deliver_byte_arrays(env, player, image, read);
+                    if (delivered) {
+                        metrics->on_delivered(read);
+                    } else {
+                        metrics->on_dropped();
                     }
-                    env->DeleteGlobalRef(this_ref);
-
-                    jvm->DetachCurrentThread();
+                    frame_trace::end_async(frame_trace::frame_section, trace_id);
                 };
-                // Get image from effect_player and return it in the callback
-                result->get_image(image_format, get_image_callback);
+                if (!locked_dispatcher->post(std::move(deliver_task))) {
+                    print_message("get_image_callback: dispatcher queue is full, frame dropped");
+                    post_frame_dropped();
+                }
+            };
+            // The fenced read back returns at once and calls back from its worker when the copy is complete,
+            // the render thread goes on with the next frame meanwhile
+            frame_trace::scoped_section readback_section("OEP readback");
+            if (readback != nullptr
+                && readback->read(to_texture_name(result->get_texture()), texture_width, texture_height, output_format, get_image_callback)) {
+                return;
             }
+            // Get image from effect_player and return it in the callback
+            result->get_image(output_format, get_image_callback);
         };
         auto in_rotation = java_rotation_to_oep_rotation(image_info.input_orientation);
         auto out_rotation = java_rotation_to_oep_rotation(image_info.output_orientation);
-        oep->process_image_async(pb_image, in_rotation, image_info.require_mirroring, get_pixel_buffer_callback, out_rotation);
+        oep->process_image_async(pb_image, in_rotation, image_info.require_mirroring != 0, get_pixel_buffer_callback, out_rotation);
+        return retained ? JNI_TRUE : JNI_FALSE;
     }
 
     /* OffscreenEffectPlayer::externalSurfaceChanged - java interface */
@@ -393,9 +837,13 @@ extern "C"
         if (oep == nullptr) {
             return;
         }
-        auto width = static_cast<int32_t>(jwidth);
-        auto height = static_cast<int32_t>(jheight);
-        oep->surface_changed(width, height);
+        auto sdk = get_sdk_manager_from_jlong(jsdk);
+        {
+            std::lock_guard<std::mutex> lock(sdk->surface_mutex);
+            sdk->requested_width = static_cast<int32_t>(jwidth);
+            sdk->requested_height = static_cast<int32_t>(jheight);
+        }
+        sdk->apply_surface(std::atomic_load(&sdk->governor), sdk->applied_tier);
     }
 
     /* OffscreenEffectPlayer::externalLoadEffect - java interface */
@@ -449,26 +897,306 @@ extern "C"
         oep->stop();
     }
 
-    /* OffscreenEffectPlayer::externalCallJsMethod - java interface */
-    JNIEXPORT void JNICALL Java_com_banuba_quickstart_1c_1api_OffscreenEffectPlayer_externalCallJsMethod(JNIEnv* env, jobject thiz, jlong jsdk, jstring jmethod, jstring jparam)
+    /* OffscreenEffectPlayer::externalCallJsMethod - java interface
+     * The call is queued and applied before the next draw, jkey (may be null) narrows the coalescing key */
+    JNIEXPORT void JNICALL Java_com_banuba_quickstart_1c_1api_OffscreenEffectPlayer_externalCallJsMethod(JNIEnv* env, jobject thiz, jlong jsdk, jstring jmethod, jstring jparam, jstring jkey)
     {
-        auto oep = get_offscreen_effect_player_from_jlong(jsdk);
-        if (oep == nullptr) {
+        auto sdk = get_sdk_manager_from_jlong(jsdk);
+        if (sdk == nullptr) {
             return;
         }
         auto method = jstring_to_string(env, jmethod);
         auto param = jstring_to_string(env, jparam);
-        oep->call_js_method(method, param);
+        auto key = jkey != nullptr ? jstring_to_string(env, jkey) : std::string();
+        sdk->js_commands->call_js_method(method, param, key);
     }
 
-    /* OffscreenEffectPlayer::externalEvalJs - java interface */
-    JNIEXPORT void JNICALL Java_com_banuba_quickstart_1c_1api_OffscreenEffectPlayer_externalEvalJs(JNIEnv* env, jobject thiz, jlong jsdk, jstring jscript)
+    /* OffscreenEffectPlayer::externalEvalJs - java interface
+     * The script is queued and run before the next draw, its result is passed to onEvalJsResult(jrequest_id)
+     * on the callback thread. jrequest_id == 0 - no result is needed. The scripts dropped by externalClearJsCommands
+     * or with the player get no result, java answers their callbacks itself. */
+    JNIEXPORT void JNICALL Java_com_banuba_quickstart_1c_1api_OffscreenEffectPlayer_externalEvalJs(JNIEnv* env, jobject thiz, jlong jsdk, jstring jscript, jint jrequest_id)
     {
-        auto oep = get_offscreen_effect_player_from_jlong(jsdk);
-        if (oep == nullptr) {
+        auto sdk = get_sdk_manager_from_jlong(jsdk);
+        if (sdk == nullptr) {
             return;
         }
         auto script = jstring_to_string(env, jscript);
-        oep->eval_js(script, nullptr);
+        js_command_queue::eval_result_cb result_callback{nullptr};
+        if (jrequest_id != 0) {
+            std::weak_ptr<bnb::oep::callback_dispatcher> dispatcher = sdk->dispatcher;
+            int32_t request_id = jrequest_id;
+            result_callback = [dispatcher, request_id](const std::string& result) {
+                auto locked_dispatcher = dispatcher.lock();
+                if (locked_dispatcher == nullptr) {
+                    return;
+                }
+                auto deliver_task = [request_id, result](JNIEnv* env, jobject player) {
+                    jstring jresult = env->NewStringUTF(result.c_str());
+                    env->CallVoidMethod(player, jni.player_on_eval_js_result, request_id, jresult);
+                    env->DeleteLocalRef(jresult);
+                };
+                /* the result is never dropped, java waits for it */
+                locked_dispatcher->post_unbounded(std::move(deliver_task));
+            };
+        }
+        sdk->js_commands->eval_js(script, std::move(result_callback));
+    }
+
+    /* OffscreenEffectPlayer::externalClearJsCommands - java interface
+     * Drops the commands which were not applied yet */
+    JNIEXPORT void JNICALL Java_com_banuba_quickstart_1c_1api_OffscreenEffectPlayer_externalClearJsCommands(JNIEnv* env, jobject thiz, jlong jsdk)
+    {
+        auto sdk = get_sdk_manager_from_jlong(jsdk);
+        if (sdk == nullptr) {
+            return;
+        }
+        sdk->js_commands->clear();
+    }
+
+    /* OffscreenEffectPlayer::externalGetJsCommandStats - java interface
+     * Fills jvalues with the counters of the JS command queue, see JsCommandStats for the layout */
+    JNIEXPORT jboolean JNICALL Java_com_banuba_quickstart_1c_1api_OffscreenEffectPlayer_externalGetJsCommandStats(JNIEnv* env, jobject thiz, jlong jsdk, jlongArray jvalues)
+    {
+        auto sdk = get_sdk_manager_from_jlong(jsdk);
+        if (sdk == nullptr || env->GetArrayLength(jvalues) < static_cast<jsize>(js_command_queue::snapshot_size)) {
+            return JNI_FALSE;
+        }
+        std::array<int64_t, js_command_queue::snapshot_size> values;
+        sdk->js_commands->snapshot(values.data());
+        static_assert(sizeof(jlong) == sizeof(int64_t));
+        env->SetLongArrayRegion(jvalues, 0, static_cast<jsize>(values.size()), reinterpret_cast<const jlong*>(values.data()));
+        return JNI_TRUE;
+    }
+
+    /* OffscreenEffectPlayer::externalSetPooledOutput - java interface */
+    JNIEXPORT void JNICALL Java_com_banuba_quickstart_1c_1api_OffscreenEffectPlayer_externalSetPooledOutput(JNIEnv* env, jobject thiz, jlong jsdk, jboolean jpooled)
+    {
+        auto sdk = get_sdk_manager_from_jlong(jsdk);
+        if (sdk == nullptr) {
+            return;
+        }
+        sdk->pooled_output = jpooled;
+    }
+
+    /* OffscreenEffectPlayer::externalGetNativeFormatPairs - java interface
+     * Returns the input and output formats (MainActivity.ImageFormat ordinals) of every pair in turn */
+    JNIEXPORT jintArray JNICALL Java_com_banuba_quickstart_1c_1api_OffscreenEffectPlayer_externalGetNativeFormatPairs(JNIEnv* env, jclass clazz)
+    {
+        const auto& pairs = bnb::oep::get_native_format_pairs();
+        std::vector<jint> values;
+        values.reserve(pairs.size() * 2);
+        for (const auto& pair : pairs) {
+            values.push_back(bnb::oep::get_java_image_format(pair.input));
+            values.push_back(bnb::oep::get_java_image_format(pair.output));
+        }
+        jintArray jvalues = env->NewIntArray(static_cast<jsize>(values.size()));
+        if (jvalues != nullptr) {
+            env->SetIntArrayRegion(jvalues, 0, static_cast<jsize>(values.size()), values.data());
+        }
+        return jvalues;
+    }
+
+    /* OffscreenEffectPlayer::externalGetMetrics - java interface
+     * Fills jvalues with the snapshot of the frame metrics, see FrameMetrics for the layout */
+    JNIEXPORT jboolean JNICALL Java_com_banuba_quickstart_1c_1api_OffscreenEffectPlayer_externalGetMetrics(JNIEnv* env, jobject thiz, jlong jsdk, jlongArray jvalues)
+    {
+        auto sdk = get_sdk_manager_from_jlong(jsdk);
+        if (sdk == nullptr || env->GetArrayLength(jvalues) < static_cast<jsize>(frame_metrics::snapshot_size)) {
+            return JNI_FALSE;
+        }
+        std::array<int64_t, frame_metrics::snapshot_size> values;
+        sdk->metrics->snapshot(values.data());
+        static_assert(sizeof(jlong) == sizeof(int64_t));
+        env->SetLongArrayRegion(jvalues, 0, static_cast<jsize>(values.size()), reinterpret_cast<const jlong*>(values.data()));
+        return JNI_TRUE;
+    }
+
+    /* OffscreenEffectPlayer::externalResetMetrics - java interface */
+    JNIEXPORT void JNICALL Java_com_banuba_quickstart_1c_1api_OffscreenEffectPlayer_externalResetMetrics(JNIEnv* env, jobject thiz, jlong jsdk)
+    {
+        auto sdk = get_sdk_manager_from_jlong(jsdk);
+        if (sdk == nullptr) {
+            return;
+        }
+        sdk->metrics->reset();
+    }
+
+    /* OffscreenEffectPlayer::externalProcessFile - java interface
+     * Runs the frames of the input file through an own effect player and writes the output file, blocks until done.
+     * jstats receives the frames read, the frames written and the elapsed nanoseconds. */
+    JNIEXPORT jboolean JNICALL Java_com_banuba_quickstart_1c_1api_OffscreenEffectPlayer_externalProcessFile(
+            JNIEnv* env, jclass clazz,
+            jint jinput_fd, jint jinput_container, jint jraw_format, jint jraw_width, jint jraw_height,
+            jint joutput_fd, jint joutput_container, jint joutput_format,
+            jint jmax_frames_in_flight, jint jorientation, jboolean jmirroring, jstring jeffect, jlongArray jstats)
+    {
+        sdk_reference sdk;
+        if (!sdk.valid()) {
+            print_message("error: OffscreenEffectPlayer::externalProcessFile(): the SDK is not initialized\n");
+            return JNI_FALSE;
+        }
+        bnb::oep::frame_file_reader reader;
+        if (!reader.open(jinput_fd, static_cast<bnb::oep::frame_container>(jinput_container),
+                         static_cast<bnb::oep::frame_format>(jraw_format), jraw_width, jraw_height)) {
+            print_message("error: OffscreenEffectPlayer::externalProcessFile(): failed to read the input frames\n");
+            return JNI_FALSE;
+        }
+        auto info = reader.info();
+        info.container = static_cast<bnb::oep::frame_container>(joutput_container);
+        if (joutput_format >= 0) {
+            info.format = static_cast<bnb::oep::frame_format>(joutput_format);
+        }
+        bnb::oep::frame_file_writer writer;
+        if (!writer.open(joutput_fd, info)) {
+            print_message("error: OffscreenEffectPlayer::externalProcessFile(): failed to map the output file\n");
+            return JNI_FALSE;
+        }
+
+        bnb::oep::offline_options options;
+        options.max_frames_in_flight = static_cast<size_t>(std::max(1, static_cast<int>(jmax_frames_in_flight)));
+        options.orientation = java_rotation_to_oep_rotation(jorientation);
+        options.require_mirroring = jmirroring;
+
+        auto effect = jeffect != nullptr ? jstring_to_string(env, jeffect) : std::string();
+        auto ep = std::make_shared<bnb::oep::effect_player>(info.width, info.height);
+        auto target = std::make_shared<bnb::oep::offline_render_target>(ep, effect, info.width, info.height, options.max_frames_in_flight + 1);
+        bnb::oep::offline_pipeline pipeline(
+                ep,
+                [target](const pixel_buffer_sptr&) { return target->readback(); },
+                [target]() { target->start(); },
+                [target]() { target->stop(); });
+        auto stats = pipeline.run(reader, writer, options);
+        bool flushed = writer.close();
+
+        jlong values[] = {static_cast<jlong>(stats.frames_read), static_cast<jlong>(stats.frames_written), static_cast<jlong>(stats.elapsed_ns)};
+        env->SetLongArrayRegion(jstats, 0, 3, values);
+        return flushed ? JNI_TRUE : JNI_FALSE;
+    }
+
+    /* OffscreenEffectPlayer::externalSetResolutionGovernor - java interface
+     * jscales == null removes the governor, the following frames are processed at the requested size */
+    JNIEXPORT void JNICALL Java_com_banuba_quickstart_1c_1api_OffscreenEffectPlayer_externalSetResolutionGovernor(
+            JNIEnv* env, jobject thiz, jlong jsdk, jfloatArray jscales, jlong jbudget_ns)
+    {
+        auto sdk = get_sdk_manager_from_jlong(jsdk);
+        if (sdk == nullptr) {
+            return;
+        }
+        std::shared_ptr<resolution_governor> governor{nullptr};
+        if (jscales != nullptr && env->GetArrayLength(jscales) > 0) {
+            resolution_governor::config config;
+            config.scales.resize(env->GetArrayLength(jscales));
+            env->GetFloatArrayRegion(jscales, 0, static_cast<jsize>(config.scales.size()), config.scales.data());
+            config.budget_ns = jbudget_ns;
+            governor = std::make_shared<resolution_governor>(std::move(config));
+        }
+        std::atomic_store(&sdk->governor, governor);
+    }
+
+    /* OffscreenEffectPlayer::externalGetProcessingScale - java interface */
+    JNIEXPORT jfloat JNICALL Java_com_banuba_quickstart_1c_1api_OffscreenEffectPlayer_externalGetProcessingScale(JNIEnv* env, jobject thiz, jlong jsdk)
+    {
+        auto sdk = get_sdk_manager_from_jlong(jsdk);
+        if (sdk == nullptr) {
+            return 1.0f;
+        }
+        auto governor = std::atomic_load(&sdk->governor);
+        return governor != nullptr ? governor->scale(sdk->applied_tier) : 1.0f;
+    }
+
+    /* OffscreenEffectPlayer::externalSetAsyncReadback - java interface
+     * jmax_in_flight == 0 returns to the synchronous get_image */
+    JNIEXPORT void JNICALL Java_com_banuba_quickstart_1c_1api_OffscreenEffectPlayer_externalSetAsyncReadback(JNIEnv* env, jobject thiz, jlong jsdk, jint jmax_in_flight)
+    {
+        auto sdk = get_sdk_manager_from_jlong(jsdk);
+        if (sdk == nullptr) {
+            return;
+        }
+        std::shared_ptr<fenced_readback> readback{nullptr};
+        if (jmax_in_flight > 0) {
+            readback = std::make_shared<fenced_readback>(static_cast<size_t>(jmax_in_flight), sdk->deferred_framebuffers);
+        }
+        /* the previous one is usually destroyed here, on the java thread, its framebuffer goes to the render thread */
+        std::atomic_store(&sdk->readback, readback);
+    }
+
+    /* OffscreenEffectPlayer::externalSetTextureOutput - java interface */
+    JNIEXPORT void JNICALL Java_com_banuba_quickstart_1c_1api_OffscreenEffectPlayer_externalSetTextureOutput(JNIEnv* env, jobject thiz, jlong jsdk, jboolean jtexture)
+    {
+        auto sdk = get_sdk_manager_from_jlong(jsdk);
+        if (sdk == nullptr) {
+            return;
+        }
+        sdk->texture_output = jtexture;
+    }
+
+    /* OutputTexture::externalImport - java interface */
+    JNIEXPORT jboolean JNICALL Java_com_banuba_quickstart_1c_1api_OutputTexture_externalImport(JNIEnv* env, jclass clazz, jlong jhandle, jint jtexture)
+    {
+        auto texture = reinterpret_cast<bnb::oep::exported_texture*>(static_cast<uintptr_t>(jhandle));
+        return texture->import_to(static_cast<GLuint>(jtexture)) ? JNI_TRUE : JNI_FALSE;
+    }
+
+    /* OutputTexture::externalRelease - java interface
+     * jsampled - the texture was imported, the draws of the current context which sample it are fenced */
+    JNIEXPORT void JNICALL Java_com_banuba_quickstart_1c_1api_OutputTexture_externalRelease(JNIEnv* env, jclass clazz, jlong jhandle, jboolean jsampled)
+    {
+        auto texture = reinterpret_cast<bnb::oep::exported_texture*>(static_cast<uintptr_t>(jhandle));
+        if (jsampled) {
+            texture->finish_sampling();
+        }
+        delete texture;
+    }
+
+    /* FrameConverter::externalConvert - java interface */
+    JNIEXPORT jboolean JNICALL Java_com_banuba_quickstart_1c_1api_FrameConverter_externalConvert(
+            JNIEnv* env, jclass clazz,
+            jint jsrc_format, jobject jsrc0, jobject jsrc1, jobject jsrc2, jint jsrc_stride0, jint jsrc_stride1, jint jsrc_stride2,
+            jint jwidth, jint jheight,
+            jint jdst_format, jobject jdst0, jobject jdst1, jobject jdst2, jint jdst_stride0, jint jdst_stride1, jint jdst_stride2,
+            jint jrotation, jboolean jmirror)
+    {
+        auto address = [env](jobject jbuffer) {
+            return jbuffer != nullptr ? static_cast<uint8_t*>(env->GetDirectBufferAddress(jbuffer)) : nullptr;
+        };
+        bnb::oep::frame_view src{static_cast<bnb::oep::frame_format>(jsrc_format), jwidth, jheight,
+                                 {{{address(jsrc0), jsrc_stride0}, {address(jsrc1), jsrc_stride1}, {address(jsrc2), jsrc_stride2}}}};
+        bool swap_sides = jrotation == 90 || jrotation == 270;
+        bnb::oep::frame_view dst{static_cast<bnb::oep::frame_format>(jdst_format), swap_sides ? jheight : jwidth, swap_sides ? jwidth : jheight,
+                                 {{{address(jdst0), jdst_stride0}, {address(jdst1), jdst_stride1}, {address(jdst2), jdst_stride2}}}};
+        return bnb::oep::frame_converter::convert(src, dst, jrotation, jmirror) ? JNI_TRUE : JNI_FALSE;
+    }
+
+    /* SlabPool::externalGetStats - java interface
+     * Fills jvalues with the snapshot of the native buffer pool, see SlabPool.Stats for the layout */
+    JNIEXPORT jboolean JNICALL Java_com_banuba_quickstart_1c_1api_SlabPool_externalGetStats(JNIEnv* env, jclass clazz, jlongArray jvalues)
+    {
+        if (env->GetArrayLength(jvalues) < static_cast<jsize>(slab_pool::snapshot_size)) {
+            return JNI_FALSE;
+        }
+        std::array<int64_t, slab_pool::snapshot_size> values;
+        slab_pool::instance().snapshot(values.data());
+        static_assert(sizeof(jlong) == sizeof(int64_t));
+        env->SetLongArrayRegion(jvalues, 0, static_cast<jsize>(values.size()), reinterpret_cast<const jlong*>(values.data()));
+        return JNI_TRUE;
+    }
+
+    /* SlabPool::externalSetCap - java interface */
+    JNIEXPORT void JNICALL Java_com_banuba_quickstart_1c_1api_SlabPool_externalSetCap(JNIEnv* env, jclass clazz, jlong jcap_bytes)
+    {
+        slab_pool::instance().set_cap(jcap_bytes);
+    }
+
+    /* SlabPool::externalTrim - java interface */
+    JNIEXPORT void JNICALL Java_com_banuba_quickstart_1c_1api_SlabPool_externalTrim(JNIEnv* env, jclass clazz)
+    {
+        slab_pool::instance().trim();
+    }
+
+    /* FrameTrace::externalSetEnabled - java interface */
+    JNIEXPORT void JNICALL Java_com_banuba_quickstart_1c_1api_FrameTrace_externalSetEnabled(JNIEnv* env, jclass clazz, jboolean jenabled)
+    {
+        frame_trace::set_enabled(jenabled == JNI_TRUE);
     }
 } /* extern "C" */
@@ -0,0 +1,277 @@
+#include "offline_pipeline.hpp"
+#include "frame_trace.hpp"
+
+#include <chrono>
+#include <condition_variable>
+#include <deque>
+#include <mutex>
+#include <thread>
+
+namespace
+{
+    using bnb::oep::frame_format;
+    using ns_pb = bnb::oep::interfaces::pixel_buffer;
+    namespace frame_trace = bnb::oep::frame_trace;
+
+    /* the cookie of the "OEP frame" async section of a frame, 0 is not traced */
+    int32_t trace_cookie(size_t index)
+    {
+        return static_cast<int32_t>(index % INT32_MAX) + 1;
+    }
+
+    struct frame_job
+    {
+        size_t index{0};
+        pixel_buffer_sptr input{nullptr};
+        bnb::oep::rendered_frame output;
+    }; /* struct frame_job */
+
+    /* Blocking FIFO between two stages. Its size is bounded by the frames in flight, so it never grows. */
+    class job_channel
+    {
+    public:
+        void push(frame_job job)
+        {
+            {
+                std::lock_guard<std::mutex> lock(m_mutex);
+                m_jobs.push_back(std::move(job));
+            }
+            m_cv.notify_one();
+        }
+
+        /* returns false when the channel is closed and empty */
+        bool pop(frame_job& job)
+        {
+            std::unique_lock<std::mutex> lock(m_mutex);
+            m_cv.wait(lock, [this] { return !m_jobs.empty() || m_closed; });
+            if (m_jobs.empty()) {
+                return false;
+            }
+            job = std::move(m_jobs.front());
+            m_jobs.pop_front();
+            return true;
+        }
+
+        void close()
+        {
+            {
+                std::lock_guard<std::mutex> lock(m_mutex);
+                m_closed = true;
+            }
+            m_cv.notify_all();
+        }
+
+    private:
+        std::mutex m_mutex;
+        std::condition_variable m_cv;
+        std::deque<frame_job> m_jobs;
+        bool m_closed{false};
+    }; /* class job_channel */
+
+    /* counts the frames between the reader and the writer */
+    class in_flight_limit
+    {
+    public:
+        explicit in_flight_limit(size_t limit)
+            : m_limit(limit > 0 ? limit : 1)
+        {
+        }
+
+        /* returns false when cancelled, the flag is checked whenever a frame leaves the pipeline */
+        bool acquire(const std::atomic<bool>& cancelled)
+        {
+            std::unique_lock<std::mutex> lock(m_mutex);
+            m_cv.wait(lock, [this, &cancelled] { return m_count < m_limit || cancelled; });
+            if (cancelled) {
+                return false;
+            }
+            ++m_count;
+            frame_trace::set_counter("OEP frames in flight", static_cast<int64_t>(m_count));
+            return true;
+        }
+
+        void release()
+        {
+            {
+                std::lock_guard<std::mutex> lock(m_mutex);
+                --m_count;
+                frame_trace::set_counter("OEP frames in flight", static_cast<int64_t>(m_count));
+            }
+            m_cv.notify_one();
+        }
+
+    private:
+        const size_t m_limit;
+        size_t m_count{0};
+        std::mutex m_mutex;
+        std::condition_variable m_cv;
+    }; /* class in_flight_limit */
+
+    bnb::oep::interfaces::image_format to_image_format(frame_format format)
+    {
+        switch (format) {
+            case frame_format::rgba:
+                return bnb::oep::interfaces::image_format::bpc8_rgba;
+            case frame_format::nv12:
+                return bnb::oep::interfaces::image_format::nv12_bt601_full;
+            default:
+                return bnb::oep::interfaces::image_format::i420_bt601_full;
+        }
+    }
+
+    int64_t now_ns()
+    {
+        return std::chrono::duration_cast<std::chrono::nanoseconds>(std::chrono::steady_clock::now().time_since_epoch()).count();
+    }
+} /* namespace */
+
+namespace bnb::oep
+{
+
+    /* wrap_frame_view */
+    pixel_buffer_sptr wrap_frame_view(const frame_view& view)
+    {
+        if (view.format == frame_format::nv21) {
+            return nullptr;
+        }
+        std::vector<ns_pb::plane_data> planes;
+        for (int32_t i = 0; i < frame_converter::plane_count(view.format); ++i) {
+            auto rows = frame_converter::plane_rows(view.format, view.height, i);
+            ns_pb::plane_sptr data(view.planes[i].data, [](uint8_t*) {});
+            planes.push_back({std::move(data), static_cast<size_t>(view.planes[i].stride) * rows, view.planes[i].stride});
+        }
+        return ns_pb::create(planes, to_image_format(view.format), view.width, view.height, [](auto* pb) { delete pb; });
+    }
+
+    /* view_of_pixel_buffer */
+    bool view_of_pixel_buffer(const pixel_buffer_sptr& image, frame_view& view)
+    {
+        using ns = bnb::oep::interfaces::image_format;
+        switch (image->get_image_format()) {
+            case ns::bpc8_rgba:
+                view.format = frame_format::rgba;
+                break;
+            case ns::nv12_bt601_full:
+            case ns::nv12_bt601_video:
+            case ns::nv12_bt709_full:
+            case ns::nv12_bt709_video:
+                view.format = frame_format::nv12;
+                break;
+            case ns::i420_bt601_full:
+            case ns::i420_bt601_video:
+            case ns::i420_bt709_full:
+            case ns::i420_bt709_video:
+                view.format = frame_format::i420;
+                break;
+            default:
+                return false;
+        }
+        view.width = image->get_width();
+        view.height = image->get_height();
+        for (int32_t i = 0; i < frame_converter::plane_count(view.format); ++i) {
+            view.planes[i].data = image->get_base_sptr_of_plane(i).get();
+            view.planes[i].stride = image->get_bytes_per_row_of_plane(i);
+        }
+        return true;
+    }
+
+    /* offline_pipeline::offline_pipeline CONSTRUCTOR */
+    offline_pipeline::offline_pipeline(effect_player_sptr player, readback_t readback,
+                                       render_thread_hook_t on_render_start, render_thread_hook_t on_render_stop)
+        : m_player(std::move(player))
+        , m_readback(std::move(readback))
+        , m_on_render_start(std::move(on_render_start))
+        , m_on_render_stop(std::move(on_render_stop))
+    {
+    }
+
+    /* offline_pipeline::run */
+    offline_stats offline_pipeline::run(const frame_file_reader& reader, const frame_file_writer& writer, const offline_options& options)
+    {
+        m_cancelled = false;
+        offline_stats stats;
+        auto start_ns = now_ns();
+
+        in_flight_limit limit(options.max_frames_in_flight);
+        job_channel to_render;
+        job_channel to_write;
+        std::atomic<size_t> written{0};
+
+        std::thread render_thread([&]() {
+            if (m_on_render_start) {
+                m_on_render_start();
+            }
+            frame_job job;
+            while (to_render.pop(job)) {
+                {
+                    frame_trace::scoped_section trace_section("OEP push_frame");
+                    m_player->push_frame(job.input, options.orientation, options.require_mirroring);
+                }
+                int64_t drawn = 0;
+                {
+                    frame_trace::scoped_section trace_section("OEP draw");
+                    drawn = m_player->draw();
+                }
+                if (drawn >= 0) {
+                    frame_trace::scoped_section trace_section("OEP readback");
+                    job.output = m_readback(job.input);
+                }
+                /* release the input planes once the frame is drawn, a pass-through output holds its own reference */
+                job.input = nullptr;
+                to_write.push(std::move(job));
+            }
+            if (m_on_render_stop) {
+                m_on_render_stop();
+            }
+            to_write.close();
+        });
+
+        std::thread writer_thread([&]() {
+            frame_job job;
+            while (to_write.pop(job)) {
+                frame_trace::scoped_section trace_section("OEP write");
+                frame_view src;
+                if (job.output.image != nullptr && view_of_pixel_buffer(job.output.image, src)
+                    && frame_converter::convert(src, writer.frame(job.index), job.output.rotation, job.output.mirror)) {
+                    written.fetch_add(1);
+                } else {
+                    frame_trace::set_counter("OEP frames dropped", static_cast<int64_t>(job.index + 1 - written.load()));
+                }
+                frame_trace::end_async(frame_trace::frame_section, trace_cookie(job.index));
+                job = frame_job{};
+                limit.release();
+            }
+        });
+
+        auto frame_count = std::min(reader.info().frame_count, writer.info().frame_count);
+        for (size_t i = 0; i < frame_count; ++i) {
+            if (!limit.acquire(m_cancelled)) {
+                break;
+            }
+            frame_trace::begin_async(frame_trace::frame_section, trace_cookie(i));
+            auto input = wrap_frame_view(reader.frame(i));
+            if (input == nullptr) {
+                frame_trace::end_async(frame_trace::frame_section, trace_cookie(i));
+                limit.release();
+                break;
+            }
+            to_render.push(frame_job{i, std::move(input), {}});
+            ++stats.frames_read;
+        }
+        to_render.close();
+
+        render_thread.join();
+        writer_thread.join();
+
+        stats.frames_written = written;
+        stats.elapsed_ns = now_ns() - start_ns;
+        return stats;
+    }
+
+    /* offline_pipeline::cancel */
+    void offline_pipeline::cancel()
+    {
+        m_cancelled = true;
+    }
+
+} /* namespace bnb::oep */
@@ -0,0 +1,81 @@
+#pragma once
+
+#include "frame_io.hpp"
+
+#include <interfaces/effect_player.hpp>
+#include <interfaces/image_format.hpp>
+#include <interfaces/pixel_buffer.hpp>
+
+#include <atomic>
+#include <cstdint>
+#include <functional>
+
+namespace bnb::oep
+{
+
+    struct offline_options
+    {
+        /* frames which are read but not written yet, the reader waits when the limit is reached */
+        size_t max_frames_in_flight{3};
+        bnb::oep::interfaces::rotation orientation{bnb::oep::interfaces::rotation::deg0};
+        bool require_mirroring{false};
+    }; /* struct offline_options */
+
+    struct offline_stats
+    {
+        size_t frames_read{0};
+        size_t frames_written{0};
+        int64_t elapsed_ns{0};
+
+        double fps() const
+        {
+            return elapsed_ns > 0 ? static_cast<double>(frames_written) * 1e9 / static_cast<double>(elapsed_ns) : 0.0;
+        }
+    }; /* struct offline_stats */
+
+    /* Output image of a drawn frame. It is written rotated by rotation and then mirrored,
+     * e.g. a bottom-up image read from GL is written with rotation 180 and mirror. */
+    struct rendered_frame
+    {
+        pixel_buffer_sptr image{nullptr};
+        int32_t rotation{0};
+        bool mirror{false};
+    }; /* struct rendered_frame */
+
+    /* Runs a recorded frame sequence through an effect player as fast as the player allows.
+     * Three stages work at once: the calling thread wraps the frames of the mapped input file into pixel buffers,
+     * the render thread pushes, draws and reads them back, the writer thread converts the output into
+     * the mapped output file. The player can be any bnb::oep::interfaces::effect_player implementation,
+     * e.g. a pass-through one to measure the pipeline itself on a desktop host. */
+    class offline_pipeline
+    {
+    public:
+        /* Called on the render thread after effect_player::draw, returns the output of the frame or nullptr to drop it */
+        using readback_t = std::function<rendered_frame(const pixel_buffer_sptr& input)>;
+        /* Called on the render thread before the first frame and after the last one, e.g. to make a GL context current */
+        using render_thread_hook_t = std::function<void()>;
+
+        offline_pipeline(effect_player_sptr player, readback_t readback,
+                         render_thread_hook_t on_render_start = nullptr, render_thread_hook_t on_render_stop = nullptr);
+
+        /* blocks until every frame of the reader is written, or cancel() is called */
+        offline_stats run(const frame_file_reader& reader, const frame_file_writer& writer, const offline_options& options);
+
+        /* can be called from any thread, run() returns after the frames in flight */
+        void cancel();
+
+    private:
+        effect_player_sptr m_player;
+        readback_t m_readback;
+        render_thread_hook_t m_on_render_start;
+        render_thread_hook_t m_on_render_stop;
+        std::atomic<bool> m_cancelled{false};
+    }; /* class offline_pipeline */
+
+    /* pixel buffer around the planes of the view, the memory is not copied and must outlive the buffer */
+    pixel_buffer_sptr wrap_frame_view(const frame_view& view);
+
+    /* the planes of a nv12, i420 or rgba pixel buffer */
+    bool view_of_pixel_buffer(const pixel_buffer_sptr& image, frame_view& view);
+
+} /* namespace bnb::oep */
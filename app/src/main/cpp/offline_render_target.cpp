@@ -0,0 +1,84 @@
+#include "offline_render_target.hpp"
+
+#include <android/log.h>
+
+namespace
+{
+    void print_message(const char* message)
+    {
+        __android_log_print(ANDROID_LOG_ERROR, "OEP_ERROR ", "%s\n", message);
+    }
+} /* namespace */
+
+namespace bnb::oep
+{
+
+    /* offline_render_target::offline_render_target CONSTRUCTOR */
+    offline_render_target::offline_render_target(effect_player_sptr player, std::string effect, int32_t width, int32_t height, size_t buffer_count)
+        : m_player(std::move(player))
+        , m_effect(std::move(effect))
+        , m_width(width)
+        , m_height(height)
+    {
+        auto size = static_cast<size_t>(width) * height * 4;
+        for (size_t i = 0; i < std::max<size_t>(buffer_count, 1); ++i) {
+            m_buffers.emplace_back(new uint8_t[size], std::default_delete<uint8_t[]>());
+        }
+    }
+
+    /* offline_render_target::start */
+    void offline_render_target::start()
+    {
+        m_context.create_context();
+        m_context.activate();
+
+        glGenTextures(1, &m_texture);
+        glBindTexture(GL_TEXTURE_2D, m_texture);
+        glTexStorage2D(GL_TEXTURE_2D, 1, GL_RGBA8, m_width, m_height);
+        glGenFramebuffers(1, &m_framebuffer);
+        glBindFramebuffer(GL_FRAMEBUFFER, m_framebuffer);
+        glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, m_texture, 0);
+        if (glCheckFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE) {
+            print_message("offline_render_target: framebuffer is not complete");
+        }
+        glViewport(0, 0, m_width, m_height);
+        glPixelStorei(GL_PACK_ALIGNMENT, 1);
+
+        m_player->surface_created(m_width, m_height);
+        if (!m_effect.empty()) {
+            m_player->load_effect(m_effect);
+        }
+    }
+
+    /* offline_render_target::stop */
+    void offline_render_target::stop()
+    {
+        m_player->surface_destroyed();
+        glBindFramebuffer(GL_FRAMEBUFFER, 0);
+        glDeleteFramebuffers(1, &m_framebuffer);
+        glDeleteTextures(1, &m_texture);
+        m_framebuffer = 0;
+        m_texture = 0;
+        m_context.deactivate();
+        m_context.delete_context();
+    }
+
+    /* offline_render_target::readback */
+    rendered_frame offline_render_target::readback()
+    {
+        using ns_pb = bnb::oep::interfaces::pixel_buffer;
+        auto& buffer = m_buffers[m_next_buffer];
+        m_next_buffer = (m_next_buffer + 1) % m_buffers.size();
+
+        /* the effect player may leave another framebuffer bound */
+        glBindFramebuffer(GL_FRAMEBUFFER, m_framebuffer);
+        glReadPixels(0, 0, m_width, m_height, GL_RGBA, GL_UNSIGNED_BYTE, buffer.get());
+
+        auto stride = m_width * 4;
+        ns_pb::plane_data plane{buffer, static_cast<size_t>(stride) * m_height, stride};
+        auto image = ns_pb::create({plane}, bnb::oep::interfaces::image_format::bpc8_rgba, m_width, m_height, [](auto* pb) { delete pb; });
+        /* GL rows go bottom up, rotation by 180 degrees followed by the mirroring flips the image vertically */
+        return {image, 180, true};
+    }
+
+} /* namespace bnb::oep */
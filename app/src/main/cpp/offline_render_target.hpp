@@ -0,0 +1,42 @@
+#pragma once
+
+#include "offline_pipeline.hpp"
+#include "render_context.hpp"
+
+#include <GLES3/gl3.h>
+
+#include <memory>
+#include <string>
+#include <vector>
+
+namespace bnb::oep
+{
+
+    /* GL side of the offline pipeline on the device: an own EGL context with a framebuffer of the output size,
+     * the effect player draws into it and the image is read back with glReadPixels.
+     * All methods except the constructor are called on the render thread of the pipeline. */
+    class offline_render_target
+    {
+    public:
+        /* buffer_count must exceed the frames in flight, a read back buffer is reused after buffer_count frames */
+        offline_render_target(effect_player_sptr player, std::string effect, int32_t width, int32_t height, size_t buffer_count);
+
+        void start();
+
+        void stop();
+
+        rendered_frame readback();
+
+    private:
+        effect_player_sptr m_player;
+        std::string m_effect;
+        int32_t m_width{0};
+        int32_t m_height{0};
+        bnb::oep::render_context m_context;
+        GLuint m_framebuffer{0};
+        GLuint m_texture{0};
+        std::vector<std::shared_ptr<uint8_t>> m_buffers;
+        size_t m_next_buffer{0};
+    }; /* class offline_render_target */
+
+} /* namespace bnb::oep */
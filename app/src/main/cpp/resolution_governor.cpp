@@ -0,0 +1,99 @@
+#include "resolution_governor.hpp"
+
+#include <algorithm>
+#include <utility>
+
+namespace
+{
+    int32_t even_size(float size)
+    {
+        return std::max(2, static_cast<int32_t>(size) & ~1);
+    }
+} /* namespace */
+
+namespace bnb::oep
+{
+
+    /* resolution_governor::resolution_governor */
+    resolution_governor::resolution_governor(config cfg)
+        : m_config(std::move(cfg))
+    {
+    }
+
+    /* resolution_governor::tier */
+    int32_t resolution_governor::tier() const
+    {
+        return m_tier.load(std::memory_order_relaxed);
+    }
+
+    /* resolution_governor::scale */
+    float resolution_governor::scale(int32_t tier) const
+    {
+        if (tier < 0 || tier >= tier_count()) {
+            return 1.0f;
+        }
+        return m_config.scales[tier];
+    }
+
+    /* resolution_governor::tier_count */
+    int32_t resolution_governor::tier_count() const
+    {
+        return static_cast<int32_t>(m_config.scales.size());
+    }
+
+    /* resolution_governor::scaled_size */
+    void resolution_governor::scaled_size(int32_t tier, int32_t width, int32_t height, int32_t& scaled_width, int32_t& scaled_height) const
+    {
+        auto s = scale(tier);
+        if (s >= 1.0f) {
+            scaled_width = width;
+            scaled_height = height;
+            return;
+        }
+        scaled_width = even_size(width * s);
+        scaled_height = even_size(height * s);
+    }
+
+    /* resolution_governor::on_frame_rendered */
+    void resolution_governor::on_frame_rendered(int32_t tier, int64_t render_ns)
+    {
+        if (tier != m_tier.load(std::memory_order_relaxed) || render_ns <= 0) {
+            return;
+        }
+        m_sum_ns += render_ns;
+        if (++m_count < std::max(m_config.window, 1)) {
+            return;
+        }
+        auto mean_ns = m_sum_ns / m_count;
+        m_sum_ns = 0;
+        m_count = 0;
+        decide(mean_ns);
+    }
+
+    /* resolution_governor::decide */
+    void resolution_governor::decide(int64_t mean_ns)
+    {
+        auto current = m_tier.load(std::memory_order_relaxed);
+        if (mean_ns > m_config.budget_ns) {
+            m_headroom_windows = 0;
+            if (current + 1 < tier_count()) {
+                m_tier.store(current + 1, std::memory_order_relaxed);
+            }
+            return;
+        }
+        if (current == 0) {
+            return;
+        }
+        auto ratio = scale(current - 1) / scale(current);
+        auto predicted_ns = static_cast<double>(mean_ns) * ratio * ratio;
+        if (predicted_ns >= m_config.budget_ns * static_cast<double>(m_config.up_headroom)) {
+            m_headroom_windows = 0;
+            return;
+        }
+        if (++m_headroom_windows >= m_config.up_windows) {
+            m_headroom_windows = 0;
+            m_tier.store(current - 1, std::memory_order_relaxed);
+        }
+    }
+
+} /* namespace bnb::oep */
@@ -0,0 +1,53 @@
+#pragma once
+
+#include <atomic>
+#include <cstdint>
+#include <vector>
+
+namespace bnb::oep
+{
+
+    /* Chooses the processing resolution of a player from the measured render time of its frames.
+     * The resolution is one of the configured tiers, scale factors of the full size in descending order.
+     * The render time is averaged over a window of frames: an average above the budget steps one tier down at once,
+     * a step up needs several windows in a row where the render time predicted for the upper tier (it grows with the
+     * number of pixels) stays below the headroom part of the budget. Frames rendered at another tier than
+     * the current one are not counted, so the frames still in flight after a switch do not cause the next one. */
+    class resolution_governor
+    {
+    public:
+        struct config
+        {
+            /* descending, the first one is normally 1.0 */
+            std::vector<float> scales{1.0f, 0.75f, 0.5f};
+            int64_t budget_ns{33'333'333};
+            int32_t window{15};
+            float up_headroom{0.75f};
+            int32_t up_windows{4};
+        }; /* struct config */
+
+        explicit resolution_governor(config cfg);
+
+        /* the current tier, read by the thread which submits the frames */
+        int32_t tier() const;
+        float scale(int32_t tier) const;
+        int32_t tier_count() const;
+
+        /* size of the tier, rounded down to even numbers for the chroma planes */
+        void scaled_size(int32_t tier, int32_t width, int32_t height, int32_t& scaled_width, int32_t& scaled_height) const;
+
+        /* called for every rendered frame from one thread (the render thread of the player) */
+        void on_frame_rendered(int32_t tier, int64_t render_ns);
+
+    private:
+        void decide(int64_t mean_ns);
+
+    private:
+        const config m_config;
+        std::atomic<int32_t> m_tier{0};
+        int64_t m_sum_ns{0};
+        int32_t m_count{0};
+        int32_t m_headroom_windows{0};
+    }; /* class resolution_governor */
+
+} /* namespace bnb::oep */
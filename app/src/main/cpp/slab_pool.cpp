@@ -0,0 +1,170 @@
+#include "slab_pool.hpp"
+
+#include <algorithm>
+
+namespace
+{
+    constexpr size_t min_class_size = 64;
+    /* classes per power of two */
+    constexpr size_t class_steps = 4;
+} /* namespace */
+
+namespace bnb::oep
+{
+
+    /* slab_pool::instance */
+    slab_pool& slab_pool::instance()
+    {
+        /* never destroyed, the buffers can be released by threads which outlive the static objects */
+        static auto pool = new slab_pool();
+        return *pool;
+    }
+
+    /* slab_pool::slab_pool CONSTRUCTOR */
+    slab_pool::slab_pool(int64_t cap_bytes)
+    {
+        m_stats.cap_bytes = std::max<int64_t>(cap_bytes, 0);
+    }
+
+    /* slab_pool::~slab_pool */
+    slab_pool::~slab_pool()
+    {
+        trim();
+    }
+
+    /* slab_pool::class_size */
+    size_t slab_pool::class_size(size_t size)
+    {
+        if (size <= min_class_size) {
+            return min_class_size;
+        }
+        /* the power of two below the size split into class_steps equal steps */
+        size_t base = min_class_size;
+        while (base * 2 < size) {
+            base *= 2;
+        }
+        size_t step = base / class_steps;
+        return (size + step - 1) / step * step;
+    }
+
+    /* slab_pool::allocate */
+    uint8_t* slab_pool::allocate(size_t size)
+    {
+        auto block_size = class_size(size);
+        {
+            std::lock_guard<std::mutex> lock(m_mutex);
+            auto& blocks = m_free[block_size];
+            if (!blocks.empty()) {
+                auto data = blocks.back();
+                blocks.pop_back();
+                m_stats.free_bytes -= static_cast<int64_t>(block_size);
+                m_stats.live_bytes += static_cast<int64_t>(block_size);
+                ++m_stats.hits;
+                return data;
+            }
+            ++m_stats.misses;
+            release_free(static_cast<int64_t>(block_size));
+            m_stats.live_bytes += static_cast<int64_t>(block_size);
+            auto total = m_stats.live_bytes + m_stats.free_bytes;
+            if (total > m_stats.cap_bytes) {
+                ++m_stats.over_cap;
+            }
+            m_stats.high_water_bytes = std::max(m_stats.high_water_bytes, total);
+        }
+        try {
+            return new uint8_t[block_size];
+        } catch (...) {
+            std::lock_guard<std::mutex> lock(m_mutex);
+            m_stats.live_bytes -= static_cast<int64_t>(block_size);
+            throw;
+        }
+    }
+
+    /* slab_pool::deallocate */
+    void slab_pool::deallocate(uint8_t* data, size_t size)
+    {
+        if (data == nullptr) {
+            return;
+        }
+        auto block_size = class_size(size);
+        {
+            std::lock_guard<std::mutex> lock(m_mutex);
+            m_stats.live_bytes -= static_cast<int64_t>(block_size);
+            if (m_stats.live_bytes + m_stats.free_bytes + static_cast<int64_t>(block_size) <= m_stats.cap_bytes) {
+                m_free[block_size].push_back(data);
+                m_stats.free_bytes += static_cast<int64_t>(block_size);
+                return;
+            }
+        }
+        delete[] data;
+    }
+
+    /* slab_pool::make_buffer */
+    std::shared_ptr<uint8_t> slab_pool::make_buffer(size_t size)
+    {
+        auto data = allocate(size);
+        try {
+            return std::shared_ptr<uint8_t>(data, [this, size](uint8_t* block) { deallocate(block, size); }, slab_allocator<uint8_t>(this));
+        } catch (...) {
+            deallocate(data, size);
+            throw;
+        }
+    }
+
+    /* slab_pool::set_cap */
+    void slab_pool::set_cap(int64_t cap_bytes)
+    {
+        std::lock_guard<std::mutex> lock(m_mutex);
+        m_stats.cap_bytes = std::max<int64_t>(cap_bytes, 0);
+        release_free(0);
+    }
+
+    /* slab_pool::trim */
+    void slab_pool::trim()
+    {
+        std::lock_guard<std::mutex> lock(m_mutex);
+        for (auto& [block_size, blocks] : m_free) {
+            for (auto data : blocks) {
+                delete[] data;
+            }
+            blocks.clear();
+        }
+        m_stats.free_bytes = 0;
+    }
+
+    /* slab_pool::get_stats */
+    slab_pool::stats slab_pool::get_stats() const
+    {
+        std::lock_guard<std::mutex> lock(m_mutex);
+        return m_stats;
+    }
+
+    /* slab_pool::snapshot */
+    void slab_pool::snapshot(int64_t* values) const
+    {
+        auto current = get_stats();
+        values[0] = current.live_bytes;
+        values[1] = current.free_bytes;
+        values[2] = current.high_water_bytes;
+        values[3] = current.cap_bytes;
+        values[4] = current.hits;
+        values[5] = current.misses;
+        values[6] = current.over_cap;
+    }
+
+    /* slab_pool::release_free */
+    void slab_pool::release_free(int64_t extra_bytes)
+    {
+        while (m_stats.free_bytes > 0 && m_stats.live_bytes + m_stats.free_bytes + extra_bytes > m_stats.cap_bytes) {
+            /* the largest blocks go first, the fewest blocks are freed */
+            auto largest = std::max_element(m_free.begin(), m_free.end(), [](const auto& a, const auto& b) {
+                return (a.second.empty() ? 0 : a.first) < (b.second.empty() ? 0 : b.first);
+            });
+            auto& blocks = largest->second;
+            delete[] blocks.back();
+            blocks.pop_back();
+            m_stats.free_bytes -= static_cast<int64_t>(largest->first);
+        }
+    }
+
+} /* namespace bnb::oep */
@@ -0,0 +1,156 @@
+#pragma once
+
+#include <cstddef>
+#include <cstdint>
+#include <memory>
+#include <mutex>
+#include <new>
+#include <unordered_map>
+#include <utility>
+#include <vector>
+
+namespace bnb::oep
+{
+
+    /* Size-class pool of the native buffers allocated for every frame: the planes of the pixel buffers,
+     * their shared_ptr control blocks and the plane holders of the effect player.
+     * A request is rounded up to its class (64 bytes at least, four classes per power of two, so at most 25% is
+     * wasted) and served from the free blocks of the class. A released block is kept for the next frame while
+     * the live and the free blocks together fit in the cap, otherwise it goes back to the heap; a request over
+     * the cap releases the free blocks of the other classes first. The pool never fails a request itself.
+     * All methods are thread-safe, the buffers are released on the render and callback threads. */
+    class slab_pool
+    {
+    public:
+        struct stats
+        {
+            /* bytes of the blocks in use */
+            int64_t live_bytes{0};
+            /* bytes of the blocks kept for reuse */
+            int64_t free_bytes{0};
+            /* the maximum of live and free bytes together */
+            int64_t high_water_bytes{0};
+            int64_t cap_bytes{0};
+            /* requests served with a free block */
+            int64_t hits{0};
+            /* requests which allocated a new block */
+            int64_t misses{0};
+            /* requests which took the pool over the cap */
+            int64_t over_cap{0};
+        }; /* struct stats */
+
+        /* number of values of a snapshot, must match SlabPool.Stats */
+        static constexpr size_t snapshot_size = 7;
+        static constexpr int64_t default_cap_bytes = 64 * 1024 * 1024;
+
+        /* the pool shared by all players */
+        static slab_pool& instance();
+
+        explicit slab_pool(int64_t cap_bytes = default_cap_bytes);
+        ~slab_pool();
+
+        slab_pool(const slab_pool&) = delete;
+        slab_pool& operator=(const slab_pool&) = delete;
+
+        /* the size of the block which serves the request */
+        static size_t class_size(size_t size);
+
+        uint8_t* allocate(size_t size);
+        /* size is the size of the request, not of the block */
+        void deallocate(uint8_t* data, size_t size);
+
+        /* Buffer of size bytes which comes back to the pool when the last owner releases it,
+         * the control block of the shared_ptr is taken from the pool as well */
+        std::shared_ptr<uint8_t> make_buffer(size_t size);
+
+        template<typename T, typename... Args>
+        T* create(Args&&... args)
+        {
+            static_assert(alignof(T) <= __STDCPP_DEFAULT_NEW_ALIGNMENT__, "the blocks are aligned as new[] does");
+            auto data = allocate(sizeof(T));
+            try {
+                return new (data) T(std::forward<Args>(args)...);
+            } catch (...) {
+                deallocate(data, sizeof(T));
+                throw;
+            }
+        }
+
+        template<typename T>
+        void destroy(T* object)
+        {
+            if (object != nullptr) {
+                object->~T();
+                deallocate(reinterpret_cast<uint8_t*>(object), sizeof(T));
+            }
+        }
+
+        /* a lower cap releases the free blocks over it at once */
+        void set_cap(int64_t cap_bytes);
+        /* releases all free blocks */
+        void trim();
+
+        stats get_stats() const;
+        void snapshot(int64_t* values) const;
+
+    private:
+        /* releases free blocks until the total fits in the cap with the extra bytes, under the lock */
+        void release_free(int64_t extra_bytes);
+
+    private:
+        mutable std::mutex m_mutex;
+        std::unordered_map<size_t, std::vector<uint8_t*>> m_free;
+        stats m_stats;
+    }; /* class slab_pool */
+
+    /* std allocator on top of the pool, for the control blocks of shared_ptr and the like */
+    template<typename T>
+    class slab_allocator
+    {
+    public:
+        using value_type = T;
+
+        explicit slab_allocator(slab_pool* pool)
+            : m_pool(pool)
+        {
+        }
+
+        template<typename U>
+        slab_allocator(const slab_allocator<U>& other)
+            : m_pool(other.pool())
+        {
+        }
+
+        T* allocate(size_t n)
+        {
+            static_assert(alignof(T) <= __STDCPP_DEFAULT_NEW_ALIGNMENT__, "the blocks are aligned as new[] does");
+            return reinterpret_cast<T*>(m_pool->allocate(n * sizeof(T)));
+        }
+
+        void deallocate(T* data, size_t n)
+        {
+            m_pool->deallocate(reinterpret_cast<uint8_t*>(data), n * sizeof(T));
+        }
+
+        slab_pool* pool() const
+        {
+            return m_pool;
+        }
+
+        template<typename U>
+        bool operator==(const slab_allocator<U>& other) const
+        {
+            return m_pool == other.pool();
+        }
+
+        template<typename U>
+        bool operator!=(const slab_allocator<U>& other) const
+        {
+            return m_pool != other.pool();
+        }
+
+    private:
+        slab_pool* m_pool;
+    }; /* class slab_allocator */
+
+} /* namespace bnb::oep */
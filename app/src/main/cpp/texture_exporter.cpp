@@ -0,0 +1,339 @@
+#include "texture_exporter.hpp"
+
+#include <GLES2/gl2ext.h>
+
+#include <utility>
+
+#if defined(__ANDROID__)
+    #include <android/log.h>
+#else
+    #include <cstdio>
+#endif
+
+namespace
+{
+    void print_message(const char* message)
+    {
+#if defined(__ANDROID__)
+        __android_log_print(ANDROID_LOG_ERROR, "OEP_ERROR ", "%s\n", message);
+#else
+        std::fprintf(stderr, "OEP_ERROR %s\n", message);
+#endif
+    }
+
+    /* entry points of the extensions, resolved once */
+    struct egl_extensions
+    {
+        PFNEGLCREATEIMAGEKHRPROC create_image{nullptr};
+        PFNEGLDESTROYIMAGEKHRPROC destroy_image{nullptr};
+        PFNEGLCREATESYNCKHRPROC create_sync{nullptr};
+        PFNEGLDESTROYSYNCKHRPROC destroy_sync{nullptr};
+        PFNEGLCLIENTWAITSYNCKHRPROC client_wait_sync{nullptr};
+        PFNEGLWAITSYNCKHRPROC wait_sync{nullptr};
+        PFNGLEGLIMAGETARGETTEXTURE2DOESPROC image_target_texture{nullptr};
+
+        egl_extensions()
+        {
+            create_image = reinterpret_cast<PFNEGLCREATEIMAGEKHRPROC>(eglGetProcAddress("eglCreateImageKHR"));
+            destroy_image = reinterpret_cast<PFNEGLDESTROYIMAGEKHRPROC>(eglGetProcAddress("eglDestroyImageKHR"));
+            create_sync = reinterpret_cast<PFNEGLCREATESYNCKHRPROC>(eglGetProcAddress("eglCreateSyncKHR"));
+            destroy_sync = reinterpret_cast<PFNEGLDESTROYSYNCKHRPROC>(eglGetProcAddress("eglDestroySyncKHR"));
+            client_wait_sync = reinterpret_cast<PFNEGLCLIENTWAITSYNCKHRPROC>(eglGetProcAddress("eglClientWaitSyncKHR"));
+            /* optional, EGL_KHR_wait_sync */
+            wait_sync = reinterpret_cast<PFNEGLWAITSYNCKHRPROC>(eglGetProcAddress("eglWaitSyncKHR"));
+            image_target_texture = reinterpret_cast<PFNGLEGLIMAGETARGETTEXTURE2DOESPROC>(eglGetProcAddress("glEGLImageTargetTexture2DOES"));
+        }
+
+        bool supported() const
+        {
+            return create_image && destroy_image && create_sync && destroy_sync && client_wait_sync && image_target_texture;
+        }
+    }; /* struct egl_extensions */
+
+    const egl_extensions& extensions()
+    {
+        static const egl_extensions instance;
+        return instance;
+    }
+
+    EGLDisplay current_display()
+    {
+        auto display = eglGetCurrentDisplay();
+        return display != EGL_NO_DISPLAY ? display : eglGetDisplay(EGL_DEFAULT_DISPLAY);
+    }
+
+    /* makes the current context wait for the fence, on the GPU when EGL_KHR_wait_sync is supported */
+    void wait_fence(EGLDisplay display, EGLSyncKHR fence)
+    {
+        auto& ext = extensions();
+        if (ext.wait_sync != nullptr) {
+            ext.wait_sync(display, fence, 0);
+        } else {
+            ext.client_wait_sync(display, fence, EGL_SYNC_FLUSH_COMMANDS_BIT_KHR, EGL_FOREVER_KHR);
+        }
+    }
+
+    void destroy_fence(EGLDisplay display, EGLSyncKHR& fence)
+    {
+        auto& ext = extensions();
+        if (fence != EGL_NO_SYNC_KHR && ext.destroy_sync != nullptr) {
+            ext.destroy_sync(display, fence);
+        }
+        fence = EGL_NO_SYNC_KHR;
+    }
+} /* namespace */
+
+namespace bnb::oep
+{
+
+    struct export_slot
+    {
+        std::mutex mutex;
+        EGLDisplay display{EGL_NO_DISPLAY};
+        GLuint texture{0};
+        EGLImageKHR image{EGL_NO_IMAGE_KHR};
+        /* held by an exported_texture */
+        bool leased{false};
+        /* the exporter dropped the slot while it was leased, the last holder destroys the image */
+        bool detached{false};
+        /* the draws of the receiver which sampled the texture, the next copy waits for them */
+        EGLSyncKHR release_fence{EGL_NO_SYNC_KHR};
+    }; /* struct export_slot */
+
+    /* exported_texture::~exported_texture */
+    exported_texture::~exported_texture()
+    {
+        reset();
+    }
+
+    /* exported_texture::exported_texture */
+    exported_texture::exported_texture(exported_texture&& other) noexcept
+        : m_slot(std::move(other.m_slot))
+        , m_ready_fence(std::exchange(other.m_ready_fence, EGL_NO_SYNC_KHR))
+        , m_release_fence(std::exchange(other.m_release_fence, EGL_NO_SYNC_KHR))
+        , m_width(other.m_width)
+        , m_height(other.m_height)
+    {
+    }
+
+    /* exported_texture::operator= */
+    exported_texture& exported_texture::operator=(exported_texture&& other) noexcept
+    {
+        if (this != &other) {
+            reset();
+            m_slot = std::move(other.m_slot);
+            m_ready_fence = std::exchange(other.m_ready_fence, EGL_NO_SYNC_KHR);
+            m_release_fence = std::exchange(other.m_release_fence, EGL_NO_SYNC_KHR);
+            m_width = other.m_width;
+            m_height = other.m_height;
+        }
+        return *this;
+    }
+
+    /* exported_texture::import_to */
+    bool exported_texture::import_to(GLuint target)
+    {
+        auto& ext = extensions();
+        if (m_slot == nullptr || !ext.supported()) {
+            return false;
+        }
+        if (m_ready_fence != EGL_NO_SYNC_KHR) {
+            /* the GPU waits, the calling thread does not */
+            wait_fence(m_slot->display, m_ready_fence);
+            destroy_fence(m_slot->display, m_ready_fence);
+        }
+        glBindTexture(GL_TEXTURE_2D, target);
+        ext.image_target_texture(GL_TEXTURE_2D, static_cast<GLeglImageOES>(m_slot->image));
+        return glGetError() == GL_NO_ERROR;
+    }
+
+    /* exported_texture::finish_sampling */
+    void exported_texture::finish_sampling()
+    {
+        auto& ext = extensions();
+        if (m_slot == nullptr || !ext.supported() || eglGetCurrentContext() == EGL_NO_CONTEXT) {
+            return;
+        }
+        destroy_fence(m_slot->display, m_release_fence);
+        m_release_fence = ext.create_sync(m_slot->display, EGL_SYNC_FENCE_KHR, nullptr);
+        /* the fence must reach the GPU before the render context waits for it */
+        glFlush();
+    }
+
+    /* exported_texture::reset */
+    void exported_texture::reset()
+    {
+        if (m_slot == nullptr) {
+            return;
+        }
+        auto slot = std::move(m_slot);
+        /* never imported, nobody waits for the copy */
+        destroy_fence(slot->display, m_ready_fence);
+        std::lock_guard<std::mutex> lock(slot->mutex);
+        slot->leased = false;
+        if (slot->detached) {
+            destroy_fence(slot->display, m_release_fence);
+            if (slot->image != EGL_NO_IMAGE_KHR) {
+                extensions().destroy_image(slot->display, slot->image);
+                slot->image = EGL_NO_IMAGE_KHR;
+            }
+            return;
+        }
+        destroy_fence(slot->display, slot->release_fence);
+        slot->release_fence = std::exchange(m_release_fence, EGL_NO_SYNC_KHR);
+    }
+
+    /* texture_exporter::~texture_exporter */
+    texture_exporter::~texture_exporter()
+    {
+        std::lock_guard<std::mutex> lock(m_mutex);
+        detach_slots(false);
+    }
+
+    /* texture_exporter::export_texture */
+    bool texture_exporter::export_texture(GLuint texture, int32_t width, int32_t height, exported_texture& out)
+    {
+        auto& ext = extensions();
+        if (!ext.supported()) {
+            print_message("texture_exporter: EGL image or fence extensions are not supported");
+            return false;
+        }
+        auto context = eglGetCurrentContext();
+        if (texture == 0 || context == EGL_NO_CONTEXT) {
+            print_message("texture_exporter: no texture or no current context");
+            return false;
+        }
+
+        std::lock_guard<std::mutex> lock(m_mutex);
+        /* the copies have the size of the frame */
+        if (width != m_width || height != m_height) {
+            detach_slots(true);
+            m_width = width;
+            m_height = height;
+        }
+        m_display = eglGetCurrentDisplay();
+        if (m_slots.empty()) {
+            for (size_t i = 0; i < slot_count; ++i) {
+                m_slots.push_back(std::make_shared<export_slot>());
+            }
+        }
+
+        /* the next texture which is not held by a receiver, in turn */
+        std::shared_ptr<export_slot> slot{nullptr};
+        for (size_t i = 0; i < m_slots.size() && slot == nullptr; ++i) {
+            auto& candidate = m_slots[(m_next_slot + i) % m_slots.size()];
+            std::lock_guard<std::mutex> slot_lock(candidate->mutex);
+            if (!candidate->leased) {
+                candidate->leased = true;
+                slot = candidate;
+                m_next_slot = (m_next_slot + i + 1) % m_slots.size();
+            }
+        }
+        if (slot == nullptr) {
+            /* the receiver holds every texture, it is slower than the player */
+            return false;
+        }
+
+        exported_texture result;
+        result.m_slot = slot;
+        result.m_width = width;
+        result.m_height = height;
+        {
+            std::lock_guard<std::mutex> slot_lock(slot->mutex);
+            slot->display = m_display;
+            if (slot->texture == 0) {
+                GLint bound = 0;
+                glGetIntegerv(GL_TEXTURE_BINDING_2D, &bound);
+                glGenTextures(1, &slot->texture);
+                glBindTexture(GL_TEXTURE_2D, slot->texture);
+                glTexStorage2D(GL_TEXTURE_2D, 1, GL_RGBA8, width, height);
+                glBindTexture(GL_TEXTURE_2D, static_cast<GLuint>(bound));
+            }
+            if (slot->image == EGL_NO_IMAGE_KHR) {
+                const EGLint attribs[] = {EGL_IMAGE_PRESERVED_KHR, EGL_TRUE, EGL_NONE};
+                auto buffer = reinterpret_cast<EGLClientBuffer>(static_cast<uintptr_t>(slot->texture));
+                slot->image = ext.create_image(m_display, context, EGL_GL_TEXTURE_2D_KHR, buffer, attribs);
+                if (slot->image == EGL_NO_IMAGE_KHR) {
+                    print_message("texture_exporter: eglCreateImageKHR failed");
+                    return false;
+                }
+            }
+            /* the receiver may still sample the previous frame of this texture */
+            if (slot->release_fence != EGL_NO_SYNC_KHR) {
+                wait_fence(m_display, slot->release_fence);
+                destroy_fence(m_display, slot->release_fence);
+            }
+        }
+
+        if (!copy_texture(texture, slot->texture, width, height)) {
+            print_message("texture_exporter: the copy of the texture failed");
+            return false;
+        }
+
+        result.m_ready_fence = ext.create_sync(m_display, EGL_SYNC_FENCE_KHR, nullptr);
+        if (result.m_ready_fence == EGL_NO_SYNC_KHR) {
+            print_message("texture_exporter: eglCreateSyncKHR failed");
+            return false;
+        }
+        /* the fence must reach the GPU before another context waits for it */
+        glFlush();
+
+        out = std::move(result);
+        return true;
+    }
+
+    /* texture_exporter::copy_texture */
+    bool texture_exporter::copy_texture(GLuint source, GLuint target, int32_t width, int32_t height)
+    {
+        GLint read_framebuffer = 0;
+        GLint draw_framebuffer = 0;
+        glGetIntegerv(GL_READ_FRAMEBUFFER_BINDING, &read_framebuffer);
+        glGetIntegerv(GL_DRAW_FRAMEBUFFER_BINDING, &draw_framebuffer);
+        if (m_framebuffers[0] == 0) {
+            glGenFramebuffers(2, m_framebuffers);
+        }
+
+        glBindFramebuffer(GL_READ_FRAMEBUFFER, m_framebuffers[0]);
+        glFramebufferTexture2D(GL_READ_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, source, 0);
+        glBindFramebuffer(GL_DRAW_FRAMEBUFFER, m_framebuffers[1]);
+        glFramebufferTexture2D(GL_DRAW_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, target, 0);
+        bool complete = glCheckFramebufferStatus(GL_READ_FRAMEBUFFER) == GL_FRAMEBUFFER_COMPLETE
+                        && glCheckFramebufferStatus(GL_DRAW_FRAMEBUFFER) == GL_FRAMEBUFFER_COMPLETE;
+        if (complete) {
+            glBlitFramebuffer(0, 0, width, height, 0, 0, width, height, GL_COLOR_BUFFER_BIT, GL_NEAREST);
+        }
+
+        /* the textures are not kept attached, the render target may delete its texture */
+        glFramebufferTexture2D(GL_READ_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, 0, 0);
+        glFramebufferTexture2D(GL_DRAW_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, 0, 0);
+        glBindFramebuffer(GL_READ_FRAMEBUFFER, static_cast<GLuint>(read_framebuffer));
+        glBindFramebuffer(GL_DRAW_FRAMEBUFFER, static_cast<GLuint>(draw_framebuffer));
+        return complete && glGetError() == GL_NO_ERROR;
+    }
+
+    /* texture_exporter::detach_slots */
+    void texture_exporter::detach_slots(bool delete_textures)
+    {
+        auto& ext = extensions();
+        for (auto& slot : m_slots) {
+            std::lock_guard<std::mutex> lock(slot->mutex);
+            /* the image keeps the storage of the texture while a receiver holds it */
+            if (delete_textures && slot->texture != 0) {
+                glDeleteTextures(1, &slot->texture);
+                slot->texture = 0;
+            }
+            if (slot->leased) {
+                slot->detached = true;
+                continue;
+            }
+            destroy_fence(slot->display, slot->release_fence);
+            if (slot->image != EGL_NO_IMAGE_KHR) {
+                ext.destroy_image(slot->display, slot->image);
+                slot->image = EGL_NO_IMAGE_KHR;
+            }
+        }
+        m_slots.clear();
+        m_next_slot = 0;
+    }
+
+} /* namespace bnb::oep */
@@ -0,0 +1,111 @@
+#pragma once
+
+#include <EGL/egl.h>
+#include <EGL/eglext.h>
+#include <GLES3/gl3.h>
+
+#include <cstddef>
+#include <cstdint>
+#include <memory>
+#include <mutex>
+#include <vector>
+
+namespace bnb::oep
+{
+
+    /* texture of the exporter and its state, shared with the exported_texture which holds it */
+    struct export_slot;
+
+    /* A rendered frame made available to another context. The texture goes back to the exporter when this object
+     * is destroyed, the exporter copies one of the next frames into it then. Can be moved between threads. */
+    class exported_texture
+    {
+    public:
+        exported_texture() = default;
+        ~exported_texture();
+
+        exported_texture(exported_texture&& other) noexcept;
+        exported_texture& operator=(exported_texture&& other) noexcept;
+
+        exported_texture(const exported_texture&) = delete;
+        exported_texture& operator=(const exported_texture&) = delete;
+
+        int32_t width() const
+        {
+            return m_width;
+        }
+
+        int32_t height() const
+        {
+            return m_height;
+        }
+
+        /* Must be called on the thread of the receiving context. Waits for the copy of the frame on the GPU,
+         * then attaches the image to target. Returns false when the image can not be attached. */
+        bool import_to(GLuint target);
+
+        /* Must be called on the thread of the receiving context after the last draw which samples target.
+         * The exporter waits (on the GPU) for these draws before it copies a new frame into the texture,
+         * without this call it is reused as soon as this object is destroyed. */
+        void finish_sampling();
+
+    private:
+        friend class texture_exporter;
+
+        void reset();
+
+    private:
+        std::shared_ptr<export_slot> m_slot{nullptr};
+        /* signaled when the frame is copied into the texture of the slot */
+        EGLSyncKHR m_ready_fence{EGL_NO_SYNC_KHR};
+        /* signaled when the receiver has finished sampling the texture */
+        EGLSyncKHR m_release_fence{EGL_NO_SYNC_KHR};
+        int32_t m_width{0};
+        int32_t m_height{0};
+    }; /* class exported_texture */
+
+    /* Shares the rendered frames of the offscreen effect player with the contexts of the application.
+     * The render target of the effect player reuses its textures, so the frame is copied (a GPU blit) into one of
+     * slot_count textures of the exporter, wrapped into EGLImages once, and the receiver samples the copy while
+     * the next frames are rendered. A texture is reused only when the receiver has returned it, and the copy
+     * waits on the GPU for the draws of the receiver which sample it. Every frame gets an EGL fence, so the receiver
+     * waits for the copy on the GPU instead of reading the image back.
+     * Uses only EGL/GLES 3 and the EGL_KHR_image_base, EGL_KHR_gl_texture_2D_image, EGL_KHR_fence_sync,
+     * GL_OES_EGL_image extensions, so it works with any EGL implementation, e.g. Mesa llvmpipe on Linux. */
+    class texture_exporter
+    {
+    public:
+        /* one texture with the receiver, one waiting for it and one being copied */
+        static constexpr size_t slot_count = 3;
+
+        texture_exporter() = default;
+
+        /* The textures still held by receivers stay valid, their images are destroyed when they are returned.
+         * The GL objects of the exporter belong to the render context, they are freed with it. */
+        ~texture_exporter();
+
+        texture_exporter(const texture_exporter&) = delete;
+        texture_exporter& operator=(const texture_exporter&) = delete;
+
+        /* Must be called on the thread where the context which owns the texture is current,
+         * after the texture was rendered. Returns false when the extensions are not supported
+         * or all the textures of the exporter are held by receivers, the frame is dropped then. */
+        bool export_texture(GLuint texture, int32_t width, int32_t height, exported_texture& out);
+
+    private:
+        /* the textures are recreated on the next export, the ones held by receivers are destroyed on return */
+        void detach_slots(bool delete_textures);
+
+        bool copy_texture(GLuint source, GLuint target, int32_t width, int32_t height);
+
+    private:
+        std::mutex m_mutex;
+        EGLDisplay m_display{EGL_NO_DISPLAY};
+        std::vector<std::shared_ptr<export_slot>> m_slots;
+        size_t m_next_slot{0};
+        GLuint m_framebuffers[2]{0, 0};
+        int32_t m_width{0};
+        int32_t m_height{0};
+    }; /* class texture_exporter */
+
+} /* namespace bnb::oep */
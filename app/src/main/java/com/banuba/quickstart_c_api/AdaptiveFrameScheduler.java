@@ -0,0 +1,127 @@
+package com.banuba.quickstart_c_api;
+
+/* Skips input frames so the end-to-end latency (capture -> onDataReady) stays under the budget.
+ * Every frame carries its stamp, the capture time given by the camera or the time it was offered,
+ * through the queue to the completion. The scheduler keeps moving averages of the lead time
+ * (stamp -> submit: the camera delay and the queue wait) and of the per-frame service time: the submit -> completion
+ * time of a frame divided by the number of frames it waited behind. A new frame is accepted only when the lead time
+ * plus the frames already in flight and the new one are expected to fit the budget. When nothing is in flight
+ * a frame is always accepted, so a heavy effect still renders as fast as it can.
+ * All timestamps are System.nanoTime() values. The class does not allocate after construction. */
+public class AdaptiveFrameScheduler {
+    /* weight of the newest sample in the moving averages */
+    private static final double SMOOTHING = 0.1;
+    private static final int MAX_IN_FLIGHT = 32;
+
+    private final long mLatencyBudgetNanos;
+
+    /* stamps, submit timestamps and queue depth of the frames in flight, FIFO because OEP keeps the order */
+    private final long[] mStampTimes = new long[MAX_IN_FLIGHT];
+    private final long[] mSubmitTimes = new long[MAX_IN_FLIGHT];
+    private final int[] mSubmitDepths = new int[MAX_IN_FLIGHT];
+    private int mHead = 0;
+    private int mInFlight = 0;
+
+    private double mServiceTimeNanos = 0;
+    private double mLeadTimeNanos = 0;
+    private double mLatencyNanos = 0;
+    private double mCompletionIntervalNanos = 0;
+    private long mLastCompletionTime = 0;
+
+    private long mOffered = 0;
+    private long mSkipped = 0;
+
+    public AdaptiveFrameScheduler(long latencyBudgetNanos) {
+        mLatencyBudgetNanos = latencyBudgetNanos;
+    }
+
+    /* Returns false when the frame should be skipped */
+    public synchronized boolean shouldProcess() {
+        ++mOffered;
+        boolean accept = mInFlight == 0
+                || (mInFlight < MAX_IN_FLIGHT && mLeadTimeNanos + (mInFlight + 1) * mServiceTimeNanos <= mLatencyBudgetNanos);
+        if (!accept) {
+            ++mSkipped;
+        }
+        return accept;
+    }
+
+    /* The accepted frame is passed to OffscreenEffectPlayer.processImageAsync, stampNanos is its capture time
+     * or the time it was offered */
+    public synchronized void onFrameSubmitted(long stampNanos, long nowNanos) {
+        if (mInFlight == MAX_IN_FLIGHT) {
+            return;
+        }
+        int tail = (mHead + mInFlight) % MAX_IN_FLIGHT;
+        mStampTimes[tail] = stampNanos;
+        mSubmitTimes[tail] = nowNanos;
+        mSubmitDepths[tail] = mInFlight + 1;
+        ++mInFlight;
+        mLeadTimeNanos = average(mLeadTimeNanos, Math.max(nowNanos - stampNanos, 0));
+    }
+
+    /* The result of the oldest submitted frame was delivered (or dropped) */
+    public synchronized void onFrameCompleted(long nowNanos) {
+        if (mInFlight == 0) {
+            return;
+        }
+        long latency = nowNanos - mStampTimes[mHead];
+        long serviceTime = nowNanos - mSubmitTimes[mHead];
+        int depth = mSubmitDepths[mHead];
+        mHead = (mHead + 1) % MAX_IN_FLIGHT;
+        --mInFlight;
+
+        mLatencyNanos = average(mLatencyNanos, latency);
+        mServiceTimeNanos = average(mServiceTimeNanos, (double) serviceTime / depth);
+        if (mLastCompletionTime != 0) {
+            mCompletionIntervalNanos = average(mCompletionIntervalNanos, nowNanos - mLastCompletionTime);
+        }
+        mLastCompletionTime = nowNanos;
+    }
+
+    /* The frame submitted last will never complete, e.g. the player threw when it was submitted.
+     * It leaves the frames in flight without a latency sample. */
+    public synchronized void onFrameDropped() {
+        if (mInFlight == 0) {
+            return;
+        }
+        --mInFlight;
+    }
+
+    public long getLatencyBudgetNanos() {
+        return mLatencyBudgetNanos;
+    }
+
+    /* moving average of the stamp -> completion time */
+    public synchronized long getAverageLatencyNanos() {
+        return (long) mLatencyNanos;
+    }
+
+    /* moving average of the stamp -> submit time, the camera delay and the wait in the queue */
+    public synchronized long getAverageLeadTimeNanos() {
+        return (long) mLeadTimeNanos;
+    }
+
+    /* moving average of the time OEP spends on one frame */
+    public synchronized long getAverageServiceTimeNanos() {
+        return (long) mServiceTimeNanos;
+    }
+
+    /* output frames per second, derived from the moving average of the completion interval */
+    public synchronized double getEffectiveFps() {
+        return mCompletionIntervalNanos > 0 ? 1e9 / mCompletionIntervalNanos : 0;
+    }
+
+    /* part of the offered frames which were skipped, from 0 to 1 */
+    public synchronized double getSkipRatio() {
+        return mOffered > 0 ? (double) mSkipped / mOffered : 0;
+    }
+
+    public synchronized long getSkippedCount() {
+        return mSkipped;
+    }
+
+    private static double average(double average, double sample) {
+        return average == 0 ? sample : average + SMOOTHING * (sample - average);
+    }
+}
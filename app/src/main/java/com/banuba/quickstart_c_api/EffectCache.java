@@ -0,0 +1,333 @@
+package com.banuba.quickstart_c_api;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/* Keeps recently used effects warm for instant switching, e.g. in an effect carousel.
+ * The C API of the SDK holds one current effect per effect player and the GL resources of an effect belong to the GL
+ * context of its player, so an effect can only stay warm inside its own player: every cached effect is an
+ * OffscreenEffectPlayer of the frame size with the effect loaded. Switching to a cached effect is handing the frames
+ * to another player, which takes no time. A player which got no frames has a cold face tracker, so the inactive
+ * players get some of the camera frames too, see feedWarmPlayers(). The switch times are measured, see getSwitchStats().
+ * Players are created and destroyed on a background thread. The estimated memory of the cached players is kept
+ * under the budget by destroying the least recently activated ones, the active effect is never evicted. */
+public class EffectCache {
+    public interface CostEstimator {
+        /* memory held by a warm player with the effect loaded, in bytes */
+        long estimateBytes(String effectPath);
+    }
+
+    public interface ActivationCallback {
+        /* player has the effect loaded, or failed to load it when loaded is false (player is null when it could not
+         * be created). Called on a background thread, or on the caller thread when the effect was cached. */
+        void onActivated(String effectPath, OffscreenEffectPlayer player, boolean loaded);
+    }
+
+    private static class Entry {
+        final String effectPath;
+        final long bytes;
+        OffscreenEffectPlayer player = null;
+        boolean ready = false;
+        boolean loaded = false;
+        boolean evicted = false;
+        final ArrayList<ActivationCallback> waiting = new ArrayList<>(1);
+
+        Entry(String effectPath, long bytes) {
+            this.effectPath = effectPath;
+            this.bytes = bytes;
+        }
+    }
+
+    private final int mWidth;
+    private final int mHeight;
+    private final long mMemoryBudgetBytes;
+    private final CostEstimator mEstimator;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "EffectCache"));
+
+    /* access order: the least recently used entry first */
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private String mActiveEffect = null;
+    private long mUsedBytes = 0;
+
+    private long mHits = 0;
+    private long mMisses = 0;
+    private long mEvictions = 0;
+    private int mNextFed = 0;
+
+    /* activate() -> ActivationCallback times of the effects which were warm and of the ones which were not */
+    private long mWarmSwitches = 0;
+    private long mWarmSwitchNanos = 0;
+    private long mMaxWarmSwitchNanos = 0;
+    private long mColdSwitches = 0;
+    private long mColdSwitchNanos = 0;
+    private long mMaxColdSwitchNanos = 0;
+
+    public static class SwitchStats {
+        public final long warmSwitches;
+        public final long averageWarmSwitchNanos;
+        public final long maxWarmSwitchNanos;
+        public final long coldSwitches;
+        public final long averageColdSwitchNanos;
+        public final long maxColdSwitchNanos;
+
+        SwitchStats(long warmSwitches, long warmSwitchNanos, long maxWarmSwitchNanos,
+                    long coldSwitches, long coldSwitchNanos, long maxColdSwitchNanos) {
+            this.warmSwitches = warmSwitches;
+            this.averageWarmSwitchNanos = warmSwitches > 0 ? warmSwitchNanos / warmSwitches : 0;
+            this.maxWarmSwitchNanos = maxWarmSwitchNanos;
+            this.coldSwitches = coldSwitches;
+            this.averageColdSwitchNanos = coldSwitches > 0 ? coldSwitchNanos / coldSwitches : 0;
+            this.maxColdSwitchNanos = maxColdSwitchNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("warm switches %d, avg %.2f ms, max %.2f ms; cold switches %d, avg %.1f ms, max %.1f ms",
+                    warmSwitches, averageWarmSwitchNanos / 1e6, maxWarmSwitchNanos / 1e6,
+                    coldSwitches, averageColdSwitchNanos / 1e6, maxColdSwitchNanos / 1e6);
+        }
+    }
+
+    public EffectCache(int width, int height, long memoryBudgetBytes, CostEstimator estimator) {
+        mWidth = width;
+        mHeight = height;
+        mMemoryBudgetBytes = memoryBudgetBytes;
+        mEstimator = estimator;
+    }
+
+    /* Loads the effects in the background, the ones which do not fit into the budget are skipped */
+    public void preload(List<String> effectPaths) {
+        for (String effectPath : effectPaths) {
+            synchronized (this) {
+                if (mEntries.containsKey(effectPath)) {
+                    continue;
+                }
+                long bytes = mEstimator.estimateBytes(effectPath);
+                if (mUsedBytes + bytes > mMemoryBudgetBytes) {
+                    /* a smaller one of the next effects may still fit */
+                    continue;
+                }
+                Entry entry = new Entry(effectPath, bytes);
+                mEntries.put(effectPath, entry);
+                mUsedBytes += bytes;
+                startLoading(entry);
+            }
+        }
+    }
+
+    /* Makes the effect the active one. The callback gets the player to pass the frames to, at once when the effect
+     * is warm, otherwise when it is loaded. Less recently used effects are evicted to keep the budget. */
+    public void activate(String effectPath, ActivationCallback callback) {
+        long start = System.nanoTime();
+        Entry entry;
+        ArrayList<OffscreenEffectPlayer> evicted;
+        synchronized (this) {
+            mActiveEffect = effectPath;
+            entry = mEntries.get(effectPath);
+            if (entry == null) {
+                ++mMisses;
+                entry = new Entry(effectPath, mEstimator.estimateBytes(effectPath));
+                mEntries.put(effectPath, entry);
+                mUsedBytes += entry.bytes;
+                startLoading(entry);
+            } else {
+                ++mHits;
+            }
+            evicted = evictLocked();
+            if (!entry.ready) {
+                ActivationCallback target = callback;
+                entry.waiting.add((path, player, loaded) -> {
+                    recordSwitch(false, System.nanoTime() - start);
+                    target.onActivated(path, player, loaded);
+                });
+                callback = null;
+            }
+        }
+        destroyInBackground(evicted);
+        if (callback != null) {
+            recordSwitch(entry.loaded, System.nanoTime() - start);
+            callback.onActivated(effectPath, entry.player, entry.loaded);
+        }
+    }
+
+    /* Passes the frame to one of the warm players other than the active one, in turn, so their face tracking follows
+     * the camera and a switch to them does not start with a cold tracker. Costs the processing of one more frame
+     * per call, with n inactive players each one gets every n-th frame. Should be called with (some of) the frames
+     * passed to the active player, their output is dropped. */
+    public void feedWarmPlayers(OffscreenEffectPlayerImage image) {
+        OffscreenEffectPlayer player = null;
+        synchronized (this) {
+            /* iterated instead of get(), which would count as a use */
+            int count = 0;
+            for (Entry entry : mEntries.values()) {
+                if (isFedLocked(entry)) {
+                    ++count;
+                }
+            }
+            if (count == 0) {
+                return;
+            }
+            int index = mNextFed % count;
+            mNextFed = index + 1;
+            for (Entry entry : mEntries.values()) {
+                if (isFedLocked(entry) && index-- == 0) {
+                    player = entry.player;
+                    break;
+                }
+            }
+        }
+        /* ignored when the player was evicted and destroyed meanwhile */
+        player.processImageAsync(image);
+    }
+
+    public synchronized SwitchStats getSwitchStats() {
+        return new SwitchStats(mWarmSwitches, mWarmSwitchNanos, mMaxWarmSwitchNanos,
+                mColdSwitches, mColdSwitchNanos, mMaxColdSwitchNanos);
+    }
+
+    public synchronized boolean isWarm(String effectPath) {
+        for (Entry entry : mEntries.values()) {
+            /* iterated instead of get(), which would count as a use */
+            if (entry.effectPath.equals(effectPath)) {
+                return entry.ready && entry.loaded;
+            }
+        }
+        return false;
+    }
+
+    /* destroys every cached player, including the active one */
+    public void clear() {
+        ArrayList<OffscreenEffectPlayer> players = new ArrayList<>();
+        synchronized (this) {
+            for (Entry entry : new ArrayList<>(mEntries.values())) {
+                removeLocked(entry, players);
+            }
+            mActiveEffect = null;
+        }
+        destroyInBackground(players);
+    }
+
+    /* clear() and stop the background thread */
+    public void shutdown() {
+        clear();
+        mExecutor.shutdown();
+    }
+
+    public synchronized long getUsedBytes() {
+        return mUsedBytes;
+    }
+
+    public synchronized int getCachedCount() {
+        return mEntries.size();
+    }
+
+    /* activate() calls served by a cached (possibly still loading) effect */
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return mEvictions;
+    }
+
+    private boolean isFedLocked(Entry entry) {
+        return entry.ready && entry.loaded && entry.player != null && !entry.effectPath.equals(mActiveEffect);
+    }
+
+    private synchronized void recordSwitch(boolean warm, long nanos) {
+        if (warm) {
+            ++mWarmSwitches;
+            mWarmSwitchNanos += nanos;
+            mMaxWarmSwitchNanos = Math.max(mMaxWarmSwitchNanos, nanos);
+        } else {
+            ++mColdSwitches;
+            mColdSwitchNanos += nanos;
+            mMaxColdSwitchNanos = Math.max(mMaxColdSwitchNanos, nanos);
+        }
+    }
+
+    private void startLoading(Entry entry) {
+        mExecutor.execute(() -> {
+            OffscreenEffectPlayer player;
+            try {
+                player = new OffscreenEffectPlayer(mWidth, mHeight);
+            } catch (RuntimeException e) {
+                onLoaded(entry, null, false);
+                return;
+            }
+            synchronized (this) {
+                if (entry.evicted) {
+                    /* evicted or cleared while the player was created */
+                    player.destroy();
+                    return;
+                }
+                entry.player = player;
+            }
+            player.loadEffectAsync(entry.effectPath, (effectPath, loaded) -> onLoaded(entry, player, loaded));
+        });
+    }
+
+    private void onLoaded(Entry entry, OffscreenEffectPlayer player, boolean loaded) {
+        ArrayList<ActivationCallback> waiting;
+        ArrayList<OffscreenEffectPlayer> failed = new ArrayList<>(1);
+        synchronized (this) {
+            entry.ready = true;
+            entry.loaded = loaded;
+            waiting = new ArrayList<>(entry.waiting);
+            entry.waiting.clear();
+            if (!loaded && !entry.evicted) {
+                /* the next activate() tries again */
+                removeLocked(entry, failed);
+            }
+        }
+        destroyInBackground(failed);
+        for (ActivationCallback callback : waiting) {
+            callback.onActivated(entry.effectPath, player, loaded);
+        }
+    }
+
+    private ArrayList<OffscreenEffectPlayer> evictLocked() {
+        ArrayList<OffscreenEffectPlayer> evicted = new ArrayList<>();
+        Iterator<Map.Entry<String, Entry>> it = mEntries.entrySet().iterator();
+        while (mUsedBytes > mMemoryBudgetBytes && it.hasNext()) {
+            Entry entry = it.next().getValue();
+            if (entry.effectPath.equals(mActiveEffect) || !entry.waiting.isEmpty()) {
+                continue;
+            }
+            it.remove();
+            removeLocked(entry, evicted);
+            ++mEvictions;
+        }
+        return evicted;
+    }
+
+    private void removeLocked(Entry entry, List<OffscreenEffectPlayer> players) {
+        mEntries.remove(entry.effectPath, entry);
+        entry.evicted = true;
+        mUsedBytes -= entry.bytes;
+        if (entry.player != null) {
+            players.add(entry.player);
+            entry.player = null;
+        }
+    }
+
+    private void destroyInBackground(List<OffscreenEffectPlayer> players) {
+        if (players.isEmpty()) {
+            return;
+        }
+        mExecutor.execute(() -> {
+            for (OffscreenEffectPlayer player : players) {
+                player.destroy();
+            }
+        });
+    }
+}
@@ -0,0 +1,33 @@
+package com.banuba.quickstart_c_api;
+
+/* Keeps the startup and the effect player of the preview independent of the activity lifecycle.
+ * A recreated activity (configuration change) obtains the same player, which keeps its GL context, the loaded effect
+ * and the SDK initialized, so the preview continues without a restart. Only the owner which really finishes
+ * calls release(). */
+final class EffectPlayerHolder {
+    private static StartupOrchestrator sStartup = null;
+
+    private EffectPlayerHolder() {
+    }
+
+    /* Returns the current startup, a new one is created and started when there is none.
+     * The arguments are used only for a new startup. */
+    static synchronized StartupOrchestrator obtain(String resourcesPath, String clientToken, int width, int height,
+                                                   String effectPath, FormatPair formats,
+                                                   boolean textureOutput, int readbackFramesInFlight) {
+        if (sStartup == null) {
+            sStartup = new StartupOrchestrator(resourcesPath, clientToken, width, height, effectPath, formats,
+                    textureOutput, readbackFramesInFlight);
+            sStartup.start();
+        }
+        return sStartup;
+    }
+
+    /* Destroys the player and releases the SDK, the next obtain() starts from scratch */
+    static synchronized void release() {
+        if (sStartup != null) {
+            sStartup.shutdown();
+            sStartup = null;
+        }
+    }
+}
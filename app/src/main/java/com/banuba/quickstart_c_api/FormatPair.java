@@ -0,0 +1,33 @@
+package com.banuba.quickstart_c_api;
+
+/* Format of the planes passed to the effect player and format of the image it delivers.
+ * The two are independent: e.g. the camera planes go in as NV12 while the output is read back as RGBA,
+ * see OffscreenEffectPlayer.negotiateFormats(). */
+final class FormatPair {
+    public final ImageFormat input;
+    public final ImageFormat output;
+
+    FormatPair(ImageFormat input, ImageFormat output) {
+        this.input = input;
+        this.output = output;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof FormatPair)) {
+            return false;
+        }
+        FormatPair pair = (FormatPair) other;
+        return input == pair.input && output == pair.output;
+    }
+
+    @Override
+    public int hashCode() {
+        return input.hashCode() * 31 + output.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return input + " -> " + output;
+    }
+}
@@ -0,0 +1,111 @@
+package com.banuba.quickstart_c_api;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/* Color conversion, rotation and mirroring of images in direct byte buffers, done by the native libyuv code
+ * (NEON on arm). It does not depend on the offscreen effect player and can be used on any thread. */
+public final class FrameConverter {
+    /* the values match the native frame_format */
+    public enum Format {
+        RGBA(1),
+        NV12(2),
+        I420(3),
+        NV21(2);
+
+        final int mPlanesCount;
+
+        Format(int planesCount) {
+            mPlanesCount = planesCount;
+        }
+
+        public int getPlanesCount() {
+            return mPlanesCount;
+        }
+    }
+
+    private FrameConverter() {}
+
+    /* bytes in one row of the tightly packed plane */
+    public static int getRowSize(Format format, int width, int plane) {
+        if (plane >= format.mPlanesCount) {
+            return 0;
+        }
+        if (format == Format.RGBA) {
+            return width * 4;
+        }
+        if (plane == 0) {
+            return width;
+        }
+        int chromaWidth = (width + 1) / 2;
+        return format == Format.I420 ? chromaWidth : chromaWidth * 2;
+    }
+
+    public static int getRowsCount(Format format, int height, int plane) {
+        if (plane >= format.mPlanesCount) {
+            return 0;
+        }
+        return plane == 0 ? height : (height + 1) / 2;
+    }
+
+    public static int getPlaneSize(Format format, int width, int height, int plane) {
+        return getRowSize(format, width, plane) * getRowsCount(format, height, plane);
+    }
+
+    /* direct buffers for the tightly packed planes of the image */
+    public static ByteBuffer[] allocate(Format format, int width, int height) {
+        ByteBuffer[] planes = new ByteBuffer[format.mPlanesCount];
+        for (int i = 0; i < planes.length; ++i) {
+            planes[i] = ByteBuffer.allocateDirect(getPlaneSize(format, width, height, i)).order(ByteOrder.nativeOrder());
+        }
+        return planes;
+    }
+
+    /* Converts tightly packed planes. Returns false when the arguments are not valid. */
+    public static boolean convert(Format srcFormat, ByteBuffer[] src, int width, int height,
+                                  Format dstFormat, ByteBuffer[] dst) {
+        return convert(srcFormat, src, null, width, height, dstFormat, dst, null, 0, false);
+    }
+
+    /* Converts src (width x height) into dst, rotated clockwise by rotation degrees (0, 90, 180, 270)
+     * and then mirrored horizontally when mirror is set, so dst is height x width for 90 and 270.
+     * The buffers must be direct. A null strides array means tightly packed planes.
+     * Returns false when the arguments are not valid. */
+    public static boolean convert(Format srcFormat, ByteBuffer[] src, int[] srcStrides, int width, int height,
+                                  Format dstFormat, ByteBuffer[] dst, int[] dstStrides, int rotation, boolean mirror) {
+        if (src.length < srcFormat.mPlanesCount || dst.length < dstFormat.mPlanesCount) {
+            return false;
+        }
+        boolean swapSides = rotation == 90 || rotation == 270;
+        int dstWidth = swapSides ? height : width;
+        return externalConvert(
+                srcFormat.ordinal(), plane(src, 0), plane(src, 1), plane(src, 2),
+                stride(srcStrides, srcFormat, width, 0), stride(srcStrides, srcFormat, width, 1), stride(srcStrides, srcFormat, width, 2),
+                width, height,
+                dstFormat.ordinal(), plane(dst, 0), plane(dst, 1), plane(dst, 2),
+                stride(dstStrides, dstFormat, dstWidth, 0), stride(dstStrides, dstFormat, dstWidth, 1), stride(dstStrides, dstFormat, dstWidth, 2),
+                rotation, mirror);
+    }
+
+    private static ByteBuffer plane(ByteBuffer[] planes, int index) {
+        return index < planes.length ? planes[index] : null;
+    }
+
+    private static int stride(int[] strides, Format format, int width, int plane) {
+        if (strides != null && plane < strides.length) {
+            return strides[plane];
+        }
+        return getRowSize(format, width, plane);
+    }
+
+    /* The functions below are implemented in c++ */
+    private static native boolean externalConvert(
+            int srcFormat, ByteBuffer src0, ByteBuffer src1, ByteBuffer src2, int srcStride0, int srcStride1, int srcStride2,
+            int width, int height,
+            int dstFormat, ByteBuffer dst0, ByteBuffer dst1, ByteBuffer dst2, int dstStride0, int dstStride1, int dstStride2,
+            int rotation, boolean mirror);
+
+    static {
+        System.loadLibrary("native-lib");
+    }
+}
@@ -0,0 +1,92 @@
+package com.banuba.quickstart_c_api;
+
+/* Snapshot of the per-stage frame latencies of an OffscreenEffectPlayer, see OffscreenEffectPlayer.getMetrics().
+ * The timestamps are taken with the clock of System.nanoTime() at these points of a frame:
+ * java submit, native process_image_async enqueue, effect_player::push_frame, end of effect_player::draw,
+ * get_image readback (or texture export) and the java output callback.
+ * Percentiles come from histograms with logarithmic buckets, they are rounded up by at most 25%. */
+public final class FrameMetrics {
+    /* the order matches bnb::oep::frame_stage */
+    public enum Stage {
+        /* processImageAsync -> native enqueue into the offscreen effect player */
+        SUBMIT,
+        /* enqueue -> effect_player::push_frame, waiting for the render thread */
+        QUEUE,
+        /* push_frame -> end of effect_player::draw */
+        RENDER,
+        /* end of draw -> output image read back from the GPU, or the texture exported */
+        READBACK,
+        /* readback -> java output callback, includes the copy into java buffers */
+        DELIVERY,
+        /* processImageAsync -> java output callback */
+        TOTAL
+    }
+
+    /* number of values per stage and in total, must match frame_metrics::snapshot_size */
+    static final int STAGE_VALUES = 6;
+    static final int SIZE = Stage.values().length * STAGE_VALUES + 4;
+
+    public static class StageLatency {
+        /* number of frames which passed the stage */
+        public final long count;
+        public final long meanNanos;
+        public final long p50Nanos;
+        public final long p95Nanos;
+        public final long p99Nanos;
+        public final long maxNanos;
+
+        StageLatency(long[] values, int offset) {
+            this.count = values[offset];
+            this.meanNanos = values[offset + 1];
+            this.p50Nanos = values[offset + 2];
+            this.p95Nanos = values[offset + 3];
+            this.p99Nanos = values[offset + 4];
+            this.maxNanos = values[offset + 5];
+        }
+    }
+
+    private final StageLatency[] mStages;
+    /* frames passed to processImageAsync */
+    public final long framesSubmitted;
+    /* frames which reached the java output callback */
+    public final long framesDelivered;
+    /* frames processed without output, or dropped on the way to java */
+    public final long framesDropped;
+    /* time since the player was created or the metrics were reset */
+    public final long elapsedNanos;
+
+    FrameMetrics(long[] values) {
+        Stage[] stages = Stage.values();
+        mStages = new StageLatency[stages.length];
+        for (int i = 0; i < stages.length; ++i) {
+            mStages[i] = new StageLatency(values, i * STAGE_VALUES);
+        }
+        int counters = stages.length * STAGE_VALUES;
+        framesSubmitted = values[counters];
+        framesDelivered = values[counters + 1];
+        framesDropped = values[counters + 2];
+        elapsedNanos = values[counters + 3];
+    }
+
+    public StageLatency getStage(Stage stage) {
+        return mStages[stage.ordinal()];
+    }
+
+    /* delivered frames per second over the elapsed time */
+    public double getThroughputFps() {
+        return elapsedNanos > 0 ? framesDelivered * 1e9 / elapsedNanos : 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("submitted %d, delivered %d, dropped %d, %.1f fps",
+                framesSubmitted, framesDelivered, framesDropped, getThroughputFps()));
+        for (Stage stage : Stage.values()) {
+            StageLatency latency = getStage(stage);
+            builder.append(String.format("%n%-8s p50 %.2f ms, p95 %.2f ms, p99 %.2f ms, max %.2f ms (%d)",
+                    stage, latency.p50Nanos / 1e6, latency.p95Nanos / 1e6, latency.p99Nanos / 1e6, latency.maxNanos / 1e6, latency.count));
+        }
+        return builder.toString();
+    }
+}
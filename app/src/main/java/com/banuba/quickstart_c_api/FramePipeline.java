@@ -0,0 +1,315 @@
+package com.banuba.quickstart_c_api;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/* Bounded frame pipeline in front of the offscreen effect player.
+ * Frames are submitted to the sink on a dedicated processing executor, at most maxInFlight frames are
+ * processed at once and at most queueCapacity frames wait for a free slot. When the queue is full the
+ * drop policy decides which frame is discarded, or blocks the producer.
+ * The class does not depend on Android, the sink can be any implementation (e.g. a fake player in tests). */
+public class FramePipeline<T> {
+    public enum DropPolicy {
+        /* discard the oldest waiting frame, keeps latency low */
+        DROP_OLDEST,
+        /* discard the incoming frame */
+        DROP_NEWEST,
+        /* wait in offer() until the queue has room */
+        BLOCK
+    }
+
+    public interface FrameSink<T> {
+        /* Called on the processing executor. Each processed frame must be followed by a call to
+         * FramePipeline.onFrameCompleted() when its result is delivered or dropped. */
+        void process(T frame);
+
+        /* Called for frames dropped by the pipeline, the frame resources must be released here */
+        void discard(T frame);
+    }
+
+    private final FrameSink<T> mSink;
+    private final int mMaxInFlight;
+    private final int mQueueCapacity;
+    private final DropPolicy mDropPolicy;
+    private final Executor mExecutor;
+    private final ExecutorService mOwnExecutor;
+
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mNotFull = mLock.newCondition();
+    private final Condition mIdle = mLock.newCondition();
+    /* a FrameSink.process() call is running */
+    private boolean mProcessing = false;
+    private final ArrayDeque<T> mQueue;
+    /* the stamps of the queued frames in the order of mQueue, a ring starting at mStampHead */
+    private final long[] mStamps;
+    private int mStampHead = 0;
+    private int mInFlight = 0;
+    private boolean mDrainScheduled = false;
+    private boolean mShutdown = false;
+    private final Runnable mDrainTask = this::drain;
+    private volatile AdaptiveFrameScheduler mScheduler = null;
+
+    private final AtomicLong mOffered = new AtomicLong();
+    private final AtomicLong mSubmitted = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+    private final AtomicLong mCompleted = new AtomicLong();
+
+    /* Uses its own single thread processing executor */
+    public FramePipeline(FrameSink<T> sink, int maxInFlight, int queueCapacity, DropPolicy dropPolicy) {
+        this(sink, maxInFlight, queueCapacity, dropPolicy, null);
+    }
+
+    /* executor must run the tasks sequentially, if it is null a single thread executor is created */
+    public FramePipeline(FrameSink<T> sink, int maxInFlight, int queueCapacity, DropPolicy dropPolicy, Executor executor) {
+        if (maxInFlight < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("maxInFlight and queueCapacity must be positive");
+        }
+        mSink = sink;
+        mMaxInFlight = maxInFlight;
+        mQueueCapacity = queueCapacity;
+        mDropPolicy = dropPolicy;
+        mQueue = new ArrayDeque<>(queueCapacity);
+        mStamps = new long[queueCapacity];
+        if (executor == null) {
+            mOwnExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "FramePipeline"));
+            mExecutor = mOwnExecutor;
+        } else {
+            mOwnExecutor = null;
+            mExecutor = executor;
+        }
+    }
+
+    /* Optional latency-aware admission: frames rejected by the scheduler are discarded before they enter the queue */
+    public void setScheduler(AdaptiveFrameScheduler scheduler) {
+        mScheduler = scheduler;
+    }
+
+    /* Returns false when the frame was skipped by the scheduler, discarded by the drop policy
+     * or the pipeline is shut down. The latency of the frame is measured from now. */
+    public boolean offer(T frame) {
+        return offer(frame, System.nanoTime());
+    }
+
+    /* captureNanos is the System.nanoTime() when the frame was captured, the latency of the frame seen by
+     * the scheduler includes the camera delay and the wait in the queue */
+    public boolean offer(T frame, long captureNanos) {
+        mOffered.incrementAndGet();
+        AdaptiveFrameScheduler scheduler = mScheduler;
+        if (scheduler != null && !scheduler.shouldProcess()) {
+            discard(frame);
+            return false;
+        }
+        T dropped = null;
+        boolean accepted = true;
+        mLock.lock();
+        try {
+            while (!mShutdown && mQueue.size() >= mQueueCapacity) {
+                if (mDropPolicy == DropPolicy.DROP_NEWEST) {
+                    accepted = false;
+                    break;
+                }
+                if (mDropPolicy == DropPolicy.DROP_OLDEST) {
+                    dropped = pollFirstLocked();
+                    break;
+                }
+                mNotFull.awaitUninterruptibly();
+            }
+            if (mShutdown) {
+                accepted = false;
+            }
+            if (accepted) {
+                mStamps[(mStampHead + mQueue.size()) % mStamps.length] = captureNanos;
+                mQueue.addLast(frame);
+                scheduleDrainLocked();
+            }
+        } finally {
+            mLock.unlock();
+        }
+        if (dropped != null) {
+            discard(dropped);
+        }
+        if (!accepted) {
+            discard(frame);
+        }
+        return accepted;
+    }
+
+    /* Must be called once for every frame passed to FrameSink.process() */
+    public void onFrameCompleted() {
+        mCompleted.incrementAndGet();
+        AdaptiveFrameScheduler scheduler = mScheduler;
+        if (scheduler != null) {
+            scheduler.onFrameCompleted(System.nanoTime());
+        }
+        mLock.lock();
+        try {
+            if (mInFlight > 0) {
+                --mInFlight;
+            }
+            if (!mQueue.isEmpty()) {
+                scheduleDrainLocked();
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /* Discards the waiting frames and stops the own executor, frames in flight are not affected */
+    public void shutdown() {
+        ArrayDeque<T> rest;
+        mLock.lock();
+        try {
+            mShutdown = true;
+            rest = new ArrayDeque<>(mQueue);
+            mQueue.clear();
+            mStampHead = 0;
+            mNotFull.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+        for (T frame : rest) {
+            discard(frame);
+        }
+        if (mOwnExecutor != null) {
+            mOwnExecutor.shutdown();
+        }
+    }
+
+    /* Waits until the FrameSink.process() call running on the executor returns, after shutdown() no new one starts.
+     * The sink can be released then, e.g. the player it submits to. Returns false on timeout. */
+    public boolean awaitIdle(long timeout, TimeUnit unit) {
+        long remaining = unit.toNanos(timeout);
+        mLock.lock();
+        try {
+            while (mProcessing) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = mIdle.awaitNanos(remaining);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return !mProcessing;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /* frames passed to offer() */
+    public long getOfferedCount() {
+        return mOffered.get();
+    }
+
+    /* frames passed to FrameSink.process() which did not throw */
+    public long getSubmittedCount() {
+        return mSubmitted.get();
+    }
+
+    /* frames passed to FrameSink.discard(), including the ones skipped by the scheduler
+     * and the ones whose FrameSink.process() threw */
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    /* calls of onFrameCompleted() */
+    public long getCompletedCount() {
+        return mCompleted.get();
+    }
+
+    public int getInFlightCount() {
+        mLock.lock();
+        try {
+            return mInFlight;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public int getQueuedCount() {
+        mLock.lock();
+        try {
+            return mQueue.size();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private void scheduleDrainLocked() {
+        if (!mDrainScheduled && !mShutdown) {
+            mDrainScheduled = true;
+            mExecutor.execute(mDrainTask);
+        }
+    }
+
+    private T pollFirstLocked() {
+        mStampHead = (mStampHead + 1) % mStamps.length;
+        return mQueue.pollFirst();
+    }
+
+    private void drain() {
+        for (;;) {
+            T frame;
+            long stamp;
+            mLock.lock();
+            try {
+                if (mShutdown || mInFlight >= mMaxInFlight || mQueue.isEmpty()) {
+                    mDrainScheduled = false;
+                    return;
+                }
+                stamp = mStamps[mStampHead];
+                frame = pollFirstLocked();
+                ++mInFlight;
+                mProcessing = true;
+                mNotFull.signal();
+            } finally {
+                mLock.unlock();
+            }
+            AdaptiveFrameScheduler scheduler = mScheduler;
+            if (scheduler != null) {
+                scheduler.onFrameSubmitted(stamp, System.nanoTime());
+            }
+            try {
+                mSink.process(frame);
+            } catch (RuntimeException e) {
+                /* the frame will never complete, release it, free its slot and let the next drain continue */
+                discard(frame);
+                if (scheduler != null) {
+                    scheduler.onFrameDropped();
+                }
+                mLock.lock();
+                try {
+                    mProcessing = false;
+                    mIdle.signalAll();
+                    --mInFlight;
+                    mDrainScheduled = false;
+                    if (!mQueue.isEmpty()) {
+                        scheduleDrainLocked();
+                    }
+                } finally {
+                    mLock.unlock();
+                }
+                throw e;
+            }
+            mSubmitted.incrementAndGet();
+            mLock.lock();
+            try {
+                mProcessing = false;
+                mIdle.signalAll();
+            } finally {
+                mLock.unlock();
+            }
+        }
+    }
+
+    private void discard(T frame) {
+        mDropped.incrementAndGet();
+        mSink.discard(frame);
+    }
+}
@@ -0,0 +1,71 @@
+package com.banuba.quickstart_c_api;
+
+import android.os.Build;
+import android.os.Trace;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* Optional trace sections of the frame stages, shown by Perfetto and systrace (category "app" or the app itself
+ * in the record settings). The java sections and the native ones (frame_trace.hpp) go to the same system trace,
+ * a frame is followed from processImageAsync() to the output callback by the async section "OEP frame"
+ * whose cookie is the id of the frame. The counters and the async sections need Android 10 (API 29),
+ * the plain sections are written on every version. Off by default, when off a call costs one volatile read. */
+public final class FrameTrace {
+    /* must match frame_trace::frame_section */
+    static final String FRAME_SECTION = "OEP frame";
+
+    private static volatile boolean sEnabled = false;
+    private static final AtomicInteger sNextFrameId = new AtomicInteger();
+
+    private FrameTrace() {}
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+        externalSetEnabled(enabled);
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /* The cookie of the async section of a new frame, 0 when the trace is off (the frame is not traced) */
+    static int beginFrame() {
+        if (!sEnabled) {
+            return 0;
+        }
+        int id;
+        do {
+            id = sNextFrameId.incrementAndGet();
+        } while (id == 0);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.beginAsyncSection(FRAME_SECTION, id);
+        }
+        return id;
+    }
+
+    /* Returns whether the section was begun, endSection() must be called only then */
+    public static boolean beginSection(String name) {
+        if (!sEnabled) {
+            return false;
+        }
+        Trace.beginSection(name);
+        return true;
+    }
+
+    public static void endSection() {
+        Trace.endSection();
+    }
+
+    public static void setCounter(String name, long value) {
+        if (sEnabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.setCounter(name, value);
+        }
+    }
+
+    /* The function below is implemented in c++ */
+    private static native void externalSetEnabled(boolean enabled);
+
+    static {
+        System.loadLibrary("native-lib");
+    }
+}
@@ -0,0 +1,8 @@
+package com.banuba.quickstart_c_api;
+
+/* Image formats of the player input and output, the ordinal is passed to native code (get_image_format()) */
+enum ImageFormat {
+    RGB,
+    NV12,
+    i420
+}
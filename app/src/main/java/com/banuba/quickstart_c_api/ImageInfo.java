@@ -0,0 +1,123 @@
+package com.banuba.quickstart_c_api;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/* Image description stored in a reusable direct buffer with a fixed layout,
+ * native code reads the whole description with a single pointer access instead of a JNI call per field.
+ * The layout must match struct image_info in native-lib.cpp. */
+class ImageInfo {
+    static final int WIDTH = 0;
+    static final int HEIGHT = 1;
+    static final int ROW_STRIDE0 = 2;
+    static final int ROW_STRIDE1 = 3;
+    static final int ROW_STRIDE2 = 4;
+    static final int PIXEL_STRIDE0 = 5;
+    static final int PIXEL_STRIDE1 = 6;
+    static final int PIXEL_STRIDE2 = 7;
+    static final int INPUT_ORIENTATION = 8;
+    static final int OUTPUT_ORIENTATION = 9;
+    static final int PIXEL_FORMAT = 10;
+    static final int INPUT_IMAGE_FORMAT = 11;
+    static final int REQUIRE_MIRRORING = 12;
+    static final int OUTPUT_IMAGE_FORMAT = 13;
+    static final int FIELDS_COUNT = 14;
+
+    final ByteBuffer mDescriptor;
+
+    ImageInfo() {
+        mDescriptor = ByteBuffer.allocateDirect(FIELDS_COUNT * Integer.BYTES).order(ByteOrder.nativeOrder());
+    }
+
+    private void set(int field, int value) {
+        mDescriptor.putInt(field * Integer.BYTES, value);
+    }
+
+    private int get(int field) {
+        return mDescriptor.getInt(field * Integer.BYTES);
+    }
+
+    public void setWidth(int width) {
+        set(WIDTH, width);
+    }
+
+    public void setHeight(int height) {
+        set(HEIGHT, height);
+    }
+
+    public void setInputOrientation(int orientation) {
+        set(INPUT_ORIENTATION, orientation);
+    }
+
+    public void setOutputOrientation(int orientation) {
+        set(OUTPUT_ORIENTATION, orientation);
+    }
+
+    public void setPixelFormat(int pixelFormat) {
+        set(PIXEL_FORMAT, pixelFormat);
+    }
+
+    /* format of the planes passed to the effect player (ImageFormat ordinal), NV12 or i420 */
+    public void setInputImageFormat(int imageFormat) {
+        set(INPUT_IMAGE_FORMAT, imageFormat);
+    }
+
+    /* format of the image delivered by the effect player (ImageFormat ordinal), independent of the input one */
+    public void setOutputImageFormat(int imageFormat) {
+        set(OUTPUT_IMAGE_FORMAT, imageFormat);
+    }
+
+    public void setFormats(FormatPair formats) {
+        setInputImageFormat(formats.input.ordinal());
+        setOutputImageFormat(formats.output.ordinal());
+    }
+
+    public void setRequireMirroring(boolean requireMirroring) {
+        set(REQUIRE_MIRRORING, requireMirroring ? 1 : 0);
+    }
+
+    public void setPlane(int plane, int rowStride, int pixelStride) {
+        set(ROW_STRIDE0 + plane, rowStride);
+        set(PIXEL_STRIDE0 + plane, pixelStride);
+    }
+
+    public int getWidth() {
+        return get(WIDTH);
+    }
+
+    public int getHeight() {
+        return get(HEIGHT);
+    }
+
+    public int getInputOrientation() {
+        return get(INPUT_ORIENTATION);
+    }
+
+    public int getOutputOrientation() {
+        return get(OUTPUT_ORIENTATION);
+    }
+
+    public int getPixelFormat() {
+        return get(PIXEL_FORMAT);
+    }
+
+    public int getInputImageFormat() {
+        return get(INPUT_IMAGE_FORMAT);
+    }
+
+    public int getOutputImageFormat() {
+        return get(OUTPUT_IMAGE_FORMAT);
+    }
+
+    public boolean getRequireMirroring() {
+        return get(REQUIRE_MIRRORING) != 0;
+    }
+
+    public int getRowStride(int plane) {
+        return get(ROW_STRIDE0 + plane);
+    }
+
+    public int getPixelStride(int plane) {
+        return get(PIXEL_STRIDE0 + plane);
+    }
+}
@@ -0,0 +1,30 @@
+package com.banuba.quickstart_c_api;
+
+import java.nio.ByteBuffer;
+
+/* One plane of an output image. The rows keep the stride of the image read back from the GPU, they are
+ * rowStride bytes apart and the last one is not padded. pixelStride is the number of bytes per pixel
+ * (4 for RGBA, 2 for the interleaved NV12 chroma, 1 otherwise). */
+public final class ImagePlane {
+    private final ByteBuffer mBuffer;
+    private final int mRowStride;
+    private final int mPixelStride;
+
+    ImagePlane(ByteBuffer buffer, int rowStride, int pixelStride) {
+        mBuffer = buffer;
+        mRowStride = rowStride;
+        mPixelStride = pixelStride;
+    }
+
+    public ByteBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    public int getRowStride() {
+        return mRowStride;
+    }
+
+    public int getPixelStride() {
+        return mPixelStride;
+    }
+}
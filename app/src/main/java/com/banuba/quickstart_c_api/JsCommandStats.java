@@ -0,0 +1,45 @@
+package com.banuba.quickstart_c_api;
+
+/* Counters of the JS command queue of an OffscreenEffectPlayer, see OffscreenEffectPlayer.getJsCommandStats().
+ * The calls are applied once per frame before the draw, a call replaced by a later one with the same key
+ * before that is counted as coalesced and never reaches the effect. */
+public final class JsCommandStats {
+    /* number of values, must match js_command_queue::snapshot_size */
+    static final int SIZE = 7;
+
+    /* callJsMethod() requests */
+    public final long callsIssued;
+    /* calls passed to the effect */
+    public final long callsApplied;
+    /* calls replaced by a later one with the same key */
+    public final long callsCoalesced;
+    /* evalJs() requests */
+    public final long evalsIssued;
+    /* scripts passed to the effect */
+    public final long evalsApplied;
+    /* frames which applied at least one command */
+    public final long batches;
+    /* commands waiting for the next frame */
+    public final long pending;
+
+    JsCommandStats(long[] values) {
+        this.callsIssued = values[0];
+        this.callsApplied = values[1];
+        this.callsCoalesced = values[2];
+        this.evalsIssued = values[3];
+        this.evalsApplied = values[4];
+        this.batches = values[5];
+        this.pending = values[6];
+    }
+
+    /* issued calls per applied one, 1 when nothing was coalesced */
+    public double getCoalescingRatio() {
+        return callsApplied > 0 ? (double) (callsApplied + callsCoalesced) / callsApplied : 1;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("js calls issued %d, applied %d, coalesced %d (%.1fx), evals issued %d, applied %d, batches %d, pending %d",
+                callsIssued, callsApplied, callsCoalesced, getCoalescingRatio(), evalsIssued, evalsApplied, batches, pending);
+    }
+}
@@ -3,13 +3,16 @@ package com.banuba.quickstart_c_api;
 import android.Manifest;
 import android.content.Context;
 import android.content.pm.PackageManager;
+import android.content.res.Configuration;
 import android.opengl.GLSurfaceView;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
 import android.util.Size;
 import android.view.Surface;
 import android.view.WindowManager;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.camera.core.CameraSelector;
@@ -24,12 +27,16 @@ import com.banuba.quickstart_c_api.rendering.GL420Renderer;
 import com.banuba.quickstart_c_api.rendering.GLYUVNVRenderer;
 import com.banuba.quickstart_c_api.rendering.GLRGBARenderer;
 import com.banuba.quickstart_c_api.rendering.GLRenderer;
+import com.banuba.quickstart_c_api.rendering.GLProgramCache;
+import com.banuba.quickstart_c_api.rendering.GLTextureRenderer;
 import com.banuba.sdk.utils.ContextProvider;
 import com.google.common.util.concurrent.ListenableFuture;
 
 import java.io.File;
-import java.util.Arrays;
-import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class MainActivity extends AppCompatActivity {
     private static int CAMERA_PERMISSION_REQUEST = 12345;
@@ -37,16 +44,58 @@ public class MainActivity extends AppCompatActivity {
     private Size requestSize = new Size(1280, 720);
     private Size size = null;
     private ListenableFuture<ProcessCameraProvider> cameraProviderFuture = null;
-    private OffscreenEffectPlayer oep = null;
+    private static final String TAG = "MainActivity";
+    private static final String EFFECT_PATH = "effects/<!!! PLACE YOUR EFFECT NAME HERE !!!>";
+
+    // The player is started in the background and kept across configuration changes by EffectPlayerHolder,
+    // it is null until the startup has finished
+    private StartupOrchestrator mStartup = null;
+    private volatile OffscreenEffectPlayer oep = null;
+    private final AtomicLong mFramesBeforeReady = new AtomicLong();
+    private volatile boolean mFirstFrameSeen = false;
     private GLSurfaceView glView = null;
     private GLRenderer renderer = null;
     private OffscreenEffectPlayerImage mImage = null;
 
-    // Changing mImageOutputFormat will cause the format's changing (input and output image of OEP)
-    private ImageFormat mImageFormat = ImageFormat.NV12;
+    // The camera planes can be passed to OEP as NV12 or i420 and the renderers can draw any output format,
+    // the cheapest pair supported by OEP is negotiated once and the renderer follows its output format
+    private static final ImageFormat[] CAMERA_FORMATS = {ImageFormat.NV12, ImageFormat.i420};
+    private static final ImageFormat[] RENDERER_FORMATS = {ImageFormat.RGB, ImageFormat.NV12, ImageFormat.i420};
+    private FormatPair mFormats = null;
+
+    // Draw the texture rendered by OEP directly instead of reading the image back into memory
+    private boolean mGpuOutput = false;
+
+    // Pass the camera planes to OEP without copying, the ImageProxy is closed when OEP releases the planes
+    private boolean mZeroCopyInput = true;
+
+    // Camera frames are passed to OEP through the bounded pipeline, the oldest waiting frame is dropped when OEP is late
+    private static final int MAX_FRAMES_IN_FLIGHT = 2;
+    private static final int MAX_FRAMES_QUEUED = 1;
+    private FramePipeline<ImageProxy> mPipeline = null;
+    private static final long PIPELINE_SHUTDOWN_TIMEOUT_MS = 500;
+
+    // Read the output images back through a ring of pixel pack buffers, the rendering of the next frame does not
+    // wait for the copy of the previous one. The ring holds one frame more than the pipeline keeps in flight.
+    private static final int READBACK_FRAMES_IN_FLIGHT = MAX_FRAMES_IN_FLIGHT + 1;
+
+    // Input frames are skipped when OEP can not deliver them within this time after submission
+    private static final long LATENCY_BUDGET_MS = 100;
+    /* older timestamps of the camera are taken for another time base */
+    private static final long MAX_CAPTURE_AGE_NS = 1_000_000_000L;
+    private final AdaptiveFrameScheduler mScheduler = new AdaptiveFrameScheduler(LATENCY_BUDGET_MS * 1_000_000L);
+    // The processing resolution goes down through these scales when OEP can not render a frame within the budget
+    private static final float[] PROCESSING_SCALES = {1.0f, 0.75f, 0.5f};
+    private static final long RENDER_BUDGET_NS = 1_000_000_000L / 30;
+
+    private final ExecutorService mAnalyzerExecutor = Executors.newSingleThreadExecutor();
 
     void createRenderer() {
-        switch (mImageFormat) {
+        if (mGpuOutput) {
+            renderer = new GLTextureRenderer();
+            return;
+        }
+        switch (mFormats.output) {
             case NV12:
                 renderer = new GLYUVNVRenderer();
                 break;
@@ -59,15 +108,116 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
-    void createOEP() {
-        oep = new OffscreenEffectPlayer(size.getWidth(), size.getHeight());
-        oep.loadEffect("effects/<!!! PLACE YOUR EFFECT NAME HERE !!!>")
-        oep.setDataReadyCallback(
-                (image0,image1, image2, width, height) -> {
-                    List<byte[]> planes = Arrays.asList(image0, image1, image2);
-                    renderer.drawImage(planes, width, height);
-                    glView.requestRender();
-                });
+    private final StartupOrchestrator.Listener mStartupListener = new StartupOrchestrator.Listener() {
+        @Override
+        public void onPlayerReady(OffscreenEffectPlayer player, StartupOrchestrator.Timings timings) {
+            Log.i(TAG, "player is ready, " + timings + ", camera frames dropped before: " + mFramesBeforeReady.get());
+            attachOEP(player);
+        }
+
+        @Override
+        public void onStartupFailed(RuntimeException error) {
+            Log.e(TAG, "failed to start the effect player", error);
+        }
+    };
+
+    /* Called on the main thread when the startup has finished, the player may come from the previous activity instance */
+    void attachOEP(OffscreenEffectPlayer player) {
+        /* the orientation could change while the activity was recreated */
+        player.surfaceChanged(size.getWidth(), size.getHeight());
+        if (!player.hasResolutionGovernor()) {
+            player.setResolutionGovernor(PROCESSING_SCALES, RENDER_BUDGET_NS);
+        }
+        player.setFrameCompletionListener(delivered -> mPipeline.onFrameCompleted());
+        if (mGpuOutput) {
+            GLTextureRenderer textureRenderer = (GLTextureRenderer) renderer;
+            player.setTextureReadyCallback(
+                    texture -> {
+                        onFirstFrame();
+                        textureRenderer.drawTexture(texture);
+                        glView.requestRender();
+                    });
+        } else {
+            player.setAsyncReadback(READBACK_FRAMES_IN_FLIGHT);
+            player.setFrameReadyCallback(
+                    frame -> {
+                        onFirstFrame();
+                        /* the frame goes back to the pool after the renderer has uploaded it */
+                        renderer.drawImage(frame.getPlanes(), frame.getWidth(), frame.getHeight(), frame.getRowStrides(),
+                                frame.releaseAction());
+                        glView.requestRender();
+                    });
+        }
+        oep = player;
+    }
+
+    /* The callbacks refer to the views of this activity instance, the player itself stays alive */
+    void detachOEP() {
+        OffscreenEffectPlayer player = oep;
+        oep = null;
+        if (player != null && !player.isDestroyed()) {
+            player.setTextureReadyCallback(null);
+            player.setFrameReadyCallback(null);
+            player.setFrameCompletionListener(null);
+        }
+    }
+
+    private void onFirstFrame() {
+        if (!mFirstFrameSeen) {
+            mFirstFrameSeen = true;
+            if (mStartup.endPhase(StartupOrchestrator.Phase.FIRST_FRAME)) {
+                Log.i(TAG, "startup: " + mStartup.getTimings());
+            }
+        }
+    }
+
+    void createPipeline() {
+        mPipeline = new FramePipeline<>(
+                new FramePipeline.FrameSink<ImageProxy>() {
+                    @Override
+                    public void process(ImageProxy proxy) {
+                        OffscreenEffectPlayer player = oep;
+                        if (player == null) {
+                            /* detached by onDestroy() while the frame was queued */
+                            proxy.close();
+                            mPipeline.onFrameCompleted();
+                            return;
+                        }
+                        updateImage(proxy);
+                        if (mZeroCopyInput) {
+                            player.processImageAsync(mImage, proxy::close);
+                        } else {
+                            player.processImageAsync(mImage);
+                            proxy.close();
+                        }
+                    }
+
+                    @Override
+                    public void discard(ImageProxy proxy) {
+                        proxy.close();
+                    }
+                },
+                MAX_FRAMES_IN_FLIGHT, MAX_FRAMES_QUEUED, FramePipeline.DropPolicy.DROP_OLDEST);
+        mPipeline.setScheduler(mScheduler);
+    }
+
+    /* Camera frames are dropped until the player is ready, there is no point in showing them late */
+    private void onCameraFrame(ImageProxy proxy) {
+        if (oep == null) {
+            mFramesBeforeReady.incrementAndGet();
+            proxy.close();
+            return;
+        }
+        mPipeline.offer(proxy, captureNanos(proxy));
+    }
+
+    /* The capture time of the frame as a System.nanoTime() value. The camera stamps the frames with the boot time
+     * clock on most devices, the age of the frame is taken from it. A timestamp of another time base gives an
+     * impossible age, the frame is stamped with the current time then. */
+    private static long captureNanos(ImageProxy proxy) {
+        long now = System.nanoTime();
+        long age = SystemClock.elapsedRealtimeNanos() - proxy.getImageInfo().getTimestamp();
+        return age >= 0 && age < MAX_CAPTURE_AGE_NS ? now - age : now;
     }
 
     @Override
@@ -79,22 +229,48 @@ public class MainActivity extends AppCompatActivity {
 
         updateSize();
 
-        /* initialize OpenGL renderer */
+        /* initialize OpenGL renderer, the shader programs are kept between the runs */
+        GLProgramCache.setDirectory(new File(getCacheDir(), "gl_programs"));
+        mFormats = OffscreenEffectPlayer.negotiateFormats(CAMERA_FORMATS, RENDERER_FORMATS);
+        Log.i(TAG, "formats: " + mFormats);
         createRenderer();
         glView = findViewById(R.id.glSurfaceView);
         glView.setEGLContextClientVersion(3);
         glView.setRenderer(renderer);
         glView.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
 
-        /* initialize Banuba SDK */
-        OffscreenEffectPlayer.init("", BanubaClientToken.KEY);
-        /* Create offscreen effect player */
-        createOEP();
-
         mImage = new OffscreenEffectPlayerImage();
+        createPipeline();
+
+        /* initialize Banuba SDK and create offscreen effect player in the background, or take the running one */
+        mStartup = EffectPlayerHolder.obtain("", BanubaClientToken.KEY, size.getWidth(), size.getHeight(), EFFECT_PATH, mFormats,
+                mGpuOutput, READBACK_FRAMES_IN_FLIGHT);
+        mStartup.whenReady(ContextCompat.getMainExecutor(this), mStartupListener);
+        /* the camera is bound while the player starts */
         requestCameraPermissionAndStart();
     }
 
+    /* The manifest handles orientation and screen size changes in place, the player only gets the new size */
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+        updateSize();
+        OffscreenEffectPlayer player = oep;
+        if (player != null) {
+            player.surfaceChanged(size.getWidth(), size.getHeight());
+        }
+    }
+
+    /* The native buffers kept for the next frames are given back when the system runs low on memory */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            Log.i(TAG, "trim memory, " + SlabPool.getStats());
+            SlabPool.trim();
+        }
+    }
+
     private void updateSize() {
         final int rotation = getRotation(this);
         switch (rotation) {
@@ -115,8 +291,22 @@ public class MainActivity extends AppCompatActivity {
 
     @Override
     protected void onDestroy() {
-        oep.destroy();
-        OffscreenEffectPlayer.deinit();
+        mAnalyzerExecutor.shutdown();
+        mPipeline.shutdown();
+        /* the frame being submitted holds the player, it must not be destroyed under it */
+        if (!mPipeline.awaitIdle(PIPELINE_SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+            Log.w(TAG, "the pipeline is still submitting a frame, the player waits for it in destroy()");
+        }
+        mStartup.removeListener(mStartupListener);
+        detachOEP();
+        /* the renderer goes away with this activity, the player reuses the textures it held */
+        if (mGpuOutput) {
+            ((GLTextureRenderer) renderer).releaseTextures();
+        }
+        /* a recreated activity takes the same player */
+        if (!isChangingConfigurations()) {
+            EffectPlayerHolder.release();
+        }
         super.onDestroy();
     }
 
@@ -137,25 +327,23 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void startCamera() {
+        mStartup.beginPhase(StartupOrchestrator.Phase.CAMERA_BIND);
         cameraProviderFuture = ProcessCameraProvider.getInstance(MainActivity.this);
         cameraProviderFuture.addListener(() -> {
             try {
                 ProcessCameraProvider cameraProvider = cameraProviderFuture.get();
                 ImageAnalysis imageAnalysis = new ImageAnalysis.Builder()
                         .setTargetResolution(size)
-                        .setBackpressureStrategy(ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST)
+                        /* the pipeline holds up to this number of frames and drops the stale ones itself */
+                        .setBackpressureStrategy(ImageAnalysis.STRATEGY_BLOCK_PRODUCER)
+                        .setImageQueueDepth(MAX_FRAMES_IN_FLIGHT + MAX_FRAMES_QUEUED)
                         .build();
                 CameraSelector cameraSelector = new CameraSelector.Builder()
                         .requireLensFacing(CameraSelector.LENS_FACING_FRONT)
                         .build();
-                imageAnalysis.setAnalyzer(
-                        ContextCompat.getMainExecutor(MainActivity.this),
-                        proxy -> {
-                            updateImage(proxy);
-                            oep.processImageAsync(mImage);
-                            proxy.close();
-                        });
+                imageAnalysis.setAnalyzer(mAnalyzerExecutor, this::onCameraFrame);
                 cameraProvider.bindToLifecycle(MainActivity.this, cameraSelector, imageAnalysis);
+                mStartup.endPhase(StartupOrchestrator.Phase.CAMERA_BIND);
             } catch (Exception e) {
                 Log.d("Exception in camera:", e.toString());
             }
@@ -191,35 +379,28 @@ public class MainActivity extends AppCompatActivity {
 
     private void updateImage(ImageProxy imageProxy) {
         int rotation = getRotation(MainActivity.this);
+        ImageInfo info = mImage.mImageInfo;
+        ImageProxy.PlaneProxy[] planes = imageProxy.getPlanes();
 
-        mImage.mImageInfo.width = imageProxy.getWidth();
-        mImage.mImageInfo.height = imageProxy.getHeight();
-        mImage.mImageInfo.inputOrientation = getInputOrientation(rotation);
-        mImage.mImageInfo.outputOrientation = getOutputOrientation(rotation);
-        mImage.mImageInfo.pixelFormat = imageProxy.getImage().getFormat();
-        mImage.mImageInfo.requireMirroring = true;
-        mImage.mImageInfo.imageFormat = mImageFormat.ordinal();
+        info.setWidth(imageProxy.getWidth());
+        info.setHeight(imageProxy.getHeight());
+        info.setInputOrientation(getInputOrientation(rotation));
+        info.setOutputOrientation(getOutputOrientation(rotation));
+        info.setPixelFormat(imageProxy.getImage().getFormat());
+        info.setRequireMirroring(true);
+        info.setFormats(mFormats);
 
-        mImage.mImageInfo.rowStride0 = imageProxy.getPlanes()[0].getRowStride();
-        mImage.mImageZero = imageProxy.getPlanes()[0].getBuffer();
-        mImage.mImageInfo.pixelStride0 = imageProxy.getPlanes()[0].getPixelStride();
+        info.setPlane(0, planes[0].getRowStride(), planes[0].getPixelStride());
+        mImage.mImageZero = planes[0].getBuffer();
 
-        int planesNumber = imageProxy.getPlanes().length;
+        int planesNumber = planes.length;
         if (planesNumber > 1) {
-            mImage.mImageInfo.rowStride1 = imageProxy.getPlanes()[1].getRowStride();
-            mImage.mImageFirst = imageProxy.getPlanes()[1].getBuffer();
-            mImage.mImageInfo.pixelStride1 = imageProxy.getPlanes()[1].getPixelStride();
+            info.setPlane(1, planes[1].getRowStride(), planes[1].getPixelStride());
+            mImage.mImageFirst = planes[1].getBuffer();
             if (planesNumber > 2) {
-                mImage.mImageInfo.rowStride2 = imageProxy.getPlanes()[2].getRowStride();
-                mImage.mImageSecond = imageProxy.getPlanes()[2].getBuffer();
-                mImage.mImageInfo.pixelStride2 = imageProxy.getPlanes()[2].getPixelStride();
+                info.setPlane(2, planes[2].getRowStride(), planes[2].getPixelStride());
+                mImage.mImageSecond = planes[2].getBuffer();
             }
         }
     }
 }
-
-enum ImageFormat {
-    RGB,
-    NV12,
-    i420
-}
\ No newline at end of file
@@ -0,0 +1,63 @@
+package com.banuba.quickstart_c_api;
+
+/* Parameters of OffscreenEffectPlayer.processFile() */
+public final class OfflineOptions {
+    /* the order matches bnb::oep::frame_container */
+    public enum Container {
+        /* frames back to back without headers, the format and the size must be set */
+        RAW,
+        /* YUV4MPEG2 with 4:2:0 frames, the size is read from the header, the frames are I420 */
+        Y4M
+    }
+
+    Container mInputContainer = Container.Y4M;
+    FrameConverter.Format mRawFormat = FrameConverter.Format.I420;
+    int mRawWidth = 0;
+    int mRawHeight = 0;
+    Container mOutputContainer = Container.Y4M;
+    /* null - the format of the input */
+    FrameConverter.Format mOutputFormat = null;
+    int mMaxFramesInFlight = 3;
+    int mOrientation = 0;
+    boolean mRequireMirroring = false;
+    /* null - the effect loaded into the player */
+    String mEffectPath = null;
+
+    public OfflineOptions setInputY4M() {
+        mInputContainer = Container.Y4M;
+        return this;
+    }
+
+    public OfflineOptions setInputRaw(FrameConverter.Format format, int width, int height) {
+        mInputContainer = Container.RAW;
+        mRawFormat = format;
+        mRawWidth = width;
+        mRawHeight = height;
+        return this;
+    }
+
+    /* the format of a Y4M output is always I420 */
+    public OfflineOptions setOutput(Container container, FrameConverter.Format format) {
+        mOutputContainer = container;
+        mOutputFormat = format;
+        return this;
+    }
+
+    /* frames read from the input but not written yet, more frames keep the reader, the GPU and the writer busy at once */
+    public OfflineOptions setMaxFramesInFlight(int maxFramesInFlight) {
+        mMaxFramesInFlight = maxFramesInFlight;
+        return this;
+    }
+
+    /* orientation of the input frames in degrees (0, 90, 180, 270) */
+    public OfflineOptions setOrientation(int orientation, boolean requireMirroring) {
+        mOrientation = orientation;
+        mRequireMirroring = requireMirroring;
+        return this;
+    }
+
+    public OfflineOptions setEffect(String effectPath) {
+        mEffectPath = effectPath;
+        return this;
+    }
+}
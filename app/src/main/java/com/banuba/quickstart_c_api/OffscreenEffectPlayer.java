@@ -1,31 +1,104 @@
 package com.banuba.quickstart_c_api;
 
+import android.os.ParcelFileDescriptor;
+
+import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
 
 class OffscreenEffectPlayer {
-    private long mOep = 0;
+    /* The native player. The calls take it with acquireHandle() and give it back with releaseHandle(),
+     * destroy() waits for the calls running on other threads before freeing it. */
+    private volatile long mOep = 0;
+    private final Object mHandleLock = new Object();
+    private int mHandleUsers = 0;
     private DataReadyCallback mDataReadyCallback = null;
-    private static boolean isInit = false;
+    private FrameReadyCallback mFrameReadyCallback = null;
+    private TextureReadyCallback mTextureReadyCallback = null;
+    private FrameCompletionListener mFrameCompletionListener = null;
+    private final OutputFramePool mOutputFramePool = new OutputFramePool(OutputFramePool.DEFAULT_SIZE);
+    private String mEffectPath = null;
+    private volatile String mLoadedEffectPath = null;
+    private final HashMap<String, ArrayList<EffectLoadCallback>> mEffectLoadCallbacks = new HashMap<>();
+    private final HashMap<Integer, EvalJsCallback> mEvalJsCallbacks = new HashMap<>();
+    private int mNextEvalJsRequest = 0;
+    private float[] mGovernorScales = null;
+    /* the maxFramesInFlight of the asynchronous read back, 0 - synchronous */
+    private volatile int mAsyncReadback = 0;
+    private final int mWidth;
+    private final int mHeight;
+    private static final Object sInitLock = new Object();
+    private static int sInitCount = 0;
 
+    /* The SDK is shared by all players. The calls of init() and deinit() are counted and can come from any thread,
+     * the SDK is released by the last deinit(), or later when players created before it are still alive.
+     * The resources path and the token of the first init() are used until then. */
     public static void init(String pathToResources, String clientToken) {
-        assert !isInit;
-        if (!isInit) {
+        synchronized (sInitLock) {
             externalInit(pathToResources, clientToken);
-            isInit = true;
+            ++sInitCount;
         }
     }
 
     public static void deinit() {
-        assert isInit;
-        if (isInit) {
-            isInit = false;
-            externalDeinit();
+        synchronized (sInitLock) {
+            assert sInitCount > 0;
+            if (sInitCount > 0) {
+                --sInitCount;
+                externalDeinit();
+            }
+        }
+    }
+
+    public static boolean isInitialized() {
+        synchronized (sInitLock) {
+            return sInitCount > 0;
         }
     }
 
+    /* The pairs of input and output formats which the effect player processes without an extra conversion pass,
+     * the cheapest first. Any other pair works too, at the cost of a YUV conversion of the output. */
+    public static FormatPair[] getNativeFormatPairs() {
+        int[] values = externalGetNativeFormatPairs();
+        ImageFormat[] formats = ImageFormat.values();
+        FormatPair[] pairs = new FormatPair[values.length / 2];
+        for (int i = 0; i < pairs.length; ++i) {
+            pairs[i] = new FormatPair(formats[values[2 * i]], formats[values[2 * i + 1]]);
+        }
+        return pairs;
+    }
+
+    /* The cheapest native pair of one of the inputs the caller can provide and one of the outputs it can draw.
+     * When there is none, the first input and the first output are returned, the output is converted then. */
+    public static FormatPair negotiateFormats(ImageFormat[] inputs, ImageFormat[] outputs) {
+        for (FormatPair pair : getNativeFormatPairs()) {
+            if (contains(inputs, pair.input) && contains(outputs, pair.output)) {
+                return pair;
+            }
+        }
+        return new FormatPair(inputs[0], outputs[0]);
+    }
+
+    private static boolean contains(ImageFormat[] formats, ImageFormat format) {
+        for (ImageFormat candidate : formats) {
+            if (candidate == format) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* Any number of players can work at once, each one has its own render thread and GL context.
+     * Every player keeps the SDK initialized until it is destroyed. */
     public OffscreenEffectPlayer(int width, int hegiht) {
-        assert isInit;
         mOep = externalCreate(width, hegiht);
+        if (mOep == 0) {
+            throw new IllegalStateException("OffscreenEffectPlayer.init() must be called first");
+        }
+        mWidth = width;
+        mHeight = hegiht;
         surfaceChanged(width, hegiht);
     }
 
@@ -34,78 +107,682 @@ class OffscreenEffectPlayer {
         destroy();
     }
 
+    /* Must be called explicitly: the native callback thread holds a reference to this player
+     * until it is destroyed, so finalize() alone can not release it. Can be called from the callbacks
+     * of the player, the callback thread then delivers the rest of its queue after the callback returns. */
     public void destroy() {
-        if (mOep != 0) {
-            externalDestroy(mOep);
+        long oep;
+        synchronized (mHandleLock) {
+            oep = mOep;
             mOep = 0;
+            boolean interrupted = false;
+            while (mHandleUsers > 0) {
+                try {
+                    mHandleLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (oep != 0) {
+            externalDestroy(oep);
+        }
+        /* the scripts which did not run are dropped with the player */
+        cancelEvalJsCallbacks();
+    }
+
+    /* The native player, counted as in use until releaseHandle(). 0 when the player is destroyed,
+     * releaseHandle() must not be called then. Every call of the native player goes through it,
+     * the calls made after destroy() do nothing. */
+    private long acquireHandle() {
+        synchronized (mHandleLock) {
+            long oep = mOep;
+            if (oep != 0) {
+                ++mHandleUsers;
+            }
+            return oep;
+        }
+    }
+
+    private void releaseHandle() {
+        synchronized (mHandleLock) {
+            if (--mHandleUsers == 0) {
+                mHandleLock.notifyAll();
+            }
         }
     }
 
-    /* image must be NV12 format */
+    /* the formats of the image are set with ImageInfo.setFormats(), the image is ignored after destroy() */
     public void processImageAsync(OffscreenEffectPlayerImage image) {
-        externalProcessImageAsync(mOep, image.mImageZero, image.mImageFirst, image.mImageSecond, image.mImageInfo);
+        long oep = acquireHandle();
+        if (oep == 0) {
+            return;
+        }
+        boolean traced = FrameTrace.beginSection("OEP processImageAsync");
+        try {
+            externalProcessImageAsync(oep, image.mImageZero, image.mImageFirst, image.mImageSecond, image.mImageInfo.mDescriptor, null,
+                    System.nanoTime(), FrameTrace.beginFrame());
+        } finally {
+            releaseHandle();
+            if (traced) {
+                FrameTrace.endSection();
+            }
+        }
+    }
+
+    /* Zero-copy variant: the planes of the image are passed to the effect player without copying when the
+     * format allows it (NV12), so the buffers must stay valid until onInputReleased is called.
+     * onInputReleased is called from a native thread once the frame processor has finished with the planes,
+     * or immediately when the planes were copied or the player is destroyed. */
+    public void processImageAsync(OffscreenEffectPlayerImage image, Runnable onInputReleased) {
+        long oep = acquireHandle();
+        if (oep == 0) {
+            onInputReleased.run();
+            return;
+        }
+        boolean traced = FrameTrace.beginSection("OEP processImageAsync");
+        boolean retained;
+        try {
+            retained = externalProcessImageAsync(oep, image.mImageZero, image.mImageFirst, image.mImageSecond, image.mImageInfo.mDescriptor, onInputReleased,
+                    System.nanoTime(), FrameTrace.beginFrame());
+        } finally {
+            releaseHandle();
+            if (traced) {
+                FrameTrace.endSection();
+            }
+        }
+        if (!retained) {
+            onInputReleased.run();
+        }
+    }
+
+    /* Per-stage latency histograms and throughput counters of the frames processed since the creation
+     * or the last resetMetrics(). Recording the metrics does not allocate, only this call does. */
+    public FrameMetrics getMetrics() {
+        long[] values = new long[FrameMetrics.SIZE];
+        long oep = acquireHandle();
+        if (oep != 0) {
+            try {
+                externalGetMetrics(oep, values);
+            } finally {
+                releaseHandle();
+            }
+        }
+        return new FrameMetrics(values);
+    }
+
+    public void resetMetrics() {
+        long oep = acquireHandle();
+        if (oep == 0) {
+            return;
+        }
+        try {
+            externalResetMetrics(oep);
+        } finally {
+            releaseHandle();
+        }
+    }
+
+    /* Dynamic processing resolution. The render time of the frames is averaged over short windows, when it goes over
+     * frameBudgetNanos the input is scaled down natively to the next of scales (descending, e.g. 1, 0.75, 0.5)
+     * and the output image or texture gets smaller in the same proportion, the renderers upscale it for display.
+     * The resolution steps back up when the render time predicted for the upper tier leaves enough headroom
+     * for several windows in a row. Downscaled frames are always copied, see processImageAsync(image, onInputReleased).
+     * null scales remove the governor. */
+    public void setResolutionGovernor(float[] scales, long frameBudgetNanos) {
+        mGovernorScales = scales != null ? scales.clone() : null;
+        long oep = acquireHandle();
+        if (oep == 0) {
+            return;
+        }
+        try {
+            externalSetResolutionGovernor(oep, mGovernorScales, frameBudgetNanos);
+        } finally {
+            releaseHandle();
+        }
+    }
+
+    public boolean hasResolutionGovernor() {
+        return mGovernorScales != null;
+    }
+
+    /* scale of the frames processed now relative to the size given to surfaceChanged(), 1 without the governor */
+    public float getProcessingScale() {
+        long oep = acquireHandle();
+        if (oep == 0) {
+            return 1.0f;
+        }
+        try {
+            return externalGetProcessingScale(oep);
+        } finally {
+            releaseHandle();
+        }
+    }
+
+    /* size of the processed frames, given to the constructor */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public String getEffectPath() {
+        return mEffectPath;
+    }
+
+    /* Called by OffscreenEffectPlayerPool before the player is handed to the next owner: everything the previous
+     * owner set up is removed (the callbacks, the resolution governor, the asynchronous read back), its JS commands
+     * which were not applied yet are dropped and their evalJs callbacks get the empty result, the callbacks of its pending effect loads
+     * are never called and the metrics start from zero. The native player, its GL context and the effect stay loaded,
+     * the JS command counters are kept, they are counted since the creation. */
+    void recycle() {
+        setTextureReadyCallback(null);
+        setFrameReadyCallback(null);
+        mDataReadyCallback = null;
+        mFrameCompletionListener = null;
+        setResolutionGovernor(null, 0);
+        setAsyncReadback(0);
+        clearJsCommands();
+        synchronized (mEffectLoadCallbacks) {
+            mEffectLoadCallbacks.clear();
+        }
+        surfaceChanged(mWidth, mHeight);
+        resetMetrics();
+    }
+
+    public boolean isDestroyed() {
+        return mOep == 0;
     }
 
     public void surfaceChanged(int width, int height) {
-        externalSurfaceChanged(mOep, width, height);
+        long oep = acquireHandle();
+        if (oep == 0) {
+            return;
+        }
+        try {
+            externalSurfaceChanged(oep, width, height);
+        } finally {
+            releaseHandle();
+        }
     }
 
     public void loadEffect(String effectPath) {
-        externalLoadEffect(mOep, effectPath);
+        mEffectPath = effectPath;
+        long oep = acquireHandle();
+        if (oep == 0) {
+            return;
+        }
+        try {
+            externalLoadEffect(oep, effectPath);
+        } finally {
+            releaseHandle();
+        }
     }
 
     public void unloadEffect() {
-        externalUnloadEffect(mOep);
+        mEffectPath = null;
+        mLoadedEffectPath = null;
+        long oep = acquireHandle();
+        if (oep == 0) {
+            return;
+        }
+        try {
+            externalUnloadEffect(oep);
+        } finally {
+            releaseHandle();
+        }
+    }
+
+    public interface EffectLoadCallback {
+        /* called on the callback thread of the player */
+        void onEffectLoaded(String effectPath, boolean loaded);
+    }
+
+    /* The effect is loaded on the render thread of the player, the frames wait for it there but the caller does not.
+     * The callback is called once the effect is loaded or failed to load. */
+    public void loadEffectAsync(String effectPath, EffectLoadCallback callback) {
+        if (callback != null) {
+            synchronized (mEffectLoadCallbacks) {
+                ArrayList<EffectLoadCallback> callbacks = mEffectLoadCallbacks.get(effectPath);
+                if (callbacks == null) {
+                    callbacks = new ArrayList<>(1);
+                    mEffectLoadCallbacks.put(effectPath, callbacks);
+                }
+                callbacks.add(callback);
+            }
+        }
+        loadEffect(effectPath);
+    }
+
+    /* the last effect which was loaded successfully, null when none */
+    public String getLoadedEffectPath() {
+        return mLoadedEffectPath;
+    }
+
+    /* called from native code when effect_player::load_effect has finished */
+    private void onEffectLoaded(String effectPath, boolean loaded) {
+        if (loaded && effectPath.equals(mEffectPath)) {
+            mLoadedEffectPath = effectPath;
+        }
+        ArrayList<EffectLoadCallback> callbacks;
+        synchronized (mEffectLoadCallbacks) {
+            callbacks = mEffectLoadCallbacks.remove(effectPath);
+        }
+        if (callbacks != null) {
+            for (EffectLoadCallback callback : callbacks) {
+                callback.onEffectLoaded(effectPath, loaded);
+            }
+        }
+    }
+
+    public static class OfflineStats {
+        public final long framesRead;
+        public final long framesWritten;
+        public final long elapsedNanos;
+
+        OfflineStats(long[] values) {
+            this.framesRead = values[0];
+            this.framesWritten = values[1];
+            this.elapsedNanos = values[2];
+        }
+
+        public double getFps() {
+            return elapsedNanos > 0 ? framesWritten * 1e9 / elapsedNanos : 0;
+        }
+    }
+
+    /* Offline mode: applies the effect to a recorded frame sequence as fast as the device allows, not paced by a camera.
+     * The frames are processed by an own effect player with an own GL context, the camera path of this player
+     * keeps working. Both files are memory-mapped, the output file is resized to hold every frame.
+     * Blocks until all frames are written, must not be called on the main thread. */
+    public OfflineStats processFile(ParcelFileDescriptor input, ParcelFileDescriptor output, OfflineOptions options) throws IOException {
+        long[] stats = new long[3];
+        String effectPath = options.mEffectPath != null ? options.mEffectPath : mEffectPath;
+        int outputFormat = options.mOutputFormat != null ? options.mOutputFormat.ordinal() : -1;
+        boolean done = externalProcessFile(
+                input.getFd(), options.mInputContainer.ordinal(), options.mRawFormat.ordinal(), options.mRawWidth, options.mRawHeight,
+                output.getFd(), options.mOutputContainer.ordinal(), outputFormat,
+                options.mMaxFramesInFlight, options.mOrientation, options.mRequireMirroring, effectPath, stats);
+        if (!done) {
+            throw new IOException("Offline processing failed, see the log for the reason");
+        }
+        return new OfflineStats(stats);
+    }
+
+    public OfflineStats processFile(File input, File output, OfflineOptions options) throws IOException {
+        try (ParcelFileDescriptor in = ParcelFileDescriptor.open(input, ParcelFileDescriptor.MODE_READ_ONLY);
+             ParcelFileDescriptor out = ParcelFileDescriptor.open(output, ParcelFileDescriptor.MODE_READ_WRITE
+                     | ParcelFileDescriptor.MODE_CREATE | ParcelFileDescriptor.MODE_TRUNCATE)) {
+            return processFile(in, out, options);
+        }
     }
 
     public void pause() {
-        externalPause(mOep);
+        long oep = acquireHandle();
+        if (oep == 0) {
+            return;
+        }
+        try {
+            externalPause(oep);
+        } finally {
+            releaseHandle();
+        }
     }
 
     public void resume() {
-        externalResume(mOep);
+        long oep = acquireHandle();
+        if (oep == 0) {
+            return;
+        }
+        try {
+            externalResume(oep);
+        } finally {
+            releaseHandle();
+        }
     }
 
     public void stop() {
-        externalStop(mOep);
+        long oep = acquireHandle();
+        if (oep == 0) {
+            return;
+        }
+        try {
+            externalStop(oep);
+        } finally {
+            releaseHandle();
+        }
     }
 
+    /* The JS commands are queued and applied on the render thread right before the next frame is drawn,
+     * the calls of a method issued between two frames reach the effect once, with the last param.
+     * The commands wait while no frames are processed. */
     public void callJsMethod(String method, String param) {
-        externalCallJsMethod(mOep, method, param);
+        long oep = acquireHandle();
+        if (oep == 0) {
+            return;
+        }
+        try {
+            externalCallJsMethod(oep, method, param, null);
+        } finally {
+            releaseHandle();
+        }
+    }
+
+    /* The calls are coalesced by the method and the key, e.g. the name of the parameter set by a method
+     * which sets several ones */
+    public void callJsMethod(String method, String param, String key) {
+        long oep = acquireHandle();
+        if (oep == 0) {
+            return;
+        }
+        try {
+            externalCallJsMethod(oep, method, param, key);
+        } finally {
+            releaseHandle();
+        }
     }
 
     public void evalJs(String script) {
-        externalEvalJs(mOep, script);
+        long oep = acquireHandle();
+        if (oep == 0) {
+            return;
+        }
+        try {
+            externalEvalJs(oep, script, 0);
+        } finally {
+            releaseHandle();
+        }
+    }
+
+    public interface EvalJsCallback {
+        /* Called once, on the callback thread of the player. The result is empty when the script could not run.
+         * A script dropped by recycle() or destroy(), or passed after destroy(), gets the empty result
+         * on the thread of that call. */
+        void onEvalJsResult(String result);
+    }
+
+    /* Scripts are never coalesced, they run in the order of the calls together with the queued calls */
+    public void evalJs(String script, EvalJsCallback callback) {
+        if (callback == null) {
+            evalJs(script);
+            return;
+        }
+        long oep = acquireHandle();
+        if (oep == 0) {
+            callback.onEvalJsResult("");
+            return;
+        }
+        try {
+            int request;
+            synchronized (mEvalJsCallbacks) {
+                do {
+                    request = ++mNextEvalJsRequest;
+                } while (request == 0 || mEvalJsCallbacks.containsKey(request));
+                mEvalJsCallbacks.put(request, callback);
+            }
+            externalEvalJs(oep, script, request);
+        } finally {
+            releaseHandle();
+        }
+    }
+
+    /* called from native code with the result of evalJs(script, callback) */
+    private void onEvalJsResult(int request, String result) {
+        EvalJsCallback callback;
+        synchronized (mEvalJsCallbacks) {
+            callback = mEvalJsCallbacks.remove(request);
+        }
+        if (callback != null) {
+            callback.onEvalJsResult(result);
+        }
+    }
+
+    /* the commands of the previous owner, with the callbacks of its scripts */
+    private void clearJsCommands() {
+        long oep = acquireHandle();
+        if (oep != 0) {
+            try {
+                externalClearJsCommands(oep);
+            } finally {
+                releaseHandle();
+            }
+        }
+        cancelEvalJsCallbacks();
+    }
+
+    /* the scripts which will not run, their callbacks get the empty result. A late result of one of them
+     * from the callback thread finds no callback, so each callback is still called once. */
+    private void cancelEvalJsCallbacks() {
+        ArrayList<EvalJsCallback> callbacks;
+        synchronized (mEvalJsCallbacks) {
+            callbacks = new ArrayList<>(mEvalJsCallbacks.values());
+            mEvalJsCallbacks.clear();
+        }
+        for (EvalJsCallback callback : callbacks) {
+            callback.onEvalJsResult("");
+        }
+    }
+
+    /* The JS calls issued, coalesced and applied since the creation of the player */
+    public JsCommandStats getJsCommandStats() {
+        long[] values = new long[JsCommandStats.SIZE];
+        long oep = acquireHandle();
+        if (oep != 0) {
+            try {
+                externalGetJsCommandStats(oep, values);
+            } finally {
+                releaseHandle();
+            }
+        }
+        return new JsCommandStats(values);
     }
 
+    /* The planes are in new heap buffers owned by the receiver, one per plane of the output format */
     public interface DataReadyCallback {
-        void onDataReady(byte[] image0, byte[] image1, byte[] image2, int width, int height);
+        void onDataReady(ImagePlane[] planes, int width, int height);
     }
 
     public void setDataReadyCallback(DataReadyCallback callback) {
         mDataReadyCallback = callback;
     }
 
-    private void onDataReady(byte[] image0, byte[] image1, byte[] image2, int width, int height) {
-        if (mDataReadyCallback != null) {
-            mDataReadyCallback.onDataReady(image0, image1, image2, width, height);
+    /* called from native code with the planes copied as they are, the arrays of the missing planes are null */
+    private void onDataReady(byte[] image0, byte[] image1, byte[] image2, int width, int height,
+                             int rowStride0, int rowStride1, int rowStride2,
+                             int pixelStride0, int pixelStride1, int pixelStride2) {
+        boolean traced = FrameTrace.beginSection("OEP onDataReady");
+        try {
+            deliverData(image0, image1, image2, width, height, rowStride0, rowStride1, rowStride2, pixelStride0, pixelStride1, pixelStride2);
+        } finally {
+            if (traced) {
+                FrameTrace.endSection();
+            }
+        }
+        notifyFrameCompleted(true);
+    }
+
+    private void deliverData(byte[] image0, byte[] image1, byte[] image2, int width, int height,
+                             int rowStride0, int rowStride1, int rowStride2,
+                             int pixelStride0, int pixelStride1, int pixelStride2) {
+        DataReadyCallback callback = mDataReadyCallback;
+        if (callback != null) {
+            int count = image2 != null ? 3 : (image1 != null ? 2 : 1);
+            ImagePlane[] planes = new ImagePlane[count];
+            planes[0] = new ImagePlane(ByteBuffer.wrap(image0), rowStride0, pixelStride0);
+            if (count > 1) {
+                planes[1] = new ImagePlane(ByteBuffer.wrap(image1), rowStride1, pixelStride1);
+            }
+            if (count > 2) {
+                planes[2] = new ImagePlane(ByteBuffer.wrap(image2), rowStride2, pixelStride2);
+            }
+            callback.onDataReady(planes, width, height);
+        }
+    }
+
+    /* Called once for every processed image, after the output callback or when the output was dropped
+     * (no result from the effect player, or no free frame in the output pool) */
+    public interface FrameCompletionListener {
+        void onFrameCompleted(boolean delivered);
+    }
+
+    public void setFrameCompletionListener(FrameCompletionListener listener) {
+        mFrameCompletionListener = listener;
+    }
+
+    private void notifyFrameCompleted(boolean delivered) {
+        FrameCompletionListener listener = mFrameCompletionListener;
+        if (listener != null) {
+            listener.onFrameCompleted(delivered);
+        }
+    }
+
+    /* called from native code when the image was processed without output */
+    private void onFrameDropped() {
+        notifyFrameCompleted(false);
+    }
+
+    /* Output images are delivered in pooled direct buffers instead of new byte arrays.
+     * The receiver must call OutputFrame.release() when the planes are no longer needed,
+     * otherwise the pool runs out of frames and the following output images are dropped. */
+    public interface FrameReadyCallback {
+        void onFrameReady(OutputFrame frame);
+    }
+
+    /* When set, it replaces DataReadyCallback */
+    public void setFrameReadyCallback(FrameReadyCallback callback) {
+        mFrameReadyCallback = callback;
+        long oep = acquireHandle();
+        if (oep == 0) {
+            return;
+        }
+        try {
+            externalSetPooledOutput(oep, callback != null);
+        } finally {
+            releaseHandle();
+        }
+    }
+
+    /* Reads the output images back asynchronously: the rendered frame is copied into one of maxFramesInFlight pixel
+     * pack buffers and the render thread continues with the next frame, the image is delivered from a worker thread
+     * when the GPU has finished the copy. Reading back frame N overlaps rendering of frame N+1, the rendering waits
+     * only when all the buffers are busy. 0 returns to the synchronous read back of the effect player.
+     * Has no effect on the texture output. The same value again keeps the current buffers and worker thread,
+     * e.g. the ones created by the warm-up frame of StartupOrchestrator. */
+    public void setAsyncReadback(int maxFramesInFlight) {
+        int framesInFlight = Math.max(maxFramesInFlight, 0);
+        long oep = acquireHandle();
+        if (oep == 0) {
+            return;
+        }
+        try {
+            if (framesInFlight != mAsyncReadback) {
+                externalSetAsyncReadback(oep, framesInFlight);
+                mAsyncReadback = framesInFlight;
+            }
+        } finally {
+            releaseHandle();
+        }
+    }
+
+    public int getOutputPoolSize() {
+        return mOutputFramePool.getSize();
+    }
+
+    public OutputPoolStats getOutputPoolStats() {
+        return mOutputFramePool.getStats();
+    }
+
+    /* called from native code before the output image is copied */
+    private OutputFrame acquireOutputFrame(int size0, int size1, int size2) {
+        return mOutputFramePool.acquire(size0, size1, size2);
+    }
+
+    /* called from native code when the output image is copied into the frame */
+    private void onFrameReady(OutputFrame frame, int width, int height) {
+        frame.mWidth = width;
+        frame.mHeight = height;
+        FrameReadyCallback callback = mFrameReadyCallback;
+        boolean traced = FrameTrace.beginSection("OEP onFrameReady");
+        try {
+            if (callback != null) {
+                callback.onFrameReady(frame);
+            } else {
+                frame.release();
+            }
+        } finally {
+            if (traced) {
+                FrameTrace.endSection();
+            }
+        }
+        notifyFrameCompleted(true);
+    }
+
+    /* GPU-resident output: the rendered texture is shared with the receiver instead of being read back
+     * into memory. The receiver draws it with a GL context of the same EGL display, see OutputTexture.
+     * Every texture must be released, see OutputTexture.release(). */
+    public interface TextureReadyCallback {
+        void onTextureReady(OutputTexture texture);
+    }
+
+    /* When set, it replaces FrameReadyCallback and DataReadyCallback */
+    public void setTextureReadyCallback(TextureReadyCallback callback) {
+        mTextureReadyCallback = callback;
+        long oep = acquireHandle();
+        if (oep == 0) {
+            return;
+        }
+        try {
+            externalSetTextureOutput(oep, callback != null);
+        } finally {
+            releaseHandle();
+        }
+    }
+
+    /* called from native code when the output texture is rendered */
+    private void onTextureReady(long handle, int width, int height) {
+        OutputTexture texture = new OutputTexture(handle, width, height);
+        TextureReadyCallback callback = mTextureReadyCallback;
+        if (callback != null) {
+            callback.onTextureReady(texture);
+        } else {
+            texture.release();
         }
+        notifyFrameCompleted(true);
     }
 
     /* The functions below are implemented in c++ */
     private static native void externalInit(String pathToResources, String clientToken);
     private static native void externalDeinit();
+    private static native int[] externalGetNativeFormatPairs();
     private native long externalCreate(int width, int height);
     private native void externalDestroy(long oep);
-    private native void externalProcessImageAsync(long oep, ByteBuffer imageY, ByteBuffer imageU, ByteBuffer imageV, ImageInfo info);
+    private native boolean externalProcessImageAsync(long oep, ByteBuffer imageY, ByteBuffer imageU, ByteBuffer imageV, ByteBuffer imageInfo, Runnable onInputReleased, long submitNanos, int traceId);
     private native void externalSurfaceChanged(long oep, int width, int height);
     private native void externalLoadEffect(long oep, String effectPath);
     private native void externalUnloadEffect(long oep);
     private native void externalPause(long oep);
     private native void externalResume(long oep);
     private native void externalStop(long oep);
-    private native void externalCallJsMethod(long oep, String method, String param);
-    private native void externalEvalJs(long oep, String script);
+    private native void externalCallJsMethod(long oep, String method, String param, String key);
+    private native void externalEvalJs(long oep, String script, int request);
+    private native void externalClearJsCommands(long oep);
+    private native boolean externalGetJsCommandStats(long oep, long[] values);
+    private native void externalSetPooledOutput(long oep, boolean pooled);
+    private native void externalSetTextureOutput(long oep, boolean texture);
+    private native void externalSetAsyncReadback(long oep, int maxFramesInFlight);
+    private native void externalSetResolutionGovernor(long oep, float[] scales, long budgetNanos);
+    private native float externalGetProcessingScale(long oep);
+    private static native boolean externalProcessFile(
+            int inputFd, int inputContainer, int rawFormat, int rawWidth, int rawHeight,
+            int outputFd, int outputContainer, int outputFormat,
+            int maxFramesInFlight, int orientation, boolean requireMirroring, String effectPath, long[] stats);
+    private native boolean externalGetMetrics(long oep, long[] values);
+    private native void externalResetMetrics(long oep);
 
     static {
         System.loadLibrary("native-lib");
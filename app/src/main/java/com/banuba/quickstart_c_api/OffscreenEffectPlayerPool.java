@@ -0,0 +1,115 @@
+package com.banuba.quickstart_c_api;
+
+import java.util.ArrayDeque;
+
+/* Keeps released players warm (native player, render thread, GL context and the loaded effect) and hands them out
+ * again for the same frame size, e.g. when a secondary preview is closed and reopened. A player of another size is
+ * created from scratch. At most maxIdle players are kept, the least recently released one is destroyed first.
+ * OffscreenEffectPlayer.init() must be called before the first acquire(). */
+public class OffscreenEffectPlayerPool {
+    private final int mMaxIdle;
+    /* the most recently released player first */
+    private final ArrayDeque<OffscreenEffectPlayer> mIdle = new ArrayDeque<>();
+
+    private long mCreated = 0;
+    private long mReused = 0;
+    private long mEvicted = 0;
+
+    public OffscreenEffectPlayerPool(int maxIdle) {
+        if (maxIdle < 0) {
+            throw new IllegalArgumentException("maxIdle must not be negative");
+        }
+        mMaxIdle = maxIdle;
+    }
+
+    /* A warm player of this size when there is one. An idle player with effectPath loaded is preferred,
+     * effectPath can be null. */
+    public OffscreenEffectPlayer acquire(int width, int height, String effectPath) {
+        OffscreenEffectPlayer player = null;
+        synchronized (this) {
+            OffscreenEffectPlayer sameSize = null;
+            for (OffscreenEffectPlayer idle : mIdle) {
+                if (idle.getWidth() != width || idle.getHeight() != height) {
+                    continue;
+                }
+                if (effectPath != null && effectPath.equals(idle.getEffectPath())) {
+                    player = idle;
+                    break;
+                }
+                if (sameSize == null) {
+                    sameSize = idle;
+                }
+            }
+            if (player == null) {
+                player = sameSize;
+            }
+            if (player != null) {
+                mIdle.remove(player);
+                ++mReused;
+            } else {
+                ++mCreated;
+            }
+        }
+        if (player == null) {
+            player = new OffscreenEffectPlayer(width, height);
+        }
+        if (effectPath != null && !effectPath.equals(player.getEffectPath())) {
+            player.loadEffect(effectPath);
+        }
+        return player;
+    }
+
+    public OffscreenEffectPlayer acquire(int width, int height) {
+        return acquire(width, height, null);
+    }
+
+    /* The caller must not use the player after this call. Frames still in flight may call the old callbacks. */
+    public void release(OffscreenEffectPlayer player) {
+        if (player.isDestroyed()) {
+            return;
+        }
+        player.recycle();
+        OffscreenEffectPlayer evicted = null;
+        synchronized (this) {
+            mIdle.addFirst(player);
+            if (mIdle.size() > mMaxIdle) {
+                evicted = mIdle.pollLast();
+                ++mEvicted;
+            }
+        }
+        if (evicted != null) {
+            evicted.destroy();
+        }
+    }
+
+    /* destroys the idle players, the acquired ones are not affected */
+    public void clear() {
+        ArrayDeque<OffscreenEffectPlayer> idle;
+        synchronized (this) {
+            idle = new ArrayDeque<>(mIdle);
+            mIdle.clear();
+        }
+        for (OffscreenEffectPlayer player : idle) {
+            player.destroy();
+        }
+    }
+
+    public synchronized int getIdleCount() {
+        return mIdle.size();
+    }
+
+    /* players created by acquire() */
+    public synchronized long getCreatedCount() {
+        return mCreated;
+    }
+
+    /* acquire() calls served by an idle player */
+    public synchronized long getReusedCount() {
+        return mReused;
+    }
+
+    /* idle players destroyed because the pool was full */
+    public synchronized long getEvictedCount() {
+        return mEvicted;
+    }
+}
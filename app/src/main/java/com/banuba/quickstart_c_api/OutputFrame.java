@@ -0,0 +1,90 @@
+package com.banuba.quickstart_c_api;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/* Output image of the offscreen effect player stored in direct plane buffers.
+ * The rows of a plane keep the stride of the image read back from the GPU, see getRowStride().
+ * The frame belongs to an OutputFramePool and must be released back after use. */
+public class OutputFrame {
+    public static final int MAX_PLANES = 3;
+
+    private final OutputFramePool mPool;
+    private final Runnable mReleaseAction = this::release;
+
+    /* read by native code, see native-lib.cpp */
+    final ByteBuffer[] mPlanes = new ByteBuffer[MAX_PLANES];
+    final int[] mRowStrides = new int[MAX_PLANES];
+    final int[] mPixelStrides = new int[MAX_PLANES];
+    int mPlanesCount = 0;
+    int mWidth = 0;
+    int mHeight = 0;
+
+    OutputFrame(OutputFramePool pool) {
+        mPool = pool;
+    }
+
+    public ByteBuffer[] getPlanes() {
+        return mPlanes;
+    }
+
+    public int getPlanesCount() {
+        return mPlanesCount;
+    }
+
+    /* bytes between the starts of two rows of the plane, the last row is not padded */
+    public int getRowStride(int plane) {
+        return mRowStrides[plane];
+    }
+
+    /* bytes per pixel of the plane */
+    public int getPixelStride(int plane) {
+        return mPixelStrides[plane];
+    }
+
+    /* the row strides of all planes, e.g. for GLRenderer.drawImage() */
+    public int[] getRowStrides() {
+        return mRowStrides;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /* returns the frame to the pool, the planes must not be used after that */
+    public void release() {
+        mPool.release(this);
+    }
+
+    /* cached release action, does not allocate on every frame */
+    public Runnable releaseAction() {
+        return mReleaseAction;
+    }
+
+    /* returns true when the already allocated buffers were reused */
+    boolean prepare(int size0, int size1, int size2) {
+        boolean reused = preparePlane(0, size0);
+        reused &= preparePlane(1, size1);
+        reused &= preparePlane(2, size2);
+        mPlanesCount = size2 > 0 ? 3 : (size1 > 0 ? 2 : 1);
+        return reused;
+    }
+
+    private boolean preparePlane(int index, int size) {
+        if (size <= 0) {
+            return true;
+        }
+        boolean reused = true;
+        if (mPlanes[index] == null || mPlanes[index].capacity() < size) {
+            mPlanes[index] = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+            reused = false;
+        }
+        mPlanes[index].clear();
+        mPlanes[index].limit(size);
+        return reused;
+    }
+}
@@ -0,0 +1,60 @@
+package com.banuba.quickstart_c_api;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Fixed size pool of output frames. Frames are acquired on the OEP callback thread
+ * and released by the consumer (usually the GL thread) after the planes are uploaded. */
+class OutputFramePool {
+    public static final int DEFAULT_SIZE = 3;
+
+    private final int mSize;
+    private final ArrayBlockingQueue<OutputFrame> mFreeFrames;
+
+    private final AtomicLong mAcquired = new AtomicLong();
+    private final AtomicLong mReused = new AtomicLong();
+    private final AtomicLong mAllocated = new AtomicLong();
+    private final AtomicLong mExhausted = new AtomicLong();
+
+    OutputFramePool(int size) {
+        mSize = size;
+        mFreeFrames = new ArrayBlockingQueue<>(size);
+        for (int i = 0; i < size; ++i) {
+            mFreeFrames.add(new OutputFrame(this));
+        }
+    }
+
+    /* returns null when all frames are in use, the caller must drop the output image */
+    OutputFrame acquire(int size0, int size1, int size2) {
+        OutputFrame frame = mFreeFrames.poll();
+        if (frame == null) {
+            mExhausted.incrementAndGet();
+            return null;
+        }
+        mAcquired.incrementAndGet();
+        if (frame.prepare(size0, size1, size2)) {
+            mReused.incrementAndGet();
+        } else {
+            mAllocated.incrementAndGet();
+        }
+        return frame;
+    }
+
+    void release(OutputFrame frame) {
+        if (!mFreeFrames.offer(frame)) {
+            throw new IllegalStateException("OutputFrame released twice");
+        }
+    }
+
+    int getSize() {
+        return mSize;
+    }
+
+    int getAvailable() {
+        return mFreeFrames.size();
+    }
+
+    OutputPoolStats getStats() {
+        return new OutputPoolStats(mSize, getAvailable(), mAcquired.get(), mReused.get(), mAllocated.get(), mExhausted.get());
+    }
+}
@@ -0,0 +1,32 @@
+package com.banuba.quickstart_c_api;
+
+/* Counters of the output frame pool of an OffscreenEffectPlayer, see OffscreenEffectPlayer.getOutputPoolStats() */
+public final class OutputPoolStats {
+    /* number of frames in the pool */
+    public final int size;
+    /* number of frames ready to be acquired */
+    public final int available;
+    /* number of frames handed out to the consumer */
+    public final long acquired;
+    /* acquisitions served with the already allocated buffers */
+    public final long reused;
+    /* acquisitions which (re)allocated at least one plane buffer */
+    public final long allocated;
+    /* output images dropped because all frames were in use */
+    public final long exhausted;
+
+    OutputPoolStats(int size, int available, long acquired, long reused, long allocated, long exhausted) {
+        this.size = size;
+        this.available = available;
+        this.acquired = acquired;
+        this.reused = reused;
+        this.allocated = allocated;
+        this.exhausted = exhausted;
+    }
+
+    @Override
+    public String toString() {
+        return "OutputFramePool{size=" + size + ", available=" + available + ", acquired=" + acquired
+                + ", reused=" + reused + ", allocated=" + allocated + ", exhausted=" + exhausted + "}";
+    }
+}
@@ -0,0 +1,51 @@
+package com.banuba.quickstart_c_api;
+
+/* Frame rendered by the offscreen effect player, shared with other GL contexts through an EGL image.
+ * The frame is a copy in one of a few textures of the player, so the next frames are rendered while the receiver
+ * samples this one. The texture goes back to the player with release(), until then it keeps this frame. */
+public class OutputTexture {
+    private long mHandle;
+    private boolean mBound = false;
+    private final int mWidth;
+    private final int mHeight;
+
+    OutputTexture(long handle, int width, int height) {
+        mHandle = handle;
+        mWidth = width;
+        mHeight = height;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /* Must be called on a thread with a current GL context. The context waits (on the GPU) until the frame
+     * is copied, then texture is attached to the image and can be sampled as GL_TEXTURE_2D.
+     * texture should not have its own storage. Returns false when the image can not be attached. */
+    public synchronized boolean bindTo(int texture) {
+        if (mHandle == 0) {
+            return false;
+        }
+        mBound = true;
+        return externalImport(mHandle, texture);
+    }
+
+    /* Must be called once for every texture. A bound texture is released on the thread of the context which
+     * sampled it, after the last draw which samples it: the player waits (on the GPU) for these draws before
+     * it copies a new frame into the texture. A texture which was not bound, e.g. a dropped one,
+     * can be released from any thread. The player drops its frames while the receiver holds all its textures. */
+    public synchronized void release() {
+        if (mHandle != 0) {
+            externalRelease(mHandle, mBound);
+            mHandle = 0;
+        }
+    }
+
+    /* The functions below are implemented in c++ */
+    private static native boolean externalImport(long handle, int texture);
+    private static native void externalRelease(long handle, boolean sampled);
+}
@@ -0,0 +1,71 @@
+package com.banuba.quickstart_c_api;
+
+/* The native pool of the per-frame buffers (input planes, read back images and their holders), shared by all players.
+ * The buffers released by a frame are kept for the next ones while the pool fits in the cap, so the steady state
+ * of a session does not go to malloc. The requests over the cap are still served, their buffers are freed on release. */
+public final class SlabPool {
+    /* the default cap of the native pool, slab_pool::default_cap_bytes */
+    public static final long DEFAULT_CAP_BYTES = 64L * 1024 * 1024;
+
+    /* number of values, must match slab_pool::snapshot_size */
+    static final int SIZE = 7;
+
+    private SlabPool() {}
+
+    /* A lower cap frees the kept buffers over it at once */
+    public static void setCap(long capBytes) {
+        externalSetCap(Math.max(capBytes, 0));
+    }
+
+    /* Frees all kept buffers, e.g. on onTrimMemory() */
+    public static void trim() {
+        externalTrim();
+    }
+
+    public static Stats getStats() {
+        long[] values = new long[SIZE];
+        externalGetStats(values);
+        return new Stats(values);
+    }
+
+    public static class Stats {
+        /* bytes of the buffers in use */
+        public final long liveBytes;
+        /* bytes of the buffers kept for reuse */
+        public final long freeBytes;
+        /* the maximum of the live and free bytes together */
+        public final long highWaterBytes;
+        public final long capBytes;
+        /* requests served with a kept buffer */
+        public final long hits;
+        /* requests which allocated a new buffer */
+        public final long misses;
+        /* requests which took the pool over the cap */
+        public final long overCap;
+
+        Stats(long[] values) {
+            this.liveBytes = values[0];
+            this.freeBytes = values[1];
+            this.highWaterBytes = values[2];
+            this.capBytes = values[3];
+            this.hits = values[4];
+            this.misses = values[5];
+            this.overCap = values[6];
+        }
+
+        @Override
+        public String toString() {
+            return "SlabPool{live=" + liveBytes + ", free=" + freeBytes + ", highWater=" + highWaterBytes
+                    + ", cap=" + capBytes + ", hits=" + hits + ", misses=" + misses + ", overCap=" + overCap + "}";
+        }
+    }
+
+    /* The functions below are implemented in c++ */
+    private static native boolean externalGetStats(long[] values);
+    private static native void externalSetCap(long capBytes);
+    private static native void externalTrim();
+
+    static {
+        System.loadLibrary("native-lib");
+    }
+}
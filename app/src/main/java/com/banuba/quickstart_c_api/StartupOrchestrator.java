@@ -0,0 +1,364 @@
+package com.banuba.quickstart_c_api;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/* Cold start of the effect player off the UI thread.
+ * SDK init, player creation, effect load and a warm-up frame run one after another on a background thread while the
+ * caller binds the camera in parallel. The warm-up frame goes through the whole render path and the output path
+ * the caller uses (the texture output, or the asynchronous read back into pooled frames), so the shaders of the effect
+ * are compiled, the read back worker is started and the buffers are allocated before the first camera frame arrives.
+ * Camera frames which arrive before the player is ready are dropped by the caller, see getPlayer().
+ * The start and the end of every phase are recorded relative to start(), the phases of the caller
+ * (camera binding, first frame) are recorded with beginPhase() and endPhase(). */
+public class StartupOrchestrator {
+    private static final String TAG = "StartupOrchestrator";
+    private static final long EFFECT_LOAD_TIMEOUT_MS = 10_000;
+    private static final long WARM_UP_TIMEOUT_MS = 2_000;
+    /* gray in any YUV format */
+    private static final byte WARM_UP_LEVEL = (byte) 0x80;
+
+    public enum Phase {
+        SDK_INIT,
+        PLAYER_CREATE,
+        EFFECT_LOAD,
+        WARM_UP,
+        /* recorded by the caller */
+        CAMERA_BIND,
+        /* from the moment the player is ready to the first delivered camera frame, recorded by the caller */
+        FIRST_FRAME
+    }
+
+    /* Offsets in nanoseconds from start(), -1 for the phases which have not started or finished yet */
+    public static final class Timings {
+        private final long[] mBegin;
+        private final long[] mEnd;
+
+        Timings(long[] begin, long[] end) {
+            mBegin = begin;
+            mEnd = end;
+        }
+
+        public long getBeginNanos(Phase phase) {
+            return mBegin[phase.ordinal()];
+        }
+
+        public long getEndNanos(Phase phase) {
+            return mEnd[phase.ordinal()];
+        }
+
+        public long getDurationNanos(Phase phase) {
+            long begin = getBeginNanos(phase);
+            long end = getEndNanos(phase);
+            return begin < 0 || end < 0 ? -1 : end - begin;
+        }
+
+        /* time to the first frame, or to the latest finished phase when there was no frame yet */
+        public long getTotalNanos() {
+            long total = -1;
+            for (long end : mEnd) {
+                total = Math.max(total, end);
+            }
+            return total;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (Phase phase : Phase.values()) {
+                long duration = getDurationNanos(phase);
+                if (duration >= 0) {
+                    builder.append(String.format("%s: %.1f ms (at %.1f ms), ", phase.name().toLowerCase(),
+                            duration / 1e6, getEndNanos(phase) / 1e6));
+                }
+            }
+            return builder.append(String.format("total: %.1f ms", getTotalNanos() / 1e6)).toString();
+        }
+    }
+
+    public interface Listener {
+        /* called on the executor given to whenReady() */
+        void onPlayerReady(OffscreenEffectPlayer player, Timings timings);
+
+        /* called on the executor given to whenReady(), the SDK is released */
+        void onStartupFailed(RuntimeException error);
+    }
+
+    private static final class Subscription {
+        final Listener listener;
+        final Executor executor;
+
+        Subscription(Listener listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+    }
+
+    private final String mResourcesPath;
+    private final String mClientToken;
+    private final int mWidth;
+    private final int mHeight;
+    private final String mEffectPath;
+    private final FormatPair mFormats;
+    private final boolean mTextureOutput;
+    private final int mReadbackFramesInFlight;
+
+    private final long[] mBegin = new long[Phase.values().length];
+    private final long[] mEnd = new long[Phase.values().length];
+    private long mStartNanos = 0;
+    private Thread mThread = null;
+    private OffscreenEffectPlayer mPlayer = null;
+    private RuntimeException mError = null;
+    private boolean mShutdown = false;
+    private final ArrayList<Subscription> mSubscriptions = new ArrayList<>();
+
+    /* formats are the input and output formats of the camera frames, effectPath may be null.
+     * textureOutput and readbackFramesInFlight are the output of the caller: OffscreenEffectPlayer.setTextureReadyCallback(),
+     * or OffscreenEffectPlayer.setAsyncReadback(readbackFramesInFlight) with setFrameReadyCallback(). */
+    public StartupOrchestrator(String resourcesPath, String clientToken, int width, int height, String effectPath, FormatPair formats,
+                               boolean textureOutput, int readbackFramesInFlight) {
+        mResourcesPath = resourcesPath;
+        mClientToken = clientToken;
+        mWidth = width;
+        mHeight = height;
+        mEffectPath = effectPath;
+        mFormats = formats;
+        mTextureOutput = textureOutput;
+        mReadbackFramesInFlight = readbackFramesInFlight;
+        Arrays.fill(mBegin, -1);
+        Arrays.fill(mEnd, -1);
+    }
+
+    /* Returns immediately, the startup runs on its own thread */
+    public synchronized void start() {
+        if (mThread != null) {
+            return;
+        }
+        mStartNanos = System.nanoTime();
+        mThread = new Thread(this::run, TAG);
+        mThread.start();
+    }
+
+    /* The listener is called once, right away when the startup has already finished */
+    public synchronized void whenReady(Executor executor, Listener listener) {
+        Subscription subscription = new Subscription(listener, executor);
+        mSubscriptions.add(subscription);
+        if (mPlayer != null || mError != null) {
+            dispatch(subscription, mPlayer, mError);
+        }
+    }
+
+    /* The listener is not called after this method returns when its executor runs on the calling thread */
+    public synchronized void removeListener(Listener listener) {
+        for (int i = mSubscriptions.size() - 1; i >= 0; --i) {
+            if (mSubscriptions.get(i).listener == listener) {
+                mSubscriptions.remove(i);
+            }
+        }
+    }
+
+    /* null until the player is created, loaded and warmed up */
+    public synchronized OffscreenEffectPlayer getPlayer() {
+        return mPlayer;
+    }
+
+    public synchronized boolean isReady() {
+        return mPlayer != null;
+    }
+
+    /* Only the first call for a phase is recorded, returns false for the following ones */
+    public synchronized boolean beginPhase(Phase phase) {
+        return record(mBegin, phase);
+    }
+
+    public synchronized boolean endPhase(Phase phase) {
+        return record(mEnd, phase);
+    }
+
+    public synchronized Timings getTimings() {
+        return new Timings(mBegin.clone(), mEnd.clone());
+    }
+
+    /* Destroys the player and releases the SDK. When the startup is still running they are released on the
+     * startup thread as soon as the current phase finishes, the listeners are not called. */
+    public void shutdown() {
+        OffscreenEffectPlayer player;
+        synchronized (this) {
+            if (mShutdown) {
+                return;
+            }
+            mShutdown = true;
+            mSubscriptions.clear();
+            player = mPlayer;
+            mPlayer = null;
+            if (player == null) {
+                /* the startup thread finds the flag, or the startup has failed and released the SDK itself */
+                return;
+            }
+        }
+        player.destroy();
+        OffscreenEffectPlayer.deinit();
+    }
+
+    private boolean record(long[] marks, Phase phase) {
+        if (marks[phase.ordinal()] >= 0 || mThread == null) {
+            return false;
+        }
+        marks[phase.ordinal()] = System.nanoTime() - mStartNanos;
+        return true;
+    }
+
+    private synchronized boolean isShutdown() {
+        return mShutdown;
+    }
+
+    private void run() {
+        OffscreenEffectPlayer player = null;
+        boolean initialized = false;
+        try {
+            beginPhase(Phase.SDK_INIT);
+            OffscreenEffectPlayer.init(mResourcesPath, mClientToken);
+            initialized = true;
+            endPhase(Phase.SDK_INIT);
+
+            if (!isShutdown()) {
+                beginPhase(Phase.PLAYER_CREATE);
+                player = new OffscreenEffectPlayer(mWidth, mHeight);
+                endPhase(Phase.PLAYER_CREATE);
+            }
+
+            if (!isShutdown() && mEffectPath != null) {
+                beginPhase(Phase.EFFECT_LOAD);
+                loadEffect(player);
+                endPhase(Phase.EFFECT_LOAD);
+            }
+
+            if (!isShutdown()) {
+                beginPhase(Phase.WARM_UP);
+                warmUp(player);
+                endPhase(Phase.WARM_UP);
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "startup failed", e);
+            release(player, initialized);
+            finish(null, e);
+            return;
+        }
+
+        if (!finish(player, null)) {
+            release(player, initialized);
+        }
+    }
+
+    private void loadEffect(OffscreenEffectPlayer player) {
+        CountDownLatch done = new CountDownLatch(1);
+        player.loadEffectAsync(mEffectPath, (effectPath, loaded) -> {
+            if (!loaded) {
+                Log.w(TAG, "failed to load effect " + effectPath);
+            }
+            done.countDown();
+        });
+        if (!await(done, EFFECT_LOAD_TIMEOUT_MS)) {
+            Log.w(TAG, "effect is still loading, the first frames will wait for it");
+        }
+    }
+
+    /* One gray frame in the camera layout (Y plane and interleaved chroma) through the output of the caller,
+     * the output is discarded. The output stays configured, the caller replaces only the callback. */
+    private void warmUp(OffscreenEffectPlayer player) {
+        int chromaWidth = (mWidth + 1) / 2;
+        int chromaHeight = (mHeight + 1) / 2;
+        OffscreenEffectPlayerImage image = new OffscreenEffectPlayerImage();
+        image.mImageZero = filledBuffer(mWidth * mHeight);
+        image.mImageFirst = filledBuffer(chromaWidth * 2 * chromaHeight);
+        ImageInfo info = image.mImageInfo;
+        info.setWidth(mWidth);
+        info.setHeight(mHeight);
+        info.setFormats(mFormats);
+        info.setPixelFormat(android.graphics.ImageFormat.YUV_420_888);
+        info.setPlane(0, mWidth, 1);
+        info.setPlane(1, chromaWidth * 2, 2);
+
+        if (mTextureOutput) {
+            player.setTextureReadyCallback(OutputTexture::release);
+        } else {
+            player.setAsyncReadback(mReadbackFramesInFlight);
+            player.setFrameReadyCallback(OutputFrame::release);
+        }
+        CountDownLatch done = new CountDownLatch(1);
+        player.setFrameCompletionListener(delivered -> done.countDown());
+        player.processImageAsync(image);
+        if (!await(done, WARM_UP_TIMEOUT_MS)) {
+            Log.w(TAG, "warm-up frame did not complete in " + WARM_UP_TIMEOUT_MS + " ms");
+        }
+        player.setFrameCompletionListener(null);
+    }
+
+    private static ByteBuffer filledBuffer(int size) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        for (int i = 0; i < size; ++i) {
+            buffer.put(i, WARM_UP_LEVEL);
+        }
+        return buffer;
+    }
+
+    private static boolean await(CountDownLatch latch, long timeoutMs) {
+        try {
+            return latch.await(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static void release(OffscreenEffectPlayer player, boolean initialized) {
+        if (player != null) {
+            player.destroy();
+        }
+        if (initialized) {
+            OffscreenEffectPlayer.deinit();
+        }
+    }
+
+    /* Returns false when the startup was shut down meanwhile, the caller releases the player then */
+    private boolean finish(OffscreenEffectPlayer player, RuntimeException error) {
+        ArrayList<Subscription> subscriptions;
+        synchronized (this) {
+            if (mShutdown) {
+                return false;
+            }
+            mPlayer = player;
+            mError = error;
+            if (player != null) {
+                record(mBegin, Phase.FIRST_FRAME);
+            }
+            subscriptions = new ArrayList<>(mSubscriptions);
+        }
+        for (Subscription subscription : subscriptions) {
+            dispatch(subscription, player, error);
+        }
+        return true;
+    }
+
+    private void dispatch(Subscription subscription, OffscreenEffectPlayer player, RuntimeException error) {
+        subscription.executor.execute(() -> {
+            /* the listener could be removed, or the startup shut down, after the task was posted */
+            synchronized (this) {
+                if (!mSubscriptions.remove(subscription)) {
+                    return;
+                }
+            }
+            if (error != null) {
+                subscription.listener.onStartupFailed(error);
+            } else {
+                subscription.listener.onPlayerReady(player, getTimings());
+            }
+        });
+    }
+}
@@ -0,0 +1,95 @@
+package com.banuba.quickstart_c_api.rendering;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Lock-free frame exchange between one producer (the OEP callback thread) and one consumer (the GL thread).
+ * There are three slots: the producer fills its back slot and swaps it with the middle one, the consumer
+ * swaps its front slot with the middle one only when the middle holds a frame it has not seen yet.
+ * Neither side ever waits, the consumer always gets the latest complete frame and a frame which was not
+ * taken in time is overwritten by the next one. */
+class FrameTripleBuffer {
+    static final int PLANES_MAX = 3;
+
+    static final class Slot {
+        final ByteBuffer[] planes = new ByteBuffer[PLANES_MAX];
+        /* 0 for the tightly packed rows */
+        final int[] rowStrides = new int[PLANES_MAX];
+        int width = 0;
+        int height = 0;
+        /* called when the planes are not needed anymore */
+        Runnable release = null;
+    }
+
+    /* index of the middle slot, the bit is set when it holds a new frame */
+    private static final int INDEX_MASK = 3;
+    private static final int NEW_FRAME_BIT = 4;
+
+    private final Slot[] mSlots = {new Slot(), new Slot(), new Slot()};
+    private final AtomicInteger mMiddle = new AtomicInteger(1);
+    /* owned by the producer */
+    private int mBack = 0;
+    /* owned by the consumer */
+    private int mFront = 2;
+
+    private final AtomicLong mProduced = new AtomicLong();
+    private final AtomicLong mConsumed = new AtomicLong();
+    private final AtomicLong mOverwritten = new AtomicLong();
+
+    /* Producer side. Must be called from one thread at a time. */
+    void publish(ByteBuffer[] planes, int width, int height, int[] rowStrides, Runnable release) {
+        Slot slot = mSlots[mBack];
+        int count = Math.min(planes.length, PLANES_MAX);
+        System.arraycopy(planes, 0, slot.planes, 0, count);
+        for (int i = 0; i < PLANES_MAX; ++i) {
+            if (i >= count) {
+                slot.planes[i] = null;
+            }
+            slot.rowStrides[i] = rowStrides != null && i < rowStrides.length ? rowStrides[i] : 0;
+        }
+        slot.width = width;
+        slot.height = height;
+        slot.release = release;
+
+        /* the atomic swap publishes the slot content to the consumer */
+        int previous = mMiddle.getAndSet(mBack | NEW_FRAME_BIT);
+        mBack = previous & INDEX_MASK;
+        mProduced.incrementAndGet();
+
+        if ((previous & NEW_FRAME_BIT) != 0) {
+            /* the consumer did not take the previous frame, it is dropped */
+            mOverwritten.incrementAndGet();
+            Slot dropped = mSlots[mBack];
+            Runnable dropRelease = dropped.release;
+            dropped.release = null;
+            if (dropRelease != null) {
+                dropRelease.run();
+            }
+        }
+    }
+
+    /* Consumer side. Returns the latest frame or null when no frame was published since the previous call.
+     * The returned slot stays valid until the next call. */
+    Slot acquire() {
+        if ((mMiddle.get() & NEW_FRAME_BIT) == 0) {
+            return null;
+        }
+        int previous = mMiddle.getAndSet(mFront);
+        mFront = previous & INDEX_MASK;
+        mConsumed.incrementAndGet();
+        return mSlots[mFront];
+    }
+
+    long getProducedCount() {
+        return mProduced.get();
+    }
+
+    long getConsumedCount() {
+        return mConsumed.get();
+    }
+
+    long getOverwrittenCount() {
+        return mOverwritten.get();
+    }
+}
@@ -1,8 +1,7 @@
 package com.banuba.quickstart_c_api.rendering;
 
-import android.opengl.GLES20;
+import android.opengl.GLES30;
 
-import java.nio.ByteBuffer;
 
 public class GL420Renderer extends GLRenderer {
     public GL420Renderer() {
@@ -48,13 +47,9 @@ public class GL420Renderer extends GLRenderer {
 
     void updateTextures() {
         for(int i = 0; i < mTexturesCount; ++i) {
-            mBuffers[i] = ByteBuffer.wrap(mImageDataPlanes.get(i));
             int width = (i == 0) ? mImageWidth : mImageWidth / 2;
             int height = (i == 0) ? mImageHeight : mImageHeight / 2;
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[i]);
-            GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + i);
-            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_LUMINANCE,
-                    width, height, 0, GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, mBuffers[i]);
+            uploadTexture(i, width, height, GLES30.GL_R8, GLES30.GL_RED, 1);
         }
     }
 }
@@ -0,0 +1,207 @@
+package com.banuba.quickstart_c_api.rendering;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Persistent cache of linked shader programs.
+ * The binary of a program (glGetProgramBinary) is stored in a file named by a hash of the shader sources and of the
+ * GL renderer and version strings, so an updated driver or another GPU never gets a foreign binary. The next time
+ * the same program is needed it is loaded with glProgramBinary instead of compiling and linking the sources.
+ * A binary rejected by the driver is deleted and the program is built from the sources.
+ * The cache is disabled until setDirectory() is called. The methods taking a program must be called on a thread
+ * with a current GL ES 3 context. */
+public final class GLProgramCache {
+    private static final String TAG = "GLProgramCache";
+    private static final int FILE_VERSION = 1;
+
+    private static volatile File sDirectory = null;
+    private static final AtomicLong sHits = new AtomicLong();
+    private static final AtomicLong sMisses = new AtomicLong();
+    private static final AtomicLong sRejected = new AtomicLong();
+
+    private GLProgramCache() {
+    }
+
+    /* e.g. new File(context.getCacheDir(), "gl_programs"), null disables the cache */
+    public static void setDirectory(File directory) {
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(TAG, "can not create " + directory);
+            directory = null;
+        }
+        sDirectory = directory;
+    }
+
+    public static boolean isEnabled() {
+        return sDirectory != null;
+    }
+
+    /* programs loaded from the binaries */
+    public static long getHitCount() {
+        return sHits.get();
+    }
+
+    /* programs built from the sources, including the rejected binaries */
+    public static long getMissCount() {
+        return sMisses.get();
+    }
+
+    /* binaries which the driver did not accept */
+    public static long getRejectedCount() {
+        return sRejected.get();
+    }
+
+    /* Key of the program for the current context, null when the cache is disabled */
+    static String key(String vertexShaderSource, String fragmentShaderSource) {
+        if (sDirectory == null) {
+            return null;
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            update(digest, GLES20.glGetString(GLES20.GL_RENDERER));
+            update(digest, GLES20.glGetString(GLES20.GL_VERSION));
+            update(digest, vertexShaderSource);
+            update(digest, fragmentShaderSource);
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest()) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    /* Returns the linked program, or 0 when there is no binary for the key or the driver rejected it */
+    static int load(String key) {
+        File file = file(key);
+        if (file == null) {
+            return 0;
+        }
+        if (!file.isFile()) {
+            sMisses.incrementAndGet();
+            report("miss");
+            return 0;
+        }
+        int format;
+        ByteBuffer binary;
+        try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+            if (input.readInt() != FILE_VERSION) {
+                throw new IOException("unknown file version");
+            }
+            format = input.readInt();
+            int length = input.readInt();
+            if (length <= 0 || length > file.length()) {
+                throw new IOException("invalid binary length");
+            }
+            byte[] data = new byte[length];
+            input.readFully(data);
+            binary = ByteBuffer.allocateDirect(length).order(ByteOrder.nativeOrder());
+            binary.put(data).flip();
+        } catch (IOException e) {
+            Log.w(TAG, "can not read " + file + ": " + e.getMessage());
+            reject(file);
+            return 0;
+        }
+
+        int program = GLES20.glCreateProgram();
+        if (program == 0) {
+            sMisses.incrementAndGet();
+            return 0;
+        }
+        GLES30.glProgramBinary(program, format, binary, binary.remaining());
+        final int[] status = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
+        if (status[0] == GLES20.GL_FALSE) {
+            GLES20.glDeleteProgram(program);
+            reject(file);
+            return 0;
+        }
+        sHits.incrementAndGet();
+        report("hit");
+        return program;
+    }
+
+    /* Called before glLinkProgram, so the driver keeps the binary of the program */
+    static void prepare(int program) {
+        if (sDirectory != null) {
+            GLES30.glProgramParameteri(program, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GLES20.GL_TRUE);
+        }
+    }
+
+    /* Stores the binary of the linked program, the errors are only logged */
+    static void store(String key, int program) {
+        File file = file(key);
+        if (file == null) {
+            return;
+        }
+        final int[] length = new int[1];
+        final int[] format = new int[1];
+        GLES20.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, length, 0);
+        if (length[0] <= 0) {
+            return;
+        }
+        ByteBuffer binary = ByteBuffer.allocateDirect(length[0]).order(ByteOrder.nativeOrder());
+        GLES30.glGetProgramBinary(program, length[0], length, 0, format, 0, binary);
+        if (length[0] <= 0) {
+            return;
+        }
+        byte[] data = new byte[length[0]];
+        binary.get(data);
+
+        /* written next to the final file and renamed, a reader never sees a partial binary */
+        File temporary = new File(file.getPath() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new FileOutputStream(temporary))) {
+            output.writeInt(FILE_VERSION);
+            output.writeInt(format[0]);
+            output.writeInt(data.length);
+            output.write(data);
+        } catch (IOException e) {
+            Log.w(TAG, "can not write " + temporary + ": " + e.getMessage());
+            temporary.delete();
+            return;
+        }
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+        }
+    }
+
+    private static File file(String key) {
+        File directory = sDirectory;
+        if (directory == null || key == null) {
+            return null;
+        }
+        return new File(directory, key + ".bin");
+    }
+
+    private static void reject(File file) {
+        sRejected.incrementAndGet();
+        sMisses.incrementAndGet();
+        file.delete();
+        report("rejected");
+    }
+
+    private static void report(String result) {
+        Log.d(TAG, result + ", hits: " + sHits.get() + ", misses: " + sMisses.get() + ", rejected: " + sRejected.get());
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        byte[] bytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+        /* the length separates the strings, "ab" + "c" and "a" + "bc" give different keys */
+        digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+        digest.update(bytes);
+    }
+}
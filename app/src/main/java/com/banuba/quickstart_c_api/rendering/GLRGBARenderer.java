@@ -1,8 +1,7 @@
 package com.banuba.quickstart_c_api.rendering;
 
-import android.opengl.GLES20;
+import android.opengl.GLES30;
 
-import java.nio.ByteBuffer;
 
 public class GLRGBARenderer extends GLRenderer {
     public GLRGBARenderer() {
@@ -37,10 +36,6 @@ public class GLRGBARenderer extends GLRenderer {
     }
 
     void updateTextures() {
-        mBuffers[0] = ByteBuffer.wrap(mImageDataPlanes.get(0));
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[0]);
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA,
-                mImageWidth, mImageHeight, 0, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, mBuffers[0]);
+        uploadTexture(0, mImageWidth, mImageHeight, GLES30.GL_RGBA8, GLES30.GL_RGBA, 4);
     }
 }
@@ -4,9 +4,11 @@ import android.opengl.GLES20;
 import android.opengl.GLES30;
 import android.opengl.GLSurfaceView;
 
+import com.banuba.quickstart_c_api.FrameTrace;
+import com.banuba.quickstart_c_api.ImagePlane;
+
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
-import java.util.ArrayList;
 import java.util.List;
 
 import javax.microedition.khronos.egl.EGLConfig;
@@ -23,6 +25,17 @@ public class GLRenderer implements GLSurfaceView.Renderer {
     public int mTexturesCount;
     public int[] mTextures;
 
+    /* texture storage, allocated once per size with glTexStorage2D */
+    private int[] mStorageWidth;
+    private int[] mStorageHeight;
+
+    /* pixel buffer objects for streaming upload, PBO_COUNT per texture used round-robin:
+     * while the driver copies one of them into the texture the next frame is written into another one */
+    private static final int PBO_COUNT = 2;
+    private int[] mPBO;
+    private int[] mPBOSize;
+    private int mPBOIndex = 0;
+
     /* vertex objects */
     final int vertLen = 4; /* Number of vertices */
     public int[] mVBO;
@@ -38,11 +51,16 @@ public class GLRenderer implements GLSurfaceView.Renderer {
             0.0f, 0.0f, 0.0f, 1.0f
     };
 
-    /* for image data */
-    List<byte[]>  mImageDataPlanes = new ArrayList<>();
+    /* for image data, published by drawImage() and taken by onDrawFrame() */
+    private final FrameTripleBuffer mFrames = new FrameTripleBuffer();
+    private FrameTripleBuffer.Slot mFrame = null;
+    private boolean mHasImage = false;
+
     public int mImageWidth = 0;
     public int mImageHeight = 0;
     public ByteBuffer [] mBuffers;
+    /* bytes between the rows of mBuffers, 0 for the tightly packed rows */
+    public int[] mRowStrides;
     public int mViewportWidth;
     public int mViewportHeight;
 
@@ -58,14 +76,40 @@ public class GLRenderer implements GLSurfaceView.Renderer {
     /* must be redefine in a child class */
     public void initUniforms() throws Exception {}
 
+    /* Takes the newest frame passed to drawImage(), returns false when there is no new one.
+     * A child class with another kind of input redefines it together with updateTextures() and releaseFrame(). */
+    boolean acquireFrame() {
+        mFrame = mFrames.acquire();
+        if (mFrame == null) {
+            return false;
+        }
+        System.arraycopy(mFrame.planes, 0, mBuffers, 0, mTexturesCount);
+        System.arraycopy(mFrame.rowStrides, 0, mRowStrides, 0, mTexturesCount);
+        mImageWidth = mFrame.width;
+        mImageHeight = mFrame.height;
+        return true;
+    }
+
+    /* called after updateTextures(), the acquired frame is not needed anymore */
+    void releaseFrame() {
+        Runnable release = mFrame.release;
+        mFrame.release = null;
+        mFrame = null;
+        if (release != null) {
+            release.run();
+        }
+    }
+
     @Override
     public void onSurfaceCreated(GL10 gl, EGLConfig config) {
         if (mIsCreated) {
             return;
         }
         mBuffers = new ByteBuffer[mTexturesCount];
+        mRowStrides = new int[mTexturesCount];
         generateVertexObjects();
         generateTextures();
+        generatePixelBuffers();
 
         try {
             mShaderProgram = new GLShaderProgram(VERTEX_SHADER_PROGRAM, FRAGMENT_SHADER_PROGRAM);
@@ -85,7 +129,24 @@ public class GLRenderer implements GLSurfaceView.Renderer {
 
     @Override
     public void onDrawFrame(GL10 gl) {
-        if (!mIsCreated || mImageDataPlanes.isEmpty()) {
+        if (!FrameTrace.beginSection("GLRenderer onDrawFrame")) {
+            drawFrame();
+            return;
+        }
+        try {
+            drawFrame();
+            FrameTrace.setCounter("GLRenderer frames overwritten", mFrames.getOverwrittenCount());
+        } finally {
+            FrameTrace.endSection();
+        }
+    }
+
+    private void drawFrame() {
+        if (!mIsCreated) {
+            return;
+        }
+        boolean hasNewImage = acquireFrame();
+        if (!hasNewImage && !mHasImage) {
             return;
         }
 
@@ -99,8 +160,14 @@ public class GLRenderer implements GLSurfaceView.Renderer {
         mShaderProgram.use();
         GLES30.glBindVertexArray(mVAO[0]);
 
-        /* update texture */
-        updateTextures();
+        /* update texture only when a new image arrived, the textures keep the previous one */
+        if (hasNewImage) {
+            updateTextures();
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, 0);
+            mPBOIndex = (mPBOIndex + 1) % PBO_COUNT;
+            mHasImage = true;
+            releaseFrame();
+        }
 
         /* set uniforms */
         setUniforms();
@@ -109,13 +176,19 @@ public class GLRenderer implements GLSurfaceView.Renderer {
         GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, vertLen);
 
         /* clear */
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        for(int i = mTexturesCount - 1; i >= 0; --i) {
+            GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + i);
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        }
         GLES30.glBindVertexArray(0);
         mShaderProgram.unuse();
     }
 
     private void setUniforms() {
+        /* the textures are bound on every draw, a redraw without a new image must not sample the unbound unit */
         for(int i = 0; i < mTexturesCount; ++i) {
+            GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + i);
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[i]);
             mShaderProgram.setUniformTexture(mUniformTextures[i], i);
         }
         mShaderProgram.setUniformMat4(mUniformMatrix, mMat4);
@@ -123,15 +196,102 @@ public class GLRenderer implements GLSurfaceView.Renderer {
 
     void generateTextures() {
         mTextures = new int[mTexturesCount];
+        mStorageWidth = new int[mTexturesCount];
+        mStorageHeight = new int[mTexturesCount];
         GLES20.glGenTextures(mTextures.length, mTextures, 0);
 
         for(int i = 0; i < mTexturesCount; ++i) {
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[i]);
-            GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
-            GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+            setTextureParameters(mTextures[i]);
         }
 
         GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        /* rows of the chroma planes are not always aligned to 4 bytes */
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+    }
+
+    private void setTextureParameters(int texture) {
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+    }
+
+    void generatePixelBuffers() {
+        mPBO = new int[mTexturesCount * PBO_COUNT];
+        mPBOSize = new int[mPBO.length];
+        GLES20.glGenBuffers(mPBO.length, mPBO, 0);
+    }
+
+    /* Uploads mBuffers[index] into mTextures[index], called by the child classes from updateTextures().
+     * internalFormat is a sized format (GL_R8, GL_RG8, GL_RGBA8) and format the matching client format.
+     * Padded rows (mRowStrides) are uploaded as they are with GL_UNPACK_ROW_LENGTH, there is no repack.
+     * The storage is immutable, so a new texture is created when the size changes. This first frame is
+     * uploaded directly from the client memory, the next ones are streamed through the pixel buffer objects. */
+    void uploadTexture(int index, int width, int height, int internalFormat, int format, int bytesPerPixel) {
+        ByteBuffer data = mBuffers[index];
+        int rowSize = width * bytesPerPixel;
+        int rowStride = mRowStrides[index] > rowSize ? mRowStrides[index] : rowSize;
+        /* the row length is counted in pixels, 0 means the rows are as long as the width */
+        int rowLength = rowStride != rowSize ? rowStride / bytesPerPixel : 0;
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + index);
+        GLES20.glPixelStorei(GLES30.GL_UNPACK_ROW_LENGTH, rowLength);
+        try {
+            if (mStorageWidth[index] != width || mStorageHeight[index] != height) {
+                allocateTextureStorage(index, width, height, internalFormat);
+                GLES30.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, 0);
+                GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width, height, format, GLES20.GL_UNSIGNED_BYTE, data);
+                return;
+            }
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[index]);
+
+            /* the last row is not padded */
+            int size = rowStride * (height - 1) + rowSize;
+            int pbo = index * PBO_COUNT + mPBOIndex;
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, mPBO[pbo]);
+            if (mPBOSize[pbo] != size) {
+                GLES30.glBufferData(GLES30.GL_PIXEL_UNPACK_BUFFER, size, null, GLES30.GL_STREAM_DRAW);
+                mPBOSize[pbo] = size;
+            }
+            /* the invalidate bit lets the driver give a fresh memory instead of waiting for the previous upload */
+            ByteBuffer mapped = (ByteBuffer) GLES30.glMapBufferRange(GLES30.GL_PIXEL_UNPACK_BUFFER, 0, size,
+                    GLES30.GL_MAP_WRITE_BIT | GLES30.GL_MAP_INVALIDATE_BUFFER_BIT);
+            if (mapped == null || data.remaining() < size) {
+                if (mapped != null) {
+                    GLES30.glUnmapBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER);
+                }
+                GLES30.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, 0);
+                GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width, height, format, GLES20.GL_UNSIGNED_BYTE, data);
+                return;
+            }
+            int position = data.position();
+            int limit = data.limit();
+            data.limit(position + size);
+            mapped.put(data);
+            data.limit(limit);
+            data.position(position);
+            if (!GLES30.glUnmapBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER)) {
+                /* the buffer content was lost, e.g. the surface was recreated */
+                GLES30.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, 0);
+                GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width, height, format, GLES20.GL_UNSIGNED_BYTE, data);
+                return;
+            }
+            /* the last argument is an offset in the bound pixel buffer */
+            GLES30.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width, height, format, GLES20.GL_UNSIGNED_BYTE, 0);
+        } finally {
+            GLES20.glPixelStorei(GLES30.GL_UNPACK_ROW_LENGTH, 0);
+        }
+    }
+
+    private void allocateTextureStorage(int index, int width, int height, int internalFormat) {
+        if (mStorageWidth[index] != 0) {
+            GLES20.glDeleteTextures(1, mTextures, index);
+            GLES20.glGenTextures(1, mTextures, index);
+            setTextureParameters(mTextures[index]);
+        } else {
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[index]);
+        }
+        GLES30.glTexStorage2D(GLES20.GL_TEXTURE_2D, 1, internalFormat, width, height);
+        mStorageWidth[index] = width;
+        mStorageHeight[index] = height;
     }
 
     public void generateVertexObjects() {
@@ -179,9 +339,49 @@ public class GLRenderer implements GLSurfaceView.Renderer {
     }
 
     public void drawImage(List<byte[]> imageDataPlanes, int width, int height) {
-        mImageDataPlanes = imageDataPlanes;
-        mImageWidth = width;
-        mImageHeight = height;
+        ByteBuffer[] planes = new ByteBuffer[imageDataPlanes.size()];
+        for (int i = 0; i < planes.length; ++i) {
+            planes[i] = ByteBuffer.wrap(imageDataPlanes.get(i));
+        }
+        drawImage(planes, width, height, null, null);
+    }
+
+    /* the planes of OffscreenEffectPlayer.DataReadyCallback, they keep their row strides */
+    public void drawImage(ImagePlane[] imagePlanes, int width, int height) {
+        ByteBuffer[] planes = new ByteBuffer[imagePlanes.length];
+        int[] rowStrides = new int[imagePlanes.length];
+        for (int i = 0; i < planes.length; ++i) {
+            planes[i] = imagePlanes[i].getBuffer();
+            rowStrides[i] = imagePlanes[i].getRowStride();
+        }
+        drawImage(planes, width, height, rowStrides, null);
+    }
+
+    /* The planes are kept until they are uploaded on the GL thread, after that onConsumed is called.
+     * onConsumed is also called when the image is replaced by a newer one before it was drawn.
+     * rowStrides are the bytes between the rows of the planes, null for the tightly packed planes.
+     * Never blocks, must not be called from several threads at the same time. */
+    public void drawImage(ByteBuffer[] planes, int width, int height, int[] rowStrides, Runnable onConsumed) {
+        mFrames.publish(planes, width, height, rowStrides, onConsumed);
+    }
+
+    public void drawImage(ByteBuffer[] planes, int width, int height, Runnable onConsumed) {
+        drawImage(planes, width, height, null, onConsumed);
+    }
+
+    /* frames passed to drawImage() */
+    public long getFramesProduced() {
+        return mFrames.getProducedCount();
+    }
+
+    /* frames uploaded and drawn by onDrawFrame() */
+    public long getFramesRendered() {
+        return mFrames.getConsumedCount();
+    }
+
+    /* frames replaced by a newer one before onDrawFrame() took them */
+    public long getFramesOverwritten() {
+        return mFrames.getOverwrittenCount();
     }
 
     /* destructor */
@@ -191,6 +391,7 @@ public class GLRenderer implements GLSurfaceView.Renderer {
             GLES20.glDeleteBuffers(mVBO.length, mVBO, 0);
             GLES30.glDeleteVertexArrays(mVAO.length, mVAO, 0);
             GLES20.glDeleteTextures(mTextures.length, mTextures, 0);
+            GLES20.glDeleteBuffers(mPBO.length, mPBO, 0);
             mShaderProgram = null;
         }
     }
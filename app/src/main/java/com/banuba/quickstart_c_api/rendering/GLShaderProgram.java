@@ -4,15 +4,34 @@ import android.opengl.GLES20;
 
 public class GLShaderProgram {
     private static final String TAG = "GLShaderProgram";
+    private static volatile boolean sValidationEnabled = false;
     private int mShaderProgram = 0;
 
+    /* glValidateProgram checks the program against the current GL state, which is not set up yet when the program
+     * is created, and it is slow on some drivers. It is meant for debugging only. */
+    public static void setValidationEnabled(boolean enabled) {
+        sValidationEnabled = enabled;
+    }
+
+    /* The program is loaded from GLProgramCache when possible, otherwise it is built from the sources and stored there */
     GLShaderProgram(String vertexShaderSource, String fragmentShaderSource) throws Exception {
+        String key = GLProgramCache.key(vertexShaderSource, fragmentShaderSource);
+        if (key != null) {
+            mShaderProgram = GLProgramCache.load(key);
+            if (mShaderProgram != 0) {
+                return;
+            }
+        }
+
         int vertexShaderObject = 0;
         int fragmentShaderObject = 0;
         try {
             vertexShaderObject = compileShaderObject(vertexShaderSource, GLES20.GL_VERTEX_SHADER);
             fragmentShaderObject = compileShaderObject(fragmentShaderSource, GLES20.GL_FRAGMENT_SHADER);
             mShaderProgram = linkShaderProgram(vertexShaderObject, fragmentShaderObject);
+            if (key != null) {
+                GLProgramCache.store(key, mShaderProgram);
+            }
         } catch (Exception e) {
             throw e;
         } finally {
@@ -91,9 +110,7 @@ public class GLShaderProgram {
 
         GLES20.glAttachShader(shaderProgram, vertexShaderObject);
         GLES20.glAttachShader(shaderProgram, fragmentShaderObject);
-        GLES20.glLinkProgram(shaderProgram);
-
-        // Link the program
+        GLProgramCache.prepare(shaderProgram);
         GLES20.glLinkProgram(shaderProgram);
 
         /* check link status */
@@ -107,11 +124,14 @@ public class GLShaderProgram {
         }
 
         /* validate program */
-        GLES20.glValidateProgram(shaderProgram);
-        GLES20.glGetProgramiv(shaderProgram, GLES20.GL_VALIDATE_STATUS, status, 0);
-        if(status[0] == GLES20.GL_FALSE) {
-            deleteShaderProgram(shaderProgram);
-            doThrow("Validate shader program error." );
+        if (sValidationEnabled) {
+            GLES20.glValidateProgram(shaderProgram);
+            GLES20.glGetProgramiv(shaderProgram, GLES20.GL_VALIDATE_STATUS, status, 0);
+            if(status[0] == GLES20.GL_FALSE) {
+                String errorMessage = GLES20.glGetProgramInfoLog(shaderProgram);
+                deleteShaderProgram(shaderProgram);
+                doThrow("Validate shader program error: " + errorMessage);
+            }
         }
         /* detach shader objects */
         GLES20.glDetachShader(shaderProgram, vertexShaderObject);
@@ -0,0 +1,118 @@
+package com.banuba.quickstart_c_api.rendering;
+
+import android.opengl.GLES20;
+
+import com.banuba.quickstart_c_api.OutputTexture;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/* Draws the texture rendered by the offscreen effect player directly, the image never leaves the GPU */
+public class GLTextureRenderer extends GLRenderer {
+    private final AtomicReference<OutputTexture> mPendingTexture = new AtomicReference<>();
+    private OutputTexture mTexture = null;
+    /* the texture sampled by the draws, it is released when the next one is bound */
+    private final AtomicReference<OutputTexture> mBoundTexture = new AtomicReference<>();
+
+    private final AtomicLong mProduced = new AtomicLong();
+    private final AtomicLong mRendered = new AtomicLong();
+    private final AtomicLong mOverwritten = new AtomicLong();
+
+    public GLTextureRenderer() {
+        super(1);
+        VERTEX_SHADER_PROGRAM =
+            "#version 300 es\n" +
+            "precision mediump float;\n" +
+            "layout (location = 0) in vec3 aPosition;\n" +
+            "layout (location = 1) in vec2 aTextureCoord;\n" +
+            "uniform mat4 uMatrix;\n" +
+            "out vec2 vTexCoord;\n" +
+            "void main() {\n" +
+                "gl_Position = vec4(aPosition, 1.0f) * uMatrix;\n" +
+                /* the offscreen render target is stored bottom-up, unlike the images read back from it */
+                "vTexCoord = vec2(aTextureCoord.x, 1.0f - aTextureCoord.y);\n" +
+            "}\n";
+
+        FRAGMENT_SHADER_PROGRAM =
+            "#version 300 es\n" +
+            "precision mediump float;\n" +
+            "uniform sampler2D uTexture;\n" +
+            "in vec2 vTexCoord;\n" +
+            "out vec4 outFragColor;\n" +
+            "void main() {\n" +
+                "outFragColor = vec4(texture(uTexture, vTexCoord).xyz, 1.0f);\n" +
+            "}\n";
+    }
+
+    public void initUniforms() throws Exception {
+        mUniformTextures = new int[mTexturesCount];
+        mUniformTextures[0] = mShaderProgram.getUniformLocation("uTexture");
+        mUniformMatrix = mShaderProgram.getUniformLocation("uMatrix");
+    }
+
+    /* Never blocks. A texture which was not drawn before the next one arrived is released. */
+    public void drawTexture(OutputTexture texture) {
+        mProduced.incrementAndGet();
+        OutputTexture dropped = mPendingTexture.getAndSet(texture);
+        if (dropped != null) {
+            mOverwritten.incrementAndGet();
+            dropped.release();
+        }
+    }
+
+    @Override
+    boolean acquireFrame() {
+        mTexture = mPendingTexture.getAndSet(null);
+        if (mTexture == null) {
+            return false;
+        }
+        mImageWidth = mTexture.getWidth();
+        mImageHeight = mTexture.getHeight();
+        mRendered.incrementAndGet();
+        return true;
+    }
+
+    @Override
+    void updateTextures() {
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        /* the GPU waits for the effect player to finish the frame, then samples its texture */
+        mTexture.bindTo(mTextures[0]);
+    }
+
+    @Override
+    void releaseFrame() {
+        /* the previous texture is no longer sampled, the draws issued so far are fenced before the player reuses it */
+        OutputTexture previous = mBoundTexture.getAndSet(mTexture);
+        if (previous != null) {
+            previous.release();
+        }
+        mTexture = null;
+    }
+
+    /* Gives the textures back to the player when the renderer is no longer used, can be called from any thread */
+    public void releaseTextures() {
+        OutputTexture pending = mPendingTexture.getAndSet(null);
+        if (pending != null) {
+            pending.release();
+        }
+        OutputTexture bound = mBoundTexture.getAndSet(null);
+        if (bound != null) {
+            bound.release();
+        }
+    }
+
+    @Override
+    public long getFramesProduced() {
+        return mProduced.get();
+    }
+
+    @Override
+    public long getFramesRendered() {
+        return mRendered.get();
+    }
+
+    @Override
+    public long getFramesOverwritten() {
+        return mOverwritten.get();
+    }
+}
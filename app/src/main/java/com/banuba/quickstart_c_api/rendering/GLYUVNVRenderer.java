@@ -1,7 +1,6 @@
 package com.banuba.quickstart_c_api.rendering;
 
-import android.opengl.GLES20;
-import java.nio.ByteBuffer;
+import android.opengl.GLES30;
 
 public class GLYUVNVRenderer extends GLRenderer {
 
@@ -29,7 +28,7 @@ public class GLYUVNVRenderer extends GLRenderer {
             "void main() {\n" +
                 "float y = texture(yTexture, vTexCoord).r;\n" +
                 "float u = texture(uvTexture, vTexCoord).r - 0.5;\n" +
-                "float v = texture(uvTexture, vTexCoord).a - 0.5;\n" +
+                "float v = texture(uvTexture, vTexCoord).g - 0.5;\n" +
                 "float r = y + 1.13983*v;\n" +
                 "float g = y - 0.39465*u - 0.58060*v;\n" +
                 "float b = y + 2.03211*u;\n" +
@@ -45,15 +44,8 @@ public class GLYUVNVRenderer extends GLRenderer {
     }
 
     void updateTextures() {
-        for(int i = 0; i < mTexturesCount; ++i) {
-            mBuffers[i] = ByteBuffer.wrap(mImageDataPlanes.get(i));
-            int width = (i == 0) ? mImageWidth : mImageWidth / 2;
-            int height = (i == 0) ? mImageHeight : mImageHeight / 2;
-            int format = (i == 0) ?GLES20.GL_LUMINANCE: GLES20.GL_LUMINANCE_ALPHA;
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[i]);
-            GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + i);
-            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, format,
-                    width, height, 0, format, GLES20.GL_UNSIGNED_BYTE, mBuffers[i]);
-        }
+        /* Y plane in a one channel texture, interleaved UV plane in a two channel texture */
+        uploadTexture(0, mImageWidth, mImageHeight, GLES30.GL_R8, GLES30.GL_RED, 1);
+        uploadTexture(1, mImageWidth / 2, mImageHeight / 2, GLES30.GL_RG8, GLES30.GL_RG, 2);
     }
 }
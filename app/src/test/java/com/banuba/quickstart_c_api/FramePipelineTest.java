@@ -0,0 +1,269 @@
+package com.banuba.quickstart_c_api;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FramePipelineTest {
+    /* Runs the drain tasks of the pipeline on the test thread, when the test asks for it */
+    private static class ManualExecutor implements Executor {
+        private final ArrayDeque<Runnable> mTasks = new ArrayDeque<>();
+
+        @Override
+        public synchronized void execute(Runnable task) {
+            mTasks.addLast(task);
+        }
+
+        void runAll() {
+            for (;;) {
+                Runnable task;
+                synchronized (this) {
+                    task = mTasks.pollFirst();
+                }
+                if (task == null) {
+                    return;
+                }
+                task.run();
+            }
+        }
+    }
+
+    /* Records the frames instead of submitting them to a player */
+    private static class FakeSink implements FramePipeline.FrameSink<Integer> {
+        final List<Integer> mProcessed = new ArrayList<>();
+        final List<Integer> mDiscarded = new ArrayList<>();
+        /* process() throws for this frame, like a player which is already destroyed */
+        Integer mFailing = null;
+
+        @Override
+        public synchronized void process(Integer frame) {
+            if (frame.equals(mFailing)) {
+                throw new IllegalStateException("process failed");
+            }
+            mProcessed.add(frame);
+        }
+
+        @Override
+        public synchronized void discard(Integer frame) {
+            mDiscarded.add(frame);
+        }
+
+        synchronized List<Integer> processed() {
+            return new ArrayList<>(mProcessed);
+        }
+
+        synchronized List<Integer> discarded() {
+            return new ArrayList<>(mDiscarded);
+        }
+    }
+
+    private final ManualExecutor mExecutor = new ManualExecutor();
+    private final FakeSink mSink = new FakeSink();
+
+    private FramePipeline<Integer> createPipeline(int maxInFlight, int queueCapacity, FramePipeline.DropPolicy dropPolicy) {
+        return new FramePipeline<>(mSink, maxInFlight, queueCapacity, dropPolicy, mExecutor);
+    }
+
+    @Test
+    public void inFlightCapLimitsProcessedFrames() {
+        FramePipeline<Integer> pipeline = createPipeline(2, 4, FramePipeline.DropPolicy.DROP_OLDEST);
+        for (int i = 0; i < 4; ++i) {
+            assertTrue(pipeline.offer(i));
+        }
+        mExecutor.runAll();
+        assertEquals(Arrays.asList(0, 1), mSink.processed());
+        assertEquals(2, pipeline.getInFlightCount());
+        assertEquals(2, pipeline.getQueuedCount());
+
+        /* a completed frame frees one slot */
+        pipeline.onFrameCompleted();
+        mExecutor.runAll();
+        assertEquals(Arrays.asList(0, 1, 2), mSink.processed());
+        assertEquals(2, pipeline.getInFlightCount());
+        assertEquals(1, pipeline.getQueuedCount());
+    }
+
+    @Test
+    public void dropOldestDiscardsTheOldestWaitingFrame() {
+        FramePipeline<Integer> pipeline = createPipeline(1, 2, FramePipeline.DropPolicy.DROP_OLDEST);
+        assertTrue(pipeline.offer(0));
+        assertTrue(pipeline.offer(1));
+        assertTrue(pipeline.offer(2));
+        assertEquals(Arrays.asList(0), mSink.discarded());
+
+        mExecutor.runAll();
+        pipeline.onFrameCompleted();
+        mExecutor.runAll();
+        assertEquals(Arrays.asList(1, 2), mSink.processed());
+    }
+
+    @Test
+    public void dropNewestDiscardsTheIncomingFrame() {
+        FramePipeline<Integer> pipeline = createPipeline(1, 2, FramePipeline.DropPolicy.DROP_NEWEST);
+        assertTrue(pipeline.offer(0));
+        assertTrue(pipeline.offer(1));
+        assertFalse(pipeline.offer(2));
+        assertEquals(Arrays.asList(2), mSink.discarded());
+
+        mExecutor.runAll();
+        pipeline.onFrameCompleted();
+        mExecutor.runAll();
+        assertEquals(Arrays.asList(0, 1), mSink.processed());
+    }
+
+    @Test
+    public void blockWaitsForRoomInTheQueue() throws InterruptedException {
+        final FramePipeline<Integer> pipeline = createPipeline(1, 1, FramePipeline.DropPolicy.BLOCK);
+        assertTrue(pipeline.offer(0));
+
+        final AtomicBoolean accepted = new AtomicBoolean();
+        Thread producer = new Thread(() -> accepted.set(pipeline.offer(1)));
+        producer.start();
+        producer.join(100);
+        assertTrue("offer() must wait while the queue is full", producer.isAlive());
+        assertEquals(1, pipeline.getQueuedCount());
+
+        /* the drain takes frame 0 out of the queue, the producer gets the room */
+        mExecutor.runAll();
+        producer.join(5000);
+        assertFalse(producer.isAlive());
+        assertTrue(accepted.get());
+        assertEquals(Arrays.asList(0), mSink.processed());
+        assertEquals(1, pipeline.getQueuedCount());
+        assertTrue(mSink.discarded().isEmpty());
+    }
+
+    @Test
+    public void shutdownReleasesABlockedProducer() throws InterruptedException {
+        final FramePipeline<Integer> pipeline = createPipeline(1, 1, FramePipeline.DropPolicy.BLOCK);
+        assertTrue(pipeline.offer(0));
+
+        final AtomicBoolean accepted = new AtomicBoolean(true);
+        Thread producer = new Thread(() -> accepted.set(pipeline.offer(1)));
+        producer.start();
+        producer.join(100);
+        assertTrue(producer.isAlive());
+
+        pipeline.shutdown();
+        producer.join(5000);
+        assertFalse(producer.isAlive());
+        assertFalse(accepted.get());
+        /* the producer discards its frame on its own thread, the order is not defined */
+        List<Integer> discarded = mSink.discarded();
+        Collections.sort(discarded);
+        assertEquals(Arrays.asList(0, 1), discarded);
+    }
+
+    @Test
+    public void countersTrackEveryFrame() {
+        FramePipeline<Integer> pipeline = createPipeline(1, 1, FramePipeline.DropPolicy.DROP_NEWEST);
+        pipeline.offer(0);
+        mExecutor.runAll();
+        pipeline.offer(1);
+        pipeline.offer(2);
+        pipeline.onFrameCompleted();
+        mExecutor.runAll();
+
+        assertEquals(3, pipeline.getOfferedCount());
+        assertEquals(2, pipeline.getSubmittedCount());
+        assertEquals(1, pipeline.getDroppedCount());
+        assertEquals(1, pipeline.getCompletedCount());
+        assertEquals(pipeline.getOfferedCount(), pipeline.getSubmittedCount() + pipeline.getDroppedCount());
+    }
+
+    @Test
+    public void frameWhoseProcessThrowsIsDiscarded() {
+        FramePipeline<Integer> pipeline = createPipeline(1, 2, FramePipeline.DropPolicy.DROP_OLDEST);
+        mSink.mFailing = 0;
+        pipeline.offer(0);
+        pipeline.offer(1);
+        try {
+            mExecutor.runAll();
+            fail("the exception of process() must reach the executor");
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(Arrays.asList(0), mSink.discarded());
+        assertEquals(0, pipeline.getInFlightCount());
+
+        /* the slot of the failed frame is free, the next one is processed */
+        mExecutor.runAll();
+        assertEquals(Arrays.asList(1), mSink.processed());
+        assertEquals(1, pipeline.getInFlightCount());
+        assertEquals(pipeline.getOfferedCount(), pipeline.getSubmittedCount() + pipeline.getDroppedCount());
+    }
+
+    @Test
+    public void frameWhoseProcessThrowsLeavesTheScheduler() {
+        FramePipeline<Integer> pipeline = createPipeline(1, 1, FramePipeline.DropPolicy.DROP_OLDEST);
+        /* with a budget of 1 ns the scheduler accepts a frame only when nothing is in flight */
+        AdaptiveFrameScheduler scheduler = new AdaptiveFrameScheduler(1);
+        pipeline.setScheduler(scheduler);
+        mSink.mFailing = 0;
+        long stamp = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(10);
+        assertTrue(pipeline.offer(0, stamp));
+        try {
+            mExecutor.runAll();
+            fail("the exception of process() must reach the executor");
+        } catch (IllegalStateException expected) {
+        }
+
+        assertTrue("the failed frame must not stay in flight in the scheduler", pipeline.offer(1, stamp));
+        mExecutor.runAll();
+        assertEquals(Arrays.asList(1), mSink.processed());
+        assertEquals(0, scheduler.getSkippedCount());
+    }
+
+    @Test
+    public void stampsFollowTheFramesToTheScheduler() {
+        FramePipeline<Integer> pipeline = createPipeline(1, 2, FramePipeline.DropPolicy.DROP_OLDEST);
+        AdaptiveFrameScheduler scheduler = new AdaptiveFrameScheduler(TimeUnit.SECONDS.toNanos(10));
+        pipeline.setScheduler(scheduler);
+        long now = System.nanoTime();
+        pipeline.offer(0, now - TimeUnit.MILLISECONDS.toNanos(300));
+        pipeline.offer(1, now - TimeUnit.MILLISECONDS.toNanos(200));
+        /* frame 0 is dropped, frame 1 is submitted with its own stamp */
+        pipeline.offer(2, now - TimeUnit.MILLISECONDS.toNanos(100));
+        mExecutor.runAll();
+        pipeline.onFrameCompleted();
+        assertEquals(Arrays.asList(1), mSink.processed());
+
+        long lead = scheduler.getAverageLeadTimeNanos();
+        assertTrue(lead >= TimeUnit.MILLISECONDS.toNanos(200) && lead < TimeUnit.MILLISECONDS.toNanos(300));
+        assertTrue(scheduler.getAverageLatencyNanos() >= lead);
+    }
+
+    @Test
+    public void shutdownDiscardsQueuedFrames() {
+        FramePipeline<Integer> pipeline = createPipeline(1, 4, FramePipeline.DropPolicy.DROP_OLDEST);
+        for (int i = 0; i < 3; ++i) {
+            pipeline.offer(i);
+        }
+        mExecutor.runAll();
+        assertEquals(Arrays.asList(0), mSink.processed());
+
+        pipeline.shutdown();
+        assertEquals(Arrays.asList(1, 2), mSink.discarded());
+        assertEquals(0, pipeline.getQueuedCount());
+
+        /* the frame in flight still completes, nothing new is processed */
+        pipeline.onFrameCompleted();
+        mExecutor.runAll();
+        assertFalse(pipeline.offer(3));
+        assertEquals(Arrays.asList(0), mSink.processed());
+        assertEquals(Arrays.asList(1, 2, 3), mSink.discarded());
+        assertEquals(3, pipeline.getDroppedCount());
+        assertTrue(pipeline.awaitIdle(0, TimeUnit.MILLISECONDS));
+    }
+}
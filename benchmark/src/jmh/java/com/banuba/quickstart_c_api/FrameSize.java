@@ -0,0 +1,39 @@
+package com.banuba.quickstart_c_api;
+
+/* Camera frame sizes used by the benchmarks, parsed from the "WIDTHxHEIGHT" parameter values */
+public final class FrameSize {
+    public static final String HD = "1280x720";
+    public static final String FULL_HD = "1920x1080";
+
+    public final int width;
+    public final int height;
+
+    private FrameSize(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    public static FrameSize parse(String value) {
+        int separator = value.indexOf('x');
+        return new FrameSize(Integer.parseInt(value.substring(0, separator)), Integer.parseInt(value.substring(separator + 1)));
+    }
+
+    /* NV12 luma plane */
+    public int ySize() {
+        return width * height;
+    }
+
+    /* NV12 interleaved chroma plane */
+    public int uvSize() {
+        return width * height / 2;
+    }
+
+    /* I420 chroma plane */
+    public int chromaSize() {
+        return width * height / 4;
+    }
+
+    public int rgbaSize() {
+        return width * height * 4;
+    }
+}
@@ -0,0 +1,103 @@
+package com.banuba.quickstart_c_api;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+/* Writing the frame description as MainActivity.updateImage does, and reading it back either from the packed
+ * descriptor (what native code does now) or field by field through reflection, the JVM counterpart of the
+ * former GetFieldID/GetIntField call per field and frame. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ImageInfoBenchmark {
+    /* field layout of the former ImageInfo, read by name on every frame */
+    public static class LegacyImageInfo {
+        public int width;
+        public int height;
+        public int rowStride0;
+        public int rowStride1;
+        public int rowStride2;
+        public int pixelStride0;
+        public int pixelStride1;
+        public int pixelStride2;
+        public int inputOrientation;
+        public int outputOrientation;
+        public int pixelFormat;
+        public int imageFormat;
+        public int requireMirroring;
+    }
+
+    private static final String[] LEGACY_FIELDS = {
+            "width", "height", "rowStride0", "rowStride1", "rowStride2", "pixelStride0", "pixelStride1", "pixelStride2",
+            "inputOrientation", "outputOrientation", "pixelFormat", "imageFormat", "requireMirroring"
+    };
+
+    /* android.graphics.ImageFormat.YUV_420_888 */
+    private static final int YUV_420_888 = 0x23;
+    /* the pair negotiated by MainActivity for the camera planes and the default renderer */
+    private static final FormatPair CAMERA_FORMATS = new FormatPair(ImageFormat.NV12, ImageFormat.RGB);
+
+    @Param({FrameSize.HD, FrameSize.FULL_HD})
+    public String resolution;
+
+    private FrameSize mSize;
+    private ImageInfo mInfo;
+    private LegacyImageInfo mLegacyInfo;
+    private int mFrame = 0;
+
+    @Setup
+    public void setup() {
+        mSize = FrameSize.parse(resolution);
+        mInfo = new ImageInfo();
+        mLegacyInfo = new LegacyImageInfo();
+        populate();
+        mLegacyInfo.width = mSize.width;
+        mLegacyInfo.height = mSize.height;
+        mLegacyInfo.rowStride0 = mSize.width;
+        mLegacyInfo.rowStride1 = mSize.width;
+        mLegacyInfo.pixelStride0 = 1;
+        mLegacyInfo.pixelStride1 = 2;
+    }
+
+    @Benchmark
+    public ImageInfo populate() {
+        ImageInfo info = mInfo;
+        int rotation = (mFrame++ & 3) * 90;
+        info.setWidth(mSize.width);
+        info.setHeight(mSize.height);
+        info.setInputOrientation(rotation);
+        info.setOutputOrientation(rotation);
+        info.setPixelFormat(YUV_420_888);
+        info.setRequireMirroring(true);
+        info.setFormats(CAMERA_FORMATS);
+        info.setPlane(0, mSize.width, 1);
+        info.setPlane(1, mSize.width, 2);
+        info.setPlane(2, mSize.width, 2);
+        return info;
+    }
+
+    @Benchmark
+    public void readPacked(Blackhole blackhole) {
+        for (int i = 0; i < ImageInfo.FIELDS_COUNT; ++i) {
+            blackhole.consume(mInfo.mDescriptor.getInt(i * Integer.BYTES));
+        }
+    }
+
+    @Benchmark
+    public void readReflective(Blackhole blackhole) throws ReflectiveOperationException {
+        for (String name : LEGACY_FIELDS) {
+            Field field = LegacyImageInfo.class.getField(name);
+            blackhole.consume(field.getInt(mLegacyInfo));
+        }
+    }
+}
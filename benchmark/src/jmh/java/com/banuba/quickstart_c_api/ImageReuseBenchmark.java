@@ -0,0 +1,73 @@
+package com.banuba.quickstart_c_api;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/* Per frame objects of the input and output paths: the reused OffscreenEffectPlayerImage against a new one
+ * per frame, and the pooled output frames against new direct buffers per frame. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ImageReuseBenchmark {
+    @Param({FrameSize.HD, FrameSize.FULL_HD})
+    public String resolution;
+
+    private FrameSize mSize;
+    private ByteBuffer mCameraY;
+    private ByteBuffer mCameraUV;
+    private OffscreenEffectPlayerImage mImage;
+    private OutputFramePool mPool;
+
+    @Setup
+    public void setup() {
+        mSize = FrameSize.parse(resolution);
+        mCameraY = ByteBuffer.allocateDirect(mSize.ySize());
+        mCameraUV = ByteBuffer.allocateDirect(mSize.uvSize());
+        mImage = new OffscreenEffectPlayerImage();
+        mPool = new OutputFramePool(OutputFramePool.DEFAULT_SIZE);
+    }
+
+    private OffscreenEffectPlayerImage fill(OffscreenEffectPlayerImage image) {
+        image.mImageInfo.setWidth(mSize.width);
+        image.mImageInfo.setHeight(mSize.height);
+        image.mImageInfo.setPlane(0, mSize.width, 1);
+        image.mImageInfo.setPlane(1, mSize.width, 2);
+        image.mImageZero = mCameraY;
+        image.mImageFirst = mCameraUV;
+        image.mImageSecond = mCameraUV;
+        return image;
+    }
+
+    @Benchmark
+    public OffscreenEffectPlayerImage reuseInputImage() {
+        return fill(mImage);
+    }
+
+    @Benchmark
+    public OffscreenEffectPlayerImage newInputImagePerFrame() {
+        return fill(new OffscreenEffectPlayerImage());
+    }
+
+    /* steady state of OffscreenEffectPlayer.acquireOutputFrame and OutputFrame.release */
+    @Benchmark
+    public OutputFrame pooledOutputFrame() {
+        OutputFrame frame = mPool.acquire(mSize.ySize(), mSize.uvSize(), 0);
+        frame.release();
+        return frame;
+    }
+
+    /* what the pool avoids: new direct planes for every output image */
+    @Benchmark
+    public ByteBuffer[] newOutputPlanesPerFrame() {
+        return new ByteBuffer[] {ByteBuffer.allocateDirect(mSize.ySize()), ByteBuffer.allocateDirect(mSize.uvSize())};
+    }
+}
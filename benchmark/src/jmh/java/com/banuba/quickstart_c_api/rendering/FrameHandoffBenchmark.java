@@ -0,0 +1,147 @@
+package com.banuba.quickstart_c_api.rendering;
+
+import com.banuba.quickstart_c_api.FrameSize;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/* GLRenderer.drawImage handoff: the triple buffer used by GLRenderer against a handoff under a monitor,
+ * like the one it replaced. The group benchmarks run the producer (OEP callback thread) and the consumer
+ * (GL thread) at the same time. */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FrameHandoffBenchmark {
+    /* the former handoff, kept here as the baseline */
+    static final class SynchronizedHandoff {
+        private final ByteBuffer[] mPendingPlanes = new ByteBuffer[FrameTripleBuffer.PLANES_MAX];
+        private final ByteBuffer[] mPlanes = new ByteBuffer[FrameTripleBuffer.PLANES_MAX];
+        private int mPendingWidth;
+        private int mPendingHeight;
+        private Runnable mPendingRelease;
+        private boolean mHasPendingImage;
+
+        void publish(ByteBuffer[] planes, int width, int height, Runnable release) {
+            Runnable dropped;
+            synchronized (this) {
+                dropped = mPendingRelease;
+                System.arraycopy(planes, 0, mPendingPlanes, 0, Math.min(planes.length, FrameTripleBuffer.PLANES_MAX));
+                mPendingWidth = width;
+                mPendingHeight = height;
+                mPendingRelease = release;
+                mHasPendingImage = true;
+            }
+            if (dropped != null) {
+                dropped.run();
+            }
+        }
+
+        int acquire() {
+            Runnable release;
+            int width;
+            synchronized (this) {
+                if (!mHasPendingImage) {
+                    return 0;
+                }
+                System.arraycopy(mPendingPlanes, 0, mPlanes, 0, FrameTripleBuffer.PLANES_MAX);
+                width = mPendingWidth + mPendingHeight;
+                release = mPendingRelease;
+                mPendingRelease = null;
+                mHasPendingImage = false;
+            }
+            if (release != null) {
+                release.run();
+            }
+            return width;
+        }
+    }
+
+    private static final Runnable NO_RELEASE = () -> {};
+
+    @Param({FrameSize.HD, FrameSize.FULL_HD})
+    public String resolution;
+
+    private FrameSize mSize;
+    private ByteBuffer[] mPlanes;
+    private int[] mRowStrides;
+    private FrameTripleBuffer mTripleBuffer;
+    private SynchronizedHandoff mSynchronized;
+
+    @Setup
+    public void setup() {
+        mSize = FrameSize.parse(resolution);
+        mPlanes = new ByteBuffer[] {ByteBuffer.allocateDirect(mSize.ySize()), ByteBuffer.allocateDirect(mSize.uvSize())};
+        /* NV12: the luma rows and the interleaved chroma rows are both width bytes */
+        mRowStrides = new int[] {mSize.width, mSize.width};
+        mTripleBuffer = new FrameTripleBuffer();
+        mSynchronized = new SynchronizedHandoff();
+    }
+
+    private static int consume(FrameTripleBuffer.Slot slot) {
+        if (slot == null) {
+            return 0;
+        }
+        Runnable release = slot.release;
+        slot.release = null;
+        if (release != null) {
+            release.run();
+        }
+        return slot.width + slot.height;
+    }
+
+    /* The state is per group, so the uncontended cases are groups of one thread */
+    @Benchmark
+    @Group("tripleBufferUncontended")
+    @GroupThreads(1)
+    public int tripleBufferUncontended() {
+        mTripleBuffer.publish(mPlanes, mSize.width, mSize.height, mRowStrides, NO_RELEASE);
+        return consume(mTripleBuffer.acquire());
+    }
+
+    @Benchmark
+    @Group("synchronizedUncontended")
+    @GroupThreads(1)
+    public int synchronizedUncontended() {
+        mSynchronized.publish(mPlanes, mSize.width, mSize.height, NO_RELEASE);
+        return mSynchronized.acquire();
+    }
+
+    @Benchmark
+    @Group("tripleBuffer")
+    @GroupThreads(1)
+    public void tripleBufferProducer() {
+        mTripleBuffer.publish(mPlanes, mSize.width, mSize.height, mRowStrides, NO_RELEASE);
+    }
+
+    @Benchmark
+    @Group("tripleBuffer")
+    @GroupThreads(1)
+    public int tripleBufferConsumer() {
+        return consume(mTripleBuffer.acquire());
+    }
+
+    @Benchmark
+    @Group("synchronized")
+    @GroupThreads(1)
+    public void synchronizedProducer() {
+        mSynchronized.publish(mPlanes, mSize.width, mSize.height, NO_RELEASE);
+    }
+
+    @Benchmark
+    @Group("synchronized")
+    @GroupThreads(1)
+    public int synchronizedConsumer() {
+        return mSynchronized.acquire();
+    }
+}
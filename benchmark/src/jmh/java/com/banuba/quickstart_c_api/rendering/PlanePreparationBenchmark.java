@@ -0,0 +1,74 @@
+package com.banuba.quickstart_c_api.rendering;
+
+import com.banuba.quickstart_c_api.FrameSize;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/* Preparation of the planes for the texture upload. The byte[] output is wrapped into heap buffers
+ * (GLRenderer.drawImage(List)) and copied by the driver or into the mapped pixel buffer, the pooled output
+ * is already in direct buffers. copyInto* measure the copy into the mapped buffer done by uploadTexture(). */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PlanePreparationBenchmark {
+    @Param({FrameSize.HD, FrameSize.FULL_HD})
+    public String resolution;
+
+    private List<byte[]> mArrayPlanes;
+    private ByteBuffer[] mDirectPlanes;
+    private ByteBuffer[] mWrappedPlanes;
+    /* stands for the memory returned by glMapBufferRange */
+    private ByteBuffer[] mMapped;
+
+    @Setup
+    public void setup() {
+        FrameSize size = FrameSize.parse(resolution);
+        mArrayPlanes = Arrays.asList(new byte[size.ySize()], new byte[size.uvSize()]);
+        mDirectPlanes = new ByteBuffer[] {ByteBuffer.allocateDirect(size.ySize()), ByteBuffer.allocateDirect(size.uvSize())};
+        mWrappedPlanes = wrapPlanes();
+        mMapped = new ByteBuffer[] {ByteBuffer.allocateDirect(size.ySize()), ByteBuffer.allocateDirect(size.uvSize())};
+    }
+
+    @Benchmark
+    public ByteBuffer[] wrapPlanes() {
+        ByteBuffer[] planes = new ByteBuffer[mArrayPlanes.size()];
+        for (int i = 0; i < planes.length; ++i) {
+            planes[i] = ByteBuffer.wrap(mArrayPlanes.get(i));
+        }
+        return planes;
+    }
+
+    @Benchmark
+    public ByteBuffer[] copyIntoMappedFromHeap() {
+        return copy(mWrappedPlanes);
+    }
+
+    @Benchmark
+    public ByteBuffer[] copyIntoMappedFromDirect() {
+        return copy(mDirectPlanes);
+    }
+
+    private ByteBuffer[] copy(ByteBuffer[] planes) {
+        for (int i = 0; i < planes.length; ++i) {
+            ByteBuffer data = planes[i];
+            ByteBuffer mapped = mMapped[i];
+            mapped.clear();
+            int position = data.position();
+            mapped.put(data);
+            data.position(position);
+        }
+        return mMapped;
+    }
+}